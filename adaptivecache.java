@@ -0,0 +1,467 @@
+package deviceinfo;
+
+import android.content.Context;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Byte-weighted in-memory cache whose size follows the device: {@link #recommendedBytes} derives the
+ * budget from the RAM, the system's low memory threshold, the Java heap limit and the year class,
+ * and {@link #attachTo(MemoryPressureMonitor)} shrinks the cache while MemAvailable is low and
+ * restores it once the pressure is gone. A cache sized for a flagship gets the app killed on a 1 GB
+ * phone, and one sized for the phone wastes the flagship.
+ * <p/>
+ * Eviction is segmented LRU: new entries go to a probation segment and move to the protected
+ * segment, 80% of the capacity, on their second hit. Entries read once, such as the images of a long
+ * scroll, only ever push out other probation entries, while the working set stays protected. Keys
+ * are spread over independently locked stripes, each evicting down to its share of the capacity, so
+ * that threads rarely contend. An entry larger than a share is still cached: its stripe keeps it and
+ * the other stripes evict until the whole cache is within the capacity again. Example usage:
+ * <p/>
+ * <pre>
+ *   AdaptiveCache&lt;String, byte[]&gt; cache = new AdaptiveCache&lt;&gt;(AdaptiveCache.recommendedBytes(context),
+ *           new AdaptiveCache.Weigher&lt;String, byte[]&gt;() {
+ *               public long weigh(String key, byte[] value) {
+ *                   return value.length;
+ *               }
+ *           });
+ *   cache.attachTo(memoryPressureMonitor);
+ * </pre>
+ */
+public final class AdaptiveCache<K, V> {
+    private static final long MB = 1024 * 1024;
+    private static final long MIN_BYTES = MB;
+    private static final int PROTECTED_PERCENT = 80;
+
+    /**
+     * Measures an entry.
+     */
+    public interface Weigher<K, V> {
+        /**
+         * @return Bytes the entry holds, at least 0. Must not change while it is cached.
+         */
+        long weigh(K key, V value);
+    }
+
+    private static final class Node<K, V> {
+        final K key;
+        V value;
+        long weight;
+        boolean isProtected;
+        Node<K, V> prev;
+        Node<K, V> next;
+
+        Node(K key) {
+            this.key = key;
+        }
+    }
+
+    /**
+     * One lock's share of the cache: a map and the two segments, most recently used at the head.
+     */
+    private static final class Stripe<K, V> {
+        final HashMap<K, Node<K, V>> map = new HashMap<>();
+        final Node<K, V> probation = newList();
+        final Node<K, V> protect = newList();
+        long maxBytes;
+        long residentBytes;
+        long protectedBytes;
+        long hits;
+        long misses;
+        long evictions;
+
+        private static <K, V> Node<K, V> newList() {
+            Node<K, V> head = new Node<>(null);
+            head.prev = head;
+            head.next = head;
+            return head;
+        }
+    }
+
+    private final Weigher<? super K, ? super V> weigher;
+    private final Stripe<K, V>[] stripes;
+    private final AtomicLong residentBytes = new AtomicLong();
+    private final AtomicInteger evictCursor = new AtomicInteger();
+    private volatile long maxBytes;
+    private volatile int pressurePercent = 100;
+    private MemoryPressureMonitor.Listener pressureListener;
+    private MemoryPressureMonitor pressureMonitor;
+
+    public AdaptiveCache(long maxBytes, Weigher<? super K, ? super V> weigher) {
+        this(maxBytes, Runtime.getRuntime().availableProcessors() * 2, weigher);
+    }
+
+    /**
+     * @param stripes - Independent locks, rounded up to a power of two, at most 64. More stripes mean
+     *                less contention but a coarser split of the capacity.
+     */
+    @SuppressWarnings("unchecked")
+    public AdaptiveCache(long maxBytes, int stripes, Weigher<? super K, ? super V> weigher) {
+        if (weigher == null) throw new NullPointerException("weigher");
+        int count = Integer.highestOneBit(Math.max(1, Math.min(stripes, 64)) * 2 - 1);
+        this.weigher = weigher;
+        this.stripes = (Stripe<K, V>[]) new Stripe<?, ?>[count];
+        for (int i = 0; i < count; i++) {
+            this.stripes[i] = new Stripe<>();
+        }
+        setMaxBytes(maxBytes);
+    }
+
+    /**
+     * Cache budget for a device, in bytes of Java heap: a share of the heap limit that grows with the
+     * year class, from an eighth for 2012 and older devices to a quarter from 2016 on, capped at a
+     * sixteenth of the RAM left above four times the low memory threshold so that low-RAM devices
+     * keep room for the rest of the system.
+     *
+     * @param totalMemory  - Total RAM, or DEVICEINFO_UNKNOWN.
+     * @param memThreshold - Low memory threshold, or DEVICEINFO_UNKNOWN.
+     * @param maxHeap      - {@code Runtime.maxMemory()}.
+     * @param yearClass    - The year class, or CLASS_UNKNOWN to size like a 2012 device.
+     * @return The budget, at least 1MB.
+     */
+    public static long recommendedBytes(long totalMemory, long memThreshold, long maxHeap, int yearClass) {
+        long budget;
+        if (yearClass >= 2016) {
+            budget = maxHeap / 4;
+        } else if (yearClass >= 2013) {
+            budget = maxHeap / 6;
+        } else {
+            budget = maxHeap / 8;
+        }
+        if (totalMemory > 0) {
+            long headroom = totalMemory - 4 * Math.max(0, memThreshold);
+            budget = Math.min(budget, Math.max(0, headroom) / 16);
+        }
+        return Math.max(MIN_BYTES, budget);
+    }
+
+    /**
+     * Budget for this device, see {@link #recommendedBytes(long, long, long, int)}. The year class
+     * only counts once it is known, for example after {@link DeviceInfo#prewarm(Context)}.
+     */
+    public static long recommendedBytes(Context c) {
+        return recommendedBytes(DeviceInfo.getTotalMemory(c), DeviceInfo.getMemThreshold(c),
+                Runtime.getRuntime().maxMemory(), DeviceInfo.getYearIfReady());
+    }
+
+    /**
+     * @return The cached value, or null. A hit promotes the entry.
+     */
+    public V get(K key) {
+        Stripe<K, V> stripe = stripeOf(key);
+        synchronized (stripe) {
+            Node<K, V> node = stripe.map.get(key);
+            if (node == null) {
+                stripe.misses++;
+                return null;
+            }
+            stripe.hits++;
+            if (node.isProtected) {
+                unlink(node);
+                linkFirst(stripe.protect, node);
+            } else {
+                promote(stripe, node);
+            }
+            return node.value;
+        }
+    }
+
+    /**
+     * Adds or replaces an entry. An entry larger than the capacity in effect is not cached, and a
+     * previous value under the key is removed.
+     *
+     * @return The previous value, or null.
+     */
+    public V put(K key, V value) {
+        if (key == null || value == null) throw new NullPointerException();
+        long weight = weigher.weigh(key, value);
+        if (weight < 0) throw new IllegalArgumentException("negative weight");
+        Stripe<K, V> stripe = stripeOf(key);
+        V previous = null;
+        synchronized (stripe) {
+            Node<K, V> node = stripe.map.get(key);
+            if (node != null) {
+                previous = node.value;
+                remove(stripe, node);
+            }
+            if (weight > getEffectiveMaxBytes()) return previous;
+            node = new Node<>(key);
+            node.value = value;
+            node.weight = weight;
+            stripe.map.put(key, node);
+            linkFirst(stripe.probation, node);
+            stripe.residentBytes += weight;
+            residentBytes.addAndGet(weight);
+            evict(stripe, stripe.maxBytes, node);
+        }
+        // Only a stripe that kept an entry larger than its share takes the cache past the capacity.
+        evictOthers(stripe);
+        return previous;
+    }
+
+    /**
+     * @return The removed value, or null.
+     */
+    public V remove(K key) {
+        Stripe<K, V> stripe = stripeOf(key);
+        synchronized (stripe) {
+            Node<K, V> node = stripe.map.get(key);
+            if (node == null) return null;
+            remove(stripe, node);
+            return node.value;
+        }
+    }
+
+    public void clear() {
+        for (Stripe<K, V> stripe : stripes) {
+            synchronized (stripe) {
+                evict(stripe, 0, null);
+            }
+        }
+    }
+
+    /**
+     * Changes the capacity; a smaller one evicts at once.
+     */
+    public void setMaxBytes(long maxBytes) {
+        if (maxBytes < 0) throw new IllegalArgumentException("maxBytes must not be negative");
+        this.maxBytes = maxBytes;
+        applyCapacity();
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @return The capacity in effect, lower than {@link #getMaxBytes()} under memory pressure.
+     */
+    public long getEffectiveMaxBytes() {
+        return maxBytes / 100 * pressurePercent;
+    }
+
+    /**
+     * Evicts, least valuable first, until at most bytes are cached. The capacity stays as it is, so
+     * the cache fills up again.
+     */
+    public void trimTo(long bytes) {
+        long perStripe = bytes / stripes.length;
+        for (Stripe<K, V> stripe : stripes) {
+            synchronized (stripe) {
+                evict(stripe, perStripe, null);
+            }
+        }
+    }
+
+    /**
+     * Shrinks the cache to half its capacity at {@link MemoryPressureMonitor.Level#MODERATE}, to a
+     * tenth at CRITICAL, and restores it when the level is NORMAL again. Trimming runs on the
+     * monitor's thread. A cache follows one monitor at a time, attaching detaches it from the
+     * previous one.
+     */
+    public synchronized void attachTo(MemoryPressureMonitor monitor) {
+        if (pressureListener == null) {
+            pressureListener = new MemoryPressureMonitor.Listener() {
+                @Override
+                public void onMemoryPressure(MemoryPressureMonitor.Level level, MemoryPressureMonitor m) {
+                    onPressure(level);
+                }
+            };
+        }
+        if (pressureMonitor != null && pressureMonitor != monitor) pressureMonitor.removeListener(pressureListener);
+        pressureMonitor = monitor;
+        monitor.addListener(pressureListener);
+        onPressure(monitor.getLevel());
+    }
+
+    /**
+     * Stops following the monitor and restores the full capacity. Does nothing if the cache is not
+     * attached to it.
+     */
+    public synchronized void detachFrom(MemoryPressureMonitor monitor) {
+        if (pressureMonitor != monitor) return;
+        monitor.removeListener(pressureListener);
+        pressureMonitor = null;
+        onPressure(MemoryPressureMonitor.Level.NORMAL);
+    }
+
+    /**
+     * Applies a memory level directly, for apps that get it elsewhere such as from
+     * {@code onTrimMemory}.
+     */
+    public void onPressure(MemoryPressureMonitor.Level level) {
+        switch (level) {
+            case CRITICAL:
+                pressurePercent = 10;
+                break;
+            case MODERATE:
+                pressurePercent = 50;
+                break;
+            default:
+                pressurePercent = 100;
+                break;
+        }
+        applyCapacity();
+    }
+
+    public int getEntryCount() {
+        int count = 0;
+        for (Stripe<K, V> stripe : stripes) {
+            synchronized (stripe) {
+                count += stripe.map.size();
+            }
+        }
+        return count;
+    }
+
+    public long getResidentBytes() {
+        return residentBytes.get();
+    }
+
+    public long getHitCount() {
+        long hits = 0;
+        for (Stripe<K, V> stripe : stripes) {
+            synchronized (stripe) {
+                hits += stripe.hits;
+            }
+        }
+        return hits;
+    }
+
+    public long getMissCount() {
+        long misses = 0;
+        for (Stripe<K, V> stripe : stripes) {
+            synchronized (stripe) {
+                misses += stripe.misses;
+            }
+        }
+        return misses;
+    }
+
+    /**
+     * @return Hits per lookup from 0 to 1, or 0 before the first lookup.
+     */
+    public float getHitRate() {
+        long hits = getHitCount();
+        long lookups = hits + getMissCount();
+        return lookups == 0 ? 0 : (float) hits / lookups;
+    }
+
+    /**
+     * @return Entries removed to stay within the capacity, including trims under memory pressure.
+     */
+    public long getEvictionCount() {
+        long evictions = 0;
+        for (Stripe<K, V> stripe : stripes) {
+            synchronized (stripe) {
+                evictions += stripe.evictions;
+            }
+        }
+        return evictions;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "AdaptiveCache[%d entries, %d/%d bytes, hit rate %.2f, %d evictions]",
+                getEntryCount(), getResidentBytes(), getEffectiveMaxBytes(), getHitRate(), getEvictionCount());
+    }
+
+    private void applyCapacity() {
+        long perStripe = getEffectiveMaxBytes() / stripes.length;
+        for (Stripe<K, V> stripe : stripes) {
+            synchronized (stripe) {
+                // A growing share keeps the entries larger than the share the stripe holds.
+                if (perStripe < stripe.maxBytes) evict(stripe, perStripe, null);
+                stripe.maxBytes = perStripe;
+            }
+        }
+        evictOthers(null);
+    }
+
+    private Stripe<K, V> stripeOf(Object key) {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        return stripes[(h * 0x9E3779B9 >>> 16) & (stripes.length - 1)];
+    }
+
+    /**
+     * Moves a probation entry to the protected segment, demoting the protected tail while that
+     * segment is over its share.
+     */
+    private static <K, V> void promote(Stripe<K, V> stripe, Node<K, V> node) {
+        unlink(node);
+        node.isProtected = true;
+        linkFirst(stripe.protect, node);
+        stripe.protectedBytes += node.weight;
+        long protectedMax = stripe.maxBytes / 100 * PROTECTED_PERCENT;
+        while (stripe.protectedBytes > protectedMax && stripe.protect.prev != node) {
+            Node<K, V> demoted = stripe.protect.prev;
+            unlink(demoted);
+            demoted.isProtected = false;
+            stripe.protectedBytes -= demoted.weight;
+            linkFirst(stripe.probation, demoted);
+        }
+    }
+
+    /**
+     * Evicts from the probation tail, then from the protected tail, until at most bytes remain.
+     *
+     * @param keep - Entry just added, evicted by no one but the other stripes, or null.
+     */
+    private void evict(Stripe<K, V> stripe, long bytes, Node<K, V> keep) {
+        while (stripe.residentBytes > bytes) {
+            Node<K, V> victim = stripe.probation.prev;
+            // The new entry is the probation head, so it is the tail only when it is alone there.
+            if (victim == keep) victim = stripe.protect.prev;
+            if (victim == stripe.probation) victim = stripe.protect.prev;
+            if (victim == stripe.protect) break;
+            remove(stripe, victim);
+            stripe.evictions++;
+        }
+    }
+
+    /**
+     * Evicts the least valuable entry of one stripe after the other, skipping except, until the
+     * cache is within the capacity in effect. Takes one stripe lock at a time.
+     */
+    private void evictOthers(Stripe<K, V> except) {
+        int idle = 0;
+        while (residentBytes.get() > getEffectiveMaxBytes() && idle < stripes.length) {
+            Stripe<K, V> stripe = stripes[evictCursor.getAndIncrement() & (stripes.length - 1)];
+            boolean evicted = false;
+            if (stripe != except) {
+                synchronized (stripe) {
+                    long before = stripe.residentBytes;
+                    evict(stripe, before - 1, null);
+                    evicted = stripe.residentBytes < before;
+                }
+            }
+            idle = evicted ? 0 : idle + 1;
+        }
+    }
+
+    private void remove(Stripe<K, V> stripe, Node<K, V> node) {
+        unlink(node);
+        stripe.map.remove(node.key);
+        stripe.residentBytes -= node.weight;
+        residentBytes.addAndGet(-node.weight);
+        if (node.isProtected) stripe.protectedBytes -= node.weight;
+    }
+
+    private static <K, V> void linkFirst(Node<K, V> head, Node<K, V> node) {
+        node.prev = head;
+        node.next = head.next;
+        head.next.prev = node;
+        head.next = node;
+    }
+
+    private static <K, V> void unlink(Node<K, V> node) {
+        node.prev.next = node.next;
+        node.next.prev = node.prev;
+        node.prev = null;
+        node.next = null;
+    }
+}
@@ -0,0 +1,119 @@
+package deviceinfo;
+
+import android.annotation.TargetApi;
+import android.app.ActivityManager;
+import android.content.Context;
+import android.os.Build;
+import android.os.Environment;
+import android.os.StatFs;
+
+import org.askquickly.utils.StorageSnapshot;
+
+import java.io.File;
+import java.util.Properties;
+
+/**
+ * {@link DevicePlatform} of the running device. {@link ActivityManager#getMemoryInfo} and the
+ * {@link StatFs} of {@link StorageSnapshot#volumeOf(File, String)} are called once, on the first
+ * value that needs them, and timed by {@link ProbeStats}.
+ */
+public final class AndroidPlatform implements DevicePlatform {
+    private final Context context;
+    private ActivityManager.MemoryInfo memInfo;
+    private long storageTotal = DeviceInfo.DEVICEINFO_UNKNOWN;
+    private long storageAvailable = DeviceInfo.DEVICEINFO_UNKNOWN;
+    private boolean storageRead;
+
+    public AndroidPlatform(Context c) {
+        this.context = c;
+    }
+
+    @Override
+    public String[] getAbis() {
+        return readAbis();
+    }
+
+    /**
+     * @return totalMem, or DEVICEINFO_UNKNOWN before Jelly Bean, which does not have it.
+     */
+    @Override
+    public synchronized long getTotalMemory() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) return DeviceInfo.DEVICEINFO_UNKNOWN;
+        return memoryInfo().totalMem;
+    }
+
+    @Override
+    public synchronized long getMemThreshold() {
+        return memoryInfo().threshold;
+    }
+
+    @Override
+    public synchronized long getStorageTotalBytes() {
+        readStorage();
+        return storageTotal;
+    }
+
+    @Override
+    public synchronized long getStorageAvailableBytes() {
+        readStorage();
+        return storageAvailable;
+    }
+
+    /**
+     * @return The Build values and memory classes that {@link DeviceBundle} records next to the
+     * {@link DevicePlatform} values.
+     */
+    public Properties getBuildProperties() {
+        Properties properties = new Properties();
+        properties.setProperty("sdk", String.valueOf(Build.VERSION.SDK_INT));
+        properties.setProperty("fingerprint", String.valueOf(Build.FINGERPRINT));
+        properties.setProperty("manufacturer", String.valueOf(Build.MANUFACTURER));
+        properties.setProperty("model", String.valueOf(Build.MODEL));
+        properties.setProperty("kernel", String.valueOf(System.getProperty("os.version")));
+        ActivityManager am = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        properties.setProperty("availMem", String.valueOf(memoryInfo().availMem));
+        properties.setProperty("memoryClass", String.valueOf(am.getMemoryClass()));
+        properties.setProperty("largeMemoryClass", String.valueOf(am.getLargeMemoryClass()));
+        return properties;
+    }
+
+    private synchronized ActivityManager.MemoryInfo memoryInfo() {
+        if (memInfo == null) {
+            ActivityManager.MemoryInfo info = new ActivityManager.MemoryInfo();
+            ActivityManager am = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+            long start = ProbeStats.start();
+            am.getMemoryInfo(info);
+            ProbeStats.end(ProbeStats.MEMORY_INFO, start, ProbeStats.OK);
+            memInfo = info;
+        }
+        return memInfo;
+    }
+
+    private void readStorage() {
+        if (storageRead) return;
+        storageRead = true;
+        File dataDir = Environment.getDataDirectory();
+        long start = ProbeStats.start();
+        try {
+            StorageSnapshot.Volume volume = StorageSnapshot.volumeOf(dataDir, StorageSnapshot.KIND_INTERNAL);
+            storageTotal = volume.getTotalBytes();
+            storageAvailable = volume.getAvailableBytes();
+            ProbeStats.end(ProbeStats.STATFS, start, ProbeStats.OK);
+        } catch (IllegalArgumentException e) {
+            //StatFs throws on an unreadable path, keep the unknown values.
+            ProbeStats.failed(ProbeStats.STATFS, start, dataDir.getPath(), e);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    @SuppressWarnings("deprecation")
+    static String[] readAbis() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            return Build.SUPPORTED_ABIS.clone();
+        }
+        if (Build.CPU_ABI2 == null || Build.CPU_ABI2.length() == 0) {
+            return new String[]{Build.CPU_ABI};
+        }
+        return new String[]{Build.CPU_ABI, Build.CPU_ABI2};
+    }
+}
@@ -0,0 +1,796 @@
+package deviceinfo;
+
+import java.io.BufferedOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Classifies device specs in bulk, for backend analytics over the specs a fleet reported with
+ * {@link DeviceInfo#getDeviceSpec}. Reads CSV or JSON lines and writes one line per input row with
+ * the id, the year and the class, in input order:
+ * <pre>
+ *   id,year,class                                  {"id":"a1","year":2018,"class":"HIGH"}
+ *   a1,2018,HIGH
+ * </pre>
+ * Fields, all optional except that a row without any classifies as -1 with an empty class:
+ * {@code id}, {@code cores}, {@code max_freq_khz}, {@code total_ram_bytes} or {@code ram_mb},
+ * {@code clusters}, {@code gles} (major * 10 + minor), {@code storage_write_mbps}, {@code int_mops},
+ * {@code float_mflops}, {@code bandwidth_mbps}, {@code loads_per_us}, {@code scaling_pct} and
+ * {@code core_part} (decimal, e.g. 269636 for 0x41d44). A CSV
+ * input starts with a header naming its columns and writes clusters as {@code cores:kHz:capacity}
+ * separated by {@code ;}; JSON lines are flat objects as {@link DeviceSpec#toString()} writes them,
+ * with clusters as an array of {@code [cores, kHz, capacity]}. Unknown fields are ignored, the id is
+ * copied to the output as it was written.
+ * <p/>
+ * The input is read in blocks of complete lines. The rows of a block are parsed into primitive
+ * columns, classified and formatted in parallel on a fork-join pool, one chunk of lines per task,
+ * and the chunks are written in order, so nothing is allocated per row and the work scales with the
+ * cores. Rows that cannot be parsed are written as -1 and counted in {@link #getErrorCount()}.
+ * <p/>
+ * This class does not depend on Android. From the command line:
+ * <pre>
+ *   java -cp deviceinfo.jar deviceinfo.BatchClassifier [--rules yearclass_rules.txt]
+ *           [--format csv|jsonl] [--threads n] [input [output]]
+ * </pre>
+ * The format defaults to the extension of the input, standard input and output are used without
+ * files.
+ */
+public final class BatchClassifier {
+    public enum Format {CSV, JSONL}
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int MAX_CLUSTERS = 8;
+    private static final int CHUNK_LINES = 2048;
+
+    // Fields, in the order of FIELD_NAMES.
+    private static final int F_ID = 0;
+    private static final int F_CORES = 1;
+    private static final int F_MAX_FREQ_KHZ = 2;
+    private static final int F_TOTAL_RAM_BYTES = 3;
+    private static final int F_RAM_MB = 4;
+    private static final int F_CLUSTERS = 5;
+    private static final int F_GLES = 6;
+    private static final int F_STORAGE_WRITE_MBPS = 7;
+    private static final int F_INT_MOPS = 8;
+    private static final int F_FLOAT_MFLOPS = 9;
+    private static final int F_BANDWIDTH_MBPS = 10;
+    private static final int F_LOADS_PER_US = 11;
+    private static final int F_SCALING_PCT = 12;
+    private static final int F_CORE_PART = 13;
+    private static final String[] FIELD_NAMES = {
+            "id", "cores", "max_freq_khz", "total_ram_bytes", "ram_mb", "clusters", "gles", "storage_write_mbps",
+            "int_mops", "float_mflops", "bandwidth_mbps", "loads_per_us", "scaling_pct", "core_part"
+    };
+    private static final byte[][] FIELD_BYTES = new byte[FIELD_NAMES.length][];
+
+    static {
+        for (int i = 0; i < FIELD_NAMES.length; i++) FIELD_BYTES[i] = FIELD_NAMES[i].getBytes(UTF_8);
+    }
+
+    private static final long MB = 1024 * 1024;
+    private static final byte[][] CLASS_BYTES = {
+            "".getBytes(UTF_8), "LOW".getBytes(UTF_8), "MEDIUM".getBytes(UTF_8), "HIGH".getBytes(UTF_8)
+    };
+
+    private final YearClassifier classifier;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    private int blockBytes = 8 << 20;
+    private long rowCount;
+    private long errorCount;
+
+    public BatchClassifier(YearClassRules rules) {
+        this.classifier = new YearClassifier(rules);
+    }
+
+    /**
+     * @param threads - Worker threads, the number of cores by default.
+     */
+    public BatchClassifier setParallelism(int threads) {
+        if (threads < 1) throw new IllegalArgumentException("threads must be positive");
+        this.parallelism = threads;
+        return this;
+    }
+
+    /**
+     * @param bytes - Input read per block, 8MB by default. A longer line grows the block.
+     */
+    public BatchClassifier setBlockBytes(int bytes) {
+        if (bytes < 1024) throw new IllegalArgumentException("block must be at least 1KB");
+        this.blockBytes = bytes;
+        return this;
+    }
+
+    /**
+     * @return Rows classified by the last {@link #run}, including the ones that could not be parsed.
+     */
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * @return Rows of the last {@link #run} that could not be parsed.
+     */
+    public long getErrorCount() {
+        return errorCount;
+    }
+
+    /**
+     * Classifies every row of the input and writes the results to the output. Neither stream is
+     * closed.
+     *
+     * @return Number of rows written.
+     * @throws IOException if reading or writing fails.
+     */
+    public long run(InputStream in, OutputStream out, Format format) throws IOException {
+        rowCount = 0;
+        errorCount = 0;
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            Block block = new Block(format);
+            byte[] buf = new byte[blockBytes];
+            int carry = 0;
+            boolean eof = false;
+            if (format == Format.CSV) out.write("id,year,class\n".getBytes(UTF_8));
+            while (!eof) {
+                int length = carry;
+                while (length < buf.length) {
+                    int n = in.read(buf, length, buf.length - length);
+                    if (n < 0) {
+                        eof = true;
+                        break;
+                    }
+                    length += n;
+                }
+                int end = eof ? length : lastLineEnd(buf, length);
+                if (end < 0) {
+                    // One line longer than the block, read on into a bigger one.
+                    buf = Arrays.copyOf(buf, buf.length * 2);
+                    carry = length;
+                    continue;
+                }
+                int from = 0;
+                if (format == Format.CSV && block.columnOf == null && end > 0) from = block.readHeader(buf, end);
+                block.index(buf, from, end);
+                pool.invoke(new ChunkTask(block, 0, block.chunkCount));
+                for (int c = 0; c < block.chunkCount; c++) {
+                    out.write(block.chunkOut[c], 0, block.chunkLength[c]);
+                    errorCount += block.chunkErrors[c];
+                }
+                rowCount += block.rows;
+                carry = length - end;
+                System.arraycopy(buf, end, buf, 0, carry);
+            }
+            out.flush();
+            return rowCount;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * @return Offset after the last newline, or -1 if there is none.
+     */
+    private static int lastLineEnd(byte[] buf, int length) {
+        for (int i = length - 1; i >= 0; i--) {
+            if (buf[i] == '\n') return i + 1;
+        }
+        return -1;
+    }
+
+    /**
+     * One block of input lines in columns, shared by the tasks that each fill their own rows.
+     */
+    private static final class Block {
+        final Format format;
+        // CSV column index to field, -1 for unknown columns.
+        int[] columnOf;
+        byte[] buf;
+        int rows;
+        int[] lineStart = new int[1024];
+        int[] lineEnd = new int[1024];
+
+        int[] idStart = new int[1024];
+        int[] idEnd = new int[1024];
+        int[] cores = new int[1024];
+        int[] maxFreqKHz = new int[1024];
+        long[] totalRamBytes = new long[1024];
+        int[] clusterCount = new int[1024];
+        int[] clusters = new int[1024 * MAX_CLUSTERS * 3];
+        int[] gles = new int[1024];
+        long[] storageWriteMBps = new long[1024];
+        long[] measured = new long[1024 * 5];
+        int[] corePart = new int[1024];
+        int[] year = new int[1024];
+
+        int chunkCount;
+        byte[][] chunkOut = new byte[0][];
+        int[] chunkLength = new int[0];
+        int[] chunkErrors = new int[0];
+
+        Block(Format format) {
+            this.format = format;
+        }
+
+        /**
+         * @return Offset after the header line.
+         */
+        int readHeader(byte[] buf, int end) {
+            int lineEnd = 0;
+            while (lineEnd < end && buf[lineEnd] != '\n') lineEnd++;
+            int[] columns = new int[16];
+            int count = 0;
+            int pos = 0;
+            int stop = trimEnd(buf, 0, lineEnd);
+            while (pos <= stop) {
+                int fieldEnd = pos;
+                while (fieldEnd < stop && buf[fieldEnd] != ',') fieldEnd++;
+                int a = pos;
+                int b = fieldEnd;
+                while (a < b && buf[a] == ' ') a++;
+                while (b > a && buf[b - 1] == ' ') b--;
+                if (b - a >= 2 && buf[a] == '"' && buf[b - 1] == '"') {
+                    a++;
+                    b--;
+                }
+                if (count == columns.length) columns = Arrays.copyOf(columns, count * 2);
+                columns[count++] = fieldOf(buf, a, b);
+                pos = fieldEnd + 1;
+            }
+            columnOf = Arrays.copyOf(columns, count);
+            return Math.min(end, lineEnd + 1);
+        }
+
+        void index(byte[] buf, int from, int end) {
+            this.buf = buf;
+            int n = 0;
+            int start = from;
+            for (int i = from; i <= end; i++) {
+                if (i == end || buf[i] == '\n') {
+                    int stop = trimEnd(buf, start, i);
+                    if (stop > start) {
+                        if (n == lineStart.length) grow(n * 2);
+                        lineStart[n] = start;
+                        lineEnd[n] = stop;
+                        n++;
+                    }
+                    start = i + 1;
+                }
+            }
+            rows = n;
+            chunkCount = (n + CHUNK_LINES - 1) / CHUNK_LINES;
+            if (chunkOut.length < chunkCount) {
+                chunkOut = Arrays.copyOf(chunkOut, chunkCount);
+                chunkLength = new int[chunkCount];
+                chunkErrors = new int[chunkCount];
+            }
+        }
+
+        private void grow(int capacity) {
+            lineStart = Arrays.copyOf(lineStart, capacity);
+            lineEnd = Arrays.copyOf(lineEnd, capacity);
+            idStart = Arrays.copyOf(idStart, capacity);
+            idEnd = Arrays.copyOf(idEnd, capacity);
+            cores = Arrays.copyOf(cores, capacity);
+            maxFreqKHz = Arrays.copyOf(maxFreqKHz, capacity);
+            totalRamBytes = Arrays.copyOf(totalRamBytes, capacity);
+            clusterCount = Arrays.copyOf(clusterCount, capacity);
+            clusters = Arrays.copyOf(clusters, capacity * MAX_CLUSTERS * 3);
+            gles = Arrays.copyOf(gles, capacity);
+            storageWriteMBps = Arrays.copyOf(storageWriteMBps, capacity);
+            measured = Arrays.copyOf(measured, capacity * 5);
+            corePart = Arrays.copyOf(corePart, capacity);
+            year = Arrays.copyOf(year, capacity);
+        }
+
+        void clearRow(int row) {
+            idStart[row] = -1;
+            idEnd[row] = -1;
+            cores[row] = DeviceInfo.DEVICEINFO_UNKNOWN;
+            maxFreqKHz[row] = DeviceInfo.DEVICEINFO_UNKNOWN;
+            totalRamBytes[row] = DeviceInfo.DEVICEINFO_UNKNOWN;
+            clusterCount[row] = 0;
+            gles[row] = DeviceInfo.DEVICEINFO_UNKNOWN;
+            storageWriteMBps[row] = DeviceInfo.DEVICEINFO_UNKNOWN;
+            Arrays.fill(measured, row * 5, row * 5 + 5, DeviceInfo.DEVICEINFO_UNKNOWN);
+            corePart[row] = DeviceInfo.DEVICEINFO_UNKNOWN;
+        }
+
+        void toSpec(int row, DeviceSpec spec) {
+            spec.clear().setCores(cores[row]).setMaxFreqKHz(maxFreqKHz[row]).setTotalRamBytes(totalRamBytes[row])
+                    .setGles(gles[row]).setStorageWriteMBps(storageWriteMBps[row])
+                    .setMeasured(measured[row * 5], measured[row * 5 + 1], measured[row * 5 + 2],
+                            measured[row * 5 + 3], measured[row * 5 + 4])
+                    .setCorePart(corePart[row]);
+            int base = row * MAX_CLUSTERS * 3;
+            for (int i = 0; i < clusterCount[row]; i++) {
+                spec.addCluster(clusters[base + i * 3], clusters[base + i * 3 + 1], clusters[base + i * 3 + 2]);
+            }
+        }
+    }
+
+    /**
+     * Parses, classifies and formats the rows of a range of chunks, splitting it in halves.
+     */
+    private final class ChunkTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Block block;
+        private final int from;
+        private final int to;
+
+        ChunkTask(Block block, int from, int to) {
+            this.block = block;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new ChunkTask(block, from, mid), new ChunkTask(block, mid, to));
+                return;
+            }
+            if (to == from) return;
+            int first = from * CHUNK_LINES;
+            int last = Math.min(block.rows, first + CHUNK_LINES);
+            Parser parser = new Parser(block);
+            DeviceSpec spec = new DeviceSpec();
+            int[] years = new int[YearClassRules.DIMENSIONS];
+            int errors = 0;
+            for (int row = first; row < last; row++) {
+                block.clearRow(row);
+                if (parser.parse(row)) {
+                    block.toSpec(row, spec);
+                    block.year[row] = classifier.classify(spec, years);
+                } else {
+                    block.year[row] = YearClassRules.CLASS_UNKNOWN;
+                    errors++;
+                }
+            }
+            block.chunkErrors[from] = errors;
+            format(first, last);
+        }
+
+        private void format(int first, int last) {
+            byte[] out = block.chunkOut[from];
+            int needed = 0;
+            for (int row = first; row < last; row++) {
+                needed += Math.max(0, block.idEnd[row] - block.idStart[row]) + 64;
+            }
+            if (out == null || out.length < needed) out = new byte[needed];
+            int pos = 0;
+            byte[] buf = block.buf;
+            boolean csv = block.format == Format.CSV;
+            for (int row = first; row < last; row++) {
+                int year = block.year[row];
+                byte[] category = CLASS_BYTES[classIndex(year)];
+                if (!csv) pos = put(out, pos, "{\"id\":");
+                int idStart = block.idStart[row];
+                if (idStart >= 0) {
+                    int length = block.idEnd[row] - idStart;
+                    System.arraycopy(buf, idStart, out, pos, length);
+                    pos += length;
+                } else if (!csv) {
+                    pos = put(out, pos, "null");
+                }
+                pos = put(out, pos, csv ? "," : ",\"year\":");
+                pos = putInt(out, pos, year);
+                pos = put(out, pos, csv ? "," : ",\"class\":\"");
+                System.arraycopy(category, 0, out, pos, category.length);
+                pos += category.length;
+                pos = put(out, pos, csv ? "\n" : "\"}\n");
+            }
+            block.chunkOut[from] = out;
+            block.chunkLength[from] = pos;
+        }
+    }
+
+    private static int classIndex(int year) {
+        String category = YearClassifier.classOf(year);
+        if (category.isEmpty()) return 0;
+        return category.equals("LOW") ? 1 : category.equals("MEDIUM") ? 2 : 3;
+    }
+
+    private static int put(byte[] out, int pos, String ascii) {
+        for (int i = 0; i < ascii.length(); i++) out[pos++] = (byte) ascii.charAt(i);
+        return pos;
+    }
+
+    private static int putInt(byte[] out, int pos, int value) {
+        if (value < 0) {
+            out[pos++] = '-';
+            value = -value;
+        }
+        int digits = 1;
+        for (int v = value; v >= 10; v /= 10) digits++;
+        for (int i = digits - 1; i >= 0; i--) {
+            out[pos + i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        return pos + digits;
+    }
+
+    private static int trimEnd(byte[] buf, int start, int end) {
+        while (end > start && (buf[end - 1] == '\r' || buf[end - 1] == ' ' || buf[end - 1] == '\t')) end--;
+        return end;
+    }
+
+    private static int fieldOf(byte[] buf, int start, int end) {
+        for (int f = 0; f < FIELD_BYTES.length; f++) {
+            byte[] name = FIELD_BYTES[f];
+            if (name.length != end - start) continue;
+            int i = 0;
+            while (i < name.length && buf[start + i] == name[i]) i++;
+            if (i == name.length) return f;
+        }
+        return -1;
+    }
+
+    /**
+     * Reads one line into the columns of its row. Not thread safe, each task has its own.
+     */
+    private static final class Parser {
+        private final Block block;
+        private final byte[] buf;
+        private int pos;
+        private int end;
+        private int row;
+        private boolean error;
+
+        Parser(Block block) {
+            this.block = block;
+            this.buf = block.buf;
+        }
+
+        /**
+         * @return false if the line is malformed.
+         */
+        boolean parse(int row) {
+            this.row = row;
+            this.pos = block.lineStart[row];
+            this.end = block.lineEnd[row];
+            this.error = false;
+            if (block.format == Format.CSV) {
+                parseCsv();
+            } else {
+                parseJson();
+            }
+            return !error;
+        }
+
+        private void parseCsv() {
+            int[] columnOf = block.columnOf;
+            for (int column = 0; pos <= end; column++) {
+                int start = pos;
+                int stop;
+                if (pos < end && buf[pos] == '"') {
+                    // Quoted, "" stands for a quote.
+                    pos++;
+                    while (pos < end && !(buf[pos] == '"' && (pos + 1 >= end || buf[pos + 1] != '"'))) {
+                        pos += buf[pos] == '"' ? 2 : 1;
+                    }
+                    if (pos >= end) {
+                        error = true;
+                        return;
+                    }
+                    stop = ++pos;
+                    if (pos < end && buf[pos] != ',') {
+                        error = true;
+                        return;
+                    }
+                } else {
+                    while (pos < end && buf[pos] != ',') pos++;
+                    stop = pos;
+                }
+                int field = column < columnOf.length ? columnOf[column] : -1;
+                if (field >= 0) csvField(field, start, stop);
+                pos++;
+                if (error) return;
+            }
+        }
+
+        private void csvField(int field, int start, int stop) {
+            if (field == F_ID) {
+                if (stop > start) {
+                    block.idStart[row] = start;
+                    block.idEnd[row] = stop;
+                }
+                return;
+            }
+            if (stop - start >= 2 && buf[start] == '"') {
+                start++;
+                stop--;
+            }
+            while (start < stop && buf[start] == ' ') start++;
+            while (stop > start && buf[stop - 1] == ' ') stop--;
+            if (start == stop) return;
+            if (field == F_CLUSTERS) {
+                int saved = end;
+                pos = start;
+                end = stop;
+                while (pos < end && !error) {
+                    int clusterCores = (int) number();
+                    expect(':');
+                    int kHz = (int) number();
+                    expect(':');
+                    int capacity = (int) number();
+                    addCluster(clusterCores, kHz, capacity);
+                    if (pos < end) expect(';');
+                }
+                end = saved;
+                pos = stop;
+                return;
+            }
+            int saved = end;
+            pos = start;
+            end = stop;
+            long value = number();
+            if (pos != end) error = true;
+            end = saved;
+            pos = stop;
+            setValue(field, value);
+        }
+
+        private void parseJson() {
+            skipSpace();
+            expect('{');
+            skipSpace();
+            if (peek() == '}') return;
+            while (!error) {
+                skipSpace();
+                int keyStart = pos + 1;
+                skipString();
+                int field = fieldOf(buf, keyStart, pos - 1);
+                skipSpace();
+                expect(':');
+                skipSpace();
+                if (error) return;
+                if (field == F_ID) {
+                    int start = pos;
+                    skipValue();
+                    if (!(pos - start == 4 && buf[start] == 'n')) {
+                        block.idStart[row] = start;
+                        block.idEnd[row] = pos;
+                    }
+                } else if (field == F_CLUSTERS) {
+                    jsonClusters();
+                } else if (field >= 0 && peek() != 'n') {
+                    setValue(field, number());
+                } else {
+                    skipValue();
+                }
+                skipSpace();
+                if (peek() == ',') {
+                    pos++;
+                } else {
+                    expect('}');
+                    return;
+                }
+            }
+        }
+
+        private void jsonClusters() {
+            if (peek() == 'n') {
+                skipValue();
+                return;
+            }
+            expect('[');
+            skipSpace();
+            if (peek() == ']') {
+                pos++;
+                return;
+            }
+            while (!error) {
+                skipSpace();
+                expect('[');
+                skipSpace();
+                int clusterCores = (int) number();
+                skipSpace();
+                expect(',');
+                skipSpace();
+                int kHz = (int) number();
+                skipSpace();
+                expect(',');
+                skipSpace();
+                int capacity = (int) number();
+                skipSpace();
+                expect(']');
+                addCluster(clusterCores, kHz, capacity);
+                skipSpace();
+                if (peek() == ',') {
+                    pos++;
+                } else {
+                    expect(']');
+                    return;
+                }
+            }
+        }
+
+        private void addCluster(int clusterCores, int kHz, int capacity) {
+            int count = block.clusterCount[row];
+            if (count == MAX_CLUSTERS) {
+                error = true;
+                return;
+            }
+            int base = (row * MAX_CLUSTERS + count) * 3;
+            block.clusters[base] = clusterCores;
+            block.clusters[base + 1] = kHz;
+            block.clusters[base + 2] = capacity;
+            block.clusterCount[row] = count + 1;
+        }
+
+        private void setValue(int field, long value) {
+            switch (field) {
+                case F_CORES:
+                    block.cores[row] = (int) value;
+                    break;
+                case F_MAX_FREQ_KHZ:
+                    block.maxFreqKHz[row] = (int) value;
+                    break;
+                case F_TOTAL_RAM_BYTES:
+                    block.totalRamBytes[row] = value;
+                    break;
+                case F_RAM_MB:
+                    block.totalRamBytes[row] = value < 0 ? value : value * MB;
+                    break;
+                case F_GLES:
+                    block.gles[row] = (int) value;
+                    break;
+                case F_STORAGE_WRITE_MBPS:
+                    block.storageWriteMBps[row] = value;
+                    break;
+                case F_CORE_PART:
+                    block.corePart[row] = (int) value;
+                    break;
+                default:
+                    block.measured[row * 5 + field - F_INT_MOPS] = value;
+                    break;
+            }
+        }
+
+        /**
+         * An integer; a fraction is dropped.
+         */
+        private long number() {
+            boolean negative = pos < end && buf[pos] == '-';
+            if (negative) pos++;
+            int start = pos;
+            long value = 0;
+            while (pos < end && buf[pos] >= '0' && buf[pos] <= '9') {
+                value = value * 10 + buf[pos++] - '0';
+            }
+            if (pos == start) {
+                error = true;
+                return DeviceInfo.DEVICEINFO_UNKNOWN;
+            }
+            if (pos < end && buf[pos] == '.') {
+                pos++;
+                while (pos < end && buf[pos] >= '0' && buf[pos] <= '9') pos++;
+            }
+            return negative ? -value : value;
+        }
+
+        private void skipValue() {
+            int c = peek();
+            if (c == '"') {
+                skipString();
+            } else if (c == '[' || c == '{') {
+                int depth = 0;
+                while (pos < end) {
+                    byte b = buf[pos];
+                    if (b == '"') {
+                        skipString();
+                        continue;
+                    }
+                    pos++;
+                    if (b == '[' || b == '{') {
+                        depth++;
+                    } else if ((b == ']' || b == '}') && --depth == 0) {
+                        return;
+                    }
+                }
+                error = true;
+            } else {
+                int start = pos;
+                while (pos < end && buf[pos] != ',' && buf[pos] != '}' && buf[pos] != ' ') pos++;
+                if (pos == start) error = true;
+            }
+        }
+
+        private void skipString() {
+            if (peek() != '"') {
+                error = true;
+                return;
+            }
+            pos++;
+            while (pos < end && buf[pos] != '"') {
+                pos += buf[pos] == '\\' ? 2 : 1;
+            }
+            if (pos >= end) {
+                error = true;
+                return;
+            }
+            pos++;
+        }
+
+        private void skipSpace() {
+            while (pos < end && (buf[pos] == ' ' || buf[pos] == '\t')) pos++;
+        }
+
+        private int peek() {
+            return pos < end ? buf[pos] : -1;
+        }
+
+        private void expect(char c) {
+            if (pos < end && buf[pos] == c) {
+                pos++;
+            } else {
+                error = true;
+                pos = end;
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        String rulesFile = null;
+        Format format = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        String input = null;
+        String output = null;
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("--rules") && i + 1 < args.length) {
+                rulesFile = args[++i];
+            } else if (arg.equals("--format") && i + 1 < args.length) {
+                format = Format.valueOf(args[++i].toUpperCase(Locale.US));
+            } else if (arg.equals("--threads") && i + 1 < args.length) {
+                threads = Integer.parseInt(args[++i]);
+            } else if (input == null) {
+                input = arg;
+            } else if (output == null) {
+                output = arg;
+            } else {
+                System.err.println("usage: BatchClassifier [--rules file] [--format csv|jsonl] [--threads n]"
+                        + " [input [output]]");
+                System.exit(2);
+            }
+        }
+        if (format == null) format = input != null && input.endsWith(".csv") ? Format.CSV : Format.JSONL;
+
+        YearClassRules rules;
+        if (rulesFile == null) {
+            rules = YearClassRules.getDefault();
+        } else {
+            InputStream in = new FileInputStream(rulesFile);
+            try {
+                rules = YearClassRules.parse(in);
+            } finally {
+                in.close();
+            }
+        }
+
+        InputStream in = input == null ? System.in : new FileInputStream(input);
+        OutputStream out = new BufferedOutputStream(output == null ? System.out : new FileOutputStream(output), 1 << 16);
+        BatchClassifier batch = new BatchClassifier(rules).setParallelism(threads);
+        long start = System.nanoTime();
+        try {
+            batch.run(in, out, format);
+        } finally {
+            if (input != null) in.close();
+            out.flush();
+            if (output != null) out.close();
+        }
+        System.err.println(String.format(Locale.US, "%d rows, %d errors, %d ms, rules version %d",
+                batch.getRowCount(), batch.getErrorCount(), (System.nanoTime() - start) / 1000000,
+                rules.getVersion()));
+    }
+}
@@ -0,0 +1,9 @@
+package android.app;
+
+import android.view.WindowManager;
+
+public abstract class Activity extends android.content.Context {
+    public WindowManager getWindowManager() {
+        return null;
+    }
+}
@@ -0,0 +1,46 @@
+package android.app;
+
+/**
+ * Benchmark fake that reports fixed memory values, normally the ones of a fixture device.
+ */
+public class ActivityManager {
+    public static class MemoryInfo {
+        public long availMem;
+        public long totalMem;
+        public long threshold;
+        public boolean lowMemory;
+    }
+
+    private final long totalMem;
+    private final long threshold;
+    private final long availMem;
+    private final int memoryClass;
+    private final int largeMemoryClass;
+
+    public ActivityManager(long totalMem, long threshold, long availMem, int memoryClass, int largeMemoryClass) {
+        this.totalMem = totalMem;
+        this.threshold = threshold;
+        this.availMem = availMem;
+        this.memoryClass = memoryClass;
+        this.largeMemoryClass = largeMemoryClass;
+    }
+
+    public void getMemoryInfo(MemoryInfo outInfo) {
+        outInfo.totalMem = totalMem;
+        outInfo.threshold = threshold;
+        outInfo.availMem = availMem;
+        outInfo.lowMemory = availMem < threshold;
+    }
+
+    public int getMemoryClass() {
+        return memoryClass;
+    }
+
+    public int getLargeMemoryClass() {
+        return largeMemoryClass;
+    }
+
+    public boolean isLowRamDevice() {
+        return totalMem <= 1024L * 1024 * 1024;
+    }
+}
@@ -0,0 +1,26 @@
+package android.content;
+
+import java.io.File;
+
+/**
+ * Benchmark fake of the parts of {@code android.content.Context} the library calls.
+ */
+public abstract class Context {
+    public static final String ACTIVITY_SERVICE = "activity";
+
+    public abstract Object getSystemService(String name);
+
+    public abstract android.content.res.Resources getResources();
+
+    public abstract File getFilesDir();
+
+    public abstract File getCacheDir();
+
+    public abstract File getExternalFilesDir(String type);
+
+    public abstract File[] getExternalFilesDirs(String type);
+
+    public Context getApplicationContext() {
+        return this;
+    }
+}
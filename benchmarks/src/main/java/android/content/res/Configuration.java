@@ -0,0 +1,11 @@
+package android.content.res;
+
+public class Configuration {
+    public static final int SCREENLAYOUT_SIZE_MASK = 0x0f;
+    public static final int SCREENLAYOUT_SIZE_SMALL = 0x01;
+    public static final int SCREENLAYOUT_SIZE_NORMAL = 0x02;
+    public static final int SCREENLAYOUT_SIZE_LARGE = 0x03;
+    public static final int SCREENLAYOUT_SIZE_XLARGE = 0x04;
+
+    public int screenLayout = SCREENLAYOUT_SIZE_NORMAL;
+}
@@ -0,0 +1,62 @@
+package android.os;
+
+/**
+ * Benchmark fake. The values come from system properties so that the library code paths are not
+ * constant-folded: {@code -Dandroid.sdk=31 -Dandroid.fingerprint=...}.
+ */
+public class Build {
+    public static final String FINGERPRINT = System.getProperty("android.fingerprint", "fixture/fixture");
+    public static final String MANUFACTURER = System.getProperty("android.manufacturer", "fixture");
+    public static final String MODEL = System.getProperty("android.model", "fixture");
+    public static final String BRAND = "fixture";
+    public static final String DEVICE = "fixture";
+    public static final String BOARD = "fixture";
+    public static final String HARDWARE = "fixture";
+    public static final String SOC_MANUFACTURER = "fixture";
+    public static final String SOC_MODEL = "fixture";
+    public static final String CPU_ABI = "arm64-v8a";
+    public static final String CPU_ABI2 = "";
+    public static final String[] SUPPORTED_ABIS = {"arm64-v8a", "armeabi-v7a", "armeabi"};
+    public static final String[] SUPPORTED_32_BIT_ABIS = {"armeabi-v7a", "armeabi"};
+    public static final String[] SUPPORTED_64_BIT_ABIS = {"arm64-v8a"};
+
+    public static class VERSION {
+        public static final int SDK_INT = Integer.getInteger("android.sdk", 30);
+        public static final String RELEASE = System.getProperty("android.release", "11");
+    }
+
+    public static class VERSION_CODES {
+        public static final int CUR_DEVELOPMENT = 10000;
+        public static final int BASE = 1;
+        public static final int BASE_1_1 = 2;
+        public static final int CUPCAKE = 3;
+        public static final int DONUT = 4;
+        public static final int ECLAIR = 5;
+        public static final int ECLAIR_0_1 = 6;
+        public static final int ECLAIR_MR1 = 7;
+        public static final int FROYO = 8;
+        public static final int GINGERBREAD = 9;
+        public static final int GINGERBREAD_MR1 = 10;
+        public static final int HONEYCOMB = 11;
+        public static final int HONEYCOMB_MR1 = 12;
+        public static final int HONEYCOMB_MR2 = 13;
+        public static final int ICE_CREAM_SANDWICH = 14;
+        public static final int ICE_CREAM_SANDWICH_MR1 = 15;
+        public static final int JELLY_BEAN = 16;
+        public static final int JELLY_BEAN_MR1 = 17;
+        public static final int JELLY_BEAN_MR2 = 18;
+        public static final int KITKAT = 19;
+        public static final int KITKAT_WATCH = 20;
+        public static final int LOLLIPOP = 21;
+        public static final int LOLLIPOP_MR1 = 22;
+        public static final int M = 23;
+        public static final int N = 24;
+        public static final int N_MR1 = 25;
+        public static final int O = 26;
+        public static final int O_MR1 = 27;
+        public static final int P = 28;
+        public static final int Q = 29;
+        public static final int R = 30;
+        public static final int S = 31;
+    }
+}
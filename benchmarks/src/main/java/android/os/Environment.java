@@ -0,0 +1,36 @@
+package android.os;
+
+import java.io.File;
+
+/**
+ * Benchmark fake that maps the storage roots to the JVM's temp directory.
+ */
+public class Environment {
+    public static final String MEDIA_MOUNTED = "mounted";
+
+    private static final File ROOT = new File(System.getProperty("java.io.tmpdir"));
+
+    public static File getRootDirectory() {
+        return ROOT;
+    }
+
+    public static File getDataDirectory() {
+        return ROOT;
+    }
+
+    public static File getExternalStorageDirectory() {
+        return ROOT;
+    }
+
+    public static String getExternalStorageState() {
+        return MEDIA_MOUNTED;
+    }
+
+    public static boolean isExternalStorageRemovable() {
+        return false;
+    }
+
+    public static boolean isExternalStorageRemovable(File path) {
+        return false;
+    }
+}
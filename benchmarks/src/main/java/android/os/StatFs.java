@@ -0,0 +1,65 @@
+package android.os;
+
+import java.io.File;
+
+/**
+ * Benchmark fake backed by {@link File}'s space queries, which make the same statfs call.
+ */
+public class StatFs {
+    private static final int BLOCK_SIZE = 4096;
+
+    private File path;
+
+    public StatFs(String path) {
+        restat(path);
+    }
+
+    public void restat(String path) {
+        this.path = new File(path);
+        if (!this.path.exists()) throw new IllegalArgumentException("Invalid path: " + path);
+    }
+
+    public int getBlockSize() {
+        return BLOCK_SIZE;
+    }
+
+    public long getBlockSizeLong() {
+        return BLOCK_SIZE;
+    }
+
+    public int getBlockCount() {
+        return (int) getBlockCountLong();
+    }
+
+    public long getBlockCountLong() {
+        return path.getTotalSpace() / BLOCK_SIZE;
+    }
+
+    public int getAvailableBlocks() {
+        return (int) getAvailableBlocksLong();
+    }
+
+    public long getAvailableBlocksLong() {
+        return path.getUsableSpace() / BLOCK_SIZE;
+    }
+
+    public int getFreeBlocks() {
+        return (int) getFreeBlocksLong();
+    }
+
+    public long getFreeBlocksLong() {
+        return path.getFreeSpace() / BLOCK_SIZE;
+    }
+
+    public long getTotalBytes() {
+        return getBlockCountLong() * BLOCK_SIZE;
+    }
+
+    public long getAvailableBytes() {
+        return getAvailableBlocksLong() * BLOCK_SIZE;
+    }
+
+    public long getFreeBytes() {
+        return getFreeBlocksLong() * BLOCK_SIZE;
+    }
+}
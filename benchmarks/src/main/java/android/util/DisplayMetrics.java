@@ -0,0 +1,10 @@
+package android.util;
+
+public class DisplayMetrics {
+    public float density = 2.75f;
+    public int densityDpi = 440;
+    public int widthPixels = 1080;
+    public int heightPixels = 2340;
+    public float xdpi = 401f;
+    public float ydpi = 401f;
+}
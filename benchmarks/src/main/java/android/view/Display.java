@@ -0,0 +1,26 @@
+package android.view;
+
+import android.graphics.Point;
+import android.util.DisplayMetrics;
+
+public class Display {
+    public void getSize(Point outSize) {
+        outSize.x = 1080;
+        outSize.y = 2340;
+    }
+
+    public void getRealSize(Point outSize) {
+        getSize(outSize);
+    }
+
+    public void getMetrics(DisplayMetrics outMetrics) {
+    }
+
+    public int getWidth() {
+        return 1080;
+    }
+
+    public int getHeight() {
+        return 2340;
+    }
+}
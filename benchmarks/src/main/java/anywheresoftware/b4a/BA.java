@@ -0,0 +1,62 @@
+package anywheresoftware.b4a;
+
+import java.util.Locale;
+
+/**
+ * Benchmark fake of the B4A runtime: the annotations the library is tagged with and the event
+ * plumbing, which does nothing here.
+ */
+public class BA {
+    public static final Locale cul = Locale.US;
+    public static android.content.Context applicationContext;
+
+    public android.app.Activity activity;
+
+    public Object raiseEvent(Object sender, String event, Object... params) {
+        return null;
+    }
+
+    public void raiseEventFromDifferentThread(Object sender, Object container, int taskId, String event,
+                                              boolean throwErrorIfMissingSub, Object[] params) {
+    }
+
+    public boolean subExists(String sub) {
+        return false;
+    }
+
+    public static void Log(String message) {
+    }
+
+    public static void LogError(String message) {
+    }
+
+    public @interface Author {
+        String value();
+    }
+
+    public @interface Version {
+        float value();
+    }
+
+    public @interface ShortName {
+        String value();
+    }
+
+    public @interface ActivityObject {
+    }
+
+    public @interface Events {
+        String[] values();
+    }
+
+    public @interface Hide {
+    }
+
+    public @interface Permissions {
+        String[] values();
+    }
+
+    public @interface DependsOn {
+        String[] values();
+    }
+}
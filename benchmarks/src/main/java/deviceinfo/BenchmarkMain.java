@@ -0,0 +1,32 @@
+package deviceinfo;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs {@link ProbeBenchmark} with the gc profiler and writes the results as JMH JSON, which is
+ * what gets compared against the baseline.
+ * <p/>
+ * Arguments: [result file, default bench-results.json] [benchmark regex, default all].
+ */
+public final class BenchmarkMain {
+    private BenchmarkMain() {
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        String result = args.length > 0 ? args[0] : "bench-results.json";
+        String include = args.length > 1 ? args[1] : ProbeBenchmark.class.getSimpleName();
+        Options options = new OptionsBuilder()
+                .include(include)
+                .addProfiler(GCProfiler.class)
+                .resultFormat(ResultFormatType.JSON)
+                .result(result)
+                .jvmArgsAppend("-Ddeviceinfo.fixtures=" + System.getProperty("deviceinfo.fixtures", "fixtures"))
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,70 @@
+package deviceinfo;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.content.res.Resources;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * Context of a fixture device. Memory values come from the fixture's {@code platform.properties},
+ * files go to a scratch directory.
+ */
+final class FixtureContext extends Context {
+    private final Properties platform = new Properties();
+    private final ActivityManager activityManager;
+    private final Resources resources = new Resources();
+    private final File filesDir;
+
+    FixtureContext(File fixtureDir, File filesDir) throws IOException {
+        InputStream in = new FileInputStream(new File(fixtureDir, "platform.properties"));
+        try {
+            platform.load(in);
+        } finally {
+            in.close();
+        }
+        this.activityManager = new ActivityManager(getLong("totalMem"), getLong("threshold"),
+                getLong("availMem"), (int) getLong("memoryClass"), (int) getLong("largeMemoryClass"));
+        this.filesDir = filesDir;
+        filesDir.mkdirs();
+    }
+
+    long getLong(String key) {
+        String value = platform.getProperty(key);
+        return value == null ? DeviceInfo.DEVICEINFO_UNKNOWN : Long.parseLong(value.trim());
+    }
+
+    @Override
+    public Object getSystemService(String name) {
+        return ACTIVITY_SERVICE.equals(name) ? activityManager : null;
+    }
+
+    @Override
+    public Resources getResources() {
+        return resources;
+    }
+
+    @Override
+    public File getFilesDir() {
+        return filesDir;
+    }
+
+    @Override
+    public File getCacheDir() {
+        return filesDir;
+    }
+
+    @Override
+    public File getExternalFilesDir(String type) {
+        return filesDir;
+    }
+
+    @Override
+    public File[] getExternalFilesDirs(String type) {
+        return new File[]{filesDir};
+    }
+}
@@ -0,0 +1,224 @@
+package deviceinfo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One benchmark per probe and one for the whole classification, run against the fixture trees in
+ * {@code fixtures/}. Throughput and sampled latency (with percentiles) are both recorded; run with
+ * the gc profiler to get the allocation rate per operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProbeBenchmark {
+    private static final String CPU_DIR = "/sys/devices/system/cpu/";
+
+    @Param({"sm8350", "sdm845", "msm8974"})
+    public String device;
+
+    private SysRoot root;
+    private FixtureContext context;
+    private DeviceSnapshot snapshot;
+    private ProcFileParser meminfoParser;
+    private ProcFileParser cpuinfoParser;
+    private RandomAccessFile meminfo;
+    private long[] values;
+    private byte[] buffer;
+    private byte[] rangeList;
+    private CpuUsageSampler cpuUsage;
+    private MemoryPressureMonitor memoryPressure;
+    private ThermalMonitor thermal;
+    private DiskStatsSampler diskStats;
+    private ProcessStatsSampler processStats;
+    private NodePool.Handle curFreq;
+    private DeviceProfile profile;
+    private byte[] profileBuffer;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        File fixture = new File(System.getProperty("deviceinfo.fixtures", "fixtures"), device);
+        if (!fixture.isDirectory()) throw new IOException("Missing fixture " + fixture.getAbsolutePath());
+        root = new SysRoot(fixture.getAbsolutePath());
+        SysRoot.set(root);
+        context = new FixtureContext(fixture, new File(System.getProperty("java.io.tmpdir"), "deviceinfo-bench"));
+        snapshot = DeviceSnapshot.capture(root, context);
+        meminfoParser = new ProcFileParser("MemTotal", "MemAvailable", "Cached", "SwapFree");
+        cpuinfoParser = new ProcFileParser("cpu MHz");
+        meminfo = new RandomAccessFile(root.path("/proc/meminfo"), "r");
+        values = new long[4];
+        buffer = new byte[256];
+        rangeList = "0-3,4-6,7\n".getBytes("US-ASCII");
+        cpuUsage = new CpuUsageSampler(root, 64);
+        cpuUsage.sampleNow();
+        memoryPressure = new MemoryPressureMonitor(context);
+        thermal = new ThermalMonitor(root);
+        thermal.setBaseYear(DeviceInfo.categorizeByYear(snapshot));
+        thermal.sampleNow();
+        diskStats = new DiskStatsSampler(root);
+        diskStats.sampleNow();
+        processStats = new ProcessStatsSampler(root);
+        processStats.sampleNow();
+        profile = DeviceInfo.getDeviceProfile(context);
+        profileBuffer = new byte[DeviceProfile.MAX_ENCODED_BYTES];
+        curFreq = new NodePool(8).get(snapshot.getCpuTopology().getClusters()[0].cpufreqNode("scaling_cur_freq"));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        meminfo.close();
+        SysRoot.set(null);
+    }
+
+    /**
+     * The directory listing behind the fallback core count.
+     */
+    @Benchmark
+    public String[] coreScan() {
+        return new File(root.path(CPU_DIR)).list();
+    }
+
+    @Benchmark
+    public long cpuMaxFreqRead() {
+        return ProcFileParser.readLong(root.path(CPU_DIR + "cpu0/cpufreq/cpuinfo_max_freq"), buffer);
+    }
+
+    /**
+     * The same kind of node through a descriptor kept open, as the polling probes read it.
+     */
+    @Benchmark
+    public long pooledCurFreqRead() {
+        return curFreq.readLong();
+    }
+
+    @Benchmark
+    public long cpuListParse() {
+        return CpuTopology.parseCpuList(rangeList, rangeList.length);
+    }
+
+    @Benchmark
+    public long onlineMask() {
+        return CpuTopology.readOnlineMask(root);
+    }
+
+    @Benchmark
+    public CpuTopology cpuTopology() {
+        return CpuTopology.read(root);
+    }
+
+    /**
+     * The {@code /proc/cpuinfo} fallback of getCPUMaxFreqKHz. ARM kernels have no "cpu MHz" line,
+     * so this streams the whole file.
+     */
+    @Benchmark
+    public long cpuinfoFallback() {
+        cpuinfoParser.parse(root.path("/proc/cpuinfo"), values);
+        return values[0];
+    }
+
+    /**
+     * Every {@code Features} line of {@code /proc/cpuinfo} plus the HWCAP words of the auxv.
+     */
+    @Benchmark
+    public CpuFeatures cpuFeatures() {
+        return CpuFeatures.read(root);
+    }
+
+    /**
+     * The cache nodes of one core per cluster.
+     */
+    @Benchmark
+    public CacheHierarchy cacheHierarchy() {
+        return CacheHierarchy.read(root, snapshot.getCpuTopology());
+    }
+
+    @Benchmark
+    public long meminfoOpenAndParse() {
+        meminfoParser.parse(root.path("/proc/meminfo"), values);
+        return values[1];
+    }
+
+    /**
+     * The polling path: the file stays open and is re-read from offset 0.
+     */
+    @Benchmark
+    public long meminfoPoll() {
+        meminfoParser.parse(meminfo, values);
+        return values[1];
+    }
+
+    @Benchmark
+    public DeviceSnapshot snapshotCapture() {
+        return DeviceSnapshot.capture(root, context);
+    }
+
+    /**
+     * The per-event cost of a telemetry report: the memoized profile written into a reused buffer.
+     */
+    @Benchmark
+    public int profileEncode() {
+        return profile.encode(profileBuffer, 0);
+    }
+
+    @Benchmark
+    public int classifySnapshot() {
+        return DeviceInfo.categorizeByYear(snapshot);
+    }
+
+    /**
+     * Cold start: every probe plus the classification, without the persisted record.
+     */
+    @Benchmark
+    public int classifyCold() {
+        return DeviceInfo.categorizeByYear(DeviceSnapshot.capture(root, context));
+    }
+
+    @Benchmark
+    public long cpuUsageSample() {
+        cpuUsage.sampleNow();
+        return cpuUsage.getSequence();
+    }
+
+    @Benchmark
+    public long memoryPressureSample() {
+        memoryPressure.sampleNow();
+        return memoryPressure.getAvailableBytes();
+    }
+
+    @Benchmark
+    public int thermalSample() {
+        thermal.sampleNow();
+        return thermal.getMaxTemperatureMilliC();
+    }
+
+    @Benchmark
+    public long diskStatsSample() {
+        diskStats.sampleNow();
+        return diskStats.getSequence();
+    }
+
+    @Benchmark
+    public long processStatsSample() {
+        processStats.sampleNow();
+        return processStats.getSequence();
+    }
+}
@@ -0,0 +1,308 @@
+package deviceinfo;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Replays a corpus of {@link DeviceBundle}s: captures the snapshot of every bundle off-device,
+ * classifies it and compares the result and the capture time against a previous run, so that a
+ * change to the rule table or the parsers can be checked on hundreds of real devices at once.
+ * <p/>
+ * Arguments: [--rules file] [--baseline results.csv] [--out results.csv] [--threads n] [--runs n]
+ * bundle... where each bundle is a zip, an extracted directory or a directory of either; the
+ * fixtures in {@code fixtures/} replay as they are. The results file written with --out is the
+ * baseline of the next run. Exits with 1 when a year class changed against the baseline.
+ */
+public final class ReplayMain {
+    /**
+     * A capture this much slower than in the baseline, and by at least SLOWER_MICROS, is reported.
+     */
+    private static final double SLOWER_RATIO = 2.0;
+    private static final long SLOWER_MICROS = 50;
+
+    private ReplayMain() {
+    }
+
+    static final class Result {
+        final String device;
+        final int year;
+        final int cores;
+        final int maxFreqKHz;
+        final long ramMB;
+        final long captureMicros;
+
+        Result(String device, int year, int cores, int maxFreqKHz, long ramMB, long captureMicros) {
+            this.device = device;
+            this.year = year;
+            this.cores = cores;
+            this.maxFreqKHz = maxFreqKHz;
+            this.ramMB = ramMB;
+            this.captureMicros = captureMicros;
+        }
+
+        String toCsv() {
+            return device + "," + year + "," + YearClassifier.classOf(year) + "," + cores + "," + maxFreqKHz + ","
+                    + ramMB + "," + captureMicros;
+        }
+
+        static Result parse(String line) {
+            String[] f = line.split(",", -1);
+            if (f.length < 7) return null;
+            try {
+                return new Result(f[0], Integer.parseInt(f[1]), Integer.parseInt(f[3]), Integer.parseInt(f[4]),
+                        Long.parseLong(f[5]), Long.parseLong(f[6]));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        String rulesFile = null;
+        String baselineFile = null;
+        String outFile = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int runs = 3;
+        List<File> inputs = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("--rules") && i + 1 < args.length) {
+                rulesFile = args[++i];
+            } else if (arg.equals("--baseline") && i + 1 < args.length) {
+                baselineFile = args[++i];
+            } else if (arg.equals("--out") && i + 1 < args.length) {
+                outFile = args[++i];
+            } else if (arg.equals("--threads") && i + 1 < args.length) {
+                threads = Integer.parseInt(args[++i]);
+            } else if (arg.equals("--runs") && i + 1 < args.length) {
+                runs = Math.max(1, Integer.parseInt(args[++i]));
+            } else {
+                inputs.add(new File(arg));
+            }
+        }
+        List<File> bundles = new ArrayList<>();
+        for (File input : inputs) {
+            findBundles(input, bundles, true);
+        }
+        if (bundles.isEmpty()) {
+            System.err.println("usage: ReplayMain [--rules file] [--baseline results.csv] [--out results.csv]"
+                    + " [--threads n] [--runs n] bundle...");
+            System.exit(2);
+        }
+
+        YearClassRules rules = rulesFile == null ? YearClassRules.getDefault() : loadRules(rulesFile);
+        YearClassifier classifier = new YearClassifier(rules);
+        ProbeStats.reset();
+        ProbeStats.setEnabled(true);
+        List<Result> results = replay(bundles, classifier, threads, runs);
+        ProbeStats.setEnabled(false);
+
+        if (outFile != null) {
+            PrintWriter out = new PrintWriter(outFile, "UTF-8");
+            try {
+                out.println("device,year,class,cores,max_freq_khz,ram_mb,capture_us");
+                for (Result result : results) {
+                    out.println(result.toCsv());
+                }
+            } finally {
+                out.close();
+            }
+        }
+
+        System.out.println(String.format(Locale.US, "Replayed %d devices with rules version %d, %d threads, best of %d",
+                results.size(), rules.getVersion(), threads, runs));
+        int changed = baselineFile == null ? 0 : compare(results, loadBaseline(baselineFile));
+        long[] micros = new long[results.size()];
+        for (int i = 0; i < micros.length; i++) {
+            micros[i] = results.get(i).captureMicros;
+        }
+        Arrays.sort(micros);
+        System.out.println(String.format(Locale.US, "Capture p50=%dus p90=%dus p99=%dus max=%dus",
+                percentile(micros, 50), percentile(micros, 90), percentile(micros, 99), micros[micros.length - 1]));
+        System.out.print(ProbeStats.getReport());
+        System.exit(changed > 0 ? 1 : 0);
+    }
+
+    static List<Result> replay(List<File> bundles, final YearClassifier classifier, int threads, final int runs)
+            throws InterruptedException, IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Result>> futures = new ArrayList<>();
+            for (final File bundle : bundles) {
+                futures.add(pool.submit(new Callable<Result>() {
+                    @Override
+                    public Result call() throws IOException {
+                        return replay(bundle, classifier, runs);
+                    }
+                }));
+            }
+            List<Result> results = new ArrayList<>();
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    results.add(futures.get(i).get());
+                } catch (ExecutionException e) {
+                    throw new IOException("Cannot replay " + bundles.get(i), e.getCause());
+                }
+            }
+            return results;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Captures the snapshot of one bundle runs times and classifies the last one.
+     */
+    static Result replay(File bundle, YearClassifier classifier, int runs) throws IOException {
+        boolean zip = bundle.isFile();
+        File dir = bundle;
+        if (zip) {
+            dir = Files.createTempDirectory("deviceinfo-replay").toFile();
+            InputStream in = new FileInputStream(bundle);
+            try {
+                DeviceBundle.extract(in, dir);
+            } finally {
+                in.close();
+            }
+        }
+        try {
+            SysRoot root = new SysRoot(dir.getAbsolutePath());
+            BundlePlatform platform = BundlePlatform.load(dir);
+            DeviceSnapshot snapshot = null;
+            long best = Long.MAX_VALUE;
+            for (int run = 0; run < runs; run++) {
+                long start = System.nanoTime();
+                snapshot = DeviceSnapshot.capture(root, platform);
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            int year = classifier.classify(DeviceSpec.of(snapshot, CpuFeatures.read(root)));
+            long total = snapshot.getTotalMemory();
+            return new Result(nameOf(bundle), year, snapshot.getNumberOfCPUCores(), snapshot.getCPUMaxFreqKHz(),
+                    total <= 0 ? total : total >> 20, best / 1000);
+        } finally {
+            if (zip) delete(dir);
+        }
+    }
+
+    /**
+     * Prints the devices whose year or capture time changed.
+     *
+     * @return Number of devices whose year changed, appeared or disappeared.
+     */
+    static int compare(List<Result> results, Map<String, Result> baseline) {
+        int changed = 0;
+        int slower = 0;
+        Map<String, Result> current = new HashMap<>();
+        for (Result result : results) {
+            current.put(result.device, result);
+            Result before = baseline.get(result.device);
+            if (before == null) {
+                System.out.println("  new      " + result.device + " " + result.year);
+                changed++;
+                continue;
+            }
+            if (before.year != result.year) {
+                System.out.println(String.format(Locale.US, "  changed  %s %d -> %d (%s -> %s)", result.device,
+                        before.year, result.year, YearClassifier.classOf(before.year),
+                        YearClassifier.classOf(result.year)));
+                changed++;
+            }
+            if (result.captureMicros > before.captureMicros * SLOWER_RATIO
+                    && result.captureMicros - before.captureMicros >= SLOWER_MICROS) {
+                System.out.println(String.format(Locale.US, "  slower   %s %dus -> %dus", result.device,
+                        before.captureMicros, result.captureMicros));
+                slower++;
+            }
+        }
+        for (String device : baseline.keySet()) {
+            if (!current.containsKey(device)) {
+                System.out.println("  missing  " + device);
+                changed++;
+            }
+        }
+        System.out.println(String.format(Locale.US, "%d devices changed, new or missing, %d captures slower",
+                changed, slower));
+        return changed;
+    }
+
+    private static void findBundles(File file, List<File> bundles, boolean top) {
+        if (file.isFile()) {
+            if (top || file.getName().endsWith(".zip")) bundles.add(file);
+            return;
+        }
+        if (new File(file, DeviceBundle.PLATFORM_FILE).isFile()) {
+            bundles.add(file);
+            return;
+        }
+        if (!top) return;
+        File[] children = file.listFiles();
+        if (children == null) return;
+        Arrays.sort(children);
+        for (File child : children) {
+            findBundles(child, bundles, false);
+        }
+    }
+
+    private static Map<String, Result> loadBaseline(String file) throws IOException {
+        Map<String, Result> baseline = new TreeMap<>();
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                Result result = Result.parse(line);
+                if (result != null) baseline.put(result.device, result);
+            }
+        } finally {
+            reader.close();
+        }
+        return Collections.unmodifiableMap(baseline);
+    }
+
+    private static YearClassRules loadRules(String file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            return YearClassRules.parse(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static String nameOf(File bundle) {
+        String name = bundle.getName();
+        return name.endsWith(".zip") ? name.substring(0, name.length() - 4) : name;
+    }
+
+    private static long percentile(long[] sorted, int percent) {
+        int index = (int) Math.ceil(sorted.length * percent / 100.0) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
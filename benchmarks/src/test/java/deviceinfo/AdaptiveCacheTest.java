@@ -0,0 +1,63 @@
+package deviceinfo;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class AdaptiveCacheTest {
+    private static final AdaptiveCache.Weigher<Integer, byte[]> LENGTH = new AdaptiveCache.Weigher<Integer, byte[]>() {
+        @Override
+        public long weigh(Integer key, byte[] value) {
+            return value.length;
+        }
+    };
+
+    @Test
+    public void cachesEntriesLargerThanAStripe() {
+        AdaptiveCache<Integer, byte[]> cache = new AdaptiveCache<>(8000, 8, LENGTH);
+        for (int i = 0; i < 64; i++) {
+            cache.put(i, new byte[100]);
+        }
+        cache.put(1000, new byte[6000]);
+        assertNotNull(cache.get(1000));
+        assertTrue(cache.toString(), cache.getResidentBytes() <= 8000);
+
+        cache.put(1001, new byte[9000]);
+        assertNull(cache.get(1001));
+    }
+
+    @Test
+    public void staysWithinTheCapacity() {
+        AdaptiveCache<Integer, byte[]> cache = new AdaptiveCache<>(10000, 4, LENGTH);
+        for (int i = 0; i < 200; i++) {
+            cache.put(i, new byte[i % 7 == 0 ? 4000 : 150]);
+            assertTrue(cache.toString(), cache.getResidentBytes() <= 10000);
+        }
+        long sum = 0;
+        for (int i = 0; i < 200; i++) {
+            byte[] value = cache.get(i);
+            if (value != null) sum += value.length;
+        }
+        assertEquals(cache.getResidentBytes(), sum);
+    }
+
+    @Test
+    public void attachingDetachesFromThePreviousMonitor() {
+        AdaptiveCache<Integer, byte[]> cache = new AdaptiveCache<>(10000, 4, LENGTH);
+        MemoryPressureMonitor first = new MemoryPressureMonitor(Long.MAX_VALUE, Long.MAX_VALUE);
+        first.setDebounce(1, 1);
+        cache.attachTo(first);
+        cache.attachTo(new MemoryPressureMonitor(Long.MAX_VALUE, Long.MAX_VALUE));
+
+        // Everything is below the thresholds, so the first monitor turns CRITICAL.
+        first.sample(System.nanoTime());
+        assertEquals(MemoryPressureMonitor.Level.CRITICAL, first.getLevel());
+        assertEquals(10000, cache.getEffectiveMaxBytes());
+
+        cache.detachFrom(first);
+        assertEquals(10000, cache.getEffectiveMaxBytes());
+    }
+}
@@ -0,0 +1,79 @@
+package deviceinfo;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import static org.junit.Assert.assertEquals;
+
+public class BatchClassifierTest {
+    private YearClassRules rules;
+
+    @Before
+    public void setUp() throws Exception {
+        rules = YearClassifierTest.parse("version 1\n"
+                + "dimension ram_mb 1\n1024 2011\n2048 2013\nabove 2016\n"
+                + "dimension clock_khz 1\n1500000 2012\nabove 2015\n"
+                + "dimension core_part 1\n0x51801 2017\n0x51803 2018\n");
+    }
+
+    private String run(BatchClassifier batch, String input, BatchClassifier.Format format) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        batch.run(new ByteArrayInputStream(input.getBytes("UTF-8")), out, format);
+        return out.toString("UTF-8");
+    }
+
+    @Test
+    public void classifiesCsv() throws Exception {
+        BatchClassifier batch = new BatchClassifier(rules).setParallelism(2);
+        String output = run(batch, "id,max_freq_khz,ram_mb,unknown\n"
+                + "a1,2000000,4096,x\n"
+                + "a2,1200000,1024,\n"
+                + "a3,,,\n"
+                + "a4,fast,1024,\n", BatchClassifier.Format.CSV);
+        assertEquals("id,year,class\na1,2015,HIGH\na2,2011,LOW\na3,-1,\na4,-1,\n", output);
+        assertEquals(4, batch.getRowCount());
+        assertEquals(1, batch.getErrorCount());
+    }
+
+    @Test
+    public void classifiesJsonLines() throws Exception {
+        BatchClassifier batch = new BatchClassifier(rules);
+        String output = run(batch, "{\"id\":\"a1\",\"max_freq_khz\":2000000,\"total_ram_bytes\":4294967296}\n"
+                + "{\"cores\":8,\"max_freq_khz\":2400000,\"clusters\":[[4,1400000,256],[4,2400000,1024]],\"id\":7}\n"
+                + "{\"id\":\"a3\",\n", BatchClassifier.Format.JSONL);
+        assertEquals("{\"id\":\"a1\",\"year\":2015,\"class\":\"HIGH\"}\n"
+                + "{\"id\":7,\"year\":2015,\"class\":\"HIGH\"}\n"
+                + "{\"id\":\"a3\",\"year\":-1,\"class\":\"\"}\n", output);
+        assertEquals(1, batch.getErrorCount());
+    }
+
+    @Test
+    public void readsWhatDeviceSpecWrites() throws Exception {
+        DeviceSpec spec = DeviceSpec.of(Fixtures.snapshot("sdm845"), CpuFeatures.read(Fixtures.root("sdm845")));
+        String output = run(new BatchClassifier(rules), spec + "\n", BatchClassifier.Format.JSONL);
+        int year = new YearClassifier(rules).classify(spec);
+        // (2016 ram + 2015 clock + 2018 Kryo 385) / 3
+        assertEquals(2016, year);
+        assertEquals("{\"id\":null,\"year\":" + year + ",\"class\":\"" + YearClassifier.classOf(year) + "\"}\n", output);
+    }
+
+    @Test
+    public void keepsOrderAcrossBlocksAndChunks() throws Exception {
+        StringBuilder input = new StringBuilder("id,ram_mb\n");
+        StringBuilder expected = new StringBuilder("id,year,class\n");
+        for (int i = 0; i < 10000; i++) {
+            int ramMB = i % 3 == 0 ? 512 : i % 3 == 1 ? 2000 : 8192;
+            int year = i % 3 == 0 ? 2011 : i % 3 == 1 ? 2013 : 2016;
+            input.append('d').append(i).append(',').append(ramMB).append('\n');
+            expected.append('d').append(i).append(',').append(year).append(',')
+                    .append(YearClassifier.classOf(year)).append('\n');
+        }
+        BatchClassifier batch = new BatchClassifier(rules).setParallelism(4).setBlockBytes(4096);
+        assertEquals(expected.toString(), run(batch, input.toString(), BatchClassifier.Format.CSV));
+        assertEquals(10000, batch.getRowCount());
+        assertEquals(0, batch.getErrorCount());
+    }
+}
@@ -0,0 +1,117 @@
+package deviceinfo;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CacheHierarchyTest {
+    private static CacheHierarchy read(String device) {
+        SysRoot root = Fixtures.root(device);
+        return CacheHierarchy.read(root, CpuTopology.read(root));
+    }
+
+    private static int parseSize(String size) throws Exception {
+        byte[] bytes = size.getBytes("US-ASCII");
+        return CacheHierarchy.parseSize(bytes, bytes.length);
+    }
+
+    @Test
+    public void parsesSizes() throws Exception {
+        assertEquals(512 * 1024, parseSize("512K\n"));
+        assertEquals(2 * 1024 * 1024, parseSize("2M"));
+        assertEquals(64, parseSize("64"));
+        assertEquals(DeviceInfo.DEVICEINFO_UNKNOWN, parseSize("K"));
+        assertEquals(DeviceInfo.DEVICEINFO_UNKNOWN, parseSize("4096M"));
+    }
+
+    @Test
+    public void readsOneCorePerCluster() {
+        CacheHierarchy caches = read("sm8350");
+        assertEquals(3, caches.getClusterCount());
+        assertEquals(2, caches.getBigCluster());
+        assertEquals(0x70L, caches.getClusterCpuMask(1));
+        // The instruction caches are skipped.
+        CacheHierarchy.Cache[] little = caches.getCaches(0);
+        assertEquals(3, little.length);
+        assertEquals(CacheHierarchy.TYPE_DATA, little[0].getType());
+        assertEquals(32 * 1024, little[0].getSizeBytes());
+        assertEquals(4, little[0].getWays());
+        assertEquals(128 * 1024, little[1].getSizeBytes());
+        assertEquals(0x1L, little[1].getSharedCpuMask());
+        assertEquals(8, little[2].getSharingCount());
+        assertFalse(little[2].isEstimated());
+
+        assertEquals(1024 * 1024, caches.getCache(2, 2).getSizeBytes());
+        assertNull(caches.getCache(2, 4));
+        assertEquals(3, caches.getLastLevel());
+        assertEquals(64, caches.getLineBytes());
+    }
+
+    @Test
+    public void chunksAreHalfTheShareOfACore() {
+        CacheHierarchy caches = read("sm8350");
+        // Cortex-X1: 64KB L1 and 1MB L2 of its own, 4MB L3 shared by all eight cores.
+        assertEquals(32 * 1024, caches.getChunkBytes(1));
+        assertEquals(512 * 1024, caches.getChunkBytes(2));
+        // 256KB is the share of L3, never below the chunk of L2.
+        assertEquals(512 * 1024, caches.getChunkBytes(3));
+        assertEquals(256 * 1024, caches.getChunkBytes(0, 3));
+        assertEquals(64 * 1024, caches.getChunkBytes(0, 2));
+    }
+
+    @Test
+    public void fillsInSizesTheKernelLeftOut() {
+        CacheHierarchy caches = read("sdm845");
+        assertEquals(3, caches.getCaches(1).length);
+        assertEquals(DeviceInfo.DEVICEINFO_UNKNOWN, caches.getCache(1, 1).getSizeBytes());
+        assertEquals(DeviceInfo.DEVICEINFO_UNKNOWN, caches.getChunkBytes(3));
+
+        CacheHierarchy filled = caches.withDefaults(2018);
+        CacheHierarchy.Cache l3 = filled.getCache(1, 3);
+        assertEquals(2048 * 1024, l3.getSizeBytes());
+        assertEquals(64, l3.getLineBytes());
+        // What the kernel did list is kept.
+        assertEquals(0xffL, l3.getSharedCpuMask());
+        assertTrue(l3.isEstimated());
+        assertEquals(32 * 1024, filled.getChunkBytes(1));
+        assertEquals(128 * 1024, filled.getChunkBytes(2));
+        assertSame(filled, filled.withDefaults(2018));
+    }
+
+    @Test
+    public void estimatesHiddenCachesForTheClass() {
+        CacheHierarchy caches = read("msm8974");
+        assertTrue(caches.isEmpty());
+        assertEquals(0, caches.getLastLevel());
+        assertEquals(DeviceInfo.DEVICEINFO_UNKNOWN, caches.getLineBytes());
+        assertEquals(DeviceInfo.DEVICEINFO_UNKNOWN, caches.getChunkBytes(2));
+
+        // Krait: 16KB L1 per core, estimated as 32KB, and 2MB of L2 for the four cores, estimated as 1MB.
+        CacheHierarchy filled = caches.withDefaults(2013);
+        assertFalse(filled.isEmpty());
+        assertEquals(0x1L, filled.getCache(0, 1).getSharedCpuMask());
+        assertEquals(0xfL, filled.getCache(0, 2).getSharedCpuMask());
+        assertEquals(16 * 1024, filled.getChunkBytes(1));
+        assertEquals(128 * 1024, filled.getChunkBytes(2));
+    }
+
+    @Test
+    public void roundTripsThroughTheCache() throws Exception {
+        CacheHierarchy caches = read("sdm845").withDefaults(2018);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        caches.writeTo(new DataOutputStream(bytes));
+        CacheHierarchy read = CacheHierarchy.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(caches.toString(), read.toString());
+        assertEquals(caches.getBigCluster(), read.getBigCluster());
+        assertEquals(caches.getChunkBytes(3), read.getChunkBytes(3));
+    }
+}
@@ -0,0 +1,103 @@
+package deviceinfo;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CpuFeaturesTest {
+    private static final int ARMV8_BASE = CpuFeatures.FP | CpuFeatures.SIMD | CpuFeatures.FP16 | CpuFeatures.AES
+            | CpuFeatures.PMULL | CpuFeatures.SHA1 | CpuFeatures.SHA2 | CpuFeatures.CRC32 | CpuFeatures.ATOMICS
+            | CpuFeatures.IDIV;
+
+    private static CpuFeatures parse(String cpuinfo, byte[] auxv) throws Exception {
+        byte[] text = cpuinfo == null ? null : cpuinfo.getBytes("US-ASCII");
+        return CpuFeatures.parse(text, text == null ? 0 : text.length, auxv, auxv == null ? 0 : auxv.length);
+    }
+
+    /**
+     * @param pairs - Type and value of each entry, AT_NULL is appended.
+     */
+    private static byte[] auxv64(long... pairs) {
+        ByteBuffer buffer = ByteBuffer.allocate((pairs.length + 2) * 8).order(ByteOrder.LITTLE_ENDIAN);
+        for (long value : pairs) buffer.putLong(value);
+        return buffer.putLong(0).putLong(0).array();
+    }
+
+    @Test
+    public void readsArm64Fixture() {
+        CpuFeatures features = CpuFeatures.read(Fixtures.root("sm8350"));
+        assertTrue(features.hasHwcap());
+        assertEquals(ARMV8_BASE | CpuFeatures.DOTPROD, features.getFlags());
+        // cpuinfo does not list the divide instructions of ARMv8, HWCAP implies them.
+        assertEquals(features.getFlags() & ~CpuFeatures.IDIV, features.getCpuinfoFlags());
+        assertTrue(features.is64BitCapable());
+        assertEquals(0xffL, features.getCpuMask());
+        assertEquals(0x41, features.getImplementer(0));
+        assertEquals(0xd05, features.getPart(0));
+        assertEquals(0xd41, features.getPart(4));
+        assertEquals(0xd44, features.getPart(7));
+        assertEquals(DeviceInfo.DEVICEINFO_UNKNOWN, features.getPart(8));
+    }
+
+    @Test
+    public void olderCoresLackDotProduct() {
+        CpuFeatures features = CpuFeatures.read(Fixtures.root("sdm845"));
+        assertEquals(ARMV8_BASE, features.getFlags());
+        assertFalse(features.has(CpuFeatures.DOTPROD));
+        assertEquals(0x51, features.getImplementer(0));
+        assertEquals(0x803, features.getPart(0));
+        assertEquals(0x802, features.getPart(7));
+    }
+
+    @Test
+    public void readsArm32Fixture() {
+        CpuFeatures features = CpuFeatures.read(Fixtures.root("msm8974"));
+        assertEquals(CpuFeatures.FP | CpuFeatures.SIMD | CpuFeatures.IDIV, features.getFlags());
+        assertFalse(features.is64BitCapable());
+        assertEquals(0x51, features.getImplementer(0));
+    }
+
+    @Test
+    public void featuresOfEveryCoreCount() throws Exception {
+        CpuFeatures features = parse("processor\t: 0\nFeatures\t: fp asimd aes asimddp\n\n"
+                + "processor\t: 1\nFeatures\t: fp asimd aes\n", null);
+        assertFalse(features.hasHwcap());
+        assertEquals(CpuFeatures.FP | CpuFeatures.SIMD | CpuFeatures.AES, features.getFlags());
+        assertTrue(features.has(CpuFeatures.FP | CpuFeatures.AES));
+        assertFalse(features.has(CpuFeatures.FP | CpuFeatures.DOTPROD));
+        assertEquals(features.getFlags() | CpuFeatures.DOTPROD, features.getCoreFlags(0));
+    }
+
+    @Test
+    public void hwcapWinsOverCpuinfo() throws Exception {
+        // AT_HWCAP with fp, asimd and asimddp, AT_HWCAP2 with sve2. Every ARMv8 core divides.
+        CpuFeatures features = parse("Features\t: fp asimd\n", auxv64(16, 0x3 | 1 << 20, 26, 1 << 1));
+        assertTrue(features.hasHwcap());
+        assertEquals(CpuFeatures.FP | CpuFeatures.SIMD | CpuFeatures.DOTPROD | CpuFeatures.SVE2 | CpuFeatures.IDIV,
+                features.getFlags());
+        assertEquals(CpuFeatures.FP | CpuFeatures.SIMD, features.getCpuinfoFlags());
+    }
+
+    @Test
+    public void readsX86Flags() throws Exception {
+        CpuFeatures features = parse("processor\t: 0\nflags\t\t: fpu sse2 ssse3 sse4_2 aes pclmulqdq lm\n", null);
+        assertEquals(CpuFeatures.FP | CpuFeatures.SIMD | CpuFeatures.CRC32 | CpuFeatures.AES | CpuFeatures.PMULL,
+                features.getFlags());
+        assertTrue(features.is64BitCapable());
+    }
+
+    @Test
+    public void namesRoundTrip() {
+        int flags = CpuFeatures.FP | CpuFeatures.DOTPROD | CpuFeatures.IDIV;
+        assertEquals("fp,dotprod,idiv", CpuFeatures.getFlagNames(flags));
+        for (String name : CpuFeatures.getFlagNames(-1).split(",")) {
+            assertEquals(name, CpuFeatures.getFlagNames(CpuFeatures.flagOf(name)));
+        }
+        assertEquals(0, CpuFeatures.flagOf("mmx"));
+    }
+}
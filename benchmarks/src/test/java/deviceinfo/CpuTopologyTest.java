@@ -0,0 +1,55 @@
+package deviceinfo;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class CpuTopologyTest {
+    private static long parse(String list) throws Exception {
+        byte[] bytes = list.getBytes("US-ASCII");
+        return CpuTopology.parseCpuList(bytes, bytes.length);
+    }
+
+    @Test
+    public void parsesCpuLists() throws Exception {
+        assertEquals(0xffL, parse("0-7\n"));
+        assertEquals(0x4fL, parse("0-3,6"));
+        assertEquals(0x70L, parse("4 5 6\n"));
+        assertEquals(1L, parse("0"));
+        assertEquals(1L << 63, parse("63-70"));
+        assertEquals(0L, parse("\n"));
+        assertEquals(0x3L, parse("0-1\n2-3"));
+    }
+
+    @Test
+    public void formatsRangeLists() {
+        assertEquals("[0-3,6]", CpuTopology.toRangeList(0x4fL));
+        assertEquals("[7]", CpuTopology.toRangeList(0x80L));
+        assertEquals("[]", CpuTopology.toRangeList(0));
+        assertEquals("[0,2,63]", CpuTopology.toRangeList(0x5L | 1L << 63));
+    }
+
+    @Test
+    public void readsClustersFromPolicies() {
+        CpuTopology topology = CpuTopology.read(Fixtures.root("sm8350"));
+        assertEquals(8, topology.getPossibleCount());
+        assertEquals(3, topology.getClusterCount());
+        CpuTopology.Cluster[] clusters = topology.getClusters();
+        assertEquals(0x0fL, clusters[0].getCpuMask());
+        assertEquals(1804800, clusters[0].getMaxFreqKHz());
+        assertEquals(411, clusters[0].getCapacity());
+        assertEquals(0x70L, clusters[1].getCpuMask());
+        assertEquals(0x80L, clusters[2].getCpuMask());
+        assertEquals(2841600, topology.getMaxFreqKHz());
+        assertEquals(7, topology.getBigCluster().getFirstCpu());
+    }
+
+    @Test
+    public void groupsCoresWithoutPolicies() {
+        CpuTopology topology = CpuTopology.read(Fixtures.root("msm8974"));
+        assertEquals(4, topology.getPossibleCount());
+        assertEquals(1, topology.getClusterCount());
+        assertEquals(2265600, topology.getMaxFreqKHz());
+        assertEquals(4, topology.getBigCoreCount());
+    }
+}
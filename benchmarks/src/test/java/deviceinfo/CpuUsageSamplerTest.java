@@ -0,0 +1,128 @@
+package deviceinfo;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+
+public class CpuUsageSamplerTest {
+    private static final long SECOND = 1000000000L;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private SysRoot root;
+
+    @Before
+    public void setUp() throws IOException {
+        root = new SysRoot(folder.getRoot().getAbsolutePath());
+        write("/sys/devices/system/cpu/possible", "0-1\n");
+    }
+
+    private void write(String path, String text) throws IOException {
+        File file = new File(root.path(path));
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), text.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Writes /proc/stat with the given busy (user) and idle jiffies of cpu0 and cpu1.
+     */
+    private void writeProcStat(long busy0, long idle0, long busy1, long idle1) throws IOException {
+        write("/proc/stat", "cpu  " + (busy0 + busy1) + " 0 0 " + (idle0 + idle1) + " 0 0 0 0 0 0\n"
+                + "cpu0 " + busy0 + " 0 0 " + idle0 + " 0 0 0 0 0 0\n"
+                + "cpu1 " + busy1 + " 0 0 " + idle1 + " 0 0 0 0 0 0\n"
+                + "intr 293846173 0 0 0\n"
+                + "ctxt 512390713\n");
+    }
+
+    private void writeSelfStat(long utime, long stime) throws IOException {
+        write("/proc/self/stat", "12345 (com.example (app)) S 712 712 0 0 -1 1077952832 189341 0 1204 0 "
+                + utime + " " + stime + " 0 0 10 -10 61 0 1024337 16182472704 41233\n");
+    }
+
+    @Test
+    public void firstSampleOnlySetsTheBaseline() throws Exception {
+        writeProcStat(1000, 1000, 1000, 1000);
+        writeSelfStat(100, 50);
+        CpuUsageSampler sampler = new CpuUsageSampler(root, 4);
+        assertEquals(2, sampler.getCoreCount());
+
+        sampler.sample(SECOND);
+        assertEquals(0, sampler.getSequence());
+        assertEquals(DeviceInfo.DEVICEINFO_UNKNOWN, sampler.getTotalPermille());
+        assertEquals(DeviceInfo.DEVICEINFO_UNKNOWN, sampler.getCorePermille(0));
+    }
+
+    @Test
+    public void turnsJiffyDeltasIntoPermille() throws Exception {
+        writeProcStat(1000, 1000, 1000, 1000);
+        writeSelfStat(100, 50);
+        CpuUsageSampler sampler = new CpuUsageSampler(root, 4);
+        sampler.sample(SECOND);
+
+        writeProcStat(1080, 1020, 1020, 1080);
+        writeSelfStat(120, 55);
+        sampler.sample(2 * SECOND);
+        assertEquals(1, sampler.getSequence());
+        assertEquals(500, sampler.getTotalPermille());
+        assertEquals(800, sampler.getCorePermille(0));
+        assertEquals(200, sampler.getCorePermille(1));
+        assertEquals(DeviceInfo.DEVICEINFO_UNKNOWN, sampler.getCorePermille(2));
+        // 25 of the 200 device jiffies in the interval.
+        assertEquals(125, sampler.getProcessPermille());
+    }
+
+    @Test
+    public void historyKeepsTheLatestSamplesOldestFirst() throws Exception {
+        CpuUsageSampler sampler = new CpuUsageSampler(root, 3);
+        writeSelfStat(0, 0);
+        long busy = 0;
+        long idle = 0;
+        writeProcStat(busy, idle, 0, 0);
+        sampler.sample(SECOND);
+        // Busy shares of 100, 200, 300 and 400 permille.
+        for (int i = 1; i <= 4; i++) {
+            busy += i;
+            idle += 10 - i;
+            writeProcStat(busy, idle, 0, 0);
+            sampler.sample((i + 1) * SECOND);
+        }
+        assertEquals(4, sampler.getSequence());
+        assertEquals(400, sampler.getTotalPermille());
+        assertEquals(350, sampler.getAverageTotalPermille(2));
+        // One slot is always kept back for the writer.
+        assertEquals(350, sampler.getAverageTotalPermille(10));
+
+        long[] times = new long[8];
+        int[] total = new int[8];
+        int[] process = new int[8];
+        assertEquals(2, sampler.copyHistory(times, total, process));
+        assertEquals(4 * SECOND, times[0]);
+        assertEquals(300, total[0]);
+        assertEquals(5 * SECOND, times[1]);
+        assertEquals(400, total[1]);
+        assertEquals(0, process[1]);
+    }
+
+    @Test
+    public void processShareUsesWallTimeWithoutProcStat() throws Exception {
+        writeSelfStat(100, 50);
+        CpuUsageSampler sampler = new CpuUsageSampler(root, 4);
+        sampler.sample(SECOND);
+
+        writeSelfStat(130, 70);
+        sampler.sample(2 * SECOND);
+        assertEquals(DeviceInfo.DEVICEINFO_UNKNOWN, sampler.getTotalPermille());
+        assertEquals(DeviceInfo.DEVICEINFO_UNKNOWN, sampler.getCorePermille(0));
+        // 50 jiffies of the 100 per second of each of the two cores.
+        assertEquals(250, sampler.getProcessPermille());
+    }
+}
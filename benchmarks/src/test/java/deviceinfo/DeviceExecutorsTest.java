@@ -0,0 +1,56 @@
+package deviceinfo;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DeviceExecutorsTest {
+    @Test
+    public void lowDevicesCancelTheDroppedFuture() throws Exception {
+        DeviceExecutors executors = DeviceExecutors.create(2, 1, 128, "LOW");
+        assertEquals(DeviceExecutors.Rejection.DISCARD_OLDEST, executors.getSizing().getRejection());
+        ThreadPoolExecutor pool = executors.newCpuBoundPool("test");
+        final CountDownLatch release = new CountDownLatch(1);
+        Runnable blocked = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        try {
+            pool.submit(blocked);
+            List<Future<?>> queued = new ArrayList<>();
+            int capacity = executors.getSizing().getCpuQueueCapacity();
+            for (int i = 0; i <= capacity; i++) {
+                queued.add(pool.submit(blocked));
+            }
+            Future<?> dropped = queued.get(0);
+            assertTrue(dropped.isCancelled());
+            try {
+                dropped.get(1, TimeUnit.SECONDS);
+                fail();
+            } catch (CancellationException expected) {
+            }
+            assertFalse(queued.get(capacity).isDone());
+        } finally {
+            release.countDown();
+            pool.shutdown();
+        }
+        assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,79 @@
+package deviceinfo;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DeviceInfoTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private SysRoot previousRoot;
+
+    @Before
+    public void setUp() {
+        previousRoot = SysRoot.get();
+        SysRoot.set(Fixtures.root("sm8350"));
+    }
+
+    @After
+    public void tearDown() {
+        SysRoot.set(previousRoot);
+    }
+
+    @Test
+    public void getYearAsyncCallsBackFromItsOwnThread() throws Exception {
+        FixtureContext context = new FixtureContext(Fixtures.dir("sm8350"), folder.newFolder("files"));
+        final CountDownLatch called = new CountDownLatch(1);
+        final int[] year = new int[1];
+        final String[] thread = new String[1];
+        Future<Integer> future = DeviceInfo.getYearAsync(context, new DeviceInfo.YearClassCallback() {
+            @Override
+            public void onYearClass(int y, String classCategory) {
+                year[0] = y;
+                thread[0] = Thread.currentThread().getName();
+                called.countDown();
+            }
+        });
+        assertTrue(called.await(10, TimeUnit.SECONDS));
+        assertEquals(future.get().intValue(), year[0]);
+        assertEquals("deviceinfo-year", thread[0]);
+
+        // Known now: the callback runs right away on the calling thread.
+        final String[] again = new String[1];
+        DeviceInfo.getYearAsync(context, new DeviceInfo.YearClassCallback() {
+            @Override
+            public void onYearClass(int y, String classCategory) {
+                again[0] = Thread.currentThread().getName();
+            }
+        });
+        assertEquals(Thread.currentThread().getName(), again[0]);
+    }
+
+    @Test
+    public void classCategoryFollowsTheYear() throws Exception {
+        FixtureContext context = new FixtureContext(Fixtures.dir("sm8350"), folder.newFolder("files"));
+        int year = DeviceInfo.getYear(context);
+        assertTrue(year > 0);
+        assertEquals(YearClassifier.classOf(year), DeviceInfo.getClassCategory(context));
+    }
+
+    @Test
+    public void detectYearClassAsyncNeedsInitialize() {
+        try {
+            new DeviceInfo().DetectYearClassAsync(null);
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+    }
+}
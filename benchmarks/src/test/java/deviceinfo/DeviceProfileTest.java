@@ -0,0 +1,122 @@
+package deviceinfo;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DeviceProfileTest {
+    private static DeviceProfile profileOf(String device) throws IOException {
+        DeviceSnapshot snapshot = Fixtures.snapshot(device);
+        return DeviceProfile.of(snapshot).setSdk(31).setYear(2021)
+                .setScreen(1080, 2400, DeviceProfile.SCREEN_NORMAL)
+                .setDensity(420, DeviceProfile.densityOf(2.625f))
+                .setCpuFeatures(CpuFeatures.read(Fixtures.root(device)).getFlags(), true)
+                .setGles(32).setCacheBytes(64 << 10, 512 << 10, 4 << 20);
+    }
+
+    private static byte[] encode(DeviceProfile profile) {
+        byte[] buffer = new byte[profile.getEncodedSize()];
+        assertEquals(buffer.length, profile.encode(buffer, 0));
+        return buffer;
+    }
+
+    @Test
+    public void roundTripsEveryFixture() throws Exception {
+        for (String device : Fixtures.DEVICES) {
+            DeviceProfile profile = profileOf(device);
+            byte[] bytes = encode(profile);
+            assertTrue(device, bytes.length <= DeviceProfile.MAX_ENCODED_BYTES);
+            DeviceProfile decoded = new DeviceProfile();
+            assertTrue(device, DeviceProfile.decode(bytes, 0, bytes.length, decoded));
+            assertEquals(device, profile.toString(), decoded.toString());
+            assertArrayEquals(device, bytes, encode(decoded));
+        }
+    }
+
+    @Test
+    public void keepsTheFixtureValues() throws Exception {
+        DeviceProfile profile = profileOf("sm8350");
+        byte[] bytes = encode(profile);
+        DeviceProfile decoded = new DeviceProfile();
+        assertTrue(DeviceProfile.decode(bytes, 0, bytes.length, decoded));
+        assertEquals(DeviceProfile.FORMAT_VERSION, decoded.getVersion());
+        assertEquals(8, decoded.getCores());
+        assertEquals(2841600, decoded.getMaxFreqKHz());
+        assertEquals(7829483520L, decoded.getTotalRamBytes());
+        assertEquals(2400, decoded.getScreenLongPx());
+        assertEquals(1080, decoded.getScreenShortPx());
+        assertEquals(DeviceProfile.DENSITY_XHDPI, decoded.getDensity());
+        assertEquals(3, decoded.getClusterCount());
+        assertEquals(1, decoded.getClusterCores(2));
+        assertEquals(1024, decoded.getClusterCapacity(2));
+        assertEquals(4 << 20, decoded.getL3Bytes());
+    }
+
+    @Test
+    public void leavesUnknownValuesOut() {
+        DeviceProfile profile = new DeviceProfile().setYear(2015);
+        byte[] bytes = encode(profile);
+        DeviceProfile decoded = new DeviceProfile().setSdk(29);
+        assertTrue(DeviceProfile.decode(bytes, 0, bytes.length, decoded));
+        assertEquals(2015, decoded.getYear());
+        assertEquals(DeviceInfo.DEVICEINFO_UNKNOWN, decoded.getSdk());
+        assertEquals(DeviceInfo.DEVICEINFO_UNKNOWN, decoded.getTotalRamBytes());
+        assertEquals(0, decoded.getClusterCount());
+    }
+
+    @Test
+    public void skipsUnknownFields() throws Exception {
+        byte[] known = encode(profileOf("sdm845"));
+        // Field 99 as a varint, field 100 as bytes and field 101 as fixed32, as a newer encoder might add.
+        byte[] extra = {(byte) 0x98, 0x06, 0x05, (byte) 0xa2, 0x06, 0x02, 0x01, 0x02, (byte) 0xad, 0x06, 1, 2, 3, 4};
+        byte[] bytes = Arrays.copyOf(known, known.length + extra.length);
+        System.arraycopy(extra, 0, bytes, known.length, extra.length);
+        DeviceProfile decoded = new DeviceProfile();
+        assertTrue(DeviceProfile.decode(bytes, 0, bytes.length, decoded));
+        assertArrayEquals(known, encode(decoded));
+    }
+
+    @Test
+    public void rejectsTruncatedInput() throws Exception {
+        byte[] bytes = encode(profileOf("sm8350"));
+        DeviceProfile decoded = new DeviceProfile();
+        for (int length = 1; length < bytes.length; length++) {
+            byte last = bytes[length - 1];
+            if ((last & 0x80) != 0) assertFalse(DeviceProfile.decode(bytes, 0, length, decoded));
+        }
+    }
+
+    @Test
+    public void encodeChecksRoom() throws Exception {
+        DeviceProfile profile = profileOf("sm8350");
+        try {
+            profile.encode(new byte[profile.getEncodedSize() - 1], 0);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void decodesDelimitedStream() throws Exception {
+        byte[] buffer = new byte[3 * (DeviceProfile.MAX_ENCODED_BYTES + 2)];
+        int length = 0;
+        for (String device : Fixtures.DEVICES) {
+            length += profileOf(device).encodeDelimited(buffer, length);
+        }
+        DeviceProfile.Decoder decoder = new DeviceProfile.Decoder(new ByteArrayInputStream(buffer, 0, length));
+        DeviceProfile decoded = new DeviceProfile();
+        for (String device : Fixtures.DEVICES) {
+            assertTrue(decoder.next(decoded));
+            assertEquals(device, profileOf(device).toString(), decoded.toString());
+        }
+        assertFalse(decoder.next(decoded));
+    }
+}
@@ -0,0 +1,78 @@
+package deviceinfo;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Properties;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class DeviceSnapshotTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private static byte[] write(DeviceSnapshot snapshot) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        snapshot.writeTo(out);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private void writeNode(String path, String value) throws IOException {
+        File file = new File(folder.getRoot(), path);
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), (value + "\n").getBytes(StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void restoresStaticValues() throws Exception {
+        for (String device : Fixtures.DEVICES) {
+            DeviceSnapshot snapshot = Fixtures.snapshot(device);
+            DeviceSnapshot loaded = DeviceSnapshot.readFrom(new DataInputStream(new ByteArrayInputStream(write(snapshot))),
+                    Fixtures.root(device), BundlePlatform.load(Fixtures.dir(device)));
+            assertEquals(device, snapshot.getCpuTopology().toString(), loaded.getCpuTopology().toString());
+            assertEquals(device, snapshot.getNumberOfCPUCores(), loaded.getNumberOfCPUCores());
+            assertEquals(device, snapshot.getCPUMaxFreqKHz(), loaded.getCPUMaxFreqKHz());
+            assertEquals(device, snapshot.getTotalMemory(), loaded.getTotalMemory());
+            assertArrayEquals(device, snapshot.getAbis(), loaded.getAbis());
+            assertEquals(device, snapshot.getStorageTotalBytes(), loaded.getStorageTotalBytes());
+            assertEquals(device, snapshot.getStorageAvailableBytes(), loaded.getStorageAvailableBytes());
+        }
+    }
+
+    @Test
+    public void readsVolatileValuesOnLoad() throws Exception {
+        byte[] bytes = write(Fixtures.snapshot("sm8350"));
+        writeNode("sys/devices/system/cpu/online", "0-3");
+        writeNode("sys/devices/system/cpu/cpu0/cpufreq/scaling_cur_freq", "300000");
+        writeNode("sys/devices/system/cpu/cpu0/cpufreq/scaling_governor", "powersave");
+        Properties properties = new Properties();
+        properties.setProperty("storageAvailable", "12345");
+
+        DeviceSnapshot loaded = DeviceSnapshot.readFrom(new DataInputStream(new ByteArrayInputStream(bytes)),
+                new SysRoot(folder.getRoot().getAbsolutePath()), new BundlePlatform(properties));
+        CpuTopology topology = loaded.getCpuTopology();
+        assertEquals(0xfL, topology.getOnlineMask());
+        CpuTopology.Cluster little = topology.getClusters()[0];
+        assertEquals(300000, little.getCurFreqKHz());
+        assertEquals("powersave", little.getGovernor());
+        assertEquals(1804800, little.getMaxFreqKHz());
+        CpuTopology.Cluster prime = topology.getClusters()[2];
+        assertEquals(DeviceInfo.DEVICEINFO_UNKNOWN, prime.getCurFreqKHz());
+        assertNull(prime.getGovernor());
+        assertEquals(1024, prime.getCapacity());
+        assertEquals(12345L, loaded.getStorageAvailableBytes());
+    }
+}
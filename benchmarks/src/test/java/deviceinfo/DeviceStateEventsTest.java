@@ -0,0 +1,62 @@
+package deviceinfo;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import anywheresoftware.b4a.BA;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DeviceStateEventsTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @After
+    public void tearDown() {
+        SysRoot.set(null);
+        BA.applicationContext = null;
+    }
+
+    @Test
+    public void raisesTheCurrentStateFirst() throws Exception {
+        SysRoot.set(Fixtures.root("sm8350"));
+        BA.applicationContext = new FixtureContext(Fixtures.dir("sm8350"), folder.newFolder("files"));
+        final CountDownLatch raised = new CountDownLatch(1);
+        final String[] event = new String[1];
+        final Object[][] params = new Object[1][];
+        BA ba = new BA() {
+            @Override
+            public void raiseEventFromDifferentThread(Object sender, Object container, int taskId, String name,
+                                                      boolean throwErrorIfMissingSub, Object[] values) {
+                if (raised.getCount() == 0) return;
+                event[0] = name;
+                params[0] = values;
+                raised.countDown();
+            }
+        };
+
+        DeviceStateEvents events = new DeviceStateEvents();
+        events.Initialize(ba, "State");
+        assertEquals(DeviceInfo.DEVICEINFO_UNKNOWN, events.getOnlineCores());
+        assertEquals("NORMAL", events.getMemoryLevel());
+        events.Start(60000);
+        try {
+            assertTrue(raised.await(10, TimeUnit.SECONDS));
+        } finally {
+            events.Stop();
+        }
+        assertEquals("state_statechanged", event[0]);
+        assertEquals(DeviceStateEvents.CHANGE_CPU_HOTPLUG | DeviceStateEvents.CHANGE_FREQ_CAP
+                | DeviceStateEvents.CHANGE_MEMORY_PRESSURE | DeviceStateEvents.CHANGE_LOW_STORAGE
+                | DeviceStateEvents.CHANGE_CLASS, params[0][0]);
+        assertEquals(8, params[0][1]);
+        assertEquals("NORMAL", params[0][2]);
+        assertEquals(8, events.getOnlineCores());
+    }
+}
@@ -0,0 +1,183 @@
+package deviceinfo;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class DeviceStateMonitorTest {
+    private static final long MILLI = 1000000L;
+    private static final String ONLINE = "/sys/devices/system/cpu/online";
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<DeviceStateMonitor.State> states = new ArrayList<>();
+    private final List<Integer> changes = new ArrayList<>();
+    private final DeviceStateMonitor.Listener recorder = new DeviceStateMonitor.Listener() {
+        @Override
+        public void onDeviceState(DeviceStateMonitor.State state, int changed) {
+            states.add(state);
+            changes.add(changed);
+        }
+    };
+    // Runs deliveries on the sampling thread, or queues them while the test plays a slow subscriber.
+    private final List<Runnable> queued = new ArrayList<>();
+    private boolean slow;
+    private final Executor executor = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            if (slow) {
+                queued.add(command);
+            } else {
+                command.run();
+            }
+        }
+    };
+
+    private SysRoot root;
+    private DeviceStateMonitor monitor;
+
+    @Before
+    public void setUp() throws Exception {
+        root = Fixtures.copy("sm8350", folder.newFolder("sm8350"));
+        // The memory monitor reads its nodes from the default root.
+        SysRoot.set(root);
+        monitor = new DeviceStateMonitor(root, new FixtureContext(Fixtures.dir("sm8350"), folder.newFolder("files")));
+        // Not the year class DeviceInfo may have cached from another test.
+        monitor.getThermalMonitor().setBaseYear(2020);
+    }
+
+    @After
+    public void tearDown() {
+        SysRoot.set(null);
+    }
+
+    private void write(String path, String value) throws IOException {
+        Files.write(new File(root.path(path)).toPath(), (value + "\n").getBytes(StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void firstEventCarriesTheWholeState() {
+        monitor.subscribe(recorder, executor);
+        monitor.sample(0);
+        assertEquals(1, states.size());
+        assertEquals(DeviceStateMonitor.ALL, changes.get(0).intValue());
+        DeviceStateMonitor.State state = states.get(0);
+        assertEquals(8, state.getOnlineCores());
+        assertEquals(2841600, state.getCapKHz(2));
+        assertEquals(ThermalMonitor.Level.NONE, state.getThermalLevel());
+        assertEquals(MemoryPressureMonitor.Level.NORMAL, state.getMemoryLevel());
+        assertEquals(2020, state.getEffectiveYear());
+        assertSame(state, monitor.getState());
+
+        // Nothing changed, nobody is told and no state is allocated.
+        monitor.sample(1000 * MILLI);
+        assertEquals(1, states.size());
+        assertSame(state, monitor.getState());
+
+        // A late subscriber gets the current state right away.
+        final List<Integer> late = new ArrayList<>();
+        monitor.subscribe(new DeviceStateMonitor.Listener() {
+            @Override
+            public void onDeviceState(DeviceStateMonitor.State s, int changed) {
+                late.add(changed);
+            }
+        }, executor);
+        assertEquals(1, late.size());
+        assertEquals(DeviceStateMonitor.ALL, late.get(0).intValue());
+    }
+
+    @Test
+    public void coalescesChangesWithinTheWindow() throws Exception {
+        monitor.subscribe(recorder, executor);
+        monitor.sample(0);
+
+        write(ONLINE, "0-3");
+        monitor.sample(100 * MILLI);
+        assertEquals(4, monitor.getState().getOnlineCores());
+        write("/sys/devices/system/cpu/cpufreq/policy7/scaling_max_freq", "1996800");
+        monitor.sample(200 * MILLI);
+        assertEquals(1, states.size());
+
+        // Past the 250ms window the changes go out as one event; the cap also lowered the class.
+        monitor.sample(300 * MILLI);
+        assertEquals(2, states.size());
+        assertEquals(DeviceStateMonitor.CPU_HOTPLUG | DeviceStateMonitor.FREQ_CAP | DeviceStateMonitor.CLASS_CHANGE,
+                changes.get(1).intValue());
+        assertEquals(4, states.get(1).getOnlineCores());
+        assertEquals(1996800, states.get(1).getCapKHz(2));
+        assertEquals(2013, states.get(1).getEffectiveYear());
+    }
+
+    @Test
+    public void slowSubscriberGetsOnlyTheLatestState() throws Exception {
+        monitor.setCoalesceMillis(0);
+        DeviceStateMonitor.Subscription subscription = monitor.subscribe(recorder, executor);
+        slow = true;
+        monitor.sample(0);
+        write(ONLINE, "0-5");
+        monitor.sample(10 * MILLI);
+        write(ONLINE, "0-3");
+        monitor.sample(20 * MILLI);
+        // One drain task, however many events arrived.
+        assertEquals(1, queued.size());
+
+        queued.remove(0).run();
+        assertEquals(1, states.size());
+        assertEquals(DeviceStateMonitor.ALL, changes.get(0).intValue());
+        assertEquals(4, states.get(0).getOnlineCores());
+
+        write(ONLINE, "0-7");
+        monitor.sample(30 * MILLI);
+        subscription.cancel();
+        queued.remove(0).run();
+        assertEquals(1, states.size());
+    }
+
+    @Test
+    public void reportsLowStorageWhenItChanges() {
+        monitor.setCoalesceMillis(0);
+        monitor.setStorageIntervalMillis(0);
+        monitor.setLowStorageBytes(Long.MAX_VALUE);
+        monitor.subscribe(recorder, executor);
+        monitor.sample(0);
+        DeviceStateMonitor.State state = states.get(0);
+        assertTrue(state.isLowStorage());
+        assertTrue(state.getStorageAvailableBytes() > 0);
+
+        monitor.setLowStorageBytes(0);
+        monitor.sample(10 * MILLI);
+        assertEquals(2, states.size());
+        assertEquals(DeviceStateMonitor.LOW_STORAGE, changes.get(1).intValue());
+        assertFalse(states.get(1).isLowStorage());
+    }
+
+    @Test
+    public void stopKeepsTheSharedOnlineNode() {
+        NodePool shared = NodePool.shared();
+        NodePool.Handle online = shared.get(root.path(ONLINE));
+        byte[] buffer = new byte[16];
+        assertEquals(4, online.read(buffer));
+        int open = shared.getOpenCount();
+
+        monitor.sample(0);
+        monitor.onStop();
+        assertEquals(open, shared.getOpenCount());
+        assertEquals(4, online.read(buffer));
+    }
+}
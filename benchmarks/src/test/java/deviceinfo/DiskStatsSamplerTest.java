@@ -0,0 +1,103 @@
+package deviceinfo;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+
+public class DiskStatsSamplerTest {
+    private static final long SECOND = 1000000000L;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private SysRoot root() {
+        return new SysRoot(folder.getRoot().getAbsolutePath());
+    }
+
+    private void write(String path, String text) throws IOException {
+        File file = new File(folder.getRoot(), path);
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), text.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * @return The eleven counters of a stat line: reads, merged, sectors read, read ticks, writes,
+     * merged, sectors written, write ticks, in flight, io ticks and weighted ticks.
+     */
+    private static String counters(long reads, long sectorsRead, long writes, long sectorsWritten, long inFlight,
+                                   long ioTicks) {
+        return reads + " 0 " + sectorsRead + " 0 " + writes + " 0 " + sectorsWritten + " 0 " + inFlight + " "
+                + ioTicks + " 0";
+    }
+
+    @Test
+    public void enumeratesFixtureDevicesWithoutLoopDevices() {
+        DiskStatsSampler sampler = new DiskStatsSampler(Fixtures.root("sm8350"));
+        assertEquals(0, sampler.getDeviceCount());
+        sampler.sample(SECOND);
+        assertEquals(5, sampler.getDeviceCount());
+        assertEquals("zram0", sampler.getDeviceName(0));
+        assertEquals(2, sampler.indexOf("sda1"));
+        assertEquals(DeviceInfo.DEVICEINFO_UNKNOWN, sampler.indexOf("loop0"));
+        // Only a baseline so far.
+        assertEquals(0, sampler.getSequence());
+        assertEquals(DeviceInfo.DEVICEINFO_UNKNOWN, sampler.getWriteBytesPerSec(1));
+    }
+
+    @Test
+    public void turnsCounterDeltasIntoRates() throws Exception {
+        write("proc/diskstats", "   8       0 sda " + counters(1000, 20000, 500, 40000, 0, 7000) + " 0 0 0 0\n"
+                + " 253       5 dm-5 " + counters(900, 18000, 450, 36000, 0, 6000) + "\n");
+        DiskStatsSampler sampler = new DiskStatsSampler(root());
+        sampler.sample(SECOND);
+
+        // Half a second of sda busy with 150 requests; dm-5 is gone.
+        write("proc/diskstats", "   8       0 sda " + counters(1100, 22048, 550, 44096, 3, 7500) + " 0 0 0 0\n");
+        sampler.sample(2 * SECOND);
+        assertEquals(2, sampler.getSequence());
+        assertEquals(2048 * 512, sampler.getReadBytesPerSec(0));
+        assertEquals(4096 * 512, sampler.getWriteBytesPerSec(0));
+        assertEquals(100, sampler.getReadIops(0));
+        assertEquals(50, sampler.getWriteIops(0));
+        assertEquals(3, sampler.getInFlight(0));
+        assertEquals(3333, sampler.getServiceMicros(0));
+        assertEquals(500, sampler.getUtilizationPermille(0));
+        assertEquals(DeviceInfo.DEVICEINFO_UNKNOWN, sampler.getReadIops(1));
+        assertEquals(DeviceInfo.DEVICEINFO_UNKNOWN, sampler.getUtilizationPermille(1));
+    }
+
+    @Test
+    public void counterResetIsNoNegativeRate() throws Exception {
+        write("proc/diskstats", "   8       0 sda " + counters(1000, 20000, 500, 40000, 0, 7000) + "\n");
+        DiskStatsSampler sampler = new DiskStatsSampler(root());
+        sampler.sample(SECOND);
+        write("proc/diskstats", "   8       0 sda " + counters(10, 200, 5, 400, 0, 70) + "\n");
+        sampler.sample(2 * SECOND);
+        assertEquals(0, sampler.getReadBytesPerSec(0));
+        assertEquals(DeviceInfo.DEVICEINFO_UNKNOWN, sampler.getServiceMicros(0));
+        assertEquals(0, sampler.getUtilizationPermille(0));
+    }
+
+    @Test
+    public void fallsBackToClassBlockStat() throws Exception {
+        write("sys/class/block/mmcblk0/stat", counters(100, 1000, 10, 100, 0, 100) + "\n");
+        write("sys/class/block/loop7/stat", counters(1, 1, 1, 1, 0, 1) + "\n");
+        DiskStatsSampler sampler = new DiskStatsSampler(root());
+        sampler.sample(SECOND);
+        assertEquals(1, sampler.getDeviceCount());
+        assertEquals("mmcblk0", sampler.getDeviceName(0));
+
+        write("sys/class/block/mmcblk0/stat", counters(150, 2000, 10, 100, 1, 350) + "\n");
+        sampler.sample(2 * SECOND);
+        assertEquals(50, sampler.getReadIops(0));
+        assertEquals(1000 * 512, sampler.getReadBytesPerSec(0));
+        assertEquals(250, sampler.getUtilizationPermille(0));
+    }
+}
@@ -0,0 +1,61 @@
+package deviceinfo;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * The device trees in {@code fixtures/}, see the benchmarks README.
+ */
+final class Fixtures {
+    static final String[] DEVICES = {"sm8350", "sdm845", "msm8974"};
+
+    private Fixtures() {
+    }
+
+    static File dir(String device) {
+        File dir = new File(System.getProperty("deviceinfo.fixtures", "fixtures"), device);
+        if (!dir.isDirectory()) throw new IllegalStateException("Missing fixture " + dir.getAbsolutePath());
+        return dir;
+    }
+
+    static SysRoot root(String device) {
+        return new SysRoot(dir(device).getAbsolutePath());
+    }
+
+    static DeviceSnapshot snapshot(String device) throws IOException {
+        return DeviceSnapshot.capture(root(device), BundlePlatform.load(dir(device)));
+    }
+
+    /**
+     * Copies a device tree, keeping its relative symlinks, for tests that change nodes.
+     *
+     * @param dir - Empty directory to copy into.
+     */
+    static SysRoot copy(String device, File dir) throws IOException {
+        copyTree(dir(device), dir);
+        return new SysRoot(dir.getAbsolutePath());
+    }
+
+    private static void copyTree(File from, File to) throws IOException {
+        Path source = from.toPath();
+        if (Files.isSymbolicLink(source)) {
+            Files.createSymbolicLink(to.toPath(), Files.readSymbolicLink(source));
+        } else if (from.isDirectory()) {
+            if (!to.isDirectory() && !to.mkdirs()) throw new IOException("Cannot create " + to);
+            for (String name : from.list()) {
+                copyTree(new File(from, name), new File(to, name));
+            }
+        } else {
+            Files.copy(source, to.toPath());
+        }
+    }
+
+    /**
+     * @param path - Absolute device path such as {@code /proc/cpuinfo}.
+     */
+    static byte[] read(String device, String path) throws IOException {
+        return Files.readAllBytes(new File(root(device).path(path)).toPath());
+    }
+}
@@ -0,0 +1,53 @@
+package deviceinfo;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class MeasuredClassifierTest {
+    // Thread start and join, and a last chunk that ran slower than the one before it.
+    private static final long SLACK_MILLIS = 10;
+
+    /**
+     * @return The shortest of three runs in milliseconds, so that a preemption of the test JVM does
+     * not fail the test.
+     */
+    private static long runMillis(long budgetMillis) {
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < 3; i++) {
+            long start = System.nanoTime();
+            assertNotNull(new MeasuredClassifier(budgetMillis).run());
+            best = Math.min(best, (System.nanoTime() - start) / 1000000L);
+        }
+        return best;
+    }
+
+    @Test
+    public void smallBudgetFinishesWithinIt() {
+        // Warm up the kernels so that the timed runs do not also pay for the interpreter.
+        new MeasuredClassifier(200).run();
+        for (long budget : new long[]{2, 20, 50}) {
+            long elapsed = runMillis(budget);
+            assertTrue(budget + "ms budget took " + elapsed + "ms", elapsed <= budget + SLACK_MILLIS);
+        }
+    }
+
+    @Test
+    public void budgetTooSmallForTheArraySkipsTheMemoryKernels() {
+        MeasuredClassifier.Result result = new MeasuredClassifier(1).run();
+        assertEquals(result.toString(), DeviceInfo.DEVICEINFO_UNKNOWN, result.getBandwidthMBps());
+        assertEquals(result.toString(), DeviceInfo.DEVICEINFO_UNKNOWN, result.getLatencyPicos());
+    }
+
+    @Test
+    public void measuresEveryKernel() {
+        MeasuredClassifier.Result result = new MeasuredClassifier(300, 4 * 1024 * 1024).run();
+        assertTrue(result.toString(), result.getIntMops() > 0);
+        assertTrue(result.toString(), result.getFloatMflops() > 0);
+        assertTrue(result.toString(), result.getBandwidthMBps() > 0);
+        assertTrue(result.toString(), result.getLatencyPicos() > 0);
+        assertTrue(result.toString(), result.getScalingPercent() > 0);
+    }
+}
@@ -0,0 +1,141 @@
+package deviceinfo;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class MemoryPressureMonitorTest {
+    private static final long MB = 1024 * 1024;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<MemoryPressureMonitor.Level> reported = new ArrayList<>();
+    private final MemoryPressureMonitor.Listener recorder = new MemoryPressureMonitor.Listener() {
+        @Override
+        public void onMemoryPressure(MemoryPressureMonitor.Level level, MemoryPressureMonitor monitor) {
+            reported.add(level);
+        }
+    };
+
+    @After
+    public void tearDown() {
+        SysRoot.set(null);
+    }
+
+    private void write(String path, String text) throws IOException {
+        File file = new File(folder.getRoot(), path);
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), text.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private void writeMeminfo(long availableMB) throws IOException {
+        write("proc/meminfo", "MemTotal:        4000000 kB\n"
+                + "MemFree:          100000 kB\n"
+                + "MemAvailable:    " + availableMB * 1024 + " kB\n"
+                + "Cached:          1000000 kB\n"
+                + "SwapFree:              0 kB\n");
+    }
+
+    private void writePressure(String someAvg10, String fullAvg10) throws IOException {
+        write("proc/pressure/memory", "some avg10=" + someAvg10 + " avg60=0.00 avg300=0.00 total=0\n"
+                + "full avg10=" + fullAvg10 + " avg60=0.00 avg300=0.00 total=0\n");
+    }
+
+    private MemoryPressureMonitor monitorOnTempRoot() {
+        SysRoot.set(new SysRoot(folder.getRoot().getAbsolutePath()));
+        MemoryPressureMonitor monitor = new MemoryPressureMonitor(1000 * MB, 500 * MB);
+        monitor.addListener(recorder);
+        return monitor;
+    }
+
+    @Test
+    public void readsMeminfoAndPsiFixture() {
+        SysRoot.set(Fixtures.root("sm8350"));
+        MemoryPressureMonitor monitor = new MemoryPressureMonitor(1000 * MB, 500 * MB);
+        monitor.sample(0);
+        assertEquals(7645980L * 1024, monitor.getTotalBytes());
+        assertEquals(3187784L * 1024, monitor.getAvailableBytes());
+        assertEquals(2735712L * 1024, monitor.getCachedBytes());
+        assertEquals(2901884L * 1024, monitor.getSwapFreeBytes());
+        assertEquals(84, monitor.getPsiSomeAvg10());
+        assertEquals(12, monitor.getPsiFullAvg10());
+        assertEquals(MemoryPressureMonitor.Level.NORMAL, monitor.getLevel());
+    }
+
+    @Test
+    public void olderKernelFallsBackToFreePlusCached() {
+        SysRoot.set(Fixtures.root("msm8974"));
+        MemoryPressureMonitor monitor = new MemoryPressureMonitor(1000 * MB, 500 * MB);
+        monitor.sample(0);
+        assertEquals((98328L + 602112L) * 1024, monitor.getAvailableBytes());
+        assertEquals(DeviceInfo.DEVICEINFO_UNKNOWN, monitor.getPsiSomeAvg10());
+        assertEquals(MemoryPressureMonitor.Level.MODERATE, monitor.getLevel());
+    }
+
+    @Test
+    public void debouncesRisingAndFallingLevels() throws Exception {
+        writeMeminfo(2000);
+        MemoryPressureMonitor monitor = monitorOnTempRoot();
+        monitor.setDebounce(2, 3);
+        monitor.sample(0);
+        assertEquals(0, reported.size());
+
+        // A single spike is not reported.
+        writeMeminfo(400);
+        monitor.sample(0);
+        writeMeminfo(2000);
+        monitor.sample(0);
+        assertEquals(0, reported.size());
+
+        writeMeminfo(400);
+        monitor.sample(0);
+        monitor.sample(0);
+        assertEquals(MemoryPressureMonitor.Level.CRITICAL, monitor.getLevel());
+        assertEquals(1, reported.size());
+
+        // Falling takes three samples at the same level; a different one restarts the count.
+        writeMeminfo(2000);
+        monitor.sample(0);
+        monitor.sample(0);
+        writeMeminfo(800);
+        monitor.sample(0);
+        monitor.sample(0);
+        assertEquals(MemoryPressureMonitor.Level.CRITICAL, monitor.getLevel());
+        monitor.sample(0);
+        assertEquals(MemoryPressureMonitor.Level.MODERATE, monitor.getLevel());
+        assertEquals(2, reported.size());
+        assertEquals(MemoryPressureMonitor.Level.MODERATE, reported.get(1));
+    }
+
+    @Test
+    public void psiStallsRaiseTheLevel() throws Exception {
+        writeMeminfo(2000);
+        writePressure("0.50", "0.00");
+        MemoryPressureMonitor monitor = monitorOnTempRoot();
+        monitor.sample(0);
+        assertEquals(50, monitor.getPsiSomeAvg10());
+        assertEquals(MemoryPressureMonitor.Level.NORMAL, monitor.getLevel());
+
+        writePressure("12.3", "0.00");
+        monitor.sample(0);
+        assertEquals(1230, monitor.getPsiSomeAvg10());
+        assertEquals(MemoryPressureMonitor.Level.MODERATE, monitor.getLevel());
+
+        writePressure("40.00", "7.25");
+        monitor.sample(0);
+        assertEquals(725, monitor.getPsiFullAvg10());
+        assertEquals(MemoryPressureMonitor.Level.CRITICAL, monitor.getLevel());
+        assertEquals(2, reported.size());
+    }
+}
@@ -0,0 +1,58 @@
+package deviceinfo;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class NodePoolTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private String writeNode(String name, String value) throws IOException {
+        File file = folder.newFile(name);
+        Files.write(file.toPath(), (value + "\n").getBytes(StandardCharsets.US_ASCII));
+        return file.getPath();
+    }
+
+    @Test
+    public void releaseKeepsNodesOtherReadersUse() throws Exception {
+        NodePool pool = new NodePool(8);
+        String path = writeNode("scaling_cur_freq", "1804800");
+        NodePool.Handle shared = pool.get(path);
+        assertEquals(1804800, shared.readLong());
+
+        NodePool.Handle held = pool.acquire(path);
+        assertSame(shared, held);
+        held.release();
+        assertEquals(1, pool.getOpenCount());
+    }
+
+    @Test
+    public void lastReleaseClosesTheDescriptor() throws Exception {
+        NodePool pool = new NodePool(8);
+        String path = writeNode("temp", "45000");
+        NodePool.Handle first = pool.acquire(path);
+        NodePool.Handle second = pool.acquire(path);
+        assertEquals(45000, first.readLong());
+
+        first.release();
+        assertEquals(1, pool.getOpenCount());
+        second.release();
+        assertEquals(0, pool.getOpenCount());
+        assertEquals(45000, second.readLong());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void releaseWithoutAcquireThrows() throws Exception {
+        NodePool pool = new NodePool(8);
+        pool.get(writeNode("online", "0-7")).release();
+    }
+}
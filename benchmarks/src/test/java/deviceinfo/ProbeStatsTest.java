@@ -0,0 +1,108 @@
+package deviceinfo;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ProbeStatsTest {
+    @Before
+    public void setUp() {
+        ProbeStats.reset();
+        ProbeStats.setEnabled(true);
+    }
+
+    @After
+    public void tearDown() {
+        ProbeStats.setEnabled(false);
+        ProbeStats.reset();
+    }
+
+    /**
+     * @return A start time that makes the call about micros long.
+     */
+    private static long startedAgo(long micros) {
+        return System.nanoTime() - micros * 1000;
+    }
+
+    @Test
+    public void countsNothingWhileDisabled() {
+        ProbeStats.setEnabled(false);
+        long start = ProbeStats.start();
+        assertEquals(0, start);
+        ProbeStats.end(ProbeStats.MEMINFO, start, ProbeStats.OK);
+        ProbeStats.fallback(ProbeStats.MEMINFO, "meminfo -> ActivityManager");
+        assertEquals(0, ProbeStats.getCallCount(ProbeStats.MEMINFO));
+        assertNull(ProbeStats.getLastFallback(ProbeStats.MEMINFO));
+        assertEquals(DeviceInfo.DEVICEINFO_UNKNOWN, ProbeStats.getPercentileMicros(ProbeStats.MEMINFO, 50));
+    }
+
+    @Test
+    public void bucketsLatenciesByPowersOfTwo() {
+        for (int i = 0; i < 98; i++) {
+            ProbeStats.end(ProbeStats.CPUFREQ, startedAgo(5), ProbeStats.OK);
+        }
+        ProbeStats.end(ProbeStats.CPUFREQ, startedAgo(100), ProbeStats.OK);
+        ProbeStats.end(ProbeStats.CPUFREQ, startedAgo(100), ProbeStats.MISSING);
+        assertEquals(100, ProbeStats.getCallCount(ProbeStats.CPUFREQ));
+        assertEquals(99, ProbeStats.getCount(ProbeStats.CPUFREQ, ProbeStats.OK));
+        assertEquals(8, ProbeStats.getPercentileMicros(ProbeStats.CPUFREQ, 50));
+        assertEquals(128, ProbeStats.getPercentileMicros(ProbeStats.CPUFREQ, 99));
+        assertTrue(ProbeStats.getMaxMicros(ProbeStats.CPUFREQ) >= 100);
+        assertTrue(ProbeStats.getTotalMicros(ProbeStats.CPUFREQ) >= 98 * 5 + 200);
+    }
+
+    @Test
+    public void mapsExceptionsToOutcomes() {
+        assertEquals(ProbeStats.MISSING, ProbeStats.outcomeOf(new FileNotFoundException("/x (No such file)")));
+        assertEquals(ProbeStats.DENIED, ProbeStats.outcomeOf(new FileNotFoundException("/x: open failed: EACCES")));
+        assertEquals(ProbeStats.DENIED, ProbeStats.outcomeOf(new FileNotFoundException("/x (Permission denied)")));
+        assertEquals(ProbeStats.DENIED, ProbeStats.outcomeOf(new SecurityException()));
+        assertEquals(ProbeStats.FAILED, ProbeStats.outcomeOf(new IOException("EIO")));
+    }
+
+    @Test
+    public void keepsTheLastFailureAndFallback() {
+        ProbeStats.failed(ProbeStats.STATFS, ProbeStats.start(), "/data", new SecurityException("no"));
+        assertEquals("denied /data: java.lang.SecurityException: no", ProbeStats.getLastFailure(ProbeStats.STATFS));
+        // File exceptions already name the path.
+        ProbeStats.failed(ProbeStats.STATFS, ProbeStats.start(), "/sdcard",
+                new FileNotFoundException("/sdcard (No such file or directory)"));
+        assertEquals("missing /sdcard (No such file or directory)", ProbeStats.getLastFailure(ProbeStats.STATFS));
+
+        ProbeStats.fallback(ProbeStats.STATFS, "StatFs -> File.getUsableSpace");
+        assertEquals(1, ProbeStats.getCount(ProbeStats.STATFS, ProbeStats.FALLBACK));
+        // A fallback is not a call of its own.
+        assertEquals(2, ProbeStats.getCallCount(ProbeStats.STATFS));
+
+        String report = ProbeStats.getReport();
+        assertTrue(report, report.startsWith("statfs n=2 fallback=1 missing=1 denied=1 p50<"));
+        assertTrue(report, report.contains(" via StatFs -> File.getUsableSpace last missing /sdcard"));
+
+        ProbeStats.reset();
+        assertEquals(0, ProbeStats.getCallCount(ProbeStats.STATFS));
+        assertNull(ProbeStats.getLastFailure(ProbeStats.STATFS));
+        assertEquals("", ProbeStats.getReport());
+    }
+
+    @Test
+    public void recordsFixtureReads() {
+        SysRoot root = Fixtures.root("msm8974");
+        byte[] buffer = new byte[256];
+        assertTrue(ProcFileParser.readNode(root.path("/sys/devices/system/cpu/possible"), buffer,
+                ProbeStats.CPU_SET) > 0);
+        // The Nexus 5 kernel has no cpu_capacity.
+        assertEquals(-1, ProcFileParser.readNode(root.path("/sys/devices/system/cpu/cpu0/cpu_capacity"), buffer,
+                ProbeStats.CPU_CAPACITY));
+        assertEquals(1, ProbeStats.getCount(ProbeStats.CPU_SET, ProbeStats.OK));
+        assertEquals(1, ProbeStats.getCount(ProbeStats.CPU_CAPACITY, ProbeStats.MISSING));
+        String failure = ProbeStats.getLastFailure(ProbeStats.CPU_CAPACITY);
+        assertTrue(failure, failure.endsWith("cpu0/cpu_capacity (No such file or directory)"));
+    }
+}
@@ -0,0 +1,96 @@
+package deviceinfo;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertEquals;
+
+public class ProcFileParserTest {
+    private static long[] parse(ProcFileParser parser, String text) throws Exception {
+        long[] values = new long[parser.getKeyCount()];
+        parser.parse(new ByteArrayInputStream(text.getBytes("US-ASCII")), values);
+        return values;
+    }
+
+    @Test
+    public void parsesMeminfoFixture() throws Exception {
+        ProcFileParser parser = new ProcFileParser("MemTotal", "MemAvailable", "SwapFree", "NoSuchKey");
+        long[] kB = new long[4];
+        int found = parser.parse(Fixtures.root("sm8350").path("/proc/meminfo"), kB);
+        assertEquals(3, found);
+        assertEquals(7645980, kB[0]);
+        assertEquals(3187784, kB[1]);
+        assertEquals(DeviceInfo.DEVICEINFO_UNKNOWN, kB[3]);
+    }
+
+    @Test
+    public void olderKernelLacksMemAvailable() throws Exception {
+        ProcFileParser parser = new ProcFileParser("MemTotal", "MemAvailable");
+        long[] kB = new long[2];
+        assertEquals(1, parser.parse(Fixtures.root("msm8974").path("/proc/meminfo"), kB));
+        assertEquals(1899548, kB[0]);
+        assertEquals(DeviceInfo.DEVICEINFO_UNKNOWN, kB[1]);
+    }
+
+    @Test
+    public void matchesWholeKeysOnly() throws Exception {
+        ProcFileParser parser = new ProcFileParser("Cached", "SwapCached");
+        long[] kB = parse(parser, "SwapCached:  12 kB\nCachedX: 5 kB\nCached:\t  345 kB\n");
+        assertEquals(345, kB[0]);
+        assertEquals(12, kB[1]);
+    }
+
+    @Test
+    public void firstOccurrenceWins() throws Exception {
+        long[] mhz = parse(new ProcFileParser("cpu MHz"), "cpu MHz\t\t: 1804\ncpu MHz\t\t: 2841\n");
+        assertEquals(1804, mhz[0]);
+    }
+
+    @Test
+    public void valueAtEndOfFileWithoutNewline() throws Exception {
+        assertEquals(42, parse(new ProcFileParser("Key"), "Other: 1\nKey: 42")[0]);
+    }
+
+    @Test
+    public void linesSpanningBufferFills() throws Exception {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 50; i++) text.append("Filler").append(i).append(": ").append(i).append(" kB\n");
+        text.append("MemTotal:      7645980 kB\n");
+        ProcFileParser small = new ProcFileParser(7, "MemTotal", "Filler49");
+        long[] kB = parse(small, text.toString());
+        assertEquals(7645980, kB[0]);
+        assertEquals(49, kB[1]);
+    }
+
+    @Test
+    public void rereadsOpenFile() throws Exception {
+        ProcFileParser parser = new ProcFileParser("MemTotal");
+        long[] kB = new long[1];
+        RandomAccessFile file = new RandomAccessFile(new File(Fixtures.root("sdm845").path("/proc/meminfo")), "r");
+        try {
+            for (int i = 0; i < 3; i++) {
+                assertEquals(1, parser.parse(file, kB));
+                assertEquals(5782628, kB[0]);
+            }
+        } finally {
+            file.close();
+        }
+    }
+
+    @Test
+    public void missingFileFindsNothing() {
+        long[] values = {7};
+        assertEquals(0, new ProcFileParser("MemTotal").parse("/no/such/file", values));
+        assertEquals(DeviceInfo.DEVICEINFO_UNKNOWN, values[0]);
+    }
+
+    @Test
+    public void parsesLeadingLong() throws Exception {
+        byte[] node = "2841600\n".getBytes("US-ASCII");
+        assertEquals(2841600, ProcFileParser.parseLeadingLong(node, node.length));
+        assertEquals(DeviceInfo.DEVICEINFO_UNKNOWN, ProcFileParser.parseLeadingLong(new byte[]{'x'}, 1));
+    }
+}
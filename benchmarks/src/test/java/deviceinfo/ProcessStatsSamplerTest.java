@@ -0,0 +1,107 @@
+package deviceinfo;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class ProcessStatsSamplerTest {
+    private static final long SECOND = 1000000000L;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private void write(String path, String text) throws IOException {
+        File file = new File(folder.getRoot(), path);
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), text.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private void writeStatus(long rssKB, long voluntary, long involuntary) throws IOException {
+        write("proc/self/status", "Name:\tcom.example.app\n"
+                + "VmHWM:\t  200000 kB\n"
+                + "VmRSS:\t  " + rssKB + " kB\n"
+                + "Threads:\t42\n"
+                + "voluntary_ctxt_switches:\t" + voluntary + "\n"
+                + "nonvoluntary_ctxt_switches:\t" + involuntary + "\n");
+    }
+
+    private void writeStat(long minorFaults, long majorFaults, long utime, long stime) throws IOException {
+        write("proc/self/stat", "12345 (com.example (app)) S 712 712 0 0 -1 1077952832 " + minorFaults + " 0 "
+                + majorFaults + " 0 " + utime + " " + stime + " 0 0 10 -10 42 0 1024337\n");
+    }
+
+    @Test
+    public void readsFixtureValues() {
+        ProcessStatsSampler sampler = new ProcessStatsSampler(Fixtures.root("sm8350"));
+        assertEquals(DeviceInfo.DEVICEINFO_UNKNOWN, sampler.getRssBytes());
+        sampler.sample(SECOND);
+        assertEquals(2, sampler.getSequence());
+        assertEquals(164932L * 1024, sampler.getRssBytes());
+        assertEquals(181244L * 1024, sampler.getPeakRssBytes());
+        assertEquals(61, sampler.getThreadCount());
+        assertEquals(189341, sampler.get(ProcessStatsSampler.MINOR_FAULTS));
+        assertEquals(1204, sampler.get(ProcessStatsSampler.MAJOR_FAULTS));
+        assertEquals((8412 + 2210) * 10, sampler.get(ProcessStatsSampler.CPU_MILLIS));
+        // Rates need a second sample.
+        assertEquals(DeviceInfo.DEVICEINFO_UNKNOWN, sampler.get(ProcessStatsSampler.CPU_PERMILLE));
+        assertEquals(DeviceInfo.DEVICEINFO_UNKNOWN, sampler.getMajorFaultsPerSec());
+    }
+
+    @Test
+    public void turnsCountersIntoRates() throws Exception {
+        writeStatus(100000, 1000, 100);
+        writeStat(5000, 10, 300, 100);
+        ProcessStatsSampler sampler = new ProcessStatsSampler(new SysRoot(folder.getRoot().getAbsolutePath()));
+        sampler.sample(SECOND);
+
+        // Two seconds later, with 150 of 200 ticks of one core spent.
+        writeStatus(120000, 1400, 140);
+        writeStat(5600, 14, 400, 150);
+        sampler.sample(3 * SECOND);
+        assertEquals(120000L * 1024, sampler.getRssBytes());
+        assertEquals(200, sampler.get(ProcessStatsSampler.VOLUNTARY_SWITCHES_PER_SEC));
+        assertEquals(20, sampler.get(ProcessStatsSampler.INVOLUNTARY_SWITCHES_PER_SEC));
+        assertEquals(300, sampler.get(ProcessStatsSampler.MINOR_FAULTS_PER_SEC));
+        assertEquals(2, sampler.getMajorFaultsPerSec());
+        assertEquals(750, sampler.get(ProcessStatsSampler.CPU_PERMILLE));
+        assertEquals(5500, sampler.get(ProcessStatsSampler.CPU_MILLIS));
+    }
+
+    @Test
+    public void exportersSeeThePublishedValues() throws Exception {
+        writeStatus(100000, 1000, 100);
+        writeStat(5000, 10, 300, 100);
+        ProcessStatsSampler sampler = new ProcessStatsSampler(new SysRoot(folder.getRoot().getAbsolutePath()));
+        final long[][] exported = new long[1][];
+        sampler.addExporter(new ProcessStatsSampler.Exporter() {
+            @Override
+            public void export(long nowNanos, long[] values, ProcessStatsSampler s) {
+                exported[0] = values.clone();
+            }
+        });
+        sampler.sample(SECOND);
+        long[] copy = new long[ProcessStatsSampler.METRIC_COUNT];
+        sampler.copyValues(copy);
+        assertArrayEquals(exported[0], copy);
+        assertEquals(42, copy[ProcessStatsSampler.THREADS]);
+    }
+
+    @Test
+    public void missingStatusLeavesItsMetricsUnknown() throws Exception {
+        writeStat(5000, 10, 300, 100);
+        ProcessStatsSampler sampler = new ProcessStatsSampler(new SysRoot(folder.getRoot().getAbsolutePath()));
+        sampler.sample(SECOND);
+        sampler.sample(2 * SECOND);
+        assertEquals(DeviceInfo.DEVICEINFO_UNKNOWN, sampler.getRssBytes());
+        assertEquals(DeviceInfo.DEVICEINFO_UNKNOWN, sampler.get(ProcessStatsSampler.VOLUNTARY_SWITCHES_PER_SEC));
+        assertEquals(0, sampler.get(ProcessStatsSampler.MINOR_FAULTS_PER_SEC));
+    }
+}
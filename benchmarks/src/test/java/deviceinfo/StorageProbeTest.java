@@ -0,0 +1,39 @@
+package deviceinfo;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StorageProbeTest {
+    // Creating and deleting the scratch file, and the flush of the last chunk or fsync.
+    private static final long SLACK_MILLIS = 30;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void largeFileFinishesWithinTheBudget() throws Exception {
+        StorageProbe probe = new StorageProbe(folder.getRoot()).setFileBytes(4L * 1024 * 1024 * 1024);
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < 3; i++) {
+            long start = System.nanoTime();
+            StorageProbe.Result result = probe.setBudgetMillis(50).run();
+            best = Math.min(best, (System.nanoTime() - start) / 1000000L);
+            assertTrue(result.toString(), result.getFileBytes() < 4L * 1024 * 1024 * 1024);
+        }
+        assertTrue("50ms budget took " + best + "ms", best <= 50 + SLACK_MILLIS);
+        assertEquals(0, folder.getRoot().list().length);
+    }
+
+    @Test
+    public void measuresEveryStep() throws Exception {
+        StorageProbe.Result result = new StorageProbe(folder.getRoot()).setFileBytes(1024 * 1024)
+                .setBudgetMillis(300).run();
+        assertEquals(result.toString(), 1024 * 1024, result.getFileBytes());
+        assertTrue(result.toString(), result.getWriteMBps() > 0);
+        assertTrue(result.toString(), result.getFsyncMicros() >= 0);
+    }
+}
@@ -0,0 +1,146 @@
+package deviceinfo;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ThermalMonitorTest {
+    private static final String POLICY = "/sys/devices/system/cpu/cpufreq/policy";
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<ThermalMonitor.Level> levels = new ArrayList<>();
+    private final List<Integer> years = new ArrayList<>();
+    private final ThermalMonitor.Listener recorder = new ThermalMonitor.Listener() {
+        @Override
+        public void onThermalChange(ThermalMonitor.Level level, int effectiveYear, ThermalMonitor monitor) {
+            levels.add(level);
+            years.add(effectiveYear);
+        }
+    };
+
+    @After
+    public void tearDown() {
+        ProbeStats.setEnabled(false);
+        ProbeStats.reset();
+    }
+
+    private static void write(SysRoot root, String path, String value) throws IOException {
+        Files.write(new File(root.path(path)).toPath(), (value + "\n").getBytes(StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void readsCpuZonesAndCapsOfFixture() {
+        ThermalMonitor monitor = new ThermalMonitor(Fixtures.root("sm8350"));
+        monitor.setBaseYear(2020);
+        monitor.addListener(recorder);
+        monitor.sample(0);
+        assertEquals(3, monitor.getClusterCount());
+        // The hottest cpu zone; the battery and xo-therm zones are not CPU ones.
+        assertEquals(48500, monitor.getMaxTemperatureMilliC());
+        assertEquals(2841600, monitor.getCapKHz(2));
+        assertEquals(1000, monitor.getCapPermille());
+        assertEquals(ThermalMonitor.Level.NONE, monitor.getLevel());
+        assertEquals(2020, monitor.getEffectiveYear());
+        assertEquals(1, levels.size());
+
+        // Nothing changed, nobody is told.
+        monitor.sample(0);
+        assertEquals(1, levels.size());
+    }
+
+    @Test
+    public void scalesWholeDegreesOfOldKernels() {
+        ThermalMonitor monitor = new ThermalMonitor(Fixtures.root("msm8974"));
+        monitor.sample(0);
+        // tsens_tz_sensor5 reports 46; the pm8841 and battery zones are not CPU ones.
+        assertEquals(46000, monitor.getMaxTemperatureMilliC());
+    }
+
+    @Test
+    public void cappedBigClusterCostsTheYearsOfItsClock() throws Exception {
+        SysRoot root = Fixtures.copy("sm8350", folder.newFolder("sm8350"));
+        ThermalMonitor monitor = new ThermalMonitor(root);
+        monitor.setBaseYear(2020);
+        monitor.addListener(recorder);
+        monitor.sample(0);
+
+        // Capped to the clock of the middle cluster: 2841600 rates 2020 and 2419200 2017.
+        write(root, POLICY + "7/scaling_max_freq", "2419200");
+        monitor.sample(0);
+        assertEquals(851, monitor.getCapPermille());
+        assertEquals(ThermalMonitor.Level.LIGHT, monitor.getLevel());
+        assertEquals(2017, monitor.getEffectiveYear());
+        assertEquals("HIGH", monitor.getEffectiveClassCategory());
+
+        write(root, POLICY + "7/scaling_max_freq", "1996800");
+        monitor.sample(0);
+        assertEquals(ThermalMonitor.Level.MODERATE, monitor.getLevel());
+        assertEquals(2013, monitor.getEffectiveYear());
+
+        write(root, POLICY + "7/scaling_max_freq", "2841600");
+        monitor.sample(0);
+        assertEquals(ThermalMonitor.Level.NONE, monitor.getLevel());
+        assertEquals(2020, monitor.getEffectiveYear());
+        assertEquals(4, levels.size());
+    }
+
+    @Test
+    public void hotZonesCostAtLeastOneOrTwoYears() throws Exception {
+        SysRoot root = Fixtures.copy("sm8350", folder.newFolder("sm8350"));
+        ThermalMonitor monitor = new ThermalMonitor(root);
+        monitor.setBaseYear(2020);
+        monitor.sample(0);
+
+        write(root, "/sys/class/thermal/thermal_zone4/temp", "78000");
+        monitor.sample(0);
+        assertEquals(78000, monitor.getMaxTemperatureMilliC());
+        assertEquals(ThermalMonitor.Level.MODERATE, monitor.getLevel());
+        assertEquals(2019, monitor.getEffectiveYear());
+
+        write(root, "/sys/class/thermal/thermal_zone4/temp", "93000");
+        monitor.sample(0);
+        assertEquals(ThermalMonitor.Level.SEVERE, monitor.getLevel());
+        assertEquals(2018, monitor.getEffectiveYear());
+    }
+
+    @Test
+    public void stopClosesOnlyItsOwnNodes() {
+        SysRoot root = Fixtures.root("sm8350");
+        NodePool shared = NodePool.shared();
+        NodePool.Handle zone = shared.get(root.path("/sys/class/thermal/thermal_zone1/temp"));
+        assertEquals(41300, zone.readLong());
+        int open = shared.getOpenCount();
+
+        ThermalMonitor monitor = new ThermalMonitor(root);
+        monitor.sample(0);
+        monitor.onStop();
+        assertEquals(open, shared.getOpenCount());
+        assertEquals(41300, zone.readLong());
+
+        // The next sample opens the monitor's nodes again.
+        monitor.sample(0);
+        assertEquals(48500, monitor.getMaxTemperatureMilliC());
+    }
+
+    @Test
+    public void countsZoneReadsUnderThermal() {
+        ProbeStats.reset();
+        ProbeStats.setEnabled(true);
+        new ThermalMonitor(Fixtures.root("sm8350")).sample(0);
+        // The type of each of the nine zones.
+        assertTrue(ProbeStats.getCount(ProbeStats.THERMAL, ProbeStats.OK) >= 9);
+    }
+}
@@ -0,0 +1,155 @@
+package deviceinfo;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class YearClassifierTest {
+    private static final String TABLE = "version 7\n"
+            + "# comment\n"
+            + "dimension ram_mb 2   # weighted twice\n"
+            + "1024 2011\n"
+            + "2048 2013\n"
+            + "above 2016\n"
+            + "dimension no_such_dimension 5\n"
+            + "1 1999\n"
+            + "dimension clock_khz 1\n"
+            + "1500000 2012\n"
+            + "above 2015\n"
+            + "dimension cores 1 fallback\n"
+            + "4 2014\n"
+            + "above 2017\n";
+
+    static YearClassRules parse(String table) throws IOException {
+        return YearClassRules.parse(new ByteArrayInputStream(table.getBytes("UTF-8")));
+    }
+
+    @Test
+    public void parsesTable() throws Exception {
+        YearClassRules rules = parse(TABLE);
+        assertEquals(7, rules.getVersion());
+        assertTrue(rules.hasDimension(YearClassRules.RAM_MB));
+        assertFalse(rules.hasDimension(YearClassRules.CAPACITY_MHZ));
+        assertEquals(2, rules.getWeight(YearClassRules.RAM_MB));
+        assertTrue(rules.isFallback(YearClassRules.CORES));
+    }
+
+    @Test
+    public void boundsAreInclusive() throws Exception {
+        YearClassRules rules = parse(TABLE);
+        assertEquals(2011, rules.yearOf(YearClassRules.RAM_MB, 0));
+        assertEquals(2011, rules.yearOf(YearClassRules.RAM_MB, 1024));
+        assertEquals(2013, rules.yearOf(YearClassRules.RAM_MB, 1025));
+        assertEquals(2016, rules.yearOf(YearClassRules.RAM_MB, 4096));
+        assertEquals(YearClassRules.CLASS_UNKNOWN, rules.yearOf(YearClassRules.RAM_MB, -1));
+        assertEquals(YearClassRules.CLASS_UNKNOWN, rules.yearOf(YearClassRules.GPU_GLES, 30));
+    }
+
+    @Test
+    public void rejectsMalformedTables() throws Exception {
+        String[] broken = {
+                "", "dimension ram_mb 1\n1 2010\n", "version 1\nversion 2\n", "version 1\n5 2010\n",
+                "version 1\ndimension ram_mb 1\n20 2010\n10 2011\n", "version x\n",
+                "version 1\ndimension ram_mb 1\n20\n"
+        };
+        for (String table : broken) {
+            try {
+                parse(table);
+                fail("Parsed " + table);
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void combinesWeightedYears() throws Exception {
+        YearClassifier classifier = new YearClassifier(parse(TABLE));
+        DeviceSpec spec = new DeviceSpec().setCores(4).setMaxFreqKHz(2000000).setTotalRamBytes(2048L << 20);
+        // (2013 * 2 + 2015) / 3, rounded down; the fallback core count does not count.
+        assertEquals(2013, classifier.classify(spec));
+        assertEquals(2014, classifier.classify(new DeviceSpec().setCores(4)));
+        assertEquals(YearClassRules.CLASS_UNKNOWN, classifier.classify(new DeviceSpec()));
+    }
+
+    @Test
+    public void ratesTheClockOfTheBigCluster() throws Exception {
+        YearClassifier classifier = new YearClassifier(parse(TABLE));
+        // The little cluster's 1.4GHz would be 2012; only the big cluster's clock counts.
+        DeviceSpec spec = new DeviceSpec().setCores(8).setMaxFreqKHz(2400000)
+                .addCluster(4, 1400000, 256).addCluster(4, 2400000, 1024);
+        assertEquals(2015, classifier.classify(spec));
+    }
+
+    @Test
+    public void bundledClockBoundsFollowFlagshipSoCs() {
+        YearClassRules rules = YearClassRules.getDefault();
+        // Exynos 7420, Snapdragon 821, 835, 845, 8 Gen 1, 8 Gen 2, 8 Gen 3 and 8 Elite.
+        int[] clocksKHz = {2100000, 2342400, 2457600, 2803200, 2995200, 3187200, 3302400, 4320000};
+        int[] years = {2015, 2016, 2017, 2018, 2022, 2023, 2024, 2025};
+        for (int i = 0; i < clocksKHz.length; i++) {
+            assertEquals(String.valueOf(clocksKHz[i]), years[i], rules.yearOf(YearClassRules.CLOCK_KHZ, clocksKHz[i]));
+        }
+        // Snapdragon 855 to 888 share one clock.
+        assertEquals(2020, rules.yearOf(YearClassRules.CLOCK_KHZ, 2841600));
+    }
+
+    @Test
+    public void bundledRamBoundsFollowFlagships() {
+        YearClassRules rules = YearClassRules.getDefault();
+        // What the kernel reports of 2, 3, 4, 6, 8, 12 and 16GB.
+        int[] ramMB = {1855, 2780, 3700, 5647, 7467, 11200, 15000};
+        int[] years = {2013, 2014, 2016, 2018, 2020, 2022, 2024};
+        for (int i = 0; i < ramMB.length; i++) {
+            assertEquals(String.valueOf(ramMB[i]), years[i], rules.yearOf(YearClassRules.RAM_MB, ramMB[i]));
+        }
+    }
+
+    @Test
+    public void readsHexBoundsAndUnknownRows() throws Exception {
+        YearClassRules rules = parse("version 1\ndimension core_part 1\n0x41d0a 2018\n0x41d40 -1\n0x41d41 2021\n");
+        assertEquals(2018, rules.yearOf(YearClassRules.CORE_PART, 0x41d0a));
+        assertEquals(YearClassRules.CLASS_UNKNOWN, rules.yearOf(YearClassRules.CORE_PART, 0x41d0f));
+        assertEquals(2021, rules.yearOf(YearClassRules.CORE_PART, 0x41d41));
+        assertEquals(YearClassRules.CLASS_UNKNOWN, rules.yearOf(YearClassRules.CORE_PART, 0x41d44));
+        assertEquals(YearClassRules.CLASS_UNKNOWN, new YearClassifier(rules).classify(
+                new DeviceSpec().setCorePart(0x41d0f)));
+    }
+
+    @Test
+    public void newerFixturesClassifyNewer() throws Exception {
+        // Nexus 5 (Snapdragon 800), Pixel 3 (Snapdragon 845) and a Snapdragon 888 phone.
+        String[] devices = {"msm8974", "sdm845", "sm8350"};
+        YearClassifier classifier = new YearClassifier(YearClassRules.getDefault());
+        int previous = 0;
+        for (String device : devices) {
+            DeviceSpec spec = DeviceSpec.of(Fixtures.snapshot(device), CpuFeatures.read(Fixtures.root(device)));
+            int year = classifier.classify(spec);
+            assertTrue(device + " " + spec + " " + year, year > previous);
+            previous = year;
+        }
+    }
+
+    @Test
+    public void classes() {
+        assertEquals("", YearClassifier.classOf(YearClassRules.CLASS_UNKNOWN));
+        assertEquals("LOW", YearClassifier.classOf(2011));
+        assertEquals("MEDIUM", YearClassifier.classOf(2012));
+        assertEquals("MEDIUM", YearClassifier.classOf(2014));
+        assertEquals("HIGH", YearClassifier.classOf(2015));
+    }
+
+    @Test
+    public void bundledTableLoads() {
+        YearClassRules rules = YearClassRules.getDefault();
+        assertTrue(rules.getVersion() > 1);
+        for (int d = 0; d < YearClassRules.DIMENSIONS; d++) {
+            assertTrue(YearClassRules.getName(d), rules.hasDimension(d));
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package deviceinfo;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * {@link DevicePlatform} that returns the values recorded in the {@code platform.properties} of a
+ * {@link DeviceBundle} or benchmark fixture:
+ * <pre>
+ *   totalMem=1945137152
+ *   threshold=100663296
+ *   storageTotal=27551207424
+ *   storageAvailable=11780423680
+ *   abis=armeabi-v7a,armeabi
+ * </pre>
+ * Missing keys are DEVICEINFO_UNKNOWN. This class does not depend on Android.
+ */
+public final class BundlePlatform implements DevicePlatform {
+    private final Properties properties;
+
+    public BundlePlatform(Properties properties) {
+        this.properties = properties;
+    }
+
+    /**
+     * @param dir - Directory of an extracted bundle.
+     * @throws IOException if it has no readable {@code platform.properties}.
+     */
+    public static BundlePlatform load(File dir) throws IOException {
+        Properties properties = new Properties();
+        InputStream in = new FileInputStream(new File(dir, DeviceBundle.PLATFORM_FILE));
+        try {
+            properties.load(in);
+        } finally {
+            in.close();
+        }
+        return new BundlePlatform(properties);
+    }
+
+    /**
+     * @return A recorded value that is not part of {@link DevicePlatform}, such as "fingerprint", or null.
+     */
+    public String getProperty(String key) {
+        String value = properties.getProperty(key);
+        return value == null ? null : value.trim();
+    }
+
+    public long getLong(String key) {
+        String value = getProperty(key);
+        if (value == null || value.length() == 0) return DeviceInfo.DEVICEINFO_UNKNOWN;
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return DeviceInfo.DEVICEINFO_UNKNOWN;
+        }
+    }
+
+    @Override
+    public String[] getAbis() {
+        String value = getProperty("abis");
+        return value == null || value.length() == 0 ? new String[0] : value.split(",");
+    }
+
+    @Override
+    public long getTotalMemory() {
+        return getLong("totalMem");
+    }
+
+    @Override
+    public long getMemThreshold() {
+        return getLong("threshold");
+    }
+
+    @Override
+    public long getStorageTotalBytes() {
+        return getLong("storageTotal");
+    }
+
+    @Override
+    public long getStorageAvailableBytes() {
+        return getLong("storageAvailable");
+    }
+}
@@ -0,0 +1,442 @@
+package deviceinfo;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Data and unified CPU caches from {@code /sys/devices/system/cpu/cpuN/cache/indexM/}, read for one
+ * core per {@link CpuTopology} cluster since the cores of a cluster share one design. Used to size
+ * the blocks of tiled loops and the buffers of streaming I/O so that a chunk stays in L1, L2 or L3:
+ * <pre>
+ *   int tileBytes = DeviceInfo.getCacheHierarchy(context).getChunkBytes(2);
+ * </pre>
+ * Many kernels hide the nodes or leave out the sizes; {@link #withDefaults(int)} fills those in with
+ * estimates for the year class. Instruction caches are skipped. This class does not depend on Android.
+ */
+public final class CacheHierarchy {
+    public static final int TYPE_DATA = 1;
+    public static final int TYPE_UNIFIED = 3;
+
+    private static final String CPU_DIR = "/sys/devices/system/cpu/";
+    private static final int KB = 1024;
+    private static final int DEFAULT_LINE_BYTES = 64;
+
+    private static final int SCOPE_CORE = 0;
+    private static final int SCOPE_CLUSTER = 1;
+    private static final int SCOPE_ALL = 2;
+    /**
+     * Estimates per class: level, size in KB, line size, ways and which cores share the cache.
+     * Cortex-A9 era parts, Krait and A53 clusters, and DynamIQ SoCs with a shared L3.
+     */
+    private static final int[][] LOW_DEFAULTS = {{1, 32, 32, 4, SCOPE_CORE}, {2, 512, 32, 8, SCOPE_CLUSTER}};
+    private static final int[][] MEDIUM_DEFAULTS = {{1, 32, 64, 4, SCOPE_CORE}, {2, 1024, 64, 16, SCOPE_CLUSTER}};
+    private static final int[][] HIGH_DEFAULTS = {
+            {1, 64, 64, 4, SCOPE_CORE}, {2, 256, 64, 8, SCOPE_CORE}, {3, 2048, 64, 16, SCOPE_ALL}
+    };
+
+    /**
+     * One cache as seen from the cores of a cluster.
+     */
+    public static final class Cache {
+        private final int level;
+        private final int type;
+        private final int sizeBytes;
+        private final int lineBytes;
+        private final int ways;
+        private final long sharedCpus;
+        private final boolean estimated;
+
+        Cache(int level, int type, int sizeBytes, int lineBytes, int ways, long sharedCpus, boolean estimated) {
+            this.level = level;
+            this.type = type;
+            this.sizeBytes = sizeBytes;
+            this.lineBytes = lineBytes;
+            this.ways = ways;
+            this.sharedCpus = sharedCpus;
+            this.estimated = estimated;
+        }
+
+        public int getLevel() {
+            return level;
+        }
+
+        /**
+         * @return TYPE_DATA or TYPE_UNIFIED.
+         */
+        public int getType() {
+            return type;
+        }
+
+        /**
+         * @return Size in bytes, or DEVICEINFO_UNKNOWN = -1 if the kernel does not report it.
+         */
+        public int getSizeBytes() {
+            return sizeBytes;
+        }
+
+        /**
+         * @return {@code coherency_line_size}, or DEVICEINFO_UNKNOWN = -1.
+         */
+        public int getLineBytes() {
+            return lineBytes;
+        }
+
+        public int getWays() {
+            return ways;
+        }
+
+        /**
+         * @return Bitmask of the CPUs sharing this cache, bit n set for cpuN, or 0 if unknown.
+         */
+        public long getSharedCpuMask() {
+            return sharedCpus;
+        }
+
+        public int getSharingCount() {
+            return sharedCpus == 0 ? 1 : Long.bitCount(sharedCpus);
+        }
+
+        /**
+         * @return true if the size or line came from the class defaults rather than sysfs.
+         */
+        public boolean isEstimated() {
+            return estimated;
+        }
+
+        /**
+         * Example: {@code L2 unified 512KB 64B 8-way [4-6]}
+         */
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder("L").append(level).append(type == TYPE_DATA ? " data " : " unified ");
+            sb.append(sizeBytes > 0 ? (sizeBytes / KB) + "KB" : "?KB");
+            if (lineBytes > 0) sb.append(' ').append(lineBytes).append('B');
+            if (ways > 0) sb.append(' ').append(ways).append("-way");
+            if (sharedCpus != 0) sb.append(' ').append(CpuTopology.toRangeList(sharedCpus));
+            if (estimated) sb.append(" estimated");
+            return sb.toString();
+        }
+    }
+
+    private final long[] clusterCpus;
+    private final Cache[][] caches;
+    private final int bigCluster;
+
+    private CacheHierarchy(long[] clusterCpus, Cache[][] caches, int bigCluster) {
+        this.clusterCpus = clusterCpus;
+        this.caches = caches;
+        this.bigCluster = bigCluster;
+    }
+
+    /**
+     * Reads the caches of the clusters of the topology, trying the next core of a cluster when one
+     * has no {@code cache} directory, as offline cores on some kernels.
+     *
+     * @return The caches, never null. Hidden nodes give clusters without caches.
+     */
+    public static CacheHierarchy read(SysRoot root, CpuTopology topology) {
+        String cpuDir = root.path(CPU_DIR);
+        CpuTopology.Cluster[] clusters = topology.getClusters();
+        long[] cpus = new long[Math.max(1, clusters.length)];
+        int big = 0;
+        if (clusters.length == 0) {
+            cpus[0] = topology.getPossibleMask() == 0 ? 1 : topology.getPossibleMask();
+        } else {
+            CpuTopology.Cluster bigCluster = topology.getBigCluster();
+            for (int i = 0; i < clusters.length; i++) {
+                cpus[i] = clusters[i].getCpuMask();
+                if (clusters[i] == bigCluster) big = i;
+            }
+        }
+        Cache[][] caches = new Cache[cpus.length][];
+        byte[] buffer = new byte[64];
+        for (int i = 0; i < cpus.length; i++) {
+            caches[i] = readCluster(cpuDir, cpus[i], buffer);
+        }
+        return new CacheHierarchy(cpus, caches, big);
+    }
+
+    public int getClusterCount() {
+        return clusterCpus.length;
+    }
+
+    /**
+     * @return Bitmask of the CPUs of a cluster, in the order of {@link CpuTopology#getClusters()}.
+     */
+    public long getClusterCpuMask(int cluster) {
+        return clusterCpus[cluster];
+    }
+
+    /**
+     * @return Index of the cluster with the most capable cores, the one {@link #getChunkBytes(int)} is for.
+     */
+    public int getBigCluster() {
+        return bigCluster;
+    }
+
+    /**
+     * @return The data and unified caches of a cluster ordered by level, empty if hidden.
+     */
+    public Cache[] getCaches(int cluster) {
+        return caches[cluster].clone();
+    }
+
+    /**
+     * @return The data or unified cache of the cluster at the level, or null if there is none.
+     */
+    public Cache getCache(int cluster, int level) {
+        for (Cache cache : caches[cluster]) {
+            if (cache.level == level) return cache;
+        }
+        return null;
+    }
+
+    /**
+     * @return true if no cluster reported a cache, as when the kernel hides the nodes.
+     */
+    public boolean isEmpty() {
+        for (Cache[] cluster : caches) {
+            if (cluster.length > 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return The highest cache level of any cluster, or 0 if none is known.
+     */
+    public int getLastLevel() {
+        int last = 0;
+        for (Cache[] cluster : caches) {
+            for (Cache cache : cluster) {
+                last = Math.max(last, cache.level);
+            }
+        }
+        return last;
+    }
+
+    /**
+     * @return The largest line size, to pad data written by different threads apart, or
+     * DEVICEINFO_UNKNOWN = -1.
+     */
+    public int getLineBytes() {
+        int line = DeviceInfo.DEVICEINFO_UNKNOWN;
+        for (Cache[] cluster : caches) {
+            for (Cache cache : cluster) {
+                line = Math.max(line, cache.lineBytes);
+            }
+        }
+        return line;
+    }
+
+    /**
+     * {@link #getChunkBytes(int, int)} for the big cluster, where the heavy work is scheduled.
+     */
+    public int getChunkBytes(int level) {
+        return getChunkBytes(bigCluster, level);
+    }
+
+    /**
+     * Recommends the bytes one core should work on at a time to stay in a cache level: half the
+     * cache, so the output and the other operands fit beside it, divided by the cores sharing it,
+     * rounded down to whole lines. For a shared L3 that is the share of each core when all of them
+     * are busy, which is never taken below the chunk of the level under it. A level the cluster does
+     * not have, or whose size is unknown, gives the chunk of the level below.
+     *
+     * @return Chunk size in bytes, or DEVICEINFO_UNKNOWN = -1 if no cache size up to the level is known.
+     */
+    public int getChunkBytes(int cluster, int level) {
+        int chunk = DeviceInfo.DEVICEINFO_UNKNOWN;
+        for (int l = 1; l <= level; l++) {
+            Cache cache = getCache(cluster, l);
+            if (cache == null || cache.sizeBytes <= 0) continue;
+            int line = cache.lineBytes > 0 ? cache.lineBytes : DEFAULT_LINE_BYTES;
+            int share = cache.sizeBytes / cache.getSharingCount() / 2;
+            chunk = Math.max(chunk, Math.max(line, share - share % line));
+        }
+        return chunk;
+    }
+
+    /**
+     * Fills in what the kernel left out with estimates for the class of the year: every cache of a
+     * cluster without any, and the size and line of caches listed without them. Known values are
+     * kept as they are.
+     *
+     * @param year - Year class of the device, DEVICEINFO_UNKNOWN = -1 for the MEDIUM estimates.
+     * @return A hierarchy where every cluster has sized caches, or this one if nothing was missing.
+     */
+    public CacheHierarchy withDefaults(int year) {
+        String yearClass = YearClassifier.classOf(year);
+        int[][] defaults = "HIGH".equals(yearClass) ? HIGH_DEFAULTS
+                : "LOW".equals(yearClass) ? LOW_DEFAULTS : MEDIUM_DEFAULTS;
+        long allCpus = 0;
+        for (long cpus : clusterCpus) {
+            allCpus |= cpus;
+        }
+        Cache[][] filled = new Cache[caches.length][];
+        boolean changed = false;
+        for (int i = 0; i < caches.length; i++) {
+            if (caches[i].length == 0) {
+                filled[i] = new Cache[defaults.length];
+                for (int d = 0; d < defaults.length; d++) {
+                    int[] spec = defaults[d];
+                    long shared = spec[4] == SCOPE_CORE ? Long.lowestOneBit(clusterCpus[i])
+                            : spec[4] == SCOPE_CLUSTER ? clusterCpus[i] : allCpus;
+                    filled[i][d] = new Cache(spec[0], spec[0] == 1 ? TYPE_DATA : TYPE_UNIFIED, spec[1] * KB, spec[2],
+                            spec[3], shared, true);
+                }
+                changed = true;
+                continue;
+            }
+            filled[i] = caches[i].clone();
+            for (int c = 0; c < filled[i].length; c++) {
+                Cache cache = filled[i][c];
+                if (cache.sizeBytes > 0 && cache.lineBytes > 0) continue;
+                int[] spec = defaultFor(defaults, cache.level);
+                if (spec == null) continue;
+                filled[i][c] = new Cache(cache.level, cache.type, cache.sizeBytes > 0 ? cache.sizeBytes : spec[1] * KB,
+                        cache.lineBytes > 0 ? cache.lineBytes : spec[2], cache.ways > 0 ? cache.ways : spec[3],
+                        cache.sharedCpus, true);
+                changed = true;
+            }
+        }
+        return changed ? new CacheHierarchy(clusterCpus, filled, bigCluster) : this;
+    }
+
+    private static int[] defaultFor(int[][] defaults, int level) {
+        for (int[] spec : defaults) {
+            if (spec[0] == level) return spec;
+        }
+        return null;
+    }
+
+    private static Cache[] readCluster(String cpuDir, long cpus, byte[] buffer) {
+        long mask = cpus;
+        while (mask != 0) {
+            int cpu = Long.numberOfTrailingZeros(mask);
+            mask &= mask - 1;
+            Cache[] found = readCore(cpuDir + "cpu" + cpu + "/cache/", buffer);
+            if (found != null) return found;
+        }
+        return new Cache[0];
+    }
+
+    /**
+     * @return The data and unified caches of one core, or null if it has no {@code cache} directory.
+     */
+    private static Cache[] readCore(String cacheDir, byte[] buffer) {
+        long start = ProbeStats.start();
+        String[] names;
+        try {
+            names = new File(cacheDir).list();
+        } catch (SecurityException e) {
+            ProbeStats.failed(ProbeStats.CACHE, start, cacheDir, e);
+            return null;
+        }
+        if (names == null) {
+            ProbeStats.missing(ProbeStats.CACHE, start, cacheDir);
+            return null;
+        }
+        ProbeStats.end(ProbeStats.CACHE, start, ProbeStats.OK);
+        List<Cache> found = new ArrayList<>();
+        for (String name : names) {
+            if (!name.startsWith("index")) continue;
+            String dir = cacheDir + name + "/";
+            int length = ProcFileParser.readNode(dir + "type", buffer, ProbeStats.CACHE);
+            int type = length <= 0 ? 0 : parseType(buffer, length);
+            if (type == 0) continue;
+            int level = (int) ProcFileParser.readLong(dir + "level", buffer, ProbeStats.CACHE);
+            if (level <= 0) continue;
+            length = ProcFileParser.readNode(dir + "size", buffer, ProbeStats.CACHE);
+            int size = length <= 0 ? DeviceInfo.DEVICEINFO_UNKNOWN : parseSize(buffer, length);
+            int line = (int) ProcFileParser.readLong(dir + "coherency_line_size", buffer, ProbeStats.CACHE);
+            int ways = (int) ProcFileParser.readLong(dir + "ways_of_associativity", buffer, ProbeStats.CACHE);
+            length = ProcFileParser.readNode(dir + "shared_cpu_list", buffer, ProbeStats.CACHE);
+            long shared = length <= 0 ? 0 : CpuTopology.parseCpuList(buffer, length);
+            found.add(new Cache(level, type, size, line, ways, shared, false));
+        }
+        Collections.sort(found, new Comparator<Cache>() {
+            @Override
+            public int compare(Cache a, Cache b) {
+                return a.level - b.level;
+            }
+        });
+        return found.toArray(new Cache[found.size()]);
+    }
+
+    /**
+     * @return TYPE_DATA, TYPE_UNIFIED, or 0 for instruction and unknown caches.
+     */
+    private static int parseType(byte[] buffer, int length) {
+        if (ProcFileParser.startsWith(buffer, 0, length, "Data")) return TYPE_DATA;
+        if (ProcFileParser.startsWith(buffer, 0, length, "Unified")) return TYPE_UNIFIED;
+        return 0;
+    }
+
+    /**
+     * @return Bytes of a size such as {@code 512K} or {@code 2M}, or DEVICEINFO_UNKNOWN = -1.
+     */
+    static int parseSize(byte[] buffer, int length) {
+        long value = ProcFileParser.parseLeadingLong(buffer, length);
+        if (value <= 0) return DeviceInfo.DEVICEINFO_UNKNOWN;
+        int i = 0;
+        while (i < length && buffer[i] >= '0' && buffer[i] <= '9') i++;
+        if (i < length && buffer[i] == 'K') value *= KB;
+        else if (i < length && buffer[i] == 'M') value *= KB * KB;
+        return value > Integer.MAX_VALUE ? DeviceInfo.DEVICEINFO_UNKNOWN : (int) value;
+    }
+
+    void writeTo(DataOutput out) throws IOException {
+        out.writeByte(clusterCpus.length);
+        out.writeByte(bigCluster);
+        for (int i = 0; i < clusterCpus.length; i++) {
+            out.writeLong(clusterCpus[i]);
+            out.writeByte(caches[i].length);
+            for (Cache cache : caches[i]) {
+                out.writeByte(cache.level);
+                out.writeByte(cache.type);
+                out.writeInt(cache.sizeBytes);
+                out.writeInt(cache.lineBytes);
+                out.writeInt(cache.ways);
+                out.writeLong(cache.sharedCpus);
+                out.writeBoolean(cache.estimated);
+            }
+        }
+    }
+
+    static CacheHierarchy readFrom(DataInput in) throws IOException {
+        long[] cpus = new long[in.readUnsignedByte()];
+        int big = in.readUnsignedByte();
+        Cache[][] caches = new Cache[cpus.length][];
+        for (int i = 0; i < cpus.length; i++) {
+            cpus[i] = in.readLong();
+            caches[i] = new Cache[in.readUnsignedByte()];
+            for (int c = 0; c < caches[i].length; c++) {
+                int level = in.readUnsignedByte();
+                int type = in.readUnsignedByte();
+                int size = in.readInt();
+                int line = in.readInt();
+                int ways = in.readInt();
+                long shared = in.readLong();
+                caches[i][c] = new Cache(level, type, size, line, ways, shared, in.readBoolean());
+            }
+        }
+        return new CacheHierarchy(cpus, caches, big);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("CacheHierarchy{");
+        for (int i = 0; i < clusterCpus.length; i++) {
+            if (i > 0) sb.append(", ");
+            sb.append(CpuTopology.toRangeList(clusterCpus[i])).append('=').append(Arrays.toString(caches[i]));
+        }
+        return sb.append('}').toString();
+    }
+}
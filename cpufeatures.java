@@ -0,0 +1,669 @@
+package deviceinfo;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Instruction set features of the CPU, to pick a native or JIT fast path (NEON/ASIMD kernels, AES,
+ * CRC32, LSE atomics, dot product) without trying it. Two sources are combined:
+ * <ul>
+ * <li>{@code /proc/cpuinfo}: the {@code Features} line of every core (or the single one of older ARM
+ * kernels) and the {@code CPU implementer}/{@code CPU part} IDs, which tell the cores of a
+ * big.LITTLE cluster apart.</li>
+ * <li>{@code AT_HWCAP} and {@code AT_HWCAP2} from {@code /proc/self/auxv}: what the kernel lets this
+ * process use. A 32-bit app on a 64-bit phone gets the AArch32 set here, so these win when present.</li>
+ * </ul>
+ * Features are a bitset of the constants below, for example:
+ * <pre>
+ *   if (DeviceInfo.getCpuFeatures().has(CpuFeatures.SIMD | CpuFeatures.DOTPROD)) useInt8Kernel();
+ * </pre>
+ * Cores that are offline are missing from {@code /proc/cpuinfo}; their IDs are taken from
+ * {@code regs/identification/midr_el1}. CPUs numbered 64 and above are ignored. This class does not
+ * depend on Android.
+ */
+public final class CpuFeatures {
+    /**
+     * Scalar floating point: {@code fp} on ARMv8, {@code vfp} on ARMv7, {@code fpu} on x86.
+     */
+    public static final int FP = 1;
+    /**
+     * 128-bit SIMD: ASIMD on ARMv8, NEON on ARMv7, SSSE3 on x86.
+     */
+    public static final int SIMD = 1 << 1;
+    /**
+     * Half precision SIMD arithmetic ({@code asimdhp}).
+     */
+    public static final int FP16 = 1 << 2;
+    /**
+     * SDOT/UDOT int8 dot product ({@code asimddp}).
+     */
+    public static final int DOTPROD = 1 << 3;
+    public static final int I8MM = 1 << 4;
+    public static final int BF16 = 1 << 5;
+    public static final int SVE = 1 << 6;
+    public static final int SVE2 = 1 << 7;
+    public static final int AES = 1 << 8;
+    /**
+     * 64-bit polynomial multiply for GCM, PCLMULQDQ on x86.
+     */
+    public static final int PMULL = 1 << 9;
+    public static final int SHA1 = 1 << 10;
+    public static final int SHA2 = 1 << 11;
+    public static final int SHA3 = 1 << 12;
+    public static final int SHA512 = 1 << 13;
+    /**
+     * CRC32 instructions, SSE4.2 on x86.
+     */
+    public static final int CRC32 = 1 << 14;
+    /**
+     * ARMv8.1 LSE atomics ({@code atomics}): single instruction CAS and fetch-add.
+     */
+    public static final int ATOMICS = 1 << 15;
+    /**
+     * ARMv7 hardware integer divide ({@code idiva}), always present on ARMv8.
+     */
+    public static final int IDIV = 1 << 16;
+
+    private static final String[] FLAG_NAMES = {
+            "fp", "simd", "fp16", "dotprod", "i8mm", "bf16", "sve", "sve2", "aes", "pmull", "sha1", "sha2",
+            "sha3", "sha512", "crc32", "atomics", "idiv"
+    };
+
+    private static final String[] ARM_TOKENS = {
+            "fp", "vfp", "vfpv3", "vfpv4", "asimd", "neon", "asimdhp", "asimddp", "i8mm", "bf16", "sve", "sve2",
+            "aes", "pmull", "sha1", "sha2", "sha3", "sha512", "crc32", "atomics", "idiva"
+    };
+    private static final int[] ARM_TOKEN_FLAGS = {
+            FP, FP, FP, FP, SIMD, SIMD, FP16, DOTPROD, I8MM, BF16, SVE, SVE2,
+            AES, PMULL, SHA1, SHA2, SHA3, SHA512, CRC32, ATOMICS, IDIV
+    };
+    private static final String[] X86_TOKENS = {"fpu", "ssse3", "sse4_2", "aes", "pclmulqdq", "sha_ni"};
+    private static final int[] X86_TOKEN_FLAGS = {FP, SIMD, CRC32, AES, PMULL, SHA1 | SHA2};
+
+    private static final int AT_NULL = 0;
+    private static final int AT_HWCAP = 16;
+    private static final int AT_HWCAP2 = 26;
+    /**
+     * Larger auxv types than any the kernel defines mean the word size was guessed wrong.
+     */
+    private static final int AT_MAX = 255;
+
+    /**
+     * Pairs of HWCAP bit and flag, from the kernel's {@code asm/hwcap.h}.
+     */
+    private static final int[] ARM64_HWCAP = {
+            0, FP, 1, SIMD, 3, AES, 4, PMULL, 5, SHA1, 6, SHA2, 7, CRC32, 8, ATOMICS, 10, FP16, 17, SHA3,
+            20, DOTPROD, 21, SHA512, 22, SVE
+    };
+    private static final int[] ARM64_HWCAP2 = {1, SVE2, 13, I8MM, 14, BF16};
+    private static final int[] ARM_HWCAP = {
+            6, FP, 12, SIMD, 17, IDIV, 23, FP16, 24, DOTPROD, 26, BF16, 27, I8MM
+    };
+    private static final int[] ARM_HWCAP2 = {0, AES, 1, PMULL, 2, SHA1, 3, SHA2, 4, CRC32};
+
+    private static final String CPU_DIR = "/sys/devices/system/cpu/";
+    private static final int MAX_CPUS = 64;
+    private static final int MAX_FILE_BYTES = 1024 * 1024;
+
+    private final int[] coreFlags = new int[MAX_CPUS];
+    private final int[] midr = new int[MAX_CPUS];
+    private long cpus;
+    private int cpuinfoFlags;
+    private int hwcapFlags;
+    private long hwcap = DeviceInfo.DEVICEINFO_UNKNOWN;
+    private long hwcap2 = DeviceInfo.DEVICEINFO_UNKNOWN;
+    private int auxvWordBytes;
+    private int architecture = DeviceInfo.DEVICEINFO_UNKNOWN;
+    private boolean x86;
+    private boolean longMode;
+
+    private CpuFeatures() {
+        Arrays.fill(coreFlags, DeviceInfo.DEVICEINFO_UNKNOWN);
+    }
+
+    public static CpuFeatures read() {
+        return read(SysRoot.get());
+    }
+
+    /**
+     * Reads the features below root, such as an extracted {@link DeviceBundle}.
+     */
+    public static CpuFeatures read(SysRoot root) {
+        byte[] cpuinfo = readFile(root.path("/proc/cpuinfo"), ProbeStats.CPUINFO);
+        byte[] auxv = readFile(root.path("/proc/self/auxv"), ProbeStats.AUXV);
+        CpuFeatures features = parse(cpuinfo, cpuinfo == null ? 0 : cpuinfo.length, auxv,
+                auxv == null ? 0 : auxv.length);
+        if (!features.x86) features.readMissingIds(root.path(CPU_DIR));
+        return features;
+    }
+
+    /**
+     * @param cpuinfo - Contents of {@code /proc/cpuinfo}, may be null.
+     * @param auxv    - Contents of {@code /proc/self/auxv}, may be null.
+     */
+    static CpuFeatures parse(byte[] cpuinfo, int cpuinfoLength, byte[] auxv, int auxvLength) {
+        CpuFeatures features = new CpuFeatures();
+        if (cpuinfo != null) features.parseCpuinfo(cpuinfo, cpuinfoLength);
+        if (auxv != null) features.parseAuxv(auxv, auxvLength);
+        return features;
+    }
+
+    /**
+     * @return The features this process can use: the HWCAP ones when the kernel reported them,
+     * otherwise those every core lists in {@code /proc/cpuinfo}.
+     */
+    public int getFlags() {
+        return hasHwcap() ? hwcapFlags : cpuinfoFlags;
+    }
+
+    /**
+     * @return true if all the given flags are set in {@link #getFlags()}.
+     */
+    public boolean has(int flags) {
+        return (getFlags() & flags) == flags;
+    }
+
+    /**
+     * @return The features listed for every core in {@code /proc/cpuinfo}; a feature only some cores
+     * have is left out, since a thread may migrate to any core.
+     */
+    public int getCpuinfoFlags() {
+        return cpuinfoFlags;
+    }
+
+    /**
+     * @return The features of one core, or DEVICEINFO_UNKNOWN = -1 if it is not listed.
+     */
+    public int getCoreFlags(int cpu) {
+        return cpu < 0 || cpu >= MAX_CPUS ? DeviceInfo.DEVICEINFO_UNKNOWN : coreFlags[cpu];
+    }
+
+    /**
+     * @return true if {@code /proc/self/auxv} had AT_HWCAP on an ARM CPU.
+     */
+    public boolean hasHwcap() {
+        return hwcap >= 0 && !x86;
+    }
+
+    public int getHwcapFlags() {
+        return hwcapFlags;
+    }
+
+    /**
+     * @return The raw AT_HWCAP word, or DEVICEINFO_UNKNOWN = -1.
+     */
+    public long getHwcap() {
+        return hwcap;
+    }
+
+    /**
+     * @return The raw AT_HWCAP2 word, or DEVICEINFO_UNKNOWN = -1 on kernels without it.
+     */
+    public long getHwcap2() {
+        return hwcap2;
+    }
+
+    /**
+     * @return true if this process runs 64-bit code, as told by the word size of its auxv.
+     */
+    public boolean is64BitProcess() {
+        return auxvWordBytes == 8;
+    }
+
+    /**
+     * @return true if the CPU can run 64-bit code, even when the installed system is 32-bit only.
+     */
+    public boolean is64BitCapable() {
+        return architecture >= 8 || is64BitProcess() || longMode;
+    }
+
+    /**
+     * @return The highest ARM architecture version the cores report, such as 7 or 8, or
+     * DEVICEINFO_UNKNOWN = -1.
+     */
+    public int getArchitecture() {
+        return architecture;
+    }
+
+    /**
+     * @return Bitmask of the CPUs with features or IDs, bit n set for cpuN.
+     */
+    public long getCpuMask() {
+        return cpus;
+    }
+
+    /**
+     * @return The Main ID Register of a core, with the implementer in bits 31-24, variant 23-20,
+     * part 15-4 and revision 3-0, or 0 if unknown.
+     */
+    public int getMidr(int cpu) {
+        return cpu < 0 || cpu >= MAX_CPUS ? 0 : midr[cpu];
+    }
+
+    /**
+     * @return The MIDR of the first core of the cluster that has one, or 0.
+     */
+    public int getMidr(CpuTopology.Cluster cluster) {
+        long mask = cluster.getCpuMask();
+        while (mask != 0) {
+            int cpu = Long.numberOfTrailingZeros(mask);
+            if (midr[cpu] != 0) return midr[cpu];
+            mask &= mask - 1;
+        }
+        return 0;
+    }
+
+    /**
+     * @return The vendor code, such as 0x41 for ARM or 0x51 for Qualcomm, or DEVICEINFO_UNKNOWN = -1.
+     */
+    public int getImplementer(int cpu) {
+        int id = getMidr(cpu);
+        return id == 0 ? DeviceInfo.DEVICEINFO_UNKNOWN : id >>> 24;
+    }
+
+    /**
+     * @return The vendor's part number, such as 0xd05 for a Cortex-A55, or DEVICEINFO_UNKNOWN = -1.
+     */
+    public int getPart(int cpu) {
+        int id = getMidr(cpu);
+        return id == 0 ? DeviceInfo.DEVICEINFO_UNKNOWN : (id >>> 4) & 0xfff;
+    }
+
+    /**
+     * @return The core design of the cluster as {@code implementer << 12 | part}, such as 0x41d44 for
+     * a Cortex-X1, or DEVICEINFO_UNKNOWN = -1.
+     */
+    public int getCorePart(CpuTopology.Cluster cluster) {
+        int id = getMidr(cluster);
+        return id == 0 ? DeviceInfo.DEVICEINFO_UNKNOWN : (id >>> 24) << 12 | (id >>> 4) & 0xfff;
+    }
+
+    /**
+     * @return Name of the core design such as "ARM Cortex-A55 r1p0", "0x41:0xd99 r0p0" for parts
+     * not known here, or null if the core has no ID.
+     */
+    public String getCoreName(int cpu) {
+        return nameOf(getMidr(cpu));
+    }
+
+    /**
+     * @return The features as names in bit order, for example "fp,simd,aes,pmull".
+     */
+    public static String getFlagNames(int flags) {
+        StringBuilder sb = new StringBuilder();
+        for (int bit = 0; bit < FLAG_NAMES.length; bit++) {
+            if ((flags & (1 << bit)) == 0) continue;
+            if (sb.length() > 0) sb.append(',');
+            sb.append(FLAG_NAMES[bit]);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return The flag of a name as returned by {@link #getFlagNames(int)}, or 0 if unknown.
+     */
+    public static int flagOf(String name) {
+        for (int bit = 0; bit < FLAG_NAMES.length; bit++) {
+            if (FLAG_NAMES[bit].equalsIgnoreCase(name)) return 1 << bit;
+        }
+        return 0;
+    }
+
+    /**
+     * Example: {@code fp,simd,fp16,dotprod,aes,pmull,sha1,sha2,crc32,atomics 64-bit
+     * cpus=[0-3] ARM Cortex-A55 r1p0 [4-6] ARM Cortex-A78 r1p1 [7] ARM Cortex-X1 r1p1}
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(getFlagNames(getFlags()));
+        if (is64BitCapable()) sb.append(" 64-bit");
+        if (hasHwcap()) sb.append(" hwcap=0x").append(Long.toHexString(hwcap));
+        int cpu = 0;
+        boolean first = true;
+        while (cpu < MAX_CPUS) {
+            if (midr[cpu] == 0) {
+                cpu++;
+                continue;
+            }
+            long same = 0;
+            int next = cpu;
+            while (next < MAX_CPUS && midr[next] == midr[cpu]) same |= 1L << next++;
+            sb.append(first ? " cpus=" : " ").append(CpuTopology.toRangeList(same)).append(' ')
+                    .append(nameOf(midr[cpu]));
+            first = false;
+            cpu = next;
+        }
+        return sb.toString();
+    }
+
+    private void parseCpuinfo(byte[] buffer, int end) {
+        int[] implementer = new int[MAX_CPUS + 1];
+        int[] variant = new int[MAX_CPUS + 1];
+        int[] part = new int[MAX_CPUS + 1];
+        int[] revision = new int[MAX_CPUS + 1];
+        int[] flags = new int[MAX_CPUS + 1];
+        Arrays.fill(implementer, DeviceInfo.DEVICEINFO_UNKNOWN);
+        Arrays.fill(part, DeviceInfo.DEVICEINFO_UNKNOWN);
+        Arrays.fill(flags, DeviceInfo.DEVICEINFO_UNKNOWN);
+        // Slot MAX_CPUS holds lines outside a processor block, which older ARM kernels print once for all
+        // cores after the blocks.
+        int slot = MAX_CPUS;
+        long listed = 0;
+        int from = 0;
+        while (from < end) {
+            int next = ProcFileParser.nextLine(buffer, from, end);
+            int value;
+            if (buffer[from] == '\n') {
+                slot = MAX_CPUS;
+            } else if ((value = valueOf(buffer, from, next, "processor")) >= 0) {
+                long cpu = parseNumber(buffer, value, next);
+                slot = cpu >= 0 && cpu < MAX_CPUS ? (int) cpu : MAX_CPUS;
+                if (slot < MAX_CPUS) listed |= 1L << slot;
+            } else if ((value = valueOf(buffer, from, next, "Features")) >= 0) {
+                flags[slot] = parseTokens(buffer, value, next, ARM_TOKENS, ARM_TOKEN_FLAGS);
+            } else if ((value = valueOf(buffer, from, next, "flags")) >= 0) {
+                x86 = true;
+                flags[slot] = parseTokens(buffer, value, next, X86_TOKENS, X86_TOKEN_FLAGS);
+                longMode |= hasToken(buffer, value, next, "lm");
+            } else if ((value = valueOf(buffer, from, next, "CPU implementer")) >= 0) {
+                implementer[slot] = (int) parseNumber(buffer, value, next);
+            } else if ((value = valueOf(buffer, from, next, "CPU variant")) >= 0) {
+                variant[slot] = (int) Math.max(0, parseNumber(buffer, value, next));
+            } else if ((value = valueOf(buffer, from, next, "CPU part")) >= 0) {
+                part[slot] = (int) parseNumber(buffer, value, next);
+            } else if ((value = valueOf(buffer, from, next, "CPU revision")) >= 0) {
+                revision[slot] = (int) Math.max(0, parseNumber(buffer, value, next));
+            } else if ((value = valueOf(buffer, from, next, "CPU architecture")) >= 0) {
+                long arch = parseNumber(buffer, value, next);
+                if (arch < 0 && hasToken(buffer, value, next, "AArch64")) arch = 8;
+                architecture = (int) Math.max(architecture, arch);
+            } else if ((value = valueOf(buffer, from, next, "Processor")) >= 0) {
+                // "ARMv7 Processor rev 1 (v7l)" or "AArch64 Processor rev 4 (aarch64)" on old kernels.
+                if (hasToken(buffer, value, next, "AArch64")) {
+                    architecture = Math.max(architecture, 8);
+                } else if (ProcFileParser.startsWith(buffer, value, next, "ARMv7")) {
+                    architecture = Math.max(architecture, 7);
+                }
+            }
+            from = next;
+        }
+
+        int common = -1;
+        boolean anyFlags = false;
+        for (int cpu = 0; cpu < MAX_CPUS; cpu++) {
+            boolean own = (listed & (1L << cpu)) != 0;
+            if (!own) continue;
+            int coreSlot = flags[cpu] >= 0 ? cpu : MAX_CPUS;
+            coreFlags[cpu] = flags[coreSlot];
+            if (coreFlags[cpu] >= 0) {
+                common &= coreFlags[cpu];
+                anyFlags = true;
+            }
+            int idSlot = implementer[cpu] >= 0 && part[cpu] >= 0 ? cpu : MAX_CPUS;
+            midr[cpu] = toMidr(implementer[idSlot], variant[idSlot], part[idSlot], revision[idSlot]);
+        }
+        if (listed == 0 && flags[MAX_CPUS] >= 0) {
+            // No processor lines at all, as on some single core kernels.
+            coreFlags[0] = flags[MAX_CPUS];
+            midr[0] = toMidr(implementer[MAX_CPUS], variant[MAX_CPUS], part[MAX_CPUS], revision[MAX_CPUS]);
+            listed = 1;
+            common = flags[MAX_CPUS];
+            anyFlags = true;
+        }
+        cpus = listed;
+        cpuinfoFlags = anyFlags ? common : 0;
+    }
+
+    /**
+     * Finds AT_HWCAP and AT_HWCAP2. The vector is pairs of native words, so a 64-bit reading is tried
+     * first and the 32-bit one if the types make no sense.
+     */
+    private void parseAuxv(byte[] buffer, int length) {
+        long[] values = new long[2];
+        if (scanAuxv(buffer, length, 8, values)) {
+            auxvWordBytes = 8;
+        } else if (scanAuxv(buffer, length, 4, values)) {
+            auxvWordBytes = 4;
+        } else {
+            return;
+        }
+        hwcap = values[0];
+        hwcap2 = values[1];
+        if (hwcap < 0 || x86) return;
+        boolean arm64 = auxvWordBytes == 8;
+        hwcapFlags = mapBits(hwcap, arm64 ? ARM64_HWCAP : ARM_HWCAP);
+        if (hwcap2 >= 0) hwcapFlags |= mapBits(hwcap2, arm64 ? ARM64_HWCAP2 : ARM_HWCAP2);
+        // ARMv8 always divides in hardware, and a 64-bit process runs on one.
+        if (arm64) hwcapFlags |= IDIV;
+    }
+
+    private static boolean scanAuxv(byte[] buffer, int length, int word, long[] values) {
+        values[0] = DeviceInfo.DEVICEINFO_UNKNOWN;
+        values[1] = DeviceInfo.DEVICEINFO_UNKNOWN;
+        for (int i = 0; i + 2 * word <= length; i += 2 * word) {
+            long type = readWord(buffer, i, word);
+            if (type == AT_NULL) return true;
+            if (type < 0 || type > AT_MAX) return false;
+            if (type == AT_HWCAP) {
+                values[0] = readWord(buffer, i + word, word);
+            } else if (type == AT_HWCAP2) {
+                values[1] = readWord(buffer, i + word, word);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Little endian, as every Android ABI is.
+     */
+    private static long readWord(byte[] buffer, int offset, int word) {
+        long value = 0;
+        for (int i = word - 1; i >= 0; i--) {
+            value = (value << 8) | (buffer[offset + i] & 0xff);
+        }
+        return value;
+    }
+
+    private static int mapBits(long word, int[] table) {
+        int flags = 0;
+        for (int i = 0; i < table.length; i += 2) {
+            if ((word & (1L << table[i])) != 0) flags |= table[i + 1];
+        }
+        return flags;
+    }
+
+    /**
+     * Fills in the IDs of the possible cores that {@code /proc/cpuinfo} did not list because they
+     * were offline, from {@code regs/identification/midr_el1} (ARM64 kernels 4.7 and later).
+     */
+    private void readMissingIds(String cpuDir) {
+        byte[] buffer = new byte[64];
+        int length = ProcFileParser.readNode(cpuDir + "possible", buffer, ProbeStats.CPU_SET);
+        long missing = length <= 0 ? 0 : CpuTopology.parseCpuList(buffer, length);
+        for (int cpu = 0; cpu < MAX_CPUS; cpu++) {
+            if (midr[cpu] != 0) missing &= ~(1L << cpu);
+        }
+        while (missing != 0) {
+            int cpu = Long.numberOfTrailingZeros(missing);
+            missing &= missing - 1;
+            length = ProcFileParser.readNode(cpuDir + "cpu" + cpu + "/regs/identification/midr_el1", buffer,
+                    ProbeStats.CPUINFO);
+            long id = length <= 0 ? DeviceInfo.DEVICEINFO_UNKNOWN : parseNumber(buffer, 0, length);
+            if (id > 0) {
+                midr[cpu] = (int) id;
+                cpus |= 1L << cpu;
+            }
+        }
+    }
+
+    private static int toMidr(int implementer, int variant, int part, int revision) {
+        if (implementer < 0 || part < 0) return 0;
+        // Architecture 0xf: the ID registers are described by the CPUID scheme, as on every ARMv7 and later.
+        return (implementer & 0xff) << 24 | (variant & 0xf) << 20 | 0xf << 16 | (part & 0xfff) << 4
+                | (revision & 0xf);
+    }
+
+    private static String nameOf(int midr) {
+        if (midr == 0) return null;
+        int implementer = midr >>> 24;
+        int part = (midr >>> 4) & 0xfff;
+        String name = partName(implementer, part);
+        if (name == null) name = String.format(Locale.US, "0x%02x:0x%03x", implementer, part);
+        return name + " r" + ((midr >>> 20) & 0xf) + "p" + (midr & 0xf);
+    }
+
+    private static String partName(int implementer, int part) {
+        if (implementer == 0x41) {
+            switch (part) {
+                case 0xc07: return "ARM Cortex-A7";
+                case 0xc09: return "ARM Cortex-A9";
+                case 0xc0d: return "ARM Cortex-A12";
+                case 0xc0e: return "ARM Cortex-A17";
+                case 0xc0f: return "ARM Cortex-A15";
+                case 0xd03: return "ARM Cortex-A53";
+                case 0xd04: return "ARM Cortex-A35";
+                case 0xd05: return "ARM Cortex-A55";
+                case 0xd07: return "ARM Cortex-A57";
+                case 0xd08: return "ARM Cortex-A72";
+                case 0xd09: return "ARM Cortex-A73";
+                case 0xd0a: return "ARM Cortex-A75";
+                case 0xd0b: return "ARM Cortex-A76";
+                case 0xd0d: return "ARM Cortex-A77";
+                case 0xd41: return "ARM Cortex-A78";
+                case 0xd44: return "ARM Cortex-X1";
+                case 0xd46: return "ARM Cortex-A510";
+                case 0xd47: return "ARM Cortex-A710";
+                case 0xd48: return "ARM Cortex-X2";
+                case 0xd4d: return "ARM Cortex-A715";
+                case 0xd4e: return "ARM Cortex-X3";
+                default: return null;
+            }
+        }
+        if (implementer == 0x51) {
+            switch (part) {
+                case 0x04d: return "Qualcomm Krait 200";
+                case 0x06f: return "Qualcomm Krait";
+                case 0x201:
+                case 0x205:
+                case 0x211: return "Qualcomm Kryo";
+                case 0x800: return "Qualcomm Kryo 2xx Gold";
+                case 0x801: return "Qualcomm Kryo 2xx Silver";
+                case 0x802: return "Qualcomm Kryo 3xx Gold";
+                case 0x803: return "Qualcomm Kryo 3xx Silver";
+                case 0x804: return "Qualcomm Kryo 4xx Gold";
+                case 0x805: return "Qualcomm Kryo 4xx Silver";
+                default: return null;
+            }
+        }
+        if (implementer == 0x53) {
+            switch (part) {
+                case 0x001: return "Samsung Exynos M1";
+                case 0x002: return "Samsung Exynos M3";
+                case 0x003: return "Samsung Exynos M4";
+                case 0x004: return "Samsung Exynos M5";
+                default: return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return Index of the value if the line is "key : value" with any blanks before the colon, else -1.
+     */
+    private static int valueOf(byte[] buffer, int from, int end, String key) {
+        if (!ProcFileParser.startsWith(buffer, from, end, key)) return -1;
+        int i = from + key.length();
+        while (i < end && (buffer[i] == ' ' || buffer[i] == '\t')) i++;
+        if (i >= end || buffer[i] != ':') return -1;
+        i++;
+        while (i < end && (buffer[i] == ' ' || buffer[i] == '\t')) i++;
+        return i;
+    }
+
+    /**
+     * @return The decimal or 0x prefixed hexadecimal number at from, or DEVICEINFO_UNKNOWN = -1.
+     */
+    private static long parseNumber(byte[] buffer, int from, int end) {
+        int radix = 10;
+        if (end - from > 2 && buffer[from] == '0' && (buffer[from + 1] == 'x' || buffer[from + 1] == 'X')) {
+            radix = 16;
+            from += 2;
+        }
+        long value = 0;
+        int i = from;
+        while (i < end) {
+            int digit = Character.digit(buffer[i], radix);
+            if (digit < 0) break;
+            if (value < Long.MAX_VALUE / radix) value = value * radix + digit;
+            i++;
+        }
+        return i == from ? DeviceInfo.DEVICEINFO_UNKNOWN : value;
+    }
+
+    private static int parseTokens(byte[] buffer, int from, int end, String[] tokens, int[] tokenFlags) {
+        int flags = 0;
+        int i = from;
+        while (i < end) {
+            while (i < end && buffer[i] <= ' ') i++;
+            int start = i;
+            while (i < end && buffer[i] > ' ') i++;
+            if (i == start) break;
+            for (int t = 0; t < tokens.length; t++) {
+                if (isToken(buffer, start, i, tokens[t])) {
+                    flags |= tokenFlags[t];
+                    break;
+                }
+            }
+        }
+        return flags;
+    }
+
+    private static boolean hasToken(byte[] buffer, int from, int end, String token) {
+        int i = from;
+        while (i < end) {
+            while (i < end && (buffer[i] <= ' ' || buffer[i] == '(' || buffer[i] == ')')) i++;
+            int start = i;
+            while (i < end && buffer[i] > ' ' && buffer[i] != '(' && buffer[i] != ')') i++;
+            if (i == start) break;
+            if (isToken(buffer, start, i, token)) return true;
+        }
+        return false;
+    }
+
+    private static boolean isToken(byte[] buffer, int from, int to, String token) {
+        return to - from == token.length() && ProcFileParser.startsWith(buffer, from, to, token);
+    }
+
+    /**
+     * Reads a whole file, growing the buffer while it comes back full; {@code /proc/cpuinfo} of a
+     * server is larger than the single read {@link ProcFileParser#readNode} does.
+     *
+     * @return The contents, or null if the file is missing, unreadable or empty.
+     */
+    private static byte[] readFile(String path, int probe) {
+        long start = ProbeStats.start();
+        RandomAccessFile file = null;
+        try {
+            file = new RandomAccessFile(path, "r");
+            byte[] buffer = new byte[4096];
+            int length;
+            while ((length = ProcFileParser.readAll(file, buffer)) == buffer.length
+                    && buffer.length < MAX_FILE_BYTES) {
+                buffer = new byte[buffer.length * 4];
+            }
+            if (length <= 0) {
+                ProbeStats.missing(probe, start, path);
+                return null;
+            }
+            ProbeStats.end(probe, start, ProbeStats.OK);
+            return Arrays.copyOf(buffer, length);
+        } catch (IOException | SecurityException e) {
+            ProbeStats.failed(probe, start, path, e);
+            return null;
+        } finally {
+            file = ProcFileParser.close(file);
+        }
+    }
+}
@@ -0,0 +1,528 @@
+package deviceinfo;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Heterogeneous view of the CPU: the {@code possible}, {@code present} and {@code online} sets from
+ * {@code /sys/devices/system/cpu/}, and the cores grouped into frequency domains ("clusters") via
+ * {@code cpufreq/policyN/related_cpus}. A 1+3+4 big.LITTLE phone is reported as three clusters
+ * with their own frequency range, {@code cpu_capacity} and governor instead of eight equal cores.
+ * <p/>
+ * CPU sets are kept as bitmasks, so CPUs numbered 64 and above are ignored. Values that could not be
+ * read are DEVICEINFO_UNKNOWN.
+ */
+public final class CpuTopology {
+    private static final String CPU_DIR = "/sys/devices/system/cpu/";
+
+    /**
+     * Largest {@code cpu_capacity} the scheduler assigns, used for the most capable core.
+     */
+    public static final int CAPACITY_SCALE = 1024;
+
+    /**
+     * One frequency domain: the cores that always run at the same clock.
+     */
+    public static final class Cluster {
+        private final String cpuDir;
+        private final long cpus;
+        private final int minFreqKHz;
+        private final int maxFreqKHz;
+        private final int curFreqKHz;
+        private final int capacity;
+        private final String governor;
+
+        Cluster(String cpuDir, long cpus, int minFreqKHz, int maxFreqKHz, int curFreqKHz, int capacity,
+                String governor) {
+            this.cpuDir = cpuDir;
+            this.cpus = cpus;
+            this.minFreqKHz = minFreqKHz;
+            this.maxFreqKHz = maxFreqKHz;
+            this.curFreqKHz = curFreqKHz;
+            this.capacity = capacity;
+            this.governor = governor;
+        }
+
+        /**
+         * @return Bitmask of the CPU ids in this cluster, bit n set for cpuN.
+         */
+        public long getCpuMask() {
+            return cpus;
+        }
+
+        public int getCoreCount() {
+            return Long.bitCount(cpus);
+        }
+
+        public int getFirstCpu() {
+            return Long.numberOfTrailingZeros(cpus);
+        }
+
+        public int getMinFreqKHz() {
+            return minFreqKHz;
+        }
+
+        public int getMaxFreqKHz() {
+            return maxFreqKHz;
+        }
+
+        /**
+         * @return {@code scaling_cur_freq} at the time the topology was read.
+         */
+        public int getCurFreqKHz() {
+            return curFreqKHz;
+        }
+
+        /**
+         * Reads {@code scaling_cur_freq} of the cluster again, through a descriptor kept open in
+         * {@link NodePool#shared()}.
+         *
+         * @return The current frequency, or DEVICEINFO_UNKNOWN = -1.
+         */
+        public int readCurFreqKHz() {
+            return (int) NodePool.shared().get(cpufreqNode("scaling_cur_freq"), ProbeStats.CPUFREQ).readLong();
+        }
+
+        /**
+         * @return Path of a node in the cluster's {@code cpufreq} directory.
+         */
+        String cpufreqNode(String name) {
+            return cpuDir + "cpu" + getFirstCpu() + "/cpufreq/" + name;
+        }
+
+        /**
+         * @return {@code cpu_capacity} of the cluster's cores (0 to {@link #CAPACITY_SCALE}), or
+         * DEVICEINFO_UNKNOWN = -1 on kernels that do not expose it.
+         */
+        public int getCapacity() {
+            return capacity;
+        }
+
+        /**
+         * @return {@code scaling_governor}, such as "schedutil", or null if unreadable.
+         */
+        public String getGovernor() {
+            return governor;
+        }
+
+        @Override
+        public String toString() {
+            return "Cluster" + CpuTopology.toRangeList(cpus) + "{" + minFreqKHz + "-" + maxFreqKHz + "kHz"
+                    + ", cur=" + curFreqKHz + ", capacity=" + capacity + ", governor=" + governor + "}";
+        }
+    }
+
+    private final long possible;
+    private final long present;
+    private final long online;
+    private final Cluster[] clusters;
+
+    private CpuTopology(long possible, long present, long online, Cluster[] clusters) {
+        this.possible = possible;
+        this.present = present;
+        this.online = online;
+        this.clusters = clusters;
+    }
+
+    /**
+     * Reads the topology of this device. Falls back to per-core {@code related_cpus}, then to
+     * grouping cores by {@code cpuinfo_max_freq}, on kernels without {@code cpufreq/policyN}.
+     *
+     * @return The topology, never null. An unreadable sysfs gives an empty topology.
+     */
+    public static CpuTopology read() {
+        return read(SysRoot.get());
+    }
+
+    /**
+     * Reads the topology below another root, such as a captured fixture tree.
+     */
+    public static CpuTopology read(SysRoot root) {
+        String cpuDir = root.path(CPU_DIR);
+        byte[] buffer = new byte[256];
+        long possible = readCpuSet(cpuDir + "possible", buffer, ProbeStats.CPU_SET);
+        long present = readCpuSet(cpuDir + "present", buffer, ProbeStats.CPU_SET);
+        long online = readCpuSet(cpuDir + "online", buffer, ProbeStats.CPU_SET);
+        if (possible == 0) {
+            ProbeStats.fallback(ProbeStats.CPU_SET, "possible -> cpuN directory scan");
+            possible = listCpuDirs(cpuDir);
+        }
+        if (present == 0) present = possible;
+        if (online == 0) online = present;
+
+        List<Cluster> clusters = readPolicies(cpuDir, buffer);
+        if (clusters.isEmpty()) {
+            ProbeStats.fallback(ProbeStats.CPUFREQ, "cpufreq/policyN -> cpuN/cpufreq");
+            clusters = readPerCoreDomains(cpuDir, possible, buffer);
+        }
+        Collections.sort(clusters, new Comparator<Cluster>() {
+            @Override
+            public int compare(Cluster a, Cluster b) {
+                return a.getFirstCpu() - b.getFirstCpu();
+            }
+        });
+        return new CpuTopology(possible, present, online, clusters.toArray(new Cluster[clusters.size()]));
+    }
+
+    /**
+     * Reads only the {@code online} set, for callers that track hotplug without rebuilding the
+     * clusters.
+     *
+     * @return Bitmask of the online CPUs, or 0 if the node could not be read.
+     */
+    public static long readOnlineMask() {
+        return readOnlineMask(SysRoot.get());
+    }
+
+    public static long readOnlineMask(SysRoot root) {
+        return readCpuSet(root.path(CPU_DIR) + "online", new byte[64], ProbeStats.CPU_SET);
+    }
+
+    /**
+     * @return Bitmask of the {@code possible} CPUs, the ones that may ever be brought online.
+     */
+    public long getPossibleMask() {
+        return possible;
+    }
+
+    public long getPresentMask() {
+        return present;
+    }
+
+    public long getOnlineMask() {
+        return online;
+    }
+
+    /**
+     * @return Number of possible CPU cores, or DEVICEINFO_UNKNOWN = -1 if sysfs could not be read.
+     */
+    public int getPossibleCount() {
+        return possible == 0 ? DeviceInfo.DEVICEINFO_UNKNOWN : Long.bitCount(possible);
+    }
+
+    public int getOnlineCount() {
+        return online == 0 ? DeviceInfo.DEVICEINFO_UNKNOWN : Long.bitCount(online);
+    }
+
+    /**
+     * @return The frequency domains ordered by first CPU, little cores first on most SoCs.
+     */
+    public Cluster[] getClusters() {
+        return clusters.clone();
+    }
+
+    public int getClusterCount() {
+        return clusters.length;
+    }
+
+    /**
+     * @return The cluster that contains the given CPU, or null.
+     */
+    public Cluster getClusterOf(int cpu) {
+        for (Cluster cluster : clusters) {
+            if ((cluster.cpus & (1L << cpu)) != 0) return cluster;
+        }
+        return null;
+    }
+
+    /**
+     * @return The highest {@code cpuinfo_max_freq} over all clusters, or DEVICEINFO_UNKNOWN = -1.
+     */
+    public int getMaxFreqKHz() {
+        int max = DeviceInfo.DEVICEINFO_UNKNOWN;
+        for (Cluster cluster : clusters) {
+            if (cluster.maxFreqKHz > max) max = cluster.maxFreqKHz;
+        }
+        return max;
+    }
+
+    /**
+     * Relative performance of a cluster's cores. Uses {@code cpu_capacity} when the kernel exposes it
+     * and the ratio to the fastest cluster's max frequency otherwise.
+     *
+     * @return Capacity on the 0 to {@link #CAPACITY_SCALE} scale, or 0 when nothing is known.
+     */
+    public int getEffectiveCapacity(Cluster cluster) {
+        if (cluster.capacity > 0) return cluster.capacity;
+        int max = getMaxFreqKHz();
+        if (max <= 0 || cluster.maxFreqKHz <= 0) return 0;
+        return (int) ((long) cluster.maxFreqKHz * CAPACITY_SCALE / max);
+    }
+
+    /**
+     * @return The cluster with the highest effective capacity, or null without clusters.
+     */
+    public Cluster getBigCluster() {
+        Cluster big = null;
+        int bigCapacity = -1;
+        for (Cluster cluster : clusters) {
+            int capacity = getEffectiveCapacity(cluster);
+            if (capacity > bigCapacity) {
+                big = cluster;
+                bigCapacity = capacity;
+            }
+        }
+        return big;
+    }
+
+    /**
+     * Counts the possible cores in clusters whose capacity is within 1/4 of the biggest one, so a
+     * prime core and the performance cores next to it count together.
+     *
+     * @return Number of big cores, or the possible count on homogeneous and unreadable topologies.
+     */
+    public int getBigCoreCount() {
+        Cluster big = getBigCluster();
+        if (big == null) return getPossibleCount();
+        int bigCapacity = getEffectiveCapacity(big);
+        int count = 0;
+        for (Cluster cluster : clusters) {
+            if (getEffectiveCapacity(cluster) * 4 >= bigCapacity * 3) count += cluster.getCoreCount();
+        }
+        return count;
+    }
+
+    /**
+     * Sum of each core's capacity relative to the biggest core, so four little cores at 40% count as
+     * 1.6 cores next to the big ones.
+     *
+     * @return Capacity-weighted core count, or the possible count when capacities are unknown.
+     */
+    public float getEffectiveCoreCount() {
+        Cluster big = getBigCluster();
+        int bigCapacity = big == null ? 0 : getEffectiveCapacity(big);
+        if (bigCapacity <= 0) return getPossibleCount();
+        float cores = 0;
+        for (Cluster cluster : clusters) {
+            cores += cluster.getCoreCount() * (float) getEffectiveCapacity(cluster) / bigCapacity;
+        }
+        return cores;
+    }
+
+    /**
+     * Parses a sysfs CPU list such as {@code 0-3,6} or the space separated {@code related_cpus}.
+     *
+     * @return Bitmask with bit n set for every CPU n in the list.
+     */
+    static long parseCpuList(byte[] buffer, int length) {
+        long mask = 0;
+        int rangeStart = -1;
+        int value = -1;
+        for (int i = 0; i <= length; i++) {
+            byte b = i < length ? buffer[i] : (byte) '\n';
+            if (b >= '0' && b <= '9') {
+                value = (value < 0 ? 0 : value * 10) + (b - '0');
+            } else if (b == '-' && value >= 0) {
+                rangeStart = value;
+                value = -1;
+            } else {
+                if (value >= 0) {
+                    int from = rangeStart >= 0 ? rangeStart : value;
+                    for (int cpu = from; cpu <= value && cpu < 64; cpu++) {
+                        mask |= 1L << cpu;
+                    }
+                }
+                rangeStart = -1;
+                value = -1;
+                if (b == '\n' || b == 0) break;
+            }
+        }
+        return mask;
+    }
+
+    static String toRangeList(long mask) {
+        StringBuilder sb = new StringBuilder("[");
+        int cpu = 0;
+        while (cpu < 64) {
+            if ((mask & (1L << cpu)) == 0) {
+                cpu++;
+                continue;
+            }
+            int end = cpu;
+            while (end + 1 < 64 && (mask & (1L << (end + 1))) != 0) end++;
+            if (sb.length() > 1) sb.append(',');
+            sb.append(cpu);
+            if (end > cpu) sb.append('-').append(end);
+            cpu = end + 1;
+        }
+        return sb.append(']').toString();
+    }
+
+    private static long readCpuSet(String path, byte[] buffer, int probe) {
+        int length = ProcFileParser.readNode(path, buffer, probe);
+        return length <= 0 ? 0 : parseCpuList(buffer, length);
+    }
+
+    private static long listCpuDirs(String cpuDir) {
+        long start = ProbeStats.start();
+        String[] names;
+        try {
+            names = new File(cpuDir).list();
+        } catch (SecurityException e) {
+            ProbeStats.failed(ProbeStats.CORE_SCAN, start, cpuDir, e);
+            return 0;
+        }
+        if (names == null) {
+            ProbeStats.missing(ProbeStats.CORE_SCAN, start, cpuDir);
+            return 0;
+        }
+        ProbeStats.end(ProbeStats.CORE_SCAN, start, ProbeStats.OK);
+        long mask = 0;
+        for (String name : names) {
+            if (isCpuDirName(name)) {
+                int cpu = Integer.parseInt(name.substring(3));
+                if (cpu < 64) mask |= 1L << cpu;
+            }
+        }
+        return mask;
+    }
+
+    private static boolean isCpuDirName(String path) {
+        //regex is slow, so checking char by char.
+        if (!path.startsWith("cpu") || path.length() == 3) return false;
+        for (int i = 3; i < path.length(); i++) {
+            if (!Character.isDigit(path.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static List<Cluster> readPolicies(String cpuDir, byte[] buffer) {
+        List<Cluster> clusters = new ArrayList<>();
+        long start = ProbeStats.start();
+        String[] names;
+        try {
+            names = new File(cpuDir + "cpufreq/").list();
+        } catch (SecurityException e) {
+            ProbeStats.failed(ProbeStats.CPUFREQ, start, cpuDir + "cpufreq/", e);
+            return clusters;
+        }
+        if (names == null) {
+            ProbeStats.missing(ProbeStats.CPUFREQ, start, cpuDir + "cpufreq/");
+            return clusters;
+        }
+        ProbeStats.end(ProbeStats.CPUFREQ, start, ProbeStats.OK);
+        for (String name : names) {
+            if (!name.startsWith("policy")) continue;
+            String dir = cpuDir + "cpufreq/" + name + "/";
+            long cpus = readCpuSet(dir + "related_cpus", buffer, ProbeStats.CPUFREQ);
+            if (cpus == 0) continue;
+            clusters.add(readCluster(cpuDir, dir, cpus, buffer));
+        }
+        return clusters;
+    }
+
+    private static List<Cluster> readPerCoreDomains(String cpuDir, long possible, byte[] buffer) {
+        List<Cluster> clusters = new ArrayList<>();
+        long assigned = 0;
+        for (int cpu = 0; cpu < 64; cpu++) {
+            long bit = 1L << cpu;
+            if ((possible & bit) == 0 || (assigned & bit) != 0) continue;
+            String dir = cpuDir + "cpu" + cpu + "/cpufreq/";
+            long cpus = readCpuSet(dir + "related_cpus", buffer, ProbeStats.CPUFREQ) & possible;
+            if (cpus == 0) cpus = bit;
+            Cluster cluster = readCluster(cpuDir, dir, cpus, buffer);
+            assigned |= cpus;
+            clusters.add(cluster);
+        }
+        return mergeByMaxFreq(clusters);
+    }
+
+    /**
+     * Kernels that report every core as its own domain are grouped by max frequency instead, which
+     * is what the cores of one physical cluster share.
+     */
+    private static List<Cluster> mergeByMaxFreq(List<Cluster> perCore) {
+        List<Cluster> merged = new ArrayList<>();
+        boolean[] used = new boolean[perCore.size()];
+        for (int i = 0; i < perCore.size(); i++) {
+            if (used[i]) continue;
+            Cluster first = perCore.get(i);
+            long cpus = first.cpus;
+            for (int j = i + 1; j < perCore.size(); j++) {
+                Cluster other = perCore.get(j);
+                if (!used[j] && other.maxFreqKHz == first.maxFreqKHz && other.capacity == first.capacity) {
+                    cpus |= other.cpus;
+                    used[j] = true;
+                }
+            }
+            merged.add(cpus == first.cpus ? first : new Cluster(first.cpuDir, cpus, first.minFreqKHz, first.maxFreqKHz,
+                    first.curFreqKHz, first.capacity, first.governor));
+        }
+        return merged;
+    }
+
+    private static Cluster readCluster(String cpuDir, String cpufreqDir, long cpus, byte[] buffer) {
+        int first = Long.numberOfTrailingZeros(cpus);
+        int min = (int) ProcFileParser.readLong(cpufreqDir + "cpuinfo_min_freq", buffer, ProbeStats.CPUFREQ);
+        int max = (int) ProcFileParser.readLong(cpufreqDir + "cpuinfo_max_freq", buffer, ProbeStats.CPUFREQ);
+        int cur = (int) ProcFileParser.readLong(cpufreqDir + "scaling_cur_freq", buffer, ProbeStats.CPUFREQ);
+        int capacity = (int) ProcFileParser.readLong(cpuDir + "cpu" + first + "/cpu_capacity", buffer,
+                ProbeStats.CPU_CAPACITY);
+        return new Cluster(cpuDir, cpus, min, max, cur, capacity, readGovernor(cpufreqDir, buffer));
+    }
+
+    private static String readGovernor(String cpufreqDir, byte[] buffer) {
+        int length = ProcFileParser.readNode(cpufreqDir + "scaling_governor", buffer, ProbeStats.CPUFREQ);
+        if (length <= 0) return null;
+        int end = 0;
+        while (end < length && buffer[end] > ' ') end++;
+        return new String(buffer, 0, end);
+    }
+
+    /**
+     * Persists what stays the same until the next OTA: the possible and present sets and each
+     * cluster's CPUs, frequency range and capacity. The online set, the current clocks and the
+     * governors change while the device runs and are read again by {@link #readFrom}.
+     */
+    void writeTo(DataOutput out) throws IOException {
+        out.writeLong(possible);
+        out.writeLong(present);
+        out.writeByte(clusters.length);
+        for (Cluster cluster : clusters) {
+            out.writeLong(cluster.cpus);
+            out.writeInt(cluster.minFreqKHz);
+            out.writeInt(cluster.maxFreqKHz);
+            out.writeInt(cluster.capacity);
+        }
+    }
+
+    /**
+     * Restores a topology written by {@link #writeTo} and reads the online set and each cluster's
+     * {@code scaling_cur_freq} and {@code scaling_governor} below the root, a few small reads in place
+     * of the full scan.
+     */
+    static CpuTopology readFrom(DataInput in, SysRoot root) throws IOException {
+        long possible = in.readLong();
+        long present = in.readLong();
+        String cpuDir = root.path(CPU_DIR);
+        byte[] buffer = new byte[256];
+        Cluster[] clusters = new Cluster[in.readUnsignedByte()];
+        for (int i = 0; i < clusters.length; i++) {
+            long cpus = in.readLong();
+            int min = in.readInt();
+            int max = in.readInt();
+            int capacity = in.readInt();
+            String cpufreqDir = cpuDir + "cpu" + Long.numberOfTrailingZeros(cpus) + "/cpufreq/";
+            int cur = (int) ProcFileParser.readLong(cpufreqDir + "scaling_cur_freq", buffer, ProbeStats.CPUFREQ);
+            clusters[i] = new Cluster(cpuDir, cpus, min, max, cur, capacity, readGovernor(cpufreqDir, buffer));
+        }
+        long online = readCpuSet(cpuDir + "online", buffer, ProbeStats.CPU_SET);
+        if (online == 0) online = present;
+        return new CpuTopology(possible, present, online, clusters);
+    }
+
+    @Override
+    public String toString() {
+        return "CpuTopology{possible=" + toRangeList(possible) + ", present=" + toRangeList(present)
+                + ", online=" + toRangeList(online) + ", clusters=" + Arrays.toString(clusters) + "}";
+    }
+}
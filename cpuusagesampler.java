@@ -0,0 +1,325 @@
+package deviceinfo;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Live CPU utilization from {@code /proc/stat} (aggregate and per-core jiffies) and
+ * {@code /proc/self/stat}. Each sample turns the jiffy deltas into utilization in permille and
+ * writes it into a fixed-size ring of atomic arrays, so sampling does not allocate and readers on
+ * any thread see consistent values without taking a lock.
+ * <p/>
+ * Since Android 8 apps may not read {@code /proc/stat}; the device values are then
+ * DEVICEINFO_UNKNOWN and the process utilization is computed against wall time instead.
+ */
+public final class CpuUsageSampler extends PollingProbe {
+    private static final String PROC_STAT = "/proc/stat";
+    private static final String PROC_SELF_STAT = "/proc/self/stat";
+
+    /**
+     * USER_HZ, the unit of the jiffy counters, which is 100 on every Android kernel.
+     */
+    private static final long CLOCK_TICKS_PER_SECOND = 100;
+
+    // /proc/stat columns: user nice system idle iowait irq softirq steal.
+    private static final int STAT_FIELDS = 8;
+    private static final int IDLE = 3;
+    private static final int IOWAIT = 4;
+
+    // Field positions in /proc/self/stat after the ")" closing the command name, counted from 0.
+    private static final int SELF_UTIME = 11;
+    private static final int SELF_STIME = 12;
+
+    private final String procStatPath;
+    private final String selfStatPath;
+    private final int capacity;
+    private final int cores;
+
+    // Ring buffer; a slot is complete once sequence has moved past it. The slots are atomic arrays
+    // so that their reads and writes are ordered with those of sequence: a reader that re-reads
+    // sequence after a slot sees any write of the sampling thread that came back around to it.
+    private final AtomicLongArray timesNanos;
+    private final AtomicIntegerArray totalPermille;
+    private final AtomicIntegerArray processPermille;
+    private final AtomicIntegerArray corePermille;
+    private volatile long sequence;
+
+    // Sampling state, only touched by the sampling thread.
+    private final byte[] buffer = new byte[4096];
+    private final long[] fields = new long[STAT_FIELDS];
+    private final long[] selfFields = new long[SELF_STIME + 1];
+    private final long[] lastBusy;
+    private final long[] lastTotal;
+    private final long[] curBusy;
+    private final long[] curTotal;
+    private long lastProcess = -1;
+    private long lastNanos;
+    private RandomAccessFile procStat;
+    private RandomAccessFile selfStat;
+    private boolean procStatDenied;
+
+    /**
+     * @param capacity - Number of samples kept, older ones are overwritten.
+     */
+    public CpuUsageSampler(int capacity) {
+        this(SysRoot.get(), capacity);
+    }
+
+    public CpuUsageSampler(SysRoot root, int capacity) {
+        if (capacity < 2) throw new IllegalArgumentException("capacity must be at least 2");
+        this.procStatPath = root.path(PROC_STAT);
+        this.selfStatPath = root.path(PROC_SELF_STAT);
+        this.capacity = capacity;
+        long possible = root.isDevice() ? DeviceInfo.getCpuTopology().getPossibleMask()
+                : CpuTopology.read(root).getPossibleMask();
+        this.cores = Math.max(1, 64 - Long.numberOfLeadingZeros(possible));
+        this.timesNanos = new AtomicLongArray(capacity);
+        this.totalPermille = new AtomicIntegerArray(capacity);
+        this.processPermille = new AtomicIntegerArray(capacity);
+        this.corePermille = new AtomicIntegerArray(capacity * cores);
+        // Index 0 is the aggregate "cpu" line, index n + 1 is cpuN.
+        this.lastBusy = new long[cores + 1];
+        this.lastTotal = new long[cores + 1];
+        this.curBusy = new long[cores + 1];
+        this.curTotal = new long[cores + 1];
+    }
+
+    @Override
+    protected void sample(long nowNanos) {
+        boolean haveDevice = readProcStat();
+        long process = readSelfStat();
+        long elapsedNanos = nowNanos - lastNanos;
+        boolean first = lastNanos == 0;
+        lastNanos = nowNanos;
+
+        int slot = (int) (sequence % capacity);
+        int total = DeviceInfo.DEVICEINFO_UNKNOWN;
+        if (haveDevice) {
+            total = permille(curBusy[0] - lastBusy[0], curTotal[0] - lastTotal[0]);
+            for (int core = 0; core < cores; core++) {
+                int i = core + 1;
+                corePermille.set(slot * cores + core, curTotal[i] == 0 ? DeviceInfo.DEVICEINFO_UNKNOWN
+                        : permille(curBusy[i] - lastBusy[i], curTotal[i] - lastTotal[i]));
+            }
+        } else {
+            for (int core = 0; core < cores; core++) {
+                corePermille.set(slot * cores + core, DeviceInfo.DEVICEINFO_UNKNOWN);
+            }
+        }
+
+        int processUsage = DeviceInfo.DEVICEINFO_UNKNOWN;
+        if (process >= 0 && lastProcess >= 0) {
+            if (haveDevice) {
+                processUsage = permille(process - lastProcess, curTotal[0] - lastTotal[0]);
+            } else {
+                // Share of the whole device: jiffies of one core per elapsed tick, times the cores.
+                long ticks = elapsedNanos * CLOCK_TICKS_PER_SECOND / 1000000000L * cores;
+                processUsage = permille(process - lastProcess, ticks);
+            }
+        }
+        lastProcess = process;
+        System.arraycopy(curBusy, 0, lastBusy, 0, curBusy.length);
+        System.arraycopy(curTotal, 0, lastTotal, 0, curTotal.length);
+        if (first) return;
+
+        timesNanos.set(slot, nowNanos);
+        totalPermille.set(slot, total);
+        processPermille.set(slot, processUsage);
+        sequence = sequence + 1;
+    }
+
+    @Override
+    protected void onStop() {
+        procStat = ProcFileParser.close(procStat);
+        selfStat = ProcFileParser.close(selfStat);
+        lastNanos = 0;
+        lastProcess = -1;
+    }
+
+    /**
+     * @return Number of samples written so far. A reader can compare it between calls to see whether
+     * a new sample arrived.
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return Number of per-core columns, the highest possible CPU id + 1.
+     */
+    public int getCoreCount() {
+        return cores;
+    }
+
+    /**
+     * @return Busy share of the whole device in the last interval, 0 to 1000, or DEVICEINFO_UNKNOWN.
+     */
+    public int getTotalPermille() {
+        return latest(totalPermille);
+    }
+
+    /**
+     * @return This process's share of the whole device in the last interval, 0 to 1000, or
+     * DEVICEINFO_UNKNOWN.
+     */
+    public int getProcessPermille() {
+        return latest(processPermille);
+    }
+
+    /**
+     * @return Busy share of cpuN in the last interval, 0 to 1000, or DEVICEINFO_UNKNOWN while the
+     * core is offline or {@code /proc/stat} is not readable.
+     */
+    public int getCorePermille(int core) {
+        if (core < 0 || core >= cores) return DeviceInfo.DEVICEINFO_UNKNOWN;
+        while (true) {
+            long seq = sequence;
+            if (seq == 0) return DeviceInfo.DEVICEINFO_UNKNOWN;
+            int value = corePermille.get((int) ((seq - 1) % capacity) * cores + core);
+            if (sequence - seq < capacity - 1) return value;
+        }
+    }
+
+    /**
+     * Averages the device utilization over the last samples, for example before starting a heavy
+     * decode.
+     *
+     * @return Mean permille over up to count samples, or DEVICEINFO_UNKNOWN without samples.
+     */
+    public int getAverageTotalPermille(int count) {
+        return average(totalPermille, count);
+    }
+
+    public int getAverageProcessPermille(int count) {
+        return average(processPermille, count);
+    }
+
+    /**
+     * Copies the most recent samples, oldest first, into caller-owned arrays.
+     *
+     * @return Number of samples copied, at most the arrays' length and the capacity.
+     */
+    public int copyHistory(long[] outTimesNanos, int[] outTotalPermille, int[] outProcessPermille) {
+        while (true) {
+            long seq = sequence;
+            int count = (int) Math.min(Math.min(seq, capacity - 1), outTimesNanos.length);
+            for (int i = 0; i < count; i++) {
+                int slot = (int) ((seq - count + i) % capacity);
+                outTimesNanos[i] = timesNanos.get(slot);
+                outTotalPermille[i] = totalPermille.get(slot);
+                outProcessPermille[i] = processPermille.get(slot);
+            }
+            if (sequence - seq < capacity - count) return count;
+        }
+    }
+
+    private int latest(AtomicIntegerArray values) {
+        while (true) {
+            long seq = sequence;
+            if (seq == 0) return DeviceInfo.DEVICEINFO_UNKNOWN;
+            int value = values.get((int) ((seq - 1) % capacity));
+            // The writer has not come back around to the slot, so the value belongs to seq.
+            if (sequence - seq < capacity - 1) return value;
+        }
+    }
+
+    private int average(AtomicIntegerArray values, int count) {
+        while (true) {
+            long seq = sequence;
+            int n = (int) Math.min(Math.min(seq, capacity - 1), count);
+            long sum = 0;
+            int known = 0;
+            for (int i = 0; i < n; i++) {
+                int value = values.get((int) ((seq - 1 - i) % capacity));
+                if (value >= 0) {
+                    sum += value;
+                    known++;
+                }
+            }
+            if (sequence - seq < capacity - n) {
+                return known == 0 ? DeviceInfo.DEVICEINFO_UNKNOWN : (int) (sum / known);
+            }
+        }
+    }
+
+    private static int permille(long busy, long total) {
+        if (total <= 0 || busy < 0) return DeviceInfo.DEVICEINFO_UNKNOWN;
+        return (int) Math.min(1000, busy * 1000 / total);
+    }
+
+    /**
+     * Reads the "cpu" lines at the top of {@code /proc/stat} into curBusy/curTotal. The lines after
+     * them (intr, ctxt, ...) are skipped without being parsed.
+     */
+    private boolean readProcStat() {
+        if (procStatDenied) return false;
+        if (procStat == null) {
+            try {
+                procStat = new RandomAccessFile(procStatPath, "r");
+            } catch (IOException | SecurityException e) {
+                procStatDenied = true;
+                return false;
+            }
+        }
+        int length = ProcFileParser.readAll(procStat, buffer);
+        if (length <= 0) return false;
+        for (int i = 1; i < curTotal.length; i++) {
+            curBusy[i] = 0;
+            curTotal[i] = 0;
+        }
+        int line = 0;
+        boolean aggregate = false;
+        while (line < length && ProcFileParser.startsWith(buffer, line, length, "cpu")) {
+            int i = line + 3;
+            int cpu = -1;
+            while (i < length && buffer[i] >= '0' && buffer[i] <= '9') {
+                cpu = (cpu < 0 ? 0 : cpu * 10) + (buffer[i++] - '0');
+            }
+            int next = ProcFileParser.nextLine(buffer, i, length);
+            // A line cut off by the end of the buffer would give short counters, leave it out.
+            if (next == length && buffer[length - 1] != '\n') break;
+            int index = cpu + 1;
+            if (index < curTotal.length) {
+                int count = ProcFileParser.parseFields(buffer, i, length, fields);
+                long total = 0;
+                for (int f = 0; f < count; f++) {
+                    if (fields[f] > 0) total += fields[f];
+                }
+                long idle = fields[IDLE] + (count > IOWAIT ? Math.max(0, fields[IOWAIT]) : 0);
+                curBusy[index] = total - idle;
+                curTotal[index] = total;
+                if (cpu < 0) aggregate = true;
+            }
+            line = next;
+        }
+        return aggregate;
+    }
+
+    /**
+     * @return utime + stime of this process in jiffies, or -1 if unreadable.
+     */
+    private long readSelfStat() {
+        if (selfStat == null) {
+            try {
+                selfStat = new RandomAccessFile(selfStatPath, "r");
+            } catch (IOException | SecurityException e) {
+                return -1;
+            }
+        }
+        int length = ProcFileParser.readAll(selfStat, buffer);
+        if (length <= 0) return -1;
+        // The command name may contain spaces and parentheses, so fields start after the last ")".
+        int start = length - 1;
+        while (start >= 0 && buffer[start] != ')') start--;
+        if (start < 0) return -1;
+        int count = ProcFileParser.parseFields(buffer, start + 1, length, selfFields);
+        if (count <= SELF_STIME) return -1;
+        return selfFields[SELF_UTIME] + selfFields[SELF_STIME];
+    }
+}
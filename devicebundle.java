@@ -0,0 +1,206 @@
+package deviceinfo;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Properties;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * A captured device: the sysfs and procfs nodes the probes read plus the {@link DevicePlatform}
+ * values, archived as a zip with the layout of the benchmark fixtures ({@code sys/...},
+ * {@code proc/...} and {@code platform.properties}). The few hundred small nodes of a phone zip to
+ * well under 100KB, so bundles can be collected from a test fleet and replayed off the device: extract one and capture
+ * a snapshot with {@code new SysRoot(dir)} and {@link BundlePlatform#load(File)}.
+ * <p/>
+ * Example usage on the device:
+ * <pre>
+ *   OutputStream out = new FileOutputStream(new File(context.getFilesDir(), "device.zip"));
+ *   DeviceInfo.captureBundle(context, out);
+ * </pre>
+ * This class does not depend on Android.
+ */
+public final class DeviceBundle {
+    public static final String PLATFORM_FILE = "platform.properties";
+
+    /**
+     * Larger nodes are cut, {@code /proc/cpuinfo} of a 16 core server is about 20KB.
+     */
+    private static final int MAX_NODE_BYTES = 256 * 1024;
+
+    private static final String CPU_DIR = "/sys/devices/system/cpu";
+    private static final String[] CPU_FILES = {"possible", "present", "online", "kernel_max"};
+    private static final String[] CORE_FILES = {"online", "cpu_capacity", "regs/identification/midr_el1"};
+    private static final String[] CPUFREQ_FILES = {
+            "affected_cpus", "related_cpus", "cpuinfo_max_freq", "cpuinfo_min_freq", "scaling_cur_freq",
+            "scaling_max_freq", "scaling_min_freq", "scaling_governor"
+    };
+    private static final String[] CACHE_FILES = {
+            "level", "type", "size", "coherency_line_size", "ways_of_associativity", "shared_cpu_list"
+    };
+    private static final String THERMAL_DIR = "/sys/class/thermal";
+    private static final String[] THERMAL_FILES = {"type", "temp"};
+    private static final String[] PROC_FILES = {
+            "/proc/cpuinfo", "/proc/meminfo", "/proc/stat", "/proc/diskstats", "/proc/mounts",
+            "/proc/pressure/memory", "/proc/self/status", "/proc/self/stat", "/proc/self/auxv"
+    };
+
+    private DeviceBundle() {
+    }
+
+    /**
+     * Writes the bundle of the device below root. Nodes that do not exist or cannot be read are
+     * left out, as a probe would find them missing. The stream is not closed.
+     *
+     * @param extra - Further values for {@code platform.properties}, such as
+     *              {@link AndroidPlatform#getBuildProperties()}; may be null.
+     * @return Number of nodes written.
+     */
+    public static int capture(SysRoot root, DevicePlatform platform, Properties extra, OutputStream out)
+            throws IOException {
+        ZipOutputStream zip = new ZipOutputStream(out);
+        zip.setLevel(9);
+        byte[] buffer = new byte[MAX_NODE_BYTES];
+        int nodes = 0;
+
+        for (String name : CPU_FILES) {
+            nodes += copy(root, CPU_DIR + "/" + name, zip, buffer);
+        }
+        for (String core : list(root, CPU_DIR, "cpu")) {
+            for (String name : CORE_FILES) {
+                nodes += copy(root, CPU_DIR + "/" + core + "/" + name, zip, buffer);
+            }
+            for (String name : CPUFREQ_FILES) {
+                nodes += copy(root, CPU_DIR + "/" + core + "/cpufreq/" + name, zip, buffer);
+            }
+            for (String index : list(root, CPU_DIR + "/" + core + "/cache", "index")) {
+                for (String name : CACHE_FILES) {
+                    nodes += copy(root, CPU_DIR + "/" + core + "/cache/" + index + "/" + name, zip, buffer);
+                }
+            }
+        }
+        for (String policy : list(root, CPU_DIR + "/cpufreq", "policy")) {
+            for (String name : CPUFREQ_FILES) {
+                nodes += copy(root, CPU_DIR + "/cpufreq/" + policy + "/" + name, zip, buffer);
+            }
+        }
+        for (String zone : list(root, THERMAL_DIR, "thermal_zone")) {
+            for (String name : THERMAL_FILES) {
+                nodes += copy(root, THERMAL_DIR + "/" + zone + "/" + name, zip, buffer);
+            }
+        }
+        for (String path : PROC_FILES) {
+            nodes += copy(root, path, zip, buffer);
+        }
+
+        Properties properties = new Properties();
+        if (extra != null) properties.putAll(extra);
+        StringBuilder abis = new StringBuilder();
+        for (String abi : platform.getAbis()) {
+            if (abis.length() > 0) abis.append(',');
+            abis.append(abi);
+        }
+        properties.setProperty("abis", abis.toString());
+        properties.setProperty("totalMem", String.valueOf(platform.getTotalMemory()));
+        properties.setProperty("threshold", String.valueOf(platform.getMemThreshold()));
+        properties.setProperty("storageTotal", String.valueOf(platform.getStorageTotalBytes()));
+        properties.setProperty("storageAvailable", String.valueOf(platform.getStorageAvailableBytes()));
+        zip.putNextEntry(new ZipEntry(PLATFORM_FILE));
+        properties.store(zip, null);
+        zip.closeEntry();
+        zip.finish();
+        return nodes;
+    }
+
+    /**
+     * Unpacks a bundle into dir, which becomes the root to replay it from.
+     *
+     * @throws IOException if the zip is corrupt or has an entry outside dir.
+     */
+    public static void extract(InputStream in, File dir) throws IOException {
+        ZipInputStream zip = new ZipInputStream(in);
+        byte[] buffer = new byte[8192];
+        String base = dir.getCanonicalPath() + File.separator;
+        ZipEntry entry;
+        while ((entry = zip.getNextEntry()) != null) {
+            File file = new File(dir, entry.getName());
+            if (!file.getCanonicalPath().startsWith(base)) {
+                throw new IOException("Entry outside the bundle: " + entry.getName());
+            }
+            if (entry.isDirectory()) {
+                file.mkdirs();
+                continue;
+            }
+            file.getParentFile().mkdirs();
+            OutputStream out = new FileOutputStream(file);
+            try {
+                int n;
+                while ((n = zip.read(buffer)) > 0) {
+                    out.write(buffer, 0, n);
+                }
+            } finally {
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * @return Names of the entries of dir that are prefix followed by a number, in numeric order.
+     */
+    private static String[] list(SysRoot root, String dir, final String prefix) {
+        String[] names = new File(root.path(dir)).list();
+        if (names == null) return new String[0];
+        int count = 0;
+        for (String name : names) {
+            if (isNumbered(name, prefix)) names[count++] = name;
+        }
+        String[] numbered = Arrays.copyOf(names, count);
+        Arrays.sort(numbered, new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                return Integer.parseInt(a.substring(prefix.length())) - Integer.parseInt(b.substring(prefix.length()));
+            }
+        });
+        return numbered;
+    }
+
+    private static boolean isNumbered(String name, String prefix) {
+        if (!name.startsWith(prefix) || name.length() == prefix.length() || name.length() > prefix.length() + 6) {
+            return false;
+        }
+        for (int i = prefix.length(); i < name.length(); i++) {
+            if (name.charAt(i) < '0' || name.charAt(i) > '9') return false;
+        }
+        return true;
+    }
+
+    /**
+     * Reads one node. Procfs reports a size of 0, so it is read until the end rather than by length.
+     *
+     * @return 1 if the node was written, 0 if it could not be read.
+     */
+    private static int copy(SysRoot root, String path, ZipOutputStream zip, byte[] buffer) throws IOException {
+        int length;
+        RandomAccessFile file = null;
+        try {
+            file = new RandomAccessFile(root.path(path), "r");
+            length = ProcFileParser.readAll(file, buffer);
+        } catch (IOException | SecurityException e) {
+            return 0;
+        } finally {
+            file = ProcFileParser.close(file);
+        }
+        if (length < 0) return 0;
+        zip.putNextEntry(new ZipEntry(path.substring(1)));
+        zip.write(buffer, 0, length);
+        zip.closeEntry();
+        return 1;
+    }
+}
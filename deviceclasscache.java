@@ -0,0 +1,225 @@
+package deviceinfo;
+
+import android.content.Context;
+import android.os.Build;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.zip.CRC32;
+
+/**
+ * Persists the computed year class together with the {@link DeviceSnapshot} it came from, so later
+ * launches skip the probes entirely. The record is a small versioned binary file in the app's files
+ * dir, loaded with a single read:
+ * <p/>
+ * <pre>
+ *   int    magic 'DVCL'
+ *   short  format version
+ *   long   key, a hash of Build.FINGERPRINT, the kernel version and the rules version
+ *   int    year class
+ *   byte   class category, 0 = LOW, 1 = MEDIUM, 2 = HIGH, -1 = none
+ *   ...    DeviceSnapshot, without the online CPUs, clocks and free storage, which are read on load
+ *   byte   1 if a MeasuredClassifier result follows, else 0
+ *   ...    MeasuredClassifier.Result
+ *   byte   1 if a StorageProbe result follows, else 0
+ *   ...    StorageProbe.Result
+ *   int    CRC32 of everything above
+ * </pre>
+ * A record with another magic, format, key or checksum is treated as missing, so an OTA update, a
+ * kernel change or new classification rules recompute the class on the next launch.
+ */
+final class DeviceClassCache {
+    private static final String FILE_NAME = "deviceinfo.yearclass";
+    private static final int MAGIC = 0x4456434c; // "DVCL"
+    private static final int FORMAT_VERSION = 6;
+    private static final int MAX_RECORD_SIZE = 16 * 1024;
+
+    static final class Record {
+        final int year;
+        final String classCategory;
+        final DeviceSnapshot snapshot;
+        final MeasuredClassifier.Result measured;
+        final StorageProbe.Result storage;
+
+        Record(int year, String classCategory, DeviceSnapshot snapshot, MeasuredClassifier.Result measured,
+               StorageProbe.Result storage) {
+            this.year = year;
+            this.classCategory = classCategory;
+            this.snapshot = snapshot;
+            this.measured = measured;
+            this.storage = storage;
+        }
+    }
+
+    private DeviceClassCache() {
+    }
+
+    /**
+     * @return The stored record if it is intact and was written on this OS build with the current
+     * rules, otherwise null.
+     */
+    static Record load(Context c, int rulesVersion) {
+        byte[] data = readFile(getFile(c));
+        if (data == null) return null;
+        int bodyLength = data.length - 4;
+        if (bodyLength <= 0) return null;
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+            if (in.readInt() != MAGIC || in.readShort() != FORMAT_VERSION) return null;
+            if (in.readLong() != computeKey(rulesVersion)) return null;
+            CRC32 crc = new CRC32();
+            crc.update(data, 0, bodyLength);
+            int stored = ((data[bodyLength] & 0xff) << 24) | ((data[bodyLength + 1] & 0xff) << 16)
+                    | ((data[bodyLength + 2] & 0xff) << 8) | (data[bodyLength + 3] & 0xff);
+            if ((int) crc.getValue() != stored) return null;
+
+            int year = in.readInt();
+            String classCategory = decodeClass(in.readByte());
+            DeviceSnapshot snapshot = DeviceSnapshot.readFrom(in, SysRoot.get(), new AndroidPlatform(c));
+            MeasuredClassifier.Result measured = in.readByte() == 1 ? MeasuredClassifier.Result.readFrom(in) : null;
+            StorageProbe.Result storage = in.readByte() == 1 ? StorageProbe.Result.readFrom(in) : null;
+            return new Record(year, classCategory, snapshot, measured, storage);
+        } catch (IOException | RuntimeException e) {
+            //Truncated or foreign record, recompute.
+            return null;
+        }
+    }
+
+    /**
+     * Writes the record to a temporary file and renames it over the old one, so a crash mid-write
+     * never leaves a torn record behind.
+     *
+     * @return true if the record was stored.
+     */
+    static boolean store(Context c, int rulesVersion, Record record) {
+        byte[] data;
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeShort(FORMAT_VERSION);
+            out.writeLong(computeKey(rulesVersion));
+            out.writeInt(record.year);
+            out.writeByte(encodeClass(record.classCategory));
+            record.snapshot.writeTo(out);
+            out.writeByte(record.measured != null ? 1 : 0);
+            if (record.measured != null) record.measured.writeTo(out);
+            out.writeByte(record.storage != null ? 1 : 0);
+            if (record.storage != null) record.storage.writeTo(out);
+            CRC32 crc = new CRC32();
+            crc.update(bytes.toByteArray());
+            out.writeInt((int) crc.getValue());
+            out.flush();
+            data = bytes.toByteArray();
+        } catch (IOException e) {
+            return false;
+        }
+
+        File file = getFile(c);
+        File tmp = new File(file.getPath() + ".tmp");
+        try {
+            FileOutputStream stream = new FileOutputStream(tmp);
+            try {
+                stream.write(data);
+                stream.getFD().sync();
+            } finally {
+                stream.close();
+            }
+            return tmp.renameTo(file);
+        } catch (IOException | SecurityException e) {
+            tmp.delete();
+            return false;
+        }
+    }
+
+    static void clear(Context c) {
+        getFile(c).delete();
+    }
+
+    /**
+     * FNV-1a over the values the year class depends on. The kernel version comes from the
+     * {@code os.version} system property, which costs no I/O.
+     */
+    static long computeKey(int rulesVersion) {
+        long hash = 0xcbf29ce484222325L;
+        hash = fnv(hash, Build.FINGERPRINT);
+        hash = fnv(hash, System.getProperty("os.version"));
+        hash = fnv(hash, Integer.toString(rulesVersion));
+        return fnv(hash, Integer.toString(FORMAT_VERSION));
+    }
+
+    private static long fnv(long hash, String value) {
+        if (value != null) {
+            for (int i = 0; i < value.length(); i++) {
+                hash ^= value.charAt(i);
+                hash *= 0x100000001b3L;
+            }
+        }
+        // Separator, so that ("ab", "c") and ("a", "bc") differ.
+        hash ^= 0xff;
+        return hash * 0x100000001b3L;
+    }
+
+    private static File getFile(Context c) {
+        return new File(c.getFilesDir(), FILE_NAME);
+    }
+
+    private static byte[] readFile(File file) {
+        FileInputStream stream;
+        try {
+            stream = new FileInputStream(file);
+        } catch (IOException | SecurityException e) {
+            return null;
+        }
+        try {
+            byte[] buffer = new byte[1024];
+            int length = 0;
+            int read;
+            while ((read = stream.read(buffer, length, buffer.length - length)) > 0) {
+                length += read;
+                if (length == buffer.length) {
+                    if (buffer.length >= MAX_RECORD_SIZE) return null;
+                    byte[] grown = new byte[buffer.length * 2];
+                    System.arraycopy(buffer, 0, grown, 0, length);
+                    buffer = grown;
+                }
+            }
+            byte[] data = new byte[length];
+            System.arraycopy(buffer, 0, data, 0, length);
+            return data;
+        } catch (IOException e) {
+            return null;
+        } finally {
+            try {
+                stream.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private static int encodeClass(String classCategory) {
+        if ("LOW".equals(classCategory)) return 0;
+        if ("MEDIUM".equals(classCategory)) return 1;
+        if ("HIGH".equals(classCategory)) return 2;
+        return -1;
+    }
+
+    private static String decodeClass(int code) {
+        switch (code) {
+            case 0:
+                return "LOW";
+            case 1:
+                return "MEDIUM";
+            case 2:
+                return "HIGH";
+            default:
+                return null;
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package deviceinfo;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.os.Process;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Builds thread pools sized for the device instead of per-tier constants in the app:
+ * <ul>
+ *   <li>CPU-bound pools get one thread per online core, minus one on LOW devices to leave a core
+ *   for the UI thread,</li>
+ *   <li>latency-critical pools get one thread per big core, so that they do not outnumber the fast
+ *   cores; no affinity is set, the scheduler places the threads,</li>
+ *   <li>I/O-bound pools get a few threads per core, capped by the app's memory class since every
+ *   thread costs a stack.</li>
+ * </ul>
+ * Every pool has a bounded queue. When it is full, LOW devices drop the oldest queued task (stale
+ * prefetches are the first thing to give up) and the others run the task on the submitting thread,
+ * which slows the producer down. A dropped task that was submitted as a {@link Future} is cancelled,
+ * so nobody waits for it forever. Example usage:
+ * <p/>
+ * <pre>
+ *   DeviceExecutors executors = DeviceExecutors.create(context);
+ *   Log.i(TAG, executors.getSizing().toString());
+ *   ThreadPoolExecutor decoder = executors.newCpuBoundPool("decode");
+ * </pre>
+ */
+public final class DeviceExecutors {
+    private static final int MAX_LATENCY_THREADS = 4;
+    private static final int MAX_IO_THREADS = 16;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    public enum Rejection {
+        /**
+         * Runs the task on the thread that submitted it.
+         */
+        CALLER_RUNS,
+        /**
+         * Drops the oldest queued task and queues the new one. The dropped task is cancelled if it is
+         * a {@link Future}, such as one returned by {@code submit}.
+         */
+        DISCARD_OLDEST
+    }
+
+    /**
+     * The sizes picked for this device and what they were derived from.
+     */
+    public static final class Sizing {
+        final int onlineCores;
+        final int bigCores;
+        final int memoryClassMB;
+        final String tier;
+        final int cpuThreads;
+        final int latencyThreads;
+        final int ioThreads;
+        final int cpuQueue;
+        final int latencyQueue;
+        final int ioQueue;
+        final Rejection rejection;
+
+        Sizing(int onlineCores, int bigCores, int memoryClassMB, String tier) {
+            this.onlineCores = Math.max(1, onlineCores);
+            this.bigCores = Math.max(1, Math.min(bigCores, this.onlineCores));
+            this.memoryClassMB = memoryClassMB;
+            this.tier = tier;
+            boolean low = "LOW".equals(tier);
+            boolean high = "HIGH".equals(tier);
+
+            cpuThreads = low ? Math.max(1, this.onlineCores - 1) : this.onlineCores;
+            latencyThreads = Math.min(MAX_LATENCY_THREADS, this.bigCores);
+            int io = Math.min(MAX_IO_THREADS, this.onlineCores * (high ? 2 : 1));
+            // About 1MB of stack per thread; keep them within a sixteenth of the heap limit.
+            if (memoryClassMB > 0) io = Math.min(io, Math.max(2, memoryClassMB / 16));
+            ioThreads = Math.max(2, io);
+
+            int queueScale = low ? 1 : high ? 4 : 2;
+            cpuQueue = 32 * queueScale;
+            latencyQueue = 16 * queueScale;
+            ioQueue = 64 * queueScale;
+            rejection = low ? Rejection.DISCARD_OLDEST : Rejection.CALLER_RUNS;
+        }
+
+        public int getOnlineCores() {
+            return onlineCores;
+        }
+
+        public int getBigCores() {
+            return bigCores;
+        }
+
+        /**
+         * @return The app's heap limit in MB, or DEVICEINFO_UNKNOWN = -1.
+         */
+        public int getMemoryClassMB() {
+            return memoryClassMB;
+        }
+
+        /**
+         * @return LOW, MEDIUM or HIGH, or an empty string if the year class is unknown.
+         */
+        public String getTier() {
+            return tier;
+        }
+
+        public int getCpuThreads() {
+            return cpuThreads;
+        }
+
+        public int getLatencyThreads() {
+            return latencyThreads;
+        }
+
+        public int getIoThreads() {
+            return ioThreads;
+        }
+
+        public int getCpuQueueCapacity() {
+            return cpuQueue;
+        }
+
+        public int getLatencyQueueCapacity() {
+            return latencyQueue;
+        }
+
+        public int getIoQueueCapacity() {
+            return ioQueue;
+        }
+
+        public Rejection getRejection() {
+            return rejection;
+        }
+
+        @Override
+        public String toString() {
+            return "tier=" + tier + " online=" + onlineCores + " big=" + bigCores + " memoryClass="
+                    + memoryClassMB + "MB cpu=" + cpuThreads + "/" + cpuQueue + " latency=" + latencyThreads
+                    + "/" + latencyQueue + " io=" + ioThreads + "/" + ioQueue + " rejection=" + rejection;
+        }
+    }
+
+    private final Sizing sizing;
+
+    private DeviceExecutors(Sizing sizing) {
+        this.sizing = sizing;
+    }
+
+    /**
+     * Sizes the pools from the online cores, the big cluster, the app's memory class and the year
+     * class. Computes the year class if it is not known yet, so call it off the UI thread or after
+     * {@link DeviceInfo#prewarm(Context)} has finished.
+     */
+    public static DeviceExecutors create(Context c) {
+        int online = DeviceInfo.getNumberOfOnlineCPUCores();
+        if (online < 1) online = DeviceInfo.getNumberOfCPUCores();
+        if (online < 1) online = Runtime.getRuntime().availableProcessors();
+        int big = DeviceInfo.getCpuTopology().getBigCoreCount();
+        if (big < 1) big = online;
+        int memoryClass = DeviceInfo.DEVICEINFO_UNKNOWN;
+        ActivityManager am = (ActivityManager) c.getSystemService(Context.ACTIVITY_SERVICE);
+        if (am != null) memoryClass = am.getMemoryClass();
+        return new DeviceExecutors(new Sizing(online, big, memoryClass, DeviceInfo.getClassCategory(c)));
+    }
+
+    /**
+     * Sizes the pools from explicit values, e.g. to reproduce another device's sizing.
+     */
+    public static DeviceExecutors create(int onlineCores, int bigCores, int memoryClassMB, String tier) {
+        return new DeviceExecutors(new Sizing(onlineCores, bigCores, memoryClassMB, tier));
+    }
+
+    public Sizing getSizing() {
+        return sizing;
+    }
+
+    /**
+     * @return A pool for computation, with one thread per online core.
+     */
+    public ThreadPoolExecutor newCpuBoundPool(String name) {
+        return newPool(name, sizing.cpuThreads, sizing.cpuQueue, Process.THREAD_PRIORITY_DEFAULT, sizing.rejection);
+    }
+
+    /**
+     * @return A pool for short work on the critical path, with one thread per big core. Tasks are
+     * never dropped: when the queue is full they run on the submitting thread.
+     */
+    public ThreadPoolExecutor newLatencyCriticalPool(String name) {
+        return newPool(name, sizing.latencyThreads, sizing.latencyQueue, Process.THREAD_PRIORITY_FOREGROUND,
+                Rejection.CALLER_RUNS);
+    }
+
+    /**
+     * @return A pool for blocking disk or network work.
+     */
+    public ThreadPoolExecutor newIoBoundPool(String name) {
+        return newPool(name, sizing.ioThreads, sizing.ioQueue, Process.THREAD_PRIORITY_DEFAULT, sizing.rejection);
+    }
+
+    private static ThreadPoolExecutor newPool(final String name, int threads, int queueCapacity,
+                                              final int priority, Rejection rejection) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueCapacity), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(final Runnable r) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(priority);
+                        r.run();
+                    }
+                }, name + "-" + count.incrementAndGet());
+            }
+        }, handlerFor(rejection));
+        // Idle pools give their threads back.
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static RejectedExecutionHandler handlerFor(Rejection rejection) {
+        switch (rejection) {
+            case DISCARD_OLDEST:
+                return new CancelOldestPolicy();
+            case CALLER_RUNS:
+            default:
+                return new ThreadPoolExecutor.CallerRunsPolicy();
+        }
+    }
+
+    /**
+     * {@link ThreadPoolExecutor.DiscardOldestPolicy} that cancels what it drops: the policy of the
+     * JDK leaves a dropped FutureTask pending, so its {@code get()} blocks forever.
+     */
+    private static final class CancelOldestPolicy implements RejectedExecutionHandler {
+        @Override
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+            if (executor.isShutdown()) {
+                cancel(r);
+                return;
+            }
+            cancel(executor.getQueue().poll());
+            executor.execute(r);
+        }
+
+        private static void cancel(Runnable task) {
+            if (task instanceof Future) ((Future<?>) task).cancel(false);
+        }
+    }
+}
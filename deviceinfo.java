@@ -2,10 +2,18 @@ package deviceinfo;
 
 import android.content.Context;
 import android.os.Build;
+import android.os.Process;
 import android.util.Log;
 
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import android.app.Activity;
 import android.annotation.TargetApi;
@@ -21,8 +29,9 @@ import android.view.WindowManager;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.io.File;
-import java.io.FileFilter;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
 import java.io.IOException;
 import anywheresoftware.b4a.BA;
 import anywheresoftware.b4a.BA.*;
@@ -33,31 +42,33 @@ import anywheresoftware.b4a.BA.ActivityObject;
 @Version(1.0f)
 @ShortName("deviceinfo")
 @ActivityObject
+@Events(values={"YearClassReady (Year As Int, Category As String)"})
 public class DeviceInfo {
 	private BA ba;
+	private String eventName;
 	
     // Year definitions
     private static final int CLASS_UNKNOWN = -1;
-    private static final int CLASS_2008 = 2008;
-    private static final int CLASS_2009 = 2009;
-    private static final int CLASS_2010 = 2010;
-    private static final int CLASS_2011 = 2011;
-    private static final int CLASS_2012 = 2012;
-    private static final int CLASS_2013 = 2013;
-    private static final int CLASS_2014 = 2014;
-    private static final int CLASS_2015 = 2015;
-    private static final int CLASS_2016 = 2016;
-    private static final int CLASS_2017 = 2017;
-
-    private static final String CLASS_LOW = "LOW";
-    private static final String CLASS_MEDIUM = "MEDIUM";
-    private static final String CLASS_HIGH = "HIGH";
+
+    /**
+     * Version of the classification code below. Bump it whenever the way the dimensions are measured
+     * or combined changes so that year classes persisted by {@link DeviceClassCache} are recomputed.
+     * The cut-offs themselves are versioned by {@link YearClassRules}.
+     */
+    static final int RULES_VERSION = 4;
 
     private static final long MB = 1024 * 1024;
     private static final int MHZ_IN_KHZ = 1000;
 
     private volatile static Integer mYearCategory;
     private volatile static String mClassCategory;
+    private volatile static int sGpuHint;
+    private volatile static long sMeasuredBudgetMillis;
+    private volatile static MeasuredClassifier.Result mMeasured;
+    private volatile static long sStorageBudgetMillis;
+    private volatile static long sStorageFileBytes;
+    private volatile static StorageProbe.Result mStorage;
+    private static final AtomicReference<YearTask> sYearTask = new AtomicReference<>();
 
 /**
      * The default return value of any method in this class when an
@@ -65,198 +76,153 @@ public class DeviceInfo {
      * the information about the device in question was successfully obtained.
      */
     static final int DEVICEINFO_UNKNOWN = -1;
-    private static final FileFilter CPU_FILTER = new FileFilter() {
-        @Override
-        public boolean accept(File pathname) {
-            String path = pathname.getName();
-            //regex is slow, so checking char by char.
-            if (path.startsWith("cpu")) {
-                for (int i = 3; i < path.length(); i++) {
-                    if (!Character.isDigit(path.charAt(i))) {
-                        return false;
-                    }
+    private volatile static DeviceSnapshot mSnapshot;
+    private volatile static CpuFeatures mCpuFeatures;
+    private volatile static DeviceProfile mProfile;
+
+    /**
+     * Returns the memoized {@link DeviceSnapshot}, probing the device on first use. A snapshot taken
+     * without a Context is completed with the memory values the first time one is passed in.
+     *
+     * @param c - Context object for current running activity, may be null for CPU values only.
+     * @return The shared snapshot, never null.
+     */
+    public static DeviceSnapshot getSnapshot(Context c) {
+        DeviceSnapshot snapshot = mSnapshot;
+        if (snapshot == null || (c != null && !snapshot.hasMemoryInfo())) {
+            synchronized (DeviceInfo.class) {
+                snapshot = mSnapshot;
+                if (snapshot == null) {
+                    snapshot = DeviceSnapshot.capture(c);
+                } else if (c != null) {
+                    snapshot = snapshot.withMemory(c);
                 }
-                return true;
+                mSnapshot = snapshot;
             }
-            return false;
         }
-    };
+        return snapshot;
+    }
 
     /**
-     * Reads the number of CPU cores from {@code /sys/devices/system/cpu/}.
+     * Reads the number of possible CPU cores from {@code /sys/devices/system/cpu/possible}, counting
+     * cores the kernel has taken offline.
      *
      * @return Number of CPU cores in the phone, or DEVICEINFO_UKNOWN = -1 in the event of an error.
      */
     public static int getNumberOfCPUCores() {
-        int cores;
-        try {
-            cores = new File("/sys/devices/system/cpu/").listFiles(CPU_FILTER).length;
-        } catch (SecurityException | NullPointerException e) {
-            cores = DEVICEINFO_UNKNOWN;
-        }
-        return cores;
+        return getSnapshot(null).getNumberOfCPUCores();
     }
 	 
     /**
-     * Method for reading the clock speed of a CPU core on the device. Will read from either
-     * {@code /sys/devices/system/cpu/cpu0/cpufreq/cpuinfo_max_freq} or {@code /proc/cpuinfo}.
+     * Reads the number of CPU cores that are online right now, which may be fewer than
+     * {@link #getNumberOfCPUCores()} while the kernel has parked some of them.
      *
-     * @return Clock speed of a core on the device, or -1 in the event of an error.
+     * @return Number of online CPU cores, or DEVICEINFO_UKNOWN = -1 in the event of an error.
      */
-    public static int getCPUMaxFreqKHz() {
-        int maxFreq = DEVICEINFO_UNKNOWN;
-        try {
-            for (int i = 0; i < getNumberOfCPUCores(); i++) {
-                String filename = "/sys/devices/system/cpu/cpu" + i + "/cpufreq/cpuinfo_max_freq";
-                File cpuInfoMaxFreqFile = new File(filename);
-                if (cpuInfoMaxFreqFile.exists()) {
-                    byte[] buffer = new byte[128];
-                    FileInputStream stream = new FileInputStream(cpuInfoMaxFreqFile);
-                    try {
-                        stream.read(buffer);
-                        int endIndex = 0;
-                        //Trim the first number out of the byte buffer.
-                        while (Character.isDigit(buffer[endIndex]) && endIndex < buffer.length) {
-                            endIndex++;
-                        }
-                        String str = new String(buffer, 0, endIndex);
-                        Integer freqBound = Integer.parseInt(str);
-                        if (freqBound > maxFreq) {
-                            maxFreq = freqBound;
-                        }
-                    } catch (NumberFormatException e) {
-                        //Fall through and use /proc/cpuinfo.
-                    } finally {
-                        stream.close();
-                    }
-                }
-            }
-            if (maxFreq == DEVICEINFO_UNKNOWN) {
-                FileInputStream stream = new FileInputStream("/proc/cpuinfo");
-                try {
-                    int freqBound = parseFileForValue("cpu MHz", stream);
-                    freqBound *= 1000; //MHz -> kHz
-                    if (freqBound > maxFreq) maxFreq = freqBound;
-                } finally {
-                    stream.close();
-                }
-            }
-        } catch (IOException e) {
-            maxFreq = DEVICEINFO_UNKNOWN; //Fall through and return unknown.
+    public static int getNumberOfOnlineCPUCores() {
+        long online = CpuTopology.readOnlineMask();
+        return online == 0 ? DEVICEINFO_UNKNOWN : Long.bitCount(online);
+    }
+
+    /**
+     * @return The CPU clusters of the phone as read on first use.
+     */
+    public static CpuTopology getCpuTopology() {
+        return getSnapshot(null).getCpuTopology();
+    }
+
+    /**
+     * @return The instruction set features and core IDs of the CPU, read on first use.
+     */
+    public static CpuFeatures getCpuFeatures() {
+        CpuFeatures features = mCpuFeatures;
+        if (features == null) {
+            features = CpuFeatures.read();
+            mCpuFeatures = features;
         }
-        return maxFreq;
+        return features;
     }
 
     /**
-     * Calculates the total RAM of the device through Android API or /proc/meminfo.
+     * @return The data caches per CPU cluster, with the chunk sizes that stay in each level. Caches the
+     * kernel hides are estimated from the year class of the snapshot, see
+     * {@link CacheHierarchy#withDefaults(int)}.
+     */
+    public static CacheHierarchy getCacheHierarchy(Context c) {
+        DeviceSnapshot snapshot = getSnapshot(c);
+        Integer year = mYearCategory;
+        return snapshot.getCacheHierarchy().withDefaults(year != null ? year : categorizeByYear(snapshot));
+    }
+
+    /**
+     * The device as raw numbers for telemetry, see {@link DeviceProfile}. Once the year class is
+     * known the profile is built only once, so encoding it per event costs no probes and no
+     * allocation. The returned instance is shared and must not be modified.
      *
      * @param c - Context object for current running activity.
-     * @return Total RAM that the device has, or DEVICEINFO_UNKNOWN = -1 in the event of an error.
      */
-    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
-    public static long getTotalMemory(Context c) {
-        // memInfo.totalMem not supported in pre-Jelly Bean APIs.
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
-            ActivityManager.MemoryInfo memInfo = new ActivityManager.MemoryInfo();
-            ActivityManager am = (ActivityManager) c.getSystemService(Context.ACTIVITY_SERVICE);
-            am.getMemoryInfo(memInfo);
-            return memInfo.totalMem;
-        } else {
-            long totalMem = DEVICEINFO_UNKNOWN;
-            try {
-                FileInputStream stream = new FileInputStream("/proc/meminfo");
-                try {
-                    totalMem = parseFileForValue("MemTotal", stream);
-                    totalMem *= 1024;
-                } finally {
-                    stream.close();
-                }
-            } catch (IOException ignored) {
-            }
-            return totalMem;
-        }
+    public static DeviceProfile getDeviceProfile(Context c) {
+        DeviceProfile profile = mProfile;
+        if (profile != null) return profile;
+        int year = getYearIfReady();
+        DeviceSnapshot snapshot = getSnapshot(c);
+        DisplayMetrics metrics = c.getResources().getDisplayMetrics();
+        int screenSize = c.getResources().getConfiguration().screenLayout & Configuration.SCREENLAYOUT_SIZE_MASK;
+        CacheHierarchy caches = getCacheHierarchy(c);
+        int big = caches.getBigCluster();
+        profile = DeviceProfile.of(snapshot).setSdk(Build.VERSION.SDK_INT).setYear(year)
+                .setScreen(metrics.widthPixels, metrics.heightPixels, screenSize == 0 ? DEVICEINFO_UNKNOWN : screenSize)
+                .setDensity(metrics.densityDpi, DeviceProfile.densityOf(metrics.density))
+                .setCpuFeatures(getCpuFeatures().getFlags(), is64bitsCPU())
+                .setCacheBytes(cacheBytes(caches, big, 1), cacheBytes(caches, big, 2), cacheBytes(caches, big, 3));
+        if (sGpuHint > 0) profile.setGles(sGpuHint);
+        if (year != CLASS_UNKNOWN) mProfile = profile;
+        return profile;
     }
-@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
-    public static long getMemThreshold(Context c) {
-        // memInfo.totalMem not supported in pre-Jelly Bean APIs.
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
-            ActivityManager.MemoryInfo memInfo = new ActivityManager.MemoryInfo();
-            ActivityManager am = (ActivityManager) c.getSystemService(Context.ACTIVITY_SERVICE);
-            am.getMemoryInfo(memInfo);
-            return memInfo.threshold;
-        } else {
-            long totalMem = DEVICEINFO_UNKNOWN;
-            try {
-                FileInputStream stream = new FileInputStream("/proc/meminfo");
-                try {
-                    totalMem = parseFileForValue("MemTotal", stream);
-                    totalMem *= 1024;
-                } finally {
-                    stream.close();
-                }
-            } catch (IOException ignored) {
-            }
-            return totalMem;
-        }
+
+    /**
+     * Writes {@link #getDeviceProfile(Context)} into the buffer, see {@link DeviceProfile#encode(byte[], int)}.
+     *
+     * @return Number of bytes written, at most {@link DeviceProfile#MAX_ENCODED_BYTES}.
+     */
+    public static int encodeDeviceProfile(Context c, byte[] buffer, int offset) {
+        return getDeviceProfile(c).encode(buffer, offset);
+    }
+
+    private static int cacheBytes(CacheHierarchy caches, int cluster, int level) {
+        CacheHierarchy.Cache cache = caches.getCache(cluster, level);
+        return cache == null ? DEVICEINFO_UNKNOWN : cache.getSizeBytes();
     }
+
     /**
-     * Helper method for reading values from system files, using a minimised buffer.
+     * Method for reading the clock speed of a CPU core on the device. Will read from either
+     * {@code /sys/devices/system/cpu/cpu0/cpufreq/cpuinfo_max_freq} or {@code /proc/cpuinfo}.
      *
-     * @param textToMatch - Text in the system files to read for.
-     * @param stream      - FileInputStream of the system file being read from.
-     * @return A numerical value following textToMatch in specified the system file.
-     * -1 in the event of a failure.
+     * @return Clock speed of a core on the device, or -1 in the event of an error.
      */
-    private static int parseFileForValue(String textToMatch, FileInputStream stream) {
-        byte[] buffer = new byte[1024];
-        try {
-            int length = stream.read(buffer);
-            for (int i = 0; i < length; i++) {
-                if (buffer[i] == '\n' || i == 0) {
-                    if (buffer[i] == '\n') i++;
-                    for (int j = i; j < length; j++) {
-                        int textIndex = j - i;
-                        //Text doesn't match query at some point.
-                        if (buffer[j] != textToMatch.charAt(textIndex)) {
-                            break;
-                        }
-                        //Text matches query here.
-                        if (textIndex == textToMatch.length() - 1) {
-                            return extractValue(buffer, j);
-                        }
-                    }
-                }
-            }
-        } catch (IOException | NumberFormatException e) {
-            //Ignore any exceptions and fall through to return unknown value.
-        }
-        return DEVICEINFO_UNKNOWN;
+    public static int getCPUMaxFreqKHz() {
+        return getSnapshot(null).getCPUMaxFreqKHz();
     }
 
     /**
-     * Helper method used by {@link #parseFileForValue(String, FileInputStream) parseFileForValue}. Parses
-     * the next available number after the match in the file being read and returns it as an integer.
+     * Calculates the total RAM of the device through Android API or /proc/meminfo.
      *
-     * @param index - The index in the buffer array to begin looking.
-     * @return The next number on that line in the buffer, returned as an int. Returns
-     * DEVICEINFO_UNKNOWN = -1 in the event that no more numbers exist on the same line.
-     */
-    private static int extractValue(byte[] buffer, int index) {
-        while (index < buffer.length && buffer[index] != '\n') {
-            if (Character.isDigit(buffer[index])) {
-                int start = index;
-                index++;
-                while (index < buffer.length && Character.isDigit(buffer[index])) {
-                    index++;
-                }
-                String str = new String(buffer, start, index - start);
-                return Integer.parseInt(str);
-            }
-            index++;
-        }
-        return DEVICEINFO_UNKNOWN;
+     * @param c - Context object for current running activity.
+     * @return Total RAM that the device has, or DEVICEINFO_UNKNOWN = -1 in the event of an error.
+     */
+    public static long getTotalMemory(Context c) {
+        return getSnapshot(c).getTotalMemory();
     }
 
+    /**
+     * Reads the threshold of available memory below which the system considers itself low on memory.
+     *
+     * @param c - Context object for current running activity.
+     * @return Threshold in bytes, or DEVICEINFO_UNKNOWN = -1 in the event of an error.
+     */
+    public static long getMemThreshold(Context c) {
+        return getSnapshot(c).getMemThreshold();
+    }
     public static String getScreenSize(Context context) {
         int screenSize = context.getResources().getConfiguration().screenLayout & Configuration.SCREENLAYOUT_SIZE_MASK;
 
@@ -282,22 +248,8 @@ public class DeviceInfo {
     }
 
     public static String getDeviceDensity(Context context) {
-        String result = "";
         float scale = context.getResources().getDisplayMetrics().density;
-        if (scale < 1.0f) {
-            result += "ldpi";
-        } else if (scale < 1.5f) {
-            result += "mdpi";
-        } else if (scale < 2.0f) {
-            result += "hdpi";
-        } else if (scale < 3.0f) {
-            result += "xhdpi";
-        } else if (scale < 4.0f) {
-            result += "xxhdpi";
-        } else {
-            result += "xxxhdpi";
-        }
-        return result;
+        return DeviceProfile.getDensityName(DeviceProfile.densityOf(scale));
     }
 
     public static String getAndroidVersionName() {
@@ -446,38 +398,343 @@ public class DeviceInfo {
      * </pre>
      */
 	 public String DetectYearClass(Context c) {
-		 String m = "";
-		int s = DeviceInfo.getYear(c);
-        if (s == CLASS_2008) m = CLASS_LOW;
-		if (s == CLASS_2009) m = CLASS_LOW;
-		if (s == CLASS_2010) m = CLASS_LOW;
-		if (s == CLASS_2010) m = CLASS_LOW;
-		if (s == CLASS_2011) m = CLASS_LOW;
-		if (s == CLASS_2012) m = CLASS_MEDIUM;
-		if (s == CLASS_2013) m = CLASS_MEDIUM;
-		if (s == CLASS_2014) m = CLASS_MEDIUM;
-		if (s == CLASS_2015) m = CLASS_HIGH;
-		if (s == CLASS_2016) m = CLASS_HIGH;
-		if (s == CLASS_2017) m = CLASS_HIGH;
-		return m;
+		return DeviceInfo.getClassCategory(c);
+    }
+
+    /**
+     * Initializes the object for the asynchronous methods. Raises the event
+     * {@code EventName_YearClassReady (Year As Int, Category As String)}.
+     */
+    public void Initialize(BA ba, String EventName) {
+        this.ba = ba;
+        this.eventName = EventName.toLowerCase(BA.cul);
+    }
+
+    /**
+     * Same as DetectYearClass, without blocking the calling thread. Raises YearClassReady when the
+     * class is known, right away if it was computed before. Call Initialize first.
+     */
+    public void DetectYearClassAsync(Context c) {
+        if (ba == null) throw new IllegalStateException("Call Initialize before DetectYearClassAsync");
+        getYearAsync(c, new YearClassCallback() {
+            @Override
+            public void onYearClass(int year, String classCategory) {
+                ba.raiseEventFromDifferentThread(DeviceInfo.this, null, 0, eventName + "_yearclassready",
+                        false, new Object[]{year, classCategory});
+            }
+        });
+    }
+
+    /**
+     * Starts computing the year class in the background so that DetectYearClass returns at once later.
+     */
+    public void Prewarm(Context c) {
+        prewarm(c);
+    }
+
+    /**
+     * Also measures the CPU and memory for the year class, for at most BudgetMillis (e.g. 150) once
+     * per OS build. 0 turns it off. Call it before the year class is first computed.
+     */
+    public void SetMeasuredMode(long BudgetMillis) {
+        setMeasuredMode(BudgetMillis);
+    }
+
+    /**
+     * Also measures the internal storage for the year class, for at most BudgetMillis with a
+     * scratch file of FileBytes, once per OS build. 0 turns it off.
+     */
+    public void SetStorageMode(long BudgetMillis, long FileBytes) {
+        setStorageMode(BudgetMillis, FileBytes);
+    }
+
+    /**
+     * Records the timing and failures of every sysfs, procfs and Android API read, see GetProbeReport.
+     */
+    public void SetProbeStats(boolean Enabled) {
+        ProbeStats.setEnabled(Enabled);
+    }
+
+    /**
+     * @return One line per probe with its calls by outcome, latency percentiles and last failure.
+     */
+    public String GetProbeReport() {
+        return ProbeStats.getReport();
+    }
+
+    /**
+     * @return The encoded device profile to upload, see {@link DeviceProfile}.
+     */
+    public byte[] GetDeviceProfileBytes(Context c) {
+        DeviceProfile profile = getDeviceProfile(c);
+        byte[] buffer = new byte[profile.getEncodedSize()];
+        profile.encode(buffer, 0);
+        return buffer;
+    }
+
+    /**
+     * @return The device profile as JSON, for debugging.
+     */
+    public String GetDeviceProfileJson(Context c) {
+        return getDeviceProfile(c).toString();
+    }
+
+    /**
+     * @return The CPU features this app can use as names, for example "fp,simd,aes,pmull,crc32".
+     */
+    public String GetCpuFeatures() {
+        return CpuFeatures.getFlagNames(getCpuFeatures().getFlags());
+    }
+
+    /**
+     * @param Name - A feature name as returned by GetCpuFeatures, such as "dotprod".
+     */
+    public boolean HasCpuFeature(String Name) {
+        int flag = CpuFeatures.flagOf(Name);
+        return flag != 0 && getCpuFeatures().has(flag);
     }
+
+    /**
+     * @return Bytes per core to work on at a time to stay in the given cache level of the big cores,
+     * see {@link CacheHierarchy#getChunkBytes(int, int)}.
+     */
+    public int GetCacheChunkBytes(Context c, int Level) {
+        return getCacheHierarchy(c).getChunkBytes(Level);
+    }
+
+    /**
+     * @return Bytes of Java heap an in-memory cache of this device may use, see
+     * {@link AdaptiveCache#recommendedBytes(Context)}.
+     */
+    public long GetCacheBudget(Context c) {
+        return AdaptiveCache.recommendedBytes(c);
+    }
+
+    /**
+     * Saves the sysfs and procfs nodes and platform values the year class is computed from as a zip
+     * in Dir, to replay the device off-device, see {@link DeviceBundle}.
+     *
+     * @return Number of nodes saved.
+     */
+    public int SaveDeviceBundle(Context c, String Dir, String FileName) throws IOException {
+        OutputStream out = new FileOutputStream(new File(Dir, FileName));
+        try {
+            return captureBundle(c, out);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Writes a {@link DeviceBundle} of this device. The stream is not closed.
+     *
+     * @return Number of nodes written.
+     */
+    public static int captureBundle(Context c, OutputStream out) throws IOException {
+        AndroidPlatform platform = new AndroidPlatform(c);
+        return DeviceBundle.capture(SysRoot.get(), platform, platform.getBuildProperties(), out);
+    }
+
+    /**
+     * @return LOW, MEDIUM or HIGH for the year class of the device, or an empty string if unknown.
+     */
+    public static String getClassCategory(Context c) {
+        String category = mClassCategory;
+        if (category != null) return category;
+        int year = getYear(c);
+        // An unknown year is not cached, a later call may find the year class.
+        if (year == CLASS_UNKNOWN) return "";
+        category = categorizeByClass(year);
+        mClassCategory = category;
+        return category;
+    }
+
+    static String categorizeByClass(int s) {
+        return YearClassifier.classOf(s);
+    }
+
+    /**
+     * Returns the year class, computing it at most once per OS build: the result and the snapshot it
+     * came from are persisted by {@link DeviceClassCache} and reused on later launches.
+     * <p/>
+     * Blocks while the class is computed. Callers that arrive while {@link #getYearAsync} or another
+     * thread is already computing it wait for that computation instead of starting their own.
+     */
     public static int getYear(Context c) {
-        if (mYearCategory == null) {
-            synchronized (DeviceInfo.class) {
-                if (mYearCategory == null) {
-                    mYearCategory = categorizeByYear(c);
+        Integer year = mYearCategory;
+        if (year != null) return year;
+
+        YearTask task = obtainYearTask(c.getApplicationContext());
+        task.run(); // No-op if another thread already runs or ran it.
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return task.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } catch (ExecutionException e) {
+            sYearTask.compareAndSet(task, null);
+            return CLASS_UNKNOWN;
+        } finally {
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return The year class if it has been computed already, otherwise CLASS_UNKNOWN = -1 without
+     * blocking. Safe to call from the UI thread.
+     */
+    public static int getYearIfReady() {
+        Integer year = mYearCategory;
+        return year == null ? CLASS_UNKNOWN : year;
+    }
+
+    /**
+     * Computes the year class on a short-lived thread of its own at normal priority. Concurrent
+     * callers share one computation, including one that {@link #getYear} runs; once it is done the
+     * returned future is already complete.
+     *
+     * @param callback - Called with the result on the thread that computed it, or right away on the
+     *                 calling thread if the year class is known already; may be null.
+     */
+    public static Future<Integer> getYearAsync(Context c, YearClassCallback callback) {
+        YearTask task = obtainYearTask(c.getApplicationContext());
+        if (callback != null) task.addCallback(callback);
+        task.start();
+        return task;
+    }
+
+    /**
+     * Starts computing the year class in the background so that later calls return at once. Call
+     * it from {@code Application.onCreate}.
+     */
+    public static void prewarm(Context c) {
+        getYearAsync(c, null);
+    }
+
+    /**
+     * Receives the result of {@link #getYearAsync(Context, YearClassCallback)}.
+     */
+    public interface YearClassCallback {
+        void onYearClass(int year, String classCategory);
+    }
+
+    /**
+     * The year class computation. Callbacks added before it is done are called by the thread that
+     * finishes it, so no thread waits for the result.
+     */
+    private static final class YearTask extends FutureTask<Integer> {
+        private final AtomicBoolean started = new AtomicBoolean();
+        private final List<YearClassCallback> callbacks = new ArrayList<>();
+        private boolean finished;
+
+        YearTask(Callable<Integer> callable) {
+            super(callable);
+        }
+
+        /**
+         * Runs the computation on a new thread, unless it was started or has run already.
+         */
+        void start() {
+            if (isDone() || !started.compareAndSet(false, true)) return;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_DEFAULT);
+                    YearTask.this.run(); // No-op if getYear got to it first.
+                }
+            }, "deviceinfo-year");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        void addCallback(YearClassCallback callback) {
+            synchronized (callbacks) {
+                if (!finished) {
+                    callbacks.add(callback);
+                    return;
                 }
             }
+            notifyCallback(this, callback);
+        }
+
+        @Override
+        protected void done() {
+            YearClassCallback[] pending;
+            synchronized (callbacks) {
+                finished = true;
+                pending = callbacks.toArray(new YearClassCallback[callbacks.size()]);
+                callbacks.clear();
+            }
+            for (YearClassCallback callback : pending) {
+                notifyCallback(this, callback);
+            }
         }
-        return mYearCategory;
     }
 
-    private static void conditionallyAdd(ArrayList<Integer> list, int value) {
-        if (value != CLASS_UNKNOWN) {
-            list.add(value);
+    private static YearTask obtainYearTask(final Context c) {
+        YearTask task = sYearTask.get();
+        if (task != null) return task;
+        task = new YearTask(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return computeYear(c);
+            }
+        });
+        if (sYearTask.compareAndSet(null, task)) return task;
+        return sYearTask.get();
+    }
+
+    private static void notifyCallback(YearTask task, YearClassCallback callback) {
+        int year = getYearOf(task);
+        callback.onYearClass(year, year == CLASS_UNKNOWN ? "" : categorizeByClass(year));
+    }
+
+    /**
+     * @return The result of a task that is done.
+     */
+    private static int getYearOf(YearTask task) {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return CLASS_UNKNOWN;
+        } catch (ExecutionException e) {
+            sYearTask.compareAndSet(task, null);
+            return CLASS_UNKNOWN;
         }
     }
 
+    private static int computeYear(Context c) {
+        // A newer rule table the app downloaded replaces the bundled one.
+        YearClassRules.installIfNewer(new File(c.getFilesDir(), YearClassRules.RESOURCE));
+        DeviceClassCache.Record record = DeviceClassCache.load(c, rulesKey());
+        int year;
+        if (record != null) {
+            synchronized (DeviceInfo.class) {
+                if (mSnapshot == null || !mSnapshot.hasMemoryInfo()) mSnapshot = record.snapshot;
+            }
+            if (record.classCategory != null) mClassCategory = record.classCategory;
+            year = record.year;
+            mMeasured = record.measured;
+            mStorage = record.storage;
+        } else {
+            long budget = sMeasuredBudgetMillis;
+            MeasuredClassifier.Result measured = budget > 0 ? new MeasuredClassifier(budget).run() : null;
+            mMeasured = measured;
+            StorageProbe.Result storage = sStorageBudgetMillis > 0 ? probeStorage(c) : null;
+            mStorage = storage;
+            year = categorizeByYear(getSnapshot(c), getRules(), measured, storage);
+            DeviceClassCache.store(c, rulesKey(), new DeviceClassCache.Record(year, categorizeByClass(year),
+                    getSnapshot(c), measured, storage));
+        }
+        mYearCategory = year;
+        return year;
+    }
+
     /**
      * Calculates the "best-in-class year" of the device. This represents the top-end or flagship
      * devices of that year, not the actual release year of the phone. For example, the Galaxy Duos
@@ -486,101 +743,134 @@ public class DeviceInfo {
      *
      * @return The year when this device would have been considered top-of-the-line.
      */
-    private static int categorizeByYear(Context c) {
-        /* Log.v(TAG, "getClockSpeedYear(): " + getClockSpeedYear());
-        Log.v(TAG, "getNumCoresYear(): " + getNumCoresYear());
-        Log.v(TAG, "getRamYear(): " + getRamYear(c)); */
+    static int categorizeByYear(DeviceSnapshot snapshot) {
+        return categorizeByYear(snapshot, getRules(), null, null);
+    }
 
-        ArrayList<Integer> componentYears = new ArrayList<>();
-        conditionallyAdd(componentYears, getClockSpeedYear());
-        conditionallyAdd(componentYears, getRamYear(c));
+    /**
+     * @param measured - Results of {@link MeasuredClassifier} to merge with the spec values, may be null.
+     * @param storage  - Results of {@link StorageProbe}, may be null.
+     */
+    static int categorizeByYear(DeviceSnapshot snapshot, YearClassRules rules, MeasuredClassifier.Result measured,
+                                StorageProbe.Result storage) {
+        return new YearClassifier(rules).classify(toSpec(snapshot, measured, storage));
+    }
 
-        if (componentYears.isEmpty()) {
-            // GKB: Fallback to using number of cores only if nothing else is available.
-            conditionallyAdd(componentYears, getNumCoresYear());
-        }
+    /**
+     * Everything the year class of this device is computed from, such as to report it to a backend
+     * that classifies with {@link BatchClassifier}. Includes the measured and storage results when
+     * those modes are on and the year class was computed.
+     */
+    public static DeviceSpec getDeviceSpec(Context c) {
+        return toSpec(getSnapshot(c), mMeasured, mStorage);
+    }
 
-        // GKB: Simplified derivation of overall device year by taking average of individual years.
-        int avgYear = 0;
-        for (Integer year : componentYears) {
-            if (year > CLASS_UNKNOWN) {
-                avgYear += year;
-            }
+    static DeviceSpec toSpec(DeviceSnapshot snapshot, MeasuredClassifier.Result measured,
+                             StorageProbe.Result storage) {
+        DeviceSpec spec = DeviceSpec.of(snapshot, getCpuFeatures());
+        if (sGpuHint > 0) spec.setGles(sGpuHint);
+        if (storage != null) spec.setStorageWriteMBps(storage.getWriteMBps());
+        if (measured != null) {
+            spec.setMeasured(measured.getIntMops(), measured.getFloatMflops(), measured.getBandwidthMBps(),
+                    measured.getLoadsPerMicro(), measured.getScalingPercent());
         }
+        return spec;
+    }
 
-        return (avgYear > 0) ?
-                (avgYear / componentYears.size()) : // GKB: Implies floor() function via division operation.
-                CLASS_UNKNOWN;
+    /**
+     * @return The rules the year class is computed with, see {@link YearClassRules#getDefault()}.
+     */
+    public static YearClassRules getRules() {
+        return YearClassRules.getDefault();
     }
 
     /**
-     * Calculates the year class by the number of processor cores the phone has.
+     * Lets the year class take the GPU into account. The OpenGL ES version comes from
+     * {@code ActivityManager.getDeviceConfigurationInfo().reqGlEsVersion}, which the app usually
+     * has at hand already. Has to be called before the year class is first computed.
      *
-     * @return the year in which top-of-the-line phones had the same number of processors as this phone.
+     * @param glesVersion - e.g. 0x00030002 for OpenGL ES 3.2.
      */
-    private static int getNumCoresYear() {
-        int cores = DeviceInfo.getNumberOfCPUCores();
-        if (cores < 1) return CLASS_UNKNOWN;
-        if (cores == 1) return CLASS_2008;
-        if (cores <= 3) return CLASS_2015;
-        if (cores <= 4) return CLASS_2016;
-        return CLASS_2017; // E.g. Octa core devices
+    public static void setGpuHint(int glesVersion) {
+        sGpuHint = (glesVersion >> 16) * 10 + (glesVersion & 0xffff);
     }
 
     /**
-     * Calculates the year class by the clock speed of the cores in the phone.
+     * Merges measured performance into the year class: before it is first computed, runs
+     * {@link MeasuredClassifier} for at most budgetMillis. The result is persisted with the year
+     * class, so the kernels run once per OS build. Use {@link #prewarm(Context)} or
+     * {@link #getYearAsync} so they do not run on the UI thread.
      *
-     * @return the year in which top-of-the-line phones had the same clock speed.
+     * @param budgetMillis - Time the kernels may take, e.g. 150, or 0 to only use the specs.
      */
-    private static int getClockSpeedYear() {
-        long clockSpeedKHz = DeviceInfo.getCPUMaxFreqKHz();
-        if (clockSpeedKHz == DeviceInfo.DEVICEINFO_UNKNOWN) return CLASS_UNKNOWN;
-
-        // GKB: Clock speed dropped when core count was upped to 8 so factor this into the calc.
-        int cores = DeviceInfo.getNumberOfCPUCores();
-        if (cores < 8) {
-            // These cut-offs include 20MHz of "slop" because my "1.5GHz" Galaxy S3 reports
-            // its clock speed as 1512000. So we add a little slop to keep things nominally correct.
-            if (clockSpeedKHz <= 528 * MHZ_IN_KHZ) return CLASS_2008;
-            if (clockSpeedKHz <= 620 * MHZ_IN_KHZ) return CLASS_2009;
-            if (clockSpeedKHz <= 1020 * MHZ_IN_KHZ) return CLASS_2010;
-            if (clockSpeedKHz <= 1220 * MHZ_IN_KHZ) return CLASS_2011;
-            if (clockSpeedKHz <= 1520 * MHZ_IN_KHZ) return CLASS_2012;
-            if (clockSpeedKHz <= 2020 * MHZ_IN_KHZ) return CLASS_2014;
-            if (clockSpeedKHz <= 2200 * MHZ_IN_KHZ) return CLASS_2016;
-            return CLASS_2017;
-        } else {
-            if (clockSpeedKHz <= 1520 * MHZ_IN_KHZ) return CLASS_2015;
-            return CLASS_2016;
+    public static void setMeasuredMode(long budgetMillis) {
+        sMeasuredBudgetMillis = Math.max(0, budgetMillis);
+    }
+
+    /**
+     * @return The measured results the year class was computed with, or null outside measured mode
+     * or before the year class is known.
+     */
+    public static MeasuredClassifier.Result getMeasuredResult() {
+        return mMeasured;
+    }
+
+    /**
+     * Lets the storage speed count for the year class: before it is first computed, runs
+     * {@link StorageProbe} on the app's internal storage. Like the measured mode the result is
+     * persisted, so the probe runs once per OS build.
+     *
+     * @param budgetMillis - Time the probe may take, e.g. 300, or 0 to leave the storage out.
+     * @param fileBytes    - Size of the scratch file, e.g. 16MB.
+     */
+    public static void setStorageMode(long budgetMillis, long fileBytes) {
+        sStorageFileBytes = fileBytes;
+        sStorageBudgetMillis = Math.max(0, budgetMillis);
+    }
+
+    /**
+     * @return The storage results the year class was computed with, or null without storage mode,
+     * when the probe failed or before the year class is known.
+     */
+    public static StorageProbe.Result getStorageResult() {
+        return mStorage;
+    }
+
+    private static StorageProbe.Result probeStorage(Context c) {
+        try {
+            return StorageProbe.forInternalStorage(c).setBudgetMillis(sStorageBudgetMillis)
+                    .setFileBytes(sStorageFileBytes).run();
+        } catch (IOException | RuntimeException e) {
+            //No scratch space, classify without the storage.
+            return null;
         }
     }
 
+    /**
+     * Part of the key of the persisted year class: changes with the code, the rule table, the GPU
+     * hint and the measured and storage modes.
+     */
+    private static int rulesKey() {
+        int key = (RULES_VERSION * 31 + getRules().getVersion()) * 31 + sGpuHint;
+        key = key * 31 + (sMeasuredBudgetMillis > 0 ? 1 : 0);
+        return key * 31 + (sStorageBudgetMillis > 0 ? 1 : 0);
+    }
+
     public static String getClockSpeedValue() {
         long clockSpeedKHz = DeviceInfo.getCPUMaxFreqKHz();
         return "Clock speed: " + clockSpeedKHz / MHZ_IN_KHZ + " Mhz";
     }
 
-    //TODO add 64 bits check
-    public static boolean is64bitsCPU() {
-        return Build.SUPPORTED_64_BIT_ABIS.length > 0;
-    }
-
     /**
-     * Calculates the year class by the amount of RAM the phone has.
-     *
-     * @return the year in which top-of-the-line phones had the same amount of RAM as this phone.
+     * @return true if the CPU can run 64-bit code. Without a 64-bit ABI, as on Android before Lollipop
+     * or 32-bit builds for ARMv8 phones, the CPU itself is asked through {@link CpuFeatures}.
      */
-    private static int getRamYear(Context c) {
-        long totalRam = DeviceInfo.getTotalMemory(c);
-        if (totalRam <= 0) return CLASS_UNKNOWN;
-        if (totalRam <= 192 * MB) return CLASS_2008;
-        if (totalRam <= 290 * MB) return CLASS_2009;
-        if (totalRam <= 512 * MB) return CLASS_2010;
-        if (totalRam <= 1024 * MB) return CLASS_2011;
-        if (totalRam <= 1536 * MB) return CLASS_2012;
-        if (totalRam <= 2048 * MB) return CLASS_2015;
-        if (totalRam <= 4096 * MB) return CLASS_2016;
-        return CLASS_2017;
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    public static boolean is64bitsCPU() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP && Build.SUPPORTED_64_BIT_ABIS.length > 0) {
+            return true;
+        }
+        return getCpuFeatures().is64BitCapable();
     }
 
     public static String getRamValue(Context c) {
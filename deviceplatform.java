@@ -0,0 +1,34 @@
+package deviceinfo;
+
+/**
+ * The values a {@link DeviceSnapshot} takes from the Android APIs rather than from sysfs and procfs.
+ * On a device they come from {@link AndroidPlatform}; off the device {@link BundlePlatform} returns
+ * the ones recorded in a captured {@link DeviceBundle}, so that with a {@link SysRoot} pointing at the
+ * bundle the whole snapshot is taken without Android.
+ * <p/>
+ * Every value may be DEVICEINFO_UNKNOWN = -1.
+ */
+public interface DevicePlatform {
+    /**
+     * @return Supported ABIs, most preferred first; empty if unknown.
+     */
+    String[] getAbis();
+
+    /**
+     * @return {@code ActivityManager.MemoryInfo.totalMem}. When unknown the snapshot reads
+     * {@code /proc/meminfo} instead.
+     */
+    long getTotalMemory();
+
+    /**
+     * @return {@code ActivityManager.MemoryInfo.threshold}.
+     */
+    long getMemThreshold();
+
+    /**
+     * @return Size of the data partition.
+     */
+    long getStorageTotalBytes();
+
+    long getStorageAvailableBytes();
+}
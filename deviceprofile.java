@@ -0,0 +1,778 @@
+package deviceinfo;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * The device as raw numbers for telemetry, with a compact binary encoding in place of the formatted
+ * strings of {@code getRamValue}, {@code getScreenSize} and the like. The encoding is the protobuf
+ * wire format, so a backend can decode it with any protobuf library and this schema:
+ * <pre>
+ *   message DeviceProfile {
+ *     uint32 version = 1;            uint32 sdk = 2;                uint32 year = 3;
+ *     uint32 cores = 4;              uint32 max_freq_khz = 5;       uint64 total_ram_bytes = 6;
+ *     uint64 mem_threshold_bytes = 7;  uint64 storage_total_bytes = 8;
+ *     uint32 screen_long_px = 9;     uint32 screen_short_px = 10;   uint32 density_dpi = 11;
+ *     uint32 density = 12;           uint32 screen_size = 13;       uint32 cpu_features = 14;
+ *     bool cpu_64bit = 15;           repeated Cluster clusters = 16;  uint32 gles = 17;
+ *     uint32 l1_bytes = 18;          uint32 l2_bytes = 19;          uint32 l3_bytes = 20;
+ *   }
+ *   message Cluster { uint32 cores = 1; uint32 max_freq_khz = 2; uint32 capacity = 3; }
+ * </pre>
+ * Unknown values are left out; a phone encodes to about 100 bytes, against some 470 of JSON. Field numbers are never
+ * reused: a new value gets a new number and {@link #FORMAT_VERSION} is bumped, and decoders skip the
+ * fields they do not know, so old and new payloads decode both ways.
+ * <p/>
+ * {@link #encode(byte[], int)} writes into the caller's buffer without allocating. A profile is
+ * mutable so that a decoder can refill one instance per record; {@link #clear()} resets it. Values
+ * that are not known are DEVICEINFO_UNKNOWN = -1. This class does not depend on Android.
+ */
+public final class DeviceProfile {
+    public static final int FORMAT_VERSION = 1;
+    /**
+     * Upper bound of {@link #encode(byte[], int)} and, with the length prefix, of
+     * {@link #encodeDelimited(byte[], int)}.
+     */
+    public static final int MAX_ENCODED_BYTES = 640;
+    /**
+     * Further clusters are not encoded.
+     */
+    public static final int MAX_CLUSTERS = 16;
+
+    public static final int DENSITY_LDPI = 1;
+    public static final int DENSITY_MDPI = 2;
+    public static final int DENSITY_HDPI = 3;
+    public static final int DENSITY_XHDPI = 4;
+    public static final int DENSITY_XXHDPI = 5;
+    public static final int DENSITY_XXXHDPI = 6;
+    private static final String[] DENSITY_NAMES = {"", "ldpi", "mdpi", "hdpi", "xhdpi", "xxhdpi", "xxxhdpi"};
+
+    /**
+     * Screen size codes, the values of {@code Configuration.SCREENLAYOUT_SIZE_*}.
+     */
+    public static final int SCREEN_SMALL = 1;
+    public static final int SCREEN_NORMAL = 2;
+    public static final int SCREEN_LARGE = 3;
+    public static final int SCREEN_XLARGE = 4;
+    private static final String[] SCREEN_NAMES = {"", "small", "normal", "large", "xlarge"};
+
+    private static final int WIRE_VARINT = 0;
+    private static final int WIRE_FIXED64 = 1;
+    private static final int WIRE_BYTES = 2;
+    private static final int WIRE_FIXED32 = 5;
+
+    private static final int F_VERSION = 1;
+    private static final int F_SDK = 2;
+    private static final int F_YEAR = 3;
+    private static final int F_CORES = 4;
+    private static final int F_MAX_FREQ_KHZ = 5;
+    private static final int F_TOTAL_RAM = 6;
+    private static final int F_MEM_THRESHOLD = 7;
+    private static final int F_STORAGE_TOTAL = 8;
+    private static final int F_SCREEN_LONG = 9;
+    private static final int F_SCREEN_SHORT = 10;
+    private static final int F_DENSITY_DPI = 11;
+    private static final int F_DENSITY = 12;
+    private static final int F_SCREEN_SIZE = 13;
+    private static final int F_CPU_FEATURES = 14;
+    private static final int F_CPU_64BIT = 15;
+    private static final int F_CLUSTER = 16;
+    private static final int F_GLES = 17;
+    private static final int F_L1 = 18;
+    private static final int F_L2 = 19;
+    private static final int F_L3 = 20;
+    private static final int F_CLUSTER_CORES = 1;
+    private static final int F_CLUSTER_MAX_FREQ_KHZ = 2;
+    private static final int F_CLUSTER_CAPACITY = 3;
+
+    int version;
+    int sdk;
+    int year;
+    int cores;
+    int maxFreqKHz;
+    long totalRamBytes;
+    long memThresholdBytes;
+    long storageTotalBytes;
+    int screenLongPx;
+    int screenShortPx;
+    int densityDpi;
+    int density;
+    int screenSize;
+    int cpuFeatures;
+    int cpu64Bit;
+    int clusterCount;
+    int[] clusterCores = new int[4];
+    int[] clusterMaxFreqKHz = new int[4];
+    int[] clusterCapacity = new int[4];
+    int gles;
+    int l1Bytes;
+    int l2Bytes;
+    int l3Bytes;
+
+    public DeviceProfile() {
+        clear();
+    }
+
+    /**
+     * @return The CPU, memory and storage values of the snapshot; the rest stays unknown.
+     */
+    public static DeviceProfile of(DeviceSnapshot snapshot) {
+        DeviceProfile profile = new DeviceProfile().setCpu(snapshot.getNumberOfCPUCores(), snapshot.getCPUMaxFreqKHz())
+                .setMemory(snapshot.getTotalMemory(), snapshot.getMemThreshold())
+                .setStorageTotalBytes(snapshot.getStorageTotalBytes());
+        for (CpuTopology.Cluster cluster : snapshot.getCpuTopology().getClusters()) {
+            profile.addCluster(cluster.getCoreCount(), cluster.getMaxFreqKHz(), cluster.getCapacity());
+        }
+        return profile;
+    }
+
+    public DeviceProfile clear() {
+        version = FORMAT_VERSION;
+        sdk = DeviceInfo.DEVICEINFO_UNKNOWN;
+        year = DeviceInfo.DEVICEINFO_UNKNOWN;
+        cores = DeviceInfo.DEVICEINFO_UNKNOWN;
+        maxFreqKHz = DeviceInfo.DEVICEINFO_UNKNOWN;
+        totalRamBytes = DeviceInfo.DEVICEINFO_UNKNOWN;
+        memThresholdBytes = DeviceInfo.DEVICEINFO_UNKNOWN;
+        storageTotalBytes = DeviceInfo.DEVICEINFO_UNKNOWN;
+        screenLongPx = DeviceInfo.DEVICEINFO_UNKNOWN;
+        screenShortPx = DeviceInfo.DEVICEINFO_UNKNOWN;
+        densityDpi = DeviceInfo.DEVICEINFO_UNKNOWN;
+        density = DeviceInfo.DEVICEINFO_UNKNOWN;
+        screenSize = DeviceInfo.DEVICEINFO_UNKNOWN;
+        cpuFeatures = DeviceInfo.DEVICEINFO_UNKNOWN;
+        cpu64Bit = DeviceInfo.DEVICEINFO_UNKNOWN;
+        clusterCount = 0;
+        gles = DeviceInfo.DEVICEINFO_UNKNOWN;
+        l1Bytes = DeviceInfo.DEVICEINFO_UNKNOWN;
+        l2Bytes = DeviceInfo.DEVICEINFO_UNKNOWN;
+        l3Bytes = DeviceInfo.DEVICEINFO_UNKNOWN;
+        return this;
+    }
+
+    /**
+     * @param sdk - {@code Build.VERSION.SDK_INT}.
+     */
+    public DeviceProfile setSdk(int sdk) {
+        this.sdk = sdk;
+        return this;
+    }
+
+    public DeviceProfile setYear(int year) {
+        this.year = year;
+        return this;
+    }
+
+    /**
+     * @param cores      - Possible CPU cores, online or not.
+     * @param maxFreqKHz - Highest {@code cpuinfo_max_freq}.
+     */
+    public DeviceProfile setCpu(int cores, int maxFreqKHz) {
+        this.cores = cores;
+        this.maxFreqKHz = maxFreqKHz;
+        return this;
+    }
+
+    public DeviceProfile setMemory(long totalRamBytes, long memThresholdBytes) {
+        this.totalRamBytes = totalRamBytes;
+        this.memThresholdBytes = memThresholdBytes;
+        return this;
+    }
+
+    public DeviceProfile setStorageTotalBytes(long bytes) {
+        this.storageTotalBytes = bytes;
+        return this;
+    }
+
+    /**
+     * Keeps the longer and the shorter side, so the profile does not change with the orientation.
+     *
+     * @param screenSize - One of the SCREEN_ codes, or DEVICEINFO_UNKNOWN.
+     */
+    public DeviceProfile setScreen(int widthPx, int heightPx, int screenSize) {
+        this.screenLongPx = Math.max(widthPx, heightPx);
+        this.screenShortPx = Math.min(widthPx, heightPx);
+        this.screenSize = screenSize;
+        return this;
+    }
+
+    /**
+     * @param density - One of the DENSITY_ codes, see {@link #densityOf(float)}.
+     */
+    public DeviceProfile setDensity(int densityDpi, int density) {
+        this.densityDpi = densityDpi;
+        this.density = density;
+        return this;
+    }
+
+    /**
+     * @param flags - {@link CpuFeatures#getFlags()}.
+     */
+    public DeviceProfile setCpuFeatures(int flags, boolean is64Bit) {
+        this.cpuFeatures = flags;
+        this.cpu64Bit = is64Bit ? 1 : 0;
+        return this;
+    }
+
+    public DeviceProfile addCluster(int cores, int maxFreqKHz, int capacity) {
+        if (clusterCount == clusterCores.length) {
+            clusterCores = Arrays.copyOf(clusterCores, clusterCount * 2);
+            clusterMaxFreqKHz = Arrays.copyOf(clusterMaxFreqKHz, clusterCount * 2);
+            clusterCapacity = Arrays.copyOf(clusterCapacity, clusterCount * 2);
+        }
+        clusterCores[clusterCount] = cores;
+        clusterMaxFreqKHz[clusterCount] = maxFreqKHz;
+        clusterCapacity[clusterCount] = capacity;
+        clusterCount++;
+        return this;
+    }
+
+    /**
+     * @param version - OpenGL ES version as major * 10 + minor, e.g. 32.
+     */
+    public DeviceProfile setGles(int version) {
+        this.gles = version;
+        return this;
+    }
+
+    /**
+     * @param l1Bytes - Data cache sizes of the big cores, see {@link CacheHierarchy#getCache(int, int)}.
+     */
+    public DeviceProfile setCacheBytes(int l1Bytes, int l2Bytes, int l3Bytes) {
+        this.l1Bytes = l1Bytes;
+        this.l2Bytes = l2Bytes;
+        this.l3Bytes = l3Bytes;
+        return this;
+    }
+
+    /**
+     * @return The format version the profile was written with; FORMAT_VERSION for a new one.
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    public int getSdk() {
+        return sdk;
+    }
+
+    public int getYear() {
+        return year;
+    }
+
+    public int getCores() {
+        return cores;
+    }
+
+    public int getMaxFreqKHz() {
+        return maxFreqKHz;
+    }
+
+    public long getTotalRamBytes() {
+        return totalRamBytes;
+    }
+
+    public long getMemThresholdBytes() {
+        return memThresholdBytes;
+    }
+
+    public long getStorageTotalBytes() {
+        return storageTotalBytes;
+    }
+
+    public int getScreenLongPx() {
+        return screenLongPx;
+    }
+
+    public int getScreenShortPx() {
+        return screenShortPx;
+    }
+
+    public int getDensityDpi() {
+        return densityDpi;
+    }
+
+    public int getDensity() {
+        return density;
+    }
+
+    public int getScreenSize() {
+        return screenSize;
+    }
+
+    public int getCpuFeatures() {
+        return cpuFeatures;
+    }
+
+    /**
+     * @return 1 if the CPU runs 64-bit code, 0 if not, DEVICEINFO_UNKNOWN = -1.
+     */
+    public int getCpu64Bit() {
+        return cpu64Bit;
+    }
+
+    public int getClusterCount() {
+        return clusterCount;
+    }
+
+    public int getClusterCores(int cluster) {
+        return clusterCores[cluster];
+    }
+
+    public int getClusterMaxFreqKHz(int cluster) {
+        return clusterMaxFreqKHz[cluster];
+    }
+
+    public int getClusterCapacity(int cluster) {
+        return clusterCapacity[cluster];
+    }
+
+    public int getGles() {
+        return gles;
+    }
+
+    public int getL1Bytes() {
+        return l1Bytes;
+    }
+
+    public int getL2Bytes() {
+        return l2Bytes;
+    }
+
+    public int getL3Bytes() {
+        return l3Bytes;
+    }
+
+    /**
+     * The density buckets of {@code DisplayMetrics.density}, as {@code getDeviceDensity} names them.
+     *
+     * @return One of the DENSITY_ codes.
+     */
+    public static int densityOf(float scale) {
+        if (scale < 1.0f) return DENSITY_LDPI;
+        if (scale < 1.5f) return DENSITY_MDPI;
+        if (scale < 2.0f) return DENSITY_HDPI;
+        if (scale < 3.0f) return DENSITY_XHDPI;
+        if (scale < 4.0f) return DENSITY_XXHDPI;
+        return DENSITY_XXXHDPI;
+    }
+
+    /**
+     * @return "ldpi" to "xxxhdpi", or "" for an unknown code.
+     */
+    public static String getDensityName(int density) {
+        return density > 0 && density < DENSITY_NAMES.length ? DENSITY_NAMES[density] : "";
+    }
+
+    /**
+     * @return Exact size of {@link #encode(byte[], int)}, computed without writing.
+     */
+    public int getEncodedSize() {
+        return write(null, 0);
+    }
+
+    /**
+     * Writes the profile at the offset.
+     *
+     * @return Number of bytes written, at most MAX_ENCODED_BYTES.
+     * @throws IllegalArgumentException if it does not fit; a buffer with MAX_ENCODED_BYTES left always does.
+     */
+    public int encode(byte[] buffer, int offset) {
+        if (buffer.length - offset < MAX_ENCODED_BYTES) checkRoom(buffer, offset, getEncodedSize());
+        return write(buffer, offset) - offset;
+    }
+
+    /**
+     * Writes the size as a varint followed by the profile, so that records can be appended to one
+     * upload and read back with a {@link Decoder}.
+     *
+     * @return Number of bytes written.
+     */
+    public int encodeDelimited(byte[] buffer, int offset) {
+        int size = getEncodedSize();
+        checkRoom(buffer, offset, varintSize(size) + size);
+        int p = putVarint(buffer, offset, size);
+        return write(buffer, p) - offset;
+    }
+
+    private static void checkRoom(byte[] buffer, int offset, int size) {
+        int room = buffer.length - offset;
+        if (size > room) {
+            throw new IllegalArgumentException("Profile needs " + size + " bytes, " + room + " left");
+        }
+    }
+
+    /**
+     * Encodes into the buffer, or only counts the bytes when it is null.
+     *
+     * @return The position after the last byte.
+     */
+    private int write(byte[] buffer, int p) {
+        p = putField(buffer, p, F_VERSION, version);
+        p = putField(buffer, p, F_SDK, sdk);
+        p = putField(buffer, p, F_YEAR, year);
+        p = putField(buffer, p, F_CORES, cores);
+        p = putField(buffer, p, F_MAX_FREQ_KHZ, maxFreqKHz);
+        p = putField(buffer, p, F_TOTAL_RAM, totalRamBytes);
+        p = putField(buffer, p, F_MEM_THRESHOLD, memThresholdBytes);
+        p = putField(buffer, p, F_STORAGE_TOTAL, storageTotalBytes);
+        p = putField(buffer, p, F_SCREEN_LONG, screenLongPx);
+        p = putField(buffer, p, F_SCREEN_SHORT, screenShortPx);
+        p = putField(buffer, p, F_DENSITY_DPI, densityDpi);
+        p = putField(buffer, p, F_DENSITY, density);
+        p = putField(buffer, p, F_SCREEN_SIZE, screenSize);
+        p = putField(buffer, p, F_CPU_FEATURES, cpuFeatures);
+        p = putField(buffer, p, F_CPU_64BIT, cpu64Bit);
+        for (int i = 0; i < Math.min(clusterCount, MAX_CLUSTERS); i++) {
+            p = putVarint(buffer, p, F_CLUSTER << 3 | WIRE_BYTES);
+            p = putVarint(buffer, p, writeCluster(null, 0, i));
+            p = writeCluster(buffer, p, i);
+        }
+        p = putField(buffer, p, F_GLES, gles);
+        p = putField(buffer, p, F_L1, l1Bytes);
+        p = putField(buffer, p, F_L2, l2Bytes);
+        return putField(buffer, p, F_L3, l3Bytes);
+    }
+
+    private int writeCluster(byte[] buffer, int p, int i) {
+        p = putField(buffer, p, F_CLUSTER_CORES, clusterCores[i]);
+        p = putField(buffer, p, F_CLUSTER_MAX_FREQ_KHZ, clusterMaxFreqKHz[i]);
+        return putField(buffer, p, F_CLUSTER_CAPACITY, clusterCapacity[i]);
+    }
+
+    /**
+     * Unknown values are left out.
+     */
+    private static int putField(byte[] buffer, int p, int field, long value) {
+        if (value < 0) return p;
+        p = putVarint(buffer, p, field << 3 | WIRE_VARINT);
+        return putVarint(buffer, p, value);
+    }
+
+    private static int putVarint(byte[] buffer, int p, long value) {
+        while ((value & ~0x7fL) != 0) {
+            if (buffer != null) buffer[p] = (byte) ((value & 0x7f) | 0x80);
+            p++;
+            value >>>= 7;
+        }
+        if (buffer != null) buffer[p] = (byte) value;
+        return p + 1;
+    }
+
+    private static int varintSize(long value) {
+        return putVarint(null, 0, value);
+    }
+
+    /**
+     * Decodes one profile written by {@link #encode(byte[], int)}. Fields this version does not know
+     * are skipped.
+     *
+     * @param into - Cleared and filled with the values.
+     * @return false if the bytes are not a valid encoding.
+     */
+    public static boolean decode(byte[] buffer, int offset, int length, DeviceProfile into) {
+        return new Reader().reset(buffer, offset, offset + length).read(into);
+    }
+
+    /**
+     * Reads the records of {@link #encodeDelimited(byte[], int)} from a stream, one after the other,
+     * into a profile the caller reuses:
+     * <pre>
+     *   DeviceProfile.Decoder decoder = new DeviceProfile.Decoder(in);
+     *   DeviceProfile profile = new DeviceProfile();
+     *   while (decoder.next(profile)) count(profile);
+     * </pre>
+     * Does not buffer the stream; wrap it in a BufferedInputStream.
+     */
+    public static final class Decoder {
+        /**
+         * Larger records are rejected rather than allocated.
+         */
+        private static final int MAX_RECORD_BYTES = 64 * 1024;
+
+        private final InputStream in;
+        private final Reader reader = new Reader();
+        private byte[] buffer = new byte[MAX_ENCODED_BYTES];
+        private long records;
+
+        public Decoder(InputStream in) {
+            this.in = in;
+        }
+
+        /**
+         * @return false at the end of the stream.
+         * @throws IOException if the stream fails, ends inside a record or has an invalid one.
+         */
+        public boolean next(DeviceProfile into) throws IOException {
+            int first = in.read();
+            if (first < 0) return false;
+            long size = first & 0x7f;
+            int shift = 7;
+            int b = first;
+            while ((b & 0x80) != 0) {
+                if ((b = in.read()) < 0) throw new EOFException("Stream ends in the size of record " + records);
+                if (shift > 28) throw new IOException("Invalid size of record " + records);
+                size |= (long) (b & 0x7f) << shift;
+                shift += 7;
+            }
+            if (size > MAX_RECORD_BYTES) throw new IOException("Record " + records + " of " + size + " bytes");
+            if (size > buffer.length) buffer = new byte[(int) size];
+            int length = (int) size;
+            int read = 0;
+            while (read < length) {
+                int n = in.read(buffer, read, length - read);
+                if (n < 0) throw new EOFException("Stream ends in record " + records);
+                read += n;
+            }
+            if (!reader.reset(buffer, 0, length).read(into)) throw new IOException("Invalid record " + records);
+            records++;
+            return true;
+        }
+
+        /**
+         * @return Number of records decoded so far.
+         */
+        public long getRecordCount() {
+            return records;
+        }
+    }
+
+    /**
+     * Parses the wire format from a byte range. A read past the end clears {@code ok} instead of
+     * throwing, which is checked once per field.
+     */
+    private static final class Reader {
+        private byte[] buffer;
+        private int pos;
+        private int end;
+        private boolean ok;
+
+        Reader reset(byte[] buffer, int from, int end) {
+            this.buffer = buffer;
+            this.pos = from;
+            this.end = end;
+            this.ok = from >= 0 && end <= buffer.length && from <= end;
+            return this;
+        }
+
+        boolean read(DeviceProfile into) {
+            into.clear();
+            into.version = DeviceInfo.DEVICEINFO_UNKNOWN;
+            while (ok && pos < end) {
+                long tag = varint();
+                int field = (int) (tag >>> 3);
+                int wire = (int) (tag & 7);
+                if (wire == WIRE_VARINT) {
+                    long value = varint();
+                    if (ok) into.set(field, value);
+                } else if (wire == WIRE_BYTES && field == F_CLUSTER) {
+                    long length = varint();
+                    if (!ok || length < 0 || length > end - pos) return false;
+                    readCluster(into, pos + (int) length);
+                } else if (!skip(wire)) {
+                    return false;
+                }
+            }
+            return ok;
+        }
+
+        private void readCluster(DeviceProfile into, int clusterEnd) {
+            int clusterCores = DeviceInfo.DEVICEINFO_UNKNOWN;
+            int maxFreqKHz = DeviceInfo.DEVICEINFO_UNKNOWN;
+            int capacity = DeviceInfo.DEVICEINFO_UNKNOWN;
+            int outerEnd = end;
+            end = clusterEnd;
+            while (ok && pos < end) {
+                long tag = varint();
+                int wire = (int) (tag & 7);
+                if (wire != WIRE_VARINT) {
+                    if (!skip(wire)) ok = false;
+                    continue;
+                }
+                int value = toInt(varint());
+                switch ((int) (tag >>> 3)) {
+                    case F_CLUSTER_CORES:
+                        clusterCores = value;
+                        break;
+                    case F_CLUSTER_MAX_FREQ_KHZ:
+                        maxFreqKHz = value;
+                        break;
+                    case F_CLUSTER_CAPACITY:
+                        capacity = value;
+                        break;
+                    default:
+                        break;
+                }
+            }
+            end = outerEnd;
+            if (ok) into.addCluster(clusterCores, maxFreqKHz, capacity);
+        }
+
+        private boolean skip(int wire) {
+            long length;
+            switch (wire) {
+                case WIRE_VARINT:
+                    varint();
+                    return ok;
+                case WIRE_FIXED64:
+                    length = 8;
+                    break;
+                case WIRE_FIXED32:
+                    length = 4;
+                    break;
+                case WIRE_BYTES:
+                    length = varint();
+                    break;
+                default:
+                    return false;
+            }
+            if (!ok || length < 0 || length > end - pos) return false;
+            pos += (int) length;
+            return true;
+        }
+
+        private long varint() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (pos >= end) {
+                    ok = false;
+                    return 0;
+                }
+                byte b = buffer[pos++];
+                value |= (long) (b & 0x7f) << shift;
+                if (b >= 0) return value;
+            }
+            ok = false;
+            return 0;
+        }
+    }
+
+    private void set(int field, long value) {
+        int intValue = toInt(value);
+        switch (field) {
+            case F_VERSION:
+                version = intValue;
+                break;
+            case F_SDK:
+                sdk = intValue;
+                break;
+            case F_YEAR:
+                year = intValue;
+                break;
+            case F_CORES:
+                cores = intValue;
+                break;
+            case F_MAX_FREQ_KHZ:
+                maxFreqKHz = intValue;
+                break;
+            case F_TOTAL_RAM:
+                totalRamBytes = value;
+                break;
+            case F_MEM_THRESHOLD:
+                memThresholdBytes = value;
+                break;
+            case F_STORAGE_TOTAL:
+                storageTotalBytes = value;
+                break;
+            case F_SCREEN_LONG:
+                screenLongPx = intValue;
+                break;
+            case F_SCREEN_SHORT:
+                screenShortPx = intValue;
+                break;
+            case F_DENSITY_DPI:
+                densityDpi = intValue;
+                break;
+            case F_DENSITY:
+                density = intValue;
+                break;
+            case F_SCREEN_SIZE:
+                screenSize = intValue;
+                break;
+            case F_CPU_FEATURES:
+                cpuFeatures = intValue;
+                break;
+            case F_CPU_64BIT:
+                cpu64Bit = intValue;
+                break;
+            case F_GLES:
+                gles = intValue;
+                break;
+            case F_L1:
+                l1Bytes = intValue;
+                break;
+            case F_L2:
+                l2Bytes = intValue;
+                break;
+            case F_L3:
+                l3Bytes = intValue;
+                break;
+            default:
+                //A field of a newer version.
+                break;
+        }
+    }
+
+    /**
+     * Values out of the int range, which only a foreign encoder writes, become DEVICEINFO_UNKNOWN.
+     */
+    private static int toInt(long value) {
+        return value < 0 || value > Integer.MAX_VALUE ? DeviceInfo.DEVICEINFO_UNKNOWN : (int) value;
+    }
+
+    /**
+     * A JSON view for debugging, for example {@code {"version":1,"sdk":30,"year":2018,"cores":8,...,
+     * "density":"xxhdpi","screen_size":"normal","cpu_features":"fp,simd,aes","cpu_64bit":true,
+     * "clusters":[[4,1785600,-1],[4,2803200,-1]]}}. Unknown values are left out.
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("{");
+        append(sb, "version", version);
+        append(sb, "sdk", sdk);
+        append(sb, "year", year);
+        append(sb, "cores", cores);
+        append(sb, "max_freq_khz", maxFreqKHz);
+        append(sb, "total_ram_bytes", totalRamBytes);
+        append(sb, "mem_threshold_bytes", memThresholdBytes);
+        append(sb, "storage_total_bytes", storageTotalBytes);
+        append(sb, "screen_long_px", screenLongPx);
+        append(sb, "screen_short_px", screenShortPx);
+        append(sb, "density_dpi", densityDpi);
+        if (density > 0) appendString(sb, "density", getDensityName(density));
+        if (screenSize > 0 && screenSize < SCREEN_NAMES.length) appendString(sb, "screen_size", SCREEN_NAMES[screenSize]);
+        if (cpuFeatures >= 0) appendString(sb, "cpu_features", CpuFeatures.getFlagNames(cpuFeatures));
+        if (cpu64Bit >= 0) {
+            if (sb.length() > 1) sb.append(',');
+            sb.append("\"cpu_64bit\":").append(cpu64Bit == 1);
+        }
+        if (clusterCount > 0) {
+            if (sb.length() > 1) sb.append(',');
+            sb.append("\"clusters\":[");
+            for (int i = 0; i < clusterCount; i++) {
+                if (i > 0) sb.append(',');
+                sb.append('[').append(clusterCores[i]).append(',').append(clusterMaxFreqKHz[i]).append(',')
+                        .append(clusterCapacity[i]).append(']');
+            }
+            sb.append(']');
+        }
+        append(sb, "gles", gles);
+        append(sb, "l1_bytes", l1Bytes);
+        append(sb, "l2_bytes", l2Bytes);
+        append(sb, "l3_bytes", l3Bytes);
+        return sb.append('}').toString();
+    }
+
+    private static void append(StringBuilder sb, String name, long value) {
+        if (value < 0) return;
+        if (sb.length() > 1) sb.append(',');
+        sb.append('"').append(name).append("\":").append(value);
+    }
+
+    private static void appendString(StringBuilder sb, String name, String value) {
+        if (sb.length() > 1) sb.append(',');
+        sb.append('"').append(name).append("\":\"").append(value).append('"');
+    }
+}
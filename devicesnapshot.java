@@ -0,0 +1,256 @@
+package deviceinfo;
+
+import android.content.Context;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Immutable view of every hardware value the year class is derived from, captured in a single
+ * pass: the {@link CpuTopology} read, which costs a handful of reads per frequency domain rather
+ * than per core, at most one streamed read of {@code /proc/cpuinfo} and {@code /proc/meminfo}, one
+ * {@code ActivityManager.getMemoryInfo} call and one {@code StatFs}, both through a
+ * {@link DevicePlatform}. The {@link CacheHierarchy} of one core per cluster is captured alongside,
+ * so that it is persisted with the rest.
+ * <p/>
+ * A snapshot captured without a {@link Context} only holds the CPU values; use
+ * {@link #withMemory(Context)} to complete it without scanning the CPU nodes again.
+ * <p/>
+ * {@link DeviceClassCache} persists only the values that stay the same until the next OTA. The
+ * online CPUs, the clusters' current clocks and governors and the free storage are read again
+ * when a snapshot is loaded, so they are as fresh as those of a new capture.
+ */
+public final class DeviceSnapshot {
+    private static final int MHZ_IN_KHZ = 1000;
+
+    private final CpuTopology topology;
+    private final CacheHierarchy caches;
+    private final int cores;
+    private final int[] coreMaxFreqKHz;
+    private final int cpuMaxFreqKHz;
+    private final boolean hasMemoryInfo;
+    private final long totalMemory;
+    private final long memThreshold;
+    private final String[] abis;
+    private final long storageTotalBytes;
+    private final long storageAvailableBytes;
+
+    private DeviceSnapshot(CpuTopology topology, CacheHierarchy caches, int cores, int[] coreMaxFreqKHz, int cpuMaxFreqKHz, boolean hasMemoryInfo,
+                           long totalMemory, long memThreshold, String[] abis,
+                           long storageTotalBytes, long storageAvailableBytes) {
+        this.topology = topology;
+        this.caches = caches;
+        this.cores = cores;
+        this.coreMaxFreqKHz = coreMaxFreqKHz;
+        this.cpuMaxFreqKHz = cpuMaxFreqKHz;
+        this.hasMemoryInfo = hasMemoryInfo;
+        this.totalMemory = totalMemory;
+        this.memThreshold = memThreshold;
+        this.abis = abis;
+        this.storageTotalBytes = storageTotalBytes;
+        this.storageAvailableBytes = storageAvailableBytes;
+    }
+
+    /**
+     * Probes the device once.
+     *
+     * @param c - Context used for the memory and storage values, may be null to only read the CPU.
+     * @return A new snapshot, never null. Values that could not be read are DEVICEINFO_UNKNOWN.
+     */
+    public static DeviceSnapshot capture(Context c) {
+        return capture(SysRoot.get(), c);
+    }
+
+    /**
+     * Probes the sysfs and procfs nodes below another root, such as a captured fixture tree.
+     */
+    public static DeviceSnapshot capture(SysRoot root, Context c) {
+        DeviceSnapshot cpuOnly = captureCpu(root, AndroidPlatform.readAbis());
+        return c == null ? cpuOnly : cpuOnly.withPlatform(root, new AndroidPlatform(c));
+    }
+
+    /**
+     * Probes the nodes below the root and takes the remaining values from the platform instead of
+     * the Android APIs, for example to replay a {@link DeviceBundle} off the device.
+     */
+    public static DeviceSnapshot capture(SysRoot root, DevicePlatform platform) {
+        return captureCpu(root, platform.getAbis()).withPlatform(root, platform);
+    }
+
+    private static DeviceSnapshot captureCpu(SysRoot root, String[] abis) {
+        CpuTopology topology = CpuTopology.read(root);
+        int cores = topology.getPossibleCount();
+        long possible = topology.getPossibleMask();
+        int[] freqs = new int[64 - Long.numberOfLeadingZeros(possible)];
+        Arrays.fill(freqs, DeviceInfo.DEVICEINFO_UNKNOWN);
+        for (CpuTopology.Cluster cluster : topology.getClusters()) {
+            long cpus = cluster.getCpuMask() & possible;
+            while (cpus != 0) {
+                freqs[Long.numberOfTrailingZeros(cpus)] = cluster.getMaxFreqKHz();
+                cpus &= cpus - 1;
+            }
+        }
+        int maxFreq = topology.getMaxFreqKHz();
+        if (maxFreq == DeviceInfo.DEVICEINFO_UNKNOWN) {
+            ProbeStats.fallback(ProbeStats.CPUFREQ, "cpuinfo_max_freq -> /proc/cpuinfo");
+            maxFreq = readCpuInfoFreqKHz(root);
+        }
+
+        return new DeviceSnapshot(topology, CacheHierarchy.read(root, topology), cores, freqs, maxFreq, false,
+                DeviceInfo.DEVICEINFO_UNKNOWN, DeviceInfo.DEVICEINFO_UNKNOWN, abis,
+                DeviceInfo.DEVICEINFO_UNKNOWN, DeviceInfo.DEVICEINFO_UNKNOWN);
+    }
+
+    /**
+     * Completes a CPU-only snapshot with the values that need a Context. The CPU values are
+     * carried over as they are.
+     *
+     * @return A snapshot with memory and storage values, or this one if it already has them.
+     */
+    public DeviceSnapshot withMemory(Context c) {
+        if (hasMemoryInfo || c == null) return this;
+        return withPlatform(SysRoot.get(), new AndroidPlatform(c));
+    }
+
+    private DeviceSnapshot withPlatform(SysRoot root, DevicePlatform platform) {
+        if (hasMemoryInfo) return this;
+        long total = platform.getTotalMemory();
+        if (total == DeviceInfo.DEVICEINFO_UNKNOWN) {
+            ProbeStats.fallback(ProbeStats.MEMORY_INFO, "totalMem -> /proc/meminfo");
+            total = readMemTotal(root);
+        }
+        return new DeviceSnapshot(topology, caches, cores, coreMaxFreqKHz, cpuMaxFreqKHz, true, total,
+                platform.getMemThreshold(), abis, platform.getStorageTotalBytes(),
+                platform.getStorageAvailableBytes());
+    }
+
+    public CpuTopology getCpuTopology() {
+        return topology;
+    }
+
+    /**
+     * @return The caches as the kernel reports them, without estimates for hidden nodes.
+     */
+    public CacheHierarchy getCacheHierarchy() {
+        return caches;
+    }
+
+    /**
+     * @return Number of possible CPU cores in the phone, online or not, or DEVICEINFO_UNKNOWN = -1 in
+     * the event of an error.
+     */
+    public int getNumberOfCPUCores() {
+        return cores;
+    }
+
+    /**
+     * @return The highest {@code cpuinfo_max_freq} of all cores, the {@code /proc/cpuinfo} value when
+     * no core exposes one, or DEVICEINFO_UNKNOWN = -1.
+     */
+    public int getCPUMaxFreqKHz() {
+        return cpuMaxFreqKHz;
+    }
+
+    /**
+     * @param index - CPU id, n for {@code cpuN}.
+     * @return Max frequency of that core in kHz, or DEVICEINFO_UNKNOWN = -1 if it could not be read.
+     */
+    public int getCoreMaxFreqKHz(int index) {
+        if (index < 0 || index >= coreMaxFreqKHz.length) return DeviceInfo.DEVICEINFO_UNKNOWN;
+        return coreMaxFreqKHz[index];
+    }
+
+    /**
+     * @return true when the memory and storage values were captured with a Context.
+     */
+    public boolean hasMemoryInfo() {
+        return hasMemoryInfo;
+    }
+
+    public long getTotalMemory() {
+        return totalMemory;
+    }
+
+    public long getMemThreshold() {
+        return memThreshold;
+    }
+
+    public String[] getAbis() {
+        return abis.clone();
+    }
+
+    public long getStorageTotalBytes() {
+        return storageTotalBytes;
+    }
+
+    /**
+     * @return Free bytes of the data partition when the snapshot was captured or loaded.
+     */
+    public long getStorageAvailableBytes() {
+        return storageAvailableBytes;
+    }
+
+    void writeTo(DataOutput out) throws IOException {
+        topology.writeTo(out);
+        caches.writeTo(out);
+        out.writeInt(cores);
+        out.writeByte(coreMaxFreqKHz.length);
+        for (int freq : coreMaxFreqKHz) {
+            out.writeInt(freq);
+        }
+        out.writeInt(cpuMaxFreqKHz);
+        out.writeBoolean(hasMemoryInfo);
+        out.writeLong(totalMemory);
+        out.writeLong(memThreshold);
+        out.writeByte(abis.length);
+        for (String abi : abis) {
+            out.writeUTF(abi);
+        }
+        out.writeLong(storageTotalBytes);
+    }
+
+    /**
+     * Restores a snapshot written by {@link #writeTo}, reading the values that change while the
+     * device runs again.
+     *
+     * @param root     - Where the online CPUs and the current clocks are read, see
+     *                 {@link CpuTopology#readFrom}.
+     * @param platform - Gives the free storage of a snapshot with memory values, may be null.
+     */
+    static DeviceSnapshot readFrom(DataInput in, SysRoot root, DevicePlatform platform) throws IOException {
+        CpuTopology topology = CpuTopology.readFrom(in, root);
+        CacheHierarchy caches = CacheHierarchy.readFrom(in);
+        int cores = in.readInt();
+        int[] freqs = new int[in.readUnsignedByte()];
+        for (int i = 0; i < freqs.length; i++) {
+            freqs[i] = in.readInt();
+        }
+        int maxFreq = in.readInt();
+        boolean hasMemoryInfo = in.readBoolean();
+        long totalMemory = in.readLong();
+        long memThreshold = in.readLong();
+        String[] abis = new String[in.readUnsignedByte()];
+        for (int i = 0; i < abis.length; i++) {
+            abis[i] = in.readUTF();
+        }
+        long storageTotal = in.readLong();
+        long storageAvailable = hasMemoryInfo && platform != null ? platform.getStorageAvailableBytes()
+                : DeviceInfo.DEVICEINFO_UNKNOWN;
+        return new DeviceSnapshot(topology, caches, cores, freqs, maxFreq, hasMemoryInfo, totalMemory, memThreshold,
+                abis, storageTotal, storageAvailable);
+    }
+
+    private static int readCpuInfoFreqKHz(SysRoot root) {
+        long[] mhz = new long[1];
+        new ProcFileParser("cpu MHz").parse(root.path("/proc/cpuinfo"), mhz, ProbeStats.CPUINFO);
+        return mhz[0] == DeviceInfo.DEVICEINFO_UNKNOWN ? DeviceInfo.DEVICEINFO_UNKNOWN : (int) (mhz[0] * MHZ_IN_KHZ);
+    }
+
+    private static long readMemTotal(SysRoot root) {
+        long[] kB = new long[1];
+        new ProcFileParser("MemTotal").parse(root.path("/proc/meminfo"), kB, ProbeStats.MEMINFO);
+        return kB[0] == DeviceInfo.DEVICEINFO_UNKNOWN ? DeviceInfo.DEVICEINFO_UNKNOWN : kB[0] * 1024;
+    }
+}
@@ -0,0 +1,203 @@
+package deviceinfo;
+
+import java.util.Arrays;
+
+/**
+ * The values the year class is computed from, as plain numbers: what {@link YearClassifier} needs
+ * from a {@link DeviceSnapshot} and the optional measured, storage and GPU inputs. A spec can be
+ * filled from a device report on a server, where there is no snapshot to take.
+ * <p/>
+ * Values that are not known stay DEVICEINFO_UNKNOWN = -1. Clusters are added in the order of their
+ * first CPU, as {@link CpuTopology#getClusters()} returns them. A spec is mutable so that a batch can
+ * refill one instance per row; {@link #clear()} resets it.
+ * <p/>
+ * This class does not depend on Android.
+ */
+public final class DeviceSpec {
+    int cores;
+    int maxFreqKHz;
+    long totalRamBytes;
+    int clusterCount;
+    int[] clusterCores = new int[4];
+    int[] clusterMaxFreqKHz = new int[4];
+    int[] clusterCapacity = new int[4];
+    int gles;
+    long storageWriteMBps;
+    long intMops;
+    long floatMflops;
+    long bandwidthMBps;
+    long loadsPerMicro;
+    long scalingPercent;
+    int corePart;
+
+    public DeviceSpec() {
+        clear();
+    }
+
+    /**
+     * @return The CPU and memory values of the snapshot; the GPU, storage and measured values stay unknown.
+     */
+    public static DeviceSpec of(DeviceSnapshot snapshot) {
+        DeviceSpec spec = new DeviceSpec().setCores(snapshot.getNumberOfCPUCores())
+                .setMaxFreqKHz(snapshot.getCPUMaxFreqKHz()).setTotalRamBytes(snapshot.getTotalMemory());
+        for (CpuTopology.Cluster cluster : snapshot.getCpuTopology().getClusters()) {
+            spec.addCluster(cluster.getCoreCount(), cluster.getMaxFreqKHz(), cluster.getCapacity());
+        }
+        return spec;
+    }
+
+    /**
+     * @return The values of the snapshot and the core design of its big cluster.
+     */
+    public static DeviceSpec of(DeviceSnapshot snapshot, CpuFeatures features) {
+        DeviceSpec spec = of(snapshot);
+        CpuTopology.Cluster big = snapshot.getCpuTopology().getBigCluster();
+        if (big != null) spec.setCorePart(features.getCorePart(big));
+        return spec;
+    }
+
+    public DeviceSpec clear() {
+        cores = DeviceInfo.DEVICEINFO_UNKNOWN;
+        maxFreqKHz = DeviceInfo.DEVICEINFO_UNKNOWN;
+        totalRamBytes = DeviceInfo.DEVICEINFO_UNKNOWN;
+        clusterCount = 0;
+        gles = DeviceInfo.DEVICEINFO_UNKNOWN;
+        storageWriteMBps = DeviceInfo.DEVICEINFO_UNKNOWN;
+        intMops = DeviceInfo.DEVICEINFO_UNKNOWN;
+        floatMflops = DeviceInfo.DEVICEINFO_UNKNOWN;
+        bandwidthMBps = DeviceInfo.DEVICEINFO_UNKNOWN;
+        loadsPerMicro = DeviceInfo.DEVICEINFO_UNKNOWN;
+        scalingPercent = DeviceInfo.DEVICEINFO_UNKNOWN;
+        corePart = DeviceInfo.DEVICEINFO_UNKNOWN;
+        return this;
+    }
+
+    /**
+     * @param cores - Possible CPU cores, online or not.
+     */
+    public DeviceSpec setCores(int cores) {
+        this.cores = cores;
+        return this;
+    }
+
+    /**
+     * @param kHz - Highest {@code cpuinfo_max_freq}, or the {@code /proc/cpuinfo} value without one.
+     */
+    public DeviceSpec setMaxFreqKHz(int kHz) {
+        this.maxFreqKHz = kHz;
+        return this;
+    }
+
+    public DeviceSpec setTotalRamBytes(long bytes) {
+        this.totalRamBytes = bytes;
+        return this;
+    }
+
+    /**
+     * @param cores      - Cores in the frequency domain.
+     * @param maxFreqKHz - Its {@code cpuinfo_max_freq}, or DEVICEINFO_UNKNOWN.
+     * @param capacity   - Its {@code cpu_capacity}, or DEVICEINFO_UNKNOWN if the kernel has none.
+     */
+    public DeviceSpec addCluster(int cores, int maxFreqKHz, int capacity) {
+        if (clusterCount == clusterCores.length) {
+            clusterCores = Arrays.copyOf(clusterCores, clusterCount * 2);
+            clusterMaxFreqKHz = Arrays.copyOf(clusterMaxFreqKHz, clusterCount * 2);
+            clusterCapacity = Arrays.copyOf(clusterCapacity, clusterCount * 2);
+        }
+        clusterCores[clusterCount] = cores;
+        clusterMaxFreqKHz[clusterCount] = maxFreqKHz;
+        clusterCapacity[clusterCount] = capacity;
+        clusterCount++;
+        return this;
+    }
+
+    /**
+     * @param version - OpenGL ES version as major * 10 + minor, e.g. 32; 0 or less leaves the GPU out.
+     */
+    public DeviceSpec setGles(int version) {
+        this.gles = version;
+        return this;
+    }
+
+    /**
+     * @param mbps - {@link StorageProbe.Result#getWriteMBps()}.
+     */
+    public DeviceSpec setStorageWriteMBps(long mbps) {
+        this.storageWriteMBps = mbps;
+        return this;
+    }
+
+    /**
+     * The values of a {@link MeasuredClassifier.Result}, in its units.
+     */
+    public DeviceSpec setMeasured(long intMops, long floatMflops, long bandwidthMBps, long loadsPerMicro,
+                                  long scalingPercent) {
+        this.intMops = intMops;
+        this.floatMflops = floatMflops;
+        this.bandwidthMBps = bandwidthMBps;
+        this.loadsPerMicro = loadsPerMicro;
+        this.scalingPercent = scalingPercent;
+        return this;
+    }
+
+    /**
+     * @param part - {@link CpuFeatures#getCorePart} of the big cluster.
+     */
+    public DeviceSpec setCorePart(int part) {
+        this.corePart = part;
+        return this;
+    }
+
+    public int getCores() {
+        return cores;
+    }
+
+    public int getMaxFreqKHz() {
+        return maxFreqKHz;
+    }
+
+    public long getTotalRamBytes() {
+        return totalRamBytes;
+    }
+
+    public int getClusterCount() {
+        return clusterCount;
+    }
+
+    /**
+     * @return The known values as one line of the JSON {@link BatchClassifier} reads, for example
+     * {@code {"cores":4,"max_freq_khz":2265600,"total_ram_bytes":1945452544,"clusters":[[4,2265600,-1]]}}.
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("{");
+        append(sb, "cores", cores);
+        append(sb, "max_freq_khz", maxFreqKHz);
+        append(sb, "total_ram_bytes", totalRamBytes);
+        if (clusterCount > 0) {
+            if (sb.length() > 1) sb.append(',');
+            sb.append("\"clusters\":[");
+            for (int i = 0; i < clusterCount; i++) {
+                if (i > 0) sb.append(',');
+                sb.append('[').append(clusterCores[i]).append(',').append(clusterMaxFreqKHz[i]).append(',')
+                        .append(clusterCapacity[i]).append(']');
+            }
+            sb.append(']');
+        }
+        append(sb, "gles", gles);
+        append(sb, "storage_write_mbps", storageWriteMBps);
+        append(sb, "int_mops", intMops);
+        append(sb, "float_mflops", floatMflops);
+        append(sb, "bandwidth_mbps", bandwidthMBps);
+        append(sb, "loads_per_us", loadsPerMicro);
+        append(sb, "scaling_pct", scalingPercent);
+        append(sb, "core_part", corePart);
+        return sb.append('}').toString();
+    }
+
+    private static void append(StringBuilder sb, String name, long value) {
+        if (value < 0) return;
+        if (sb.length() > 1) sb.append(',');
+        sb.append('"').append(name).append("\":").append(value);
+    }
+}
@@ -0,0 +1,113 @@
+package deviceinfo;
+
+import java.util.concurrent.Executor;
+
+import anywheresoftware.b4a.BA;
+import anywheresoftware.b4a.BA.*;
+
+/**
+ * B4A wrapper of {@link DeviceStateMonitor}. Raises StateChanged on the main thread whenever the
+ * online cores, the frequency caps, the memory pressure, low storage or the class change; Changes
+ * holds the CHANGE_ bits of what did.
+ */
+@ShortName("DeviceStateEvents")
+@Events(values={"StateChanged (Changes As Int, OnlineCores As Int, MemoryLevel As String, LowStorage As Boolean, ClassCategory As String)"})
+public class DeviceStateEvents {
+    public static final int CHANGE_CPU_HOTPLUG = DeviceStateMonitor.CPU_HOTPLUG;
+    public static final int CHANGE_FREQ_CAP = DeviceStateMonitor.FREQ_CAP;
+    public static final int CHANGE_MEMORY_PRESSURE = DeviceStateMonitor.MEMORY_PRESSURE;
+    public static final int CHANGE_LOW_STORAGE = DeviceStateMonitor.LOW_STORAGE;
+    public static final int CHANGE_CLASS = DeviceStateMonitor.CLASS_CHANGE;
+
+    private BA ba;
+    private String eventName;
+    private DeviceStateMonitor monitor;
+    private DeviceStateMonitor.Subscription subscription;
+
+    /**
+     * Initializes the object. Raises {@code EventName_StateChanged}.
+     */
+    public void Initialize(BA ba, String EventName) {
+        this.ba = ba;
+        this.eventName = EventName.toLowerCase(BA.cul);
+        this.monitor = new DeviceStateMonitor(BA.applicationContext);
+    }
+
+    /**
+     * Samples every IntervalMillis (e.g. 1000) and raises StateChanged with the current state first.
+     */
+    public void Start(long IntervalMillis) {
+        if (subscription == null) {
+            // B4A moves the event to the main thread itself, no need for another hop.
+            subscription = monitor.subscribe(new DeviceStateMonitor.Listener() {
+                @Override
+                public void onDeviceState(DeviceStateMonitor.State state, int changes) {
+                    ba.raiseEventFromDifferentThread(DeviceStateEvents.this, null, 0, eventName + "_statechanged",
+                            false, new Object[]{changes, state.getOnlineCores(), state.getMemoryLevel().name(),
+                                    state.isLowStorage(), state.getClassCategory()});
+                }
+            }, new Executor() {
+                @Override
+                public void execute(Runnable command) {
+                    command.run();
+                }
+            });
+        }
+        monitor.start(IntervalMillis);
+    }
+
+    public void Stop() {
+        monitor.stop();
+        if (subscription != null) {
+            subscription.cancel();
+            subscription = null;
+        }
+    }
+
+    /**
+     * Stops sampling while the activity is paused, without losing the interval.
+     */
+    public void Pause() {
+        monitor.pause();
+    }
+
+    public void Resume() {
+        monitor.resume();
+    }
+
+    /**
+     * Changes within CoalesceMillis (default 250) of the last event are raised together.
+     */
+    public void SetCoalesceMillis(long CoalesceMillis) {
+        monitor.setCoalesceMillis(CoalesceMillis);
+    }
+
+    /**
+     * @return Online cores as of the last change, or -1 before the first sample.
+     */
+    public int getOnlineCores() {
+        DeviceStateMonitor.State state = monitor.getState();
+        return state == null ? DeviceInfo.DEVICEINFO_UNKNOWN : state.getOnlineCores();
+    }
+
+    /**
+     * @return NORMAL, MODERATE or CRITICAL.
+     */
+    public String getMemoryLevel() {
+        DeviceStateMonitor.State state = monitor.getState();
+        return state == null ? MemoryPressureMonitor.Level.NORMAL.name() : state.getMemoryLevel().name();
+    }
+
+    public boolean getLowStorage() {
+        DeviceStateMonitor.State state = monitor.getState();
+        return state != null && state.isLowStorage();
+    }
+
+    /**
+     * @return LOW, MEDIUM or HIGH for the effective year class, or an empty string if unknown.
+     */
+    public String getClassCategory() {
+        DeviceStateMonitor.State state = monitor.getState();
+        return state == null ? "" : state.getClassCategory();
+    }
+}
@@ -0,0 +1,411 @@
+package deviceinfo;
+
+import android.content.Context;
+import android.os.Environment;
+
+import org.askquickly.utils.StorageSnapshot;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One sampling loop for the device state that changes at runtime, publishing a {@link State} to
+ * subscribers whenever part of it changes: CPU hotplug, frequency caps, memory pressure, low storage
+ * and the effective year class. It replaces polling getNumberOfCPUCores, getTotalMemory or
+ * DiskUtils.freeSpace from several places, each doing its own I/O.
+ * <p/>
+ * Each sample reads the {@code online} CPU set through {@link NodePool}, samples a
+ * {@link ThermalMonitor} (caps and effective year) and a {@link MemoryPressureMonitor}, and every
+ * {@link #setStorageIntervalMillis(long) storageIntervalMillis} one statfs of the data partition
+ * through {@link StorageSnapshot#volumeOf(File, String)}. Changes within
+ * {@link #setCoalesceMillis(long) coalesceMillis} of the last event are merged into the next one.
+ * <p/>
+ * Every subscriber holds at most one pending event: when it is slower than the events arrive, the
+ * pending state is replaced by the newer one and the change bits are merged, so a slow subscriber
+ * skips intermediate states instead of buffering them. Example usage:
+ * <p/>
+ * <pre>
+ *   DeviceStateMonitor monitor = new DeviceStateMonitor(context);
+ *   monitor.subscribe(new DeviceStateMonitor.Listener() {
+ *       public void onDeviceState(DeviceStateMonitor.State state, int changes) {
+ *           if ((changes &amp; DeviceStateMonitor.MEMORY_PRESSURE) != 0) cache.resize(state);
+ *       }
+ *   });
+ *   monitor.start(1000);
+ * </pre>
+ */
+public final class DeviceStateMonitor extends PollingProbe {
+    public static final int CPU_HOTPLUG = 1;
+    public static final int FREQ_CAP = 1 << 1;
+    public static final int MEMORY_PRESSURE = 1 << 2;
+    public static final int LOW_STORAGE = 1 << 3;
+    public static final int CLASS_CHANGE = 1 << 4;
+    /**
+     * Change bits of the first event a subscriber receives, which carries the current state.
+     */
+    public static final int ALL = CPU_HOTPLUG | FREQ_CAP | MEMORY_PRESSURE | LOW_STORAGE | CLASS_CHANGE;
+
+    private static final String ONLINE = "/sys/devices/system/cpu/online";
+    private static final long LOW_STORAGE_MAX_BYTES = 500L * 1024 * 1024;
+
+    private static Executor sDelivery;
+
+    /**
+     * Immutable state of the device at one sample. Values that could not be read are
+     * DEVICEINFO_UNKNOWN = -1.
+     */
+    public static final class State {
+        final long onlineMask;
+        final int[] capKHz;
+        final ThermalMonitor.Level thermalLevel;
+        final MemoryPressureMonitor.Level memoryLevel;
+        final long availableMemoryBytes;
+        final long storageAvailableBytes;
+        final boolean lowStorage;
+        final int effectiveYear;
+        final String classCategory;
+
+        State(long onlineMask, int[] capKHz, ThermalMonitor.Level thermalLevel, MemoryPressureMonitor.Level memoryLevel,
+              long availableMemoryBytes, long storageAvailableBytes, boolean lowStorage, int effectiveYear,
+              String classCategory) {
+            this.onlineMask = onlineMask;
+            this.capKHz = capKHz;
+            this.thermalLevel = thermalLevel;
+            this.memoryLevel = memoryLevel;
+            this.availableMemoryBytes = availableMemoryBytes;
+            this.storageAvailableBytes = storageAvailableBytes;
+            this.lowStorage = lowStorage;
+            this.effectiveYear = effectiveYear;
+            this.classCategory = classCategory;
+        }
+
+        /**
+         * @return Bitmask of the online CPUs, or 0 if unreadable.
+         */
+        public long getOnlineMask() {
+            return onlineMask;
+        }
+
+        public int getOnlineCores() {
+            return onlineMask == 0 ? DeviceInfo.DEVICEINFO_UNKNOWN : Long.bitCount(onlineMask);
+        }
+
+        /**
+         * @param cluster - Index into {@link CpuTopology#getClusters()}.
+         * @return {@code scaling_max_freq} of the cluster.
+         */
+        public int getCapKHz(int cluster) {
+            return capKHz[cluster];
+        }
+
+        public ThermalMonitor.Level getThermalLevel() {
+            return thermalLevel;
+        }
+
+        public MemoryPressureMonitor.Level getMemoryLevel() {
+            return memoryLevel;
+        }
+
+        public long getAvailableMemoryBytes() {
+            return availableMemoryBytes;
+        }
+
+        public long getStorageAvailableBytes() {
+            return storageAvailableBytes;
+        }
+
+        public boolean isLowStorage() {
+            return lowStorage;
+        }
+
+        /**
+         * @return The year class lowered while throttled, see {@link ThermalMonitor#getEffectiveYear()}.
+         */
+        public int getEffectiveYear() {
+            return effectiveYear;
+        }
+
+        /**
+         * @return LOW, MEDIUM or HIGH for the effective year, or an empty string if unknown.
+         */
+        public String getClassCategory() {
+            return classCategory;
+        }
+
+        @Override
+        public String toString() {
+            return "online=" + CpuTopology.toRangeList(onlineMask) + " caps=" + Arrays.toString(capKHz)
+                    + " thermal=" + thermalLevel + " memory=" + memoryLevel + " lowStorage=" + lowStorage
+                    + " year=" + effectiveYear + " " + classCategory;
+        }
+    }
+
+    public interface Listener {
+        /**
+         * Called on the subscription's executor.
+         *
+         * @param changes - Bits of what changed since the last event this listener received.
+         */
+        void onDeviceState(State state, int changes);
+    }
+
+    /**
+     * A listener with its executor and the one event it may have pending.
+     */
+    public final class Subscription {
+        private final Listener listener;
+        private final Executor executor;
+        // Guarded by this subscription.
+        private State pending;
+        private int pendingChanges;
+        private boolean scheduled;
+        private volatile boolean cancelled;
+
+        private final Runnable drain = new Runnable() {
+            @Override
+            public void run() {
+                while (true) {
+                    State state;
+                    int changes;
+                    synchronized (Subscription.this) {
+                        state = pending;
+                        changes = pendingChanges;
+                        pending = null;
+                        pendingChanges = 0;
+                        if (state == null) {
+                            scheduled = false;
+                            return;
+                        }
+                    }
+                    if (!cancelled) listener.onDeviceState(state, changes);
+                }
+            }
+        };
+
+        private Subscription(Listener listener, Executor executor) {
+            this.listener = listener;
+            this.executor = executor;
+        }
+
+        void offer(State state, int changes) {
+            if (cancelled) return;
+            synchronized (this) {
+                // A state the listener has not seen yet is replaced, not queued.
+                pending = state;
+                pendingChanges |= changes;
+                if (scheduled) return;
+                scheduled = true;
+            }
+            executor.execute(drain);
+        }
+
+        /**
+         * Stops deliveries, including a pending one.
+         */
+        public void cancel() {
+            cancelled = true;
+            subscriptions.remove(this);
+        }
+    }
+
+    private final CopyOnWriteArrayList<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    private final ThermalMonitor thermal;
+    private final MemoryPressureMonitor memory;
+    private final String onlinePath;
+    private final File dataDir;
+
+    private volatile long coalesceNanos = 250 * 1000000L;
+    private volatile long storageIntervalNanos = 30 * 1000000000L;
+    private volatile long lowStorageBytes = DeviceInfo.DEVICEINFO_UNKNOWN;
+
+    // Sampling state, only touched by the sampling thread.
+    private final byte[] buffer = new byte[64];
+    private NodePool.Handle onlineNode;
+    private final int[] caps;
+    private long storageAvailable = DeviceInfo.DEVICEINFO_UNKNOWN;
+    private long storageTotal = DeviceInfo.DEVICEINFO_UNKNOWN;
+    private long storageSampledNanos;
+    private boolean storageSampled;
+    private long lastEventNanos;
+    private int unpublished;
+    private volatile State state;
+
+    public DeviceStateMonitor(Context c) {
+        this(SysRoot.get(), c);
+    }
+
+    DeviceStateMonitor(SysRoot root, Context c) {
+        this.thermal = new ThermalMonitor(root);
+        this.caps = new int[thermal.getClusterCount()];
+        this.memory = new MemoryPressureMonitor(c);
+        this.onlinePath = root.path(ONLINE);
+        this.dataDir = Environment.getDataDirectory();
+    }
+
+    private static synchronized Executor delivery() {
+        if (sDelivery == null) {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "deviceinfo-events");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            executor.allowCoreThreadTimeOut(true);
+            sDelivery = executor;
+        }
+        return sDelivery;
+    }
+
+    /**
+     * Delivers events on a shared daemon thread of the library. Its queue holds at most one task per
+     * subscription.
+     */
+    public Subscription subscribe(Listener listener) {
+        return subscribe(listener, delivery());
+    }
+
+    /**
+     * Delivers events on the executor, for example one posting to the main thread. The first event
+     * carries the current state with the change bits {@link #ALL}, right away if it is known.
+     */
+    public Subscription subscribe(Listener listener, Executor executor) {
+        Subscription subscription = new Subscription(listener, executor);
+        subscriptions.add(subscription);
+        State current = state;
+        if (current != null) subscription.offer(current, ALL);
+        return subscription;
+    }
+
+    /**
+     * @return The state as of the last change, or null before the first sample. Byte counts in it are
+     * from that sample too.
+     */
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * The memory monitor sampled by this one, to change its thresholds and debounce.
+     */
+    public MemoryPressureMonitor getMemoryMonitor() {
+        return memory;
+    }
+
+    /**
+     * The thermal monitor sampled by this one, to set its base year and thresholds.
+     */
+    public ThermalMonitor getThermalMonitor() {
+        return thermal;
+    }
+
+    /**
+     * @param millis - Changes this soon after the last event wait for a later sample and go out
+     *               together, 250 by default. 0 publishes every change at once.
+     */
+    public void setCoalesceMillis(long millis) {
+        this.coalesceNanos = Math.max(0, millis) * 1000000L;
+    }
+
+    /**
+     * @param millis - Time between two StatFs calls, 30000 by default.
+     */
+    public void setStorageIntervalMillis(long millis) {
+        this.storageIntervalNanos = Math.max(0, millis) * 1000000L;
+    }
+
+    /**
+     * @param bytes - Available bytes on the data partition below which storage is low. By default the
+     *              system's rule: 10% of the partition, at most 500MB.
+     */
+    public void setLowStorageBytes(long bytes) {
+        this.lowStorageBytes = bytes;
+    }
+
+    @Override
+    protected void sample(long nowNanos) {
+        if (onlineNode == null) onlineNode = NodePool.shared().acquire(onlinePath, ProbeStats.CPU_SET);
+        int length = onlineNode.read(buffer);
+        long online = length <= 0 ? 0 : CpuTopology.parseCpuList(buffer, length);
+        thermal.sampleNow();
+        memory.sampleNow();
+        if (!storageSampled || nowNanos - storageSampledNanos >= storageIntervalNanos) {
+            readStorage();
+            storageSampled = true;
+            storageSampledNanos = nowNanos;
+        }
+
+        for (int i = 0; i < caps.length; i++) {
+            caps[i] = thermal.getCapKHz(i);
+        }
+        State previous = state;
+        int year = thermal.getEffectiveYear();
+        String category = thermal.getEffectiveClassCategory();
+        boolean low = isLowStorage();
+        int changes = ALL;
+        if (previous != null) {
+            changes = 0;
+            if (online != previous.onlineMask) changes |= CPU_HOTPLUG;
+            if (!Arrays.equals(caps, previous.capKHz)) changes |= FREQ_CAP;
+            if (memory.getLevel() != previous.memoryLevel) changes |= MEMORY_PRESSURE;
+            if (low != previous.lowStorage) changes |= LOW_STORAGE;
+            if (year != previous.effectiveYear || !category.equals(previous.classCategory)) changes |= CLASS_CHANGE;
+        }
+        // A state is only allocated when something changed.
+        if (changes != 0) {
+            state = new State(online, caps.clone(), thermal.getLevel(), memory.getLevel(), memory.getAvailableBytes(),
+                    storageAvailable, low, year, category);
+        }
+        unpublished |= changes;
+        if (unpublished == 0) return;
+        if (previous != null && nowNanos - lastEventNanos < coalesceNanos) return;
+
+        int publish = unpublished;
+        unpublished = 0;
+        lastEventNanos = nowNanos;
+        State current = state;
+        for (Subscription subscription : subscriptions) {
+            subscription.offer(current, publish);
+        }
+    }
+
+    @Override
+    protected void onStop() {
+        if (onlineNode != null) {
+            onlineNode.release();
+            onlineNode = null;
+        }
+        thermal.stop();
+        memory.stop();
+        storageSampled = false;
+    }
+
+    private boolean isLowStorage() {
+        if (storageAvailable < 0 || storageTotal <= 0) return false;
+        long threshold = lowStorageBytes;
+        if (threshold < 0) threshold = Math.min(storageTotal / 10, LOW_STORAGE_MAX_BYTES);
+        return storageAvailable < threshold;
+    }
+
+    private void readStorage() {
+        long start = ProbeStats.start();
+        try {
+            StorageSnapshot.Volume volume = StorageSnapshot.volumeOf(dataDir, StorageSnapshot.KIND_INTERNAL);
+            storageTotal = volume.getTotalBytes();
+            storageAvailable = volume.getAvailableBytes();
+            ProbeStats.end(ProbeStats.STATFS, start, ProbeStats.OK);
+        } catch (IllegalArgumentException e) {
+            ProbeStats.failed(ProbeStats.STATFS, start, dataDir.getPath(), e);
+            storageTotal = DeviceInfo.DEVICEINFO_UNKNOWN;
+            storageAvailable = DeviceInfo.DEVICEINFO_UNKNOWN;
+        }
+    }
+}
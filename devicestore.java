@@ -1,47 +1,79 @@
 package org.askquickly.utils;
 // import B4A*
+import android.content.Context;
 import android.os.Environment;
 import android.os.StatFs;
 
+import java.io.File;
+import java.io.IOException;
+
 public class DiskUtils {
-  private static final long MEGA_BYTE = 1048576;
+  static final long MEGA_BYTE = 1048576;
 
   public static int totalSpace(boolean external)
   {
-    StatFs statFs = getStats(external);
-    long total = (((long) statFs.getBlockCount()) * ((long) statFs.getBlockSize())) / MEGA_BYTE;
-    return (int) total;
+    return (int) (sizes(external).getTotalBytes() / MEGA_BYTE);
   }
 
   public static int freeSpace(boolean external)
   {
-    StatFs statFs = getStats(external);
-    long availableBlocks = statFs.getAvailableBlocks();
-    long blockSize = statFs.getBlockSize();
-    long freeBytes = availableBlocks * blockSize;
-
-    return (int) (freeBytes / MEGA_BYTE);
+    return (int) (sizes(external).getAvailableBytes() / MEGA_BYTE);
   }
 
   public static int busySpace(boolean external)
   {
-    StatFs statFs = getStats(external);
-    long total = (statFs.getBlockCount() * statFs.getBlockSize());
-    long free  = (statFs.getAvailableBlocks() * statFs.getBlockSize());
+    StorageSnapshot.Volume volume = sizes(external);
+    return (int) ((volume.getTotalBytes() - volume.getAvailableBytes()) / MEGA_BYTE);
+  }
 
-    return (int) ((total - free) / MEGA_BYTE);
+  /**
+   * All sizes of the volume in bytes from a single statfs call, with the mount and block device it
+   * lives on. Use it instead of calling totalSpace, freeSpace and busySpace one after the other.
+   */
+  public static StorageSnapshot.Volume getVolume(boolean external)
+  {
+    String path = getPath(external);
+    try {
+      path = new File(path).getCanonicalPath();
+    } catch (IOException ignored) {
+    }
+    return StorageSnapshot.volumeOf(path, kindOf(external),
+        StorageSnapshot.readMounts(StorageSnapshot.PROC_MOUNTS), getStats(external));
   }
 
-  private static StatFs getStats(boolean external){
-    String path;
+  private static StorageSnapshot.Volume sizes(boolean external)
+  {
+    return new StorageSnapshot.Volume(getPath(external), kindOf(external), null, null, getStats(external));
+  }
 
+  private static String kindOf(boolean external)
+  {
+    return external ? StorageSnapshot.KIND_EXTERNAL : StorageSnapshot.KIND_SYSTEM;
+  }
+
+  /**
+   * A directory the app may write scratch files to on the internal or the external volume: the
+   * cache dir, or the external files dir while the shared storage is mounted.
+   */
+  public static File getScratchDir(Context c, boolean external)
+  {
+    if (external && Environment.MEDIA_MOUNTED.equals(Environment.getExternalStorageState())) {
+      File dir = c.getExternalFilesDir(null);
+      if (dir != null) return dir;
+    }
+    return c.getCacheDir();
+  }
+
+  static String getPath(boolean external){
     if (external){
-      path = Environment.getExternalStorageDirectory().getAbsolutePath();
+      return Environment.getExternalStorageDirectory().getAbsolutePath();
     }
     else{
-      path = Environment.getRootDirectory().getAbsolutePath();
+      return Environment.getRootDirectory().getAbsolutePath();
     }
+  }
 
-    return new StatFs(path);
+  private static StatFs getStats(boolean external){
+    return new StatFs(getPath(external));
   }
 }
@@ -1,26 +1,40 @@
 package org.askquickly.utils
+import android.os.Build
 import android.os.Environment
 import android.os.StatFs
 object DiskUtils {
   private val MEGA_BYTE:Long = 1048576
   fun totalSpace(external:Boolean):Int {
     val statFs = getStats(external)
-    val total = ((statFs.getBlockCount() as Long) * (statFs.getBlockSize() as Long)) / MEGA_BYTE
+    val total = totalBytes(statFs) / MEGA_BYTE
     return total.toInt()
   }
   fun freeSpace(external:Boolean):Int {
     val statFs = getStats(external)
-    val availableBlocks = statFs.getAvailableBlocks()
-    val blockSize = statFs.getBlockSize()
-    val freeBytes = availableBlocks * blockSize
+    val freeBytes = availableBytes(statFs)
     return (freeBytes / MEGA_BYTE).toInt()
   }
   fun busySpace(external:Boolean):Int {
     val statFs = getStats(external)
-    val total = (statFs.getBlockCount() * statFs.getBlockSize())
-    val free = (statFs.getAvailableBlocks() * statFs.getBlockSize())
+    val total = totalBytes(statFs)
+    val free = availableBytes(statFs)
     return ((total - free) / MEGA_BYTE).toInt()
   }
+  // Block counts times the block size overflow Int on volumes of 2GB and more, multiply as Long.
+  private fun totalBytes(statFs:StatFs):Long {
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2)
+    {
+      return statFs.getBlockCountLong() * statFs.getBlockSizeLong()
+    }
+    return statFs.getBlockCount().toLong() * statFs.getBlockSize().toLong()
+  }
+  private fun availableBytes(statFs:StatFs):Long {
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2)
+    {
+      return statFs.getAvailableBlocksLong() * statFs.getBlockSizeLong()
+    }
+    return statFs.getAvailableBlocks().toLong() * statFs.getBlockSize().toLong()
+  }
   private fun getStats(external:Boolean):StatFs {
     val path:String
     if (external)
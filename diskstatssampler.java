@@ -0,0 +1,373 @@
+package deviceinfo;
+
+import org.askquickly.utils.StorageSnapshot;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Block device I/O statistics from {@code /proc/diskstats}, or from {@code /sys/class/block/<dev>/stat}
+ * (the same nodes as {@code /sys/block/*}{@code /stat}, plus partitions) where the former is denied.
+ * Each sample turns the counter deltas into per-device throughput, IOPS, in-flight requests, average
+ * service time and utilization, so a slow save can be checked against a saturated device.
+ * <p/>
+ * The devices are enumerated on the first sample; loop and RAM disks are left out. After that a
+ * sample parses into preallocated arrays without allocating. Values of the last interval are
+ * published like a seqlock, so readers on any thread get consistent values without a lock. Use
+ * {@link #indexOf(StorageSnapshot.Volume)} to find the device behind a volume, for example the one
+ * {@code DiskUtils.getVolume(false)} reports.
+ */
+public final class DiskStatsSampler extends PollingProbe {
+    private static final String DISKSTATS = "/proc/diskstats";
+    private static final String CLASS_BLOCK = "/sys/class/block/";
+    private static final int MAX_DEVICES = 64;
+    private static final int SECTOR_BYTES = 512;
+
+    // Counter positions after the device name, the same in both files.
+    private static final int FIELDS = 11;
+    private static final int READS = 0;
+    private static final int SECTORS_READ = 2;
+    private static final int WRITES = 4;
+    private static final int SECTORS_WRITTEN = 6;
+    private static final int IN_FLIGHT = 8;
+    private static final int IO_TICKS = 9;
+
+    private final String diskstatsPath;
+    private final String classBlockPath;
+
+    // Set up on the first sample, then only read.
+    private String[] names;
+    private byte[][] nameBytes;
+    private RandomAccessFile[] statFiles;
+    private int devices;
+
+    // Sampling state, only touched by the sampling thread.
+    private final byte[] buffer = new byte[32 * 1024];
+    private final byte[] statBuffer = new byte[256];
+    private final long[] fields = new long[FIELDS];
+    private final long[] current = new long[MAX_DEVICES * FIELDS];
+    private final long[] last = new long[MAX_DEVICES * FIELDS];
+    private final boolean[] seen = new boolean[MAX_DEVICES];
+    private RandomAccessFile diskstats;
+    private boolean diskstatsDenied;
+    private long lastNanos;
+
+    // Published values of the last interval, guarded by sequence. Atomic arrays order their reads and
+    // writes with those of sequence, which plain arrays would not.
+    private final AtomicLongArray readBytesPerSec = new AtomicLongArray(MAX_DEVICES);
+    private final AtomicLongArray writeBytesPerSec = new AtomicLongArray(MAX_DEVICES);
+    private final AtomicLongArray readIops = new AtomicLongArray(MAX_DEVICES);
+    private final AtomicLongArray writeIops = new AtomicLongArray(MAX_DEVICES);
+    private final AtomicLongArray inFlight = new AtomicLongArray(MAX_DEVICES);
+    private final AtomicLongArray serviceMicros = new AtomicLongArray(MAX_DEVICES);
+    private final AtomicIntegerArray utilizationPermille = new AtomicIntegerArray(MAX_DEVICES);
+    private volatile long sequence;
+
+    public DiskStatsSampler() {
+        this(SysRoot.get());
+    }
+
+    public DiskStatsSampler(SysRoot root) {
+        this.diskstatsPath = root.path(DISKSTATS);
+        this.classBlockPath = root.path(CLASS_BLOCK);
+    }
+
+    @Override
+    protected void sample(long nowNanos) {
+        if (names == null) enumerate();
+        if (devices == 0) return;
+        Arrays.fill(seen, false);
+        if (!readDiskstats()) readStatFiles();
+
+        long elapsedNanos = nowNanos - lastNanos;
+        boolean first = lastNanos == 0;
+        lastNanos = nowNanos;
+        if (!first && elapsedNanos > 0) publish(elapsedNanos);
+        System.arraycopy(current, 0, last, 0, devices * FIELDS);
+    }
+
+    @Override
+    protected void onStop() {
+        diskstats = ProcFileParser.close(diskstats);
+        if (statFiles != null) {
+            for (int i = 0; i < statFiles.length; i++) {
+                statFiles[i] = ProcFileParser.close(statFiles[i]);
+            }
+        }
+        lastNanos = 0;
+    }
+
+    /**
+     * @return Number of devices found on the first sample, 0 before it or if neither source is readable.
+     */
+    public int getDeviceCount() {
+        return devices;
+    }
+
+    /**
+     * @return Kernel name of the device, such as {@code sda} or {@code dm-5}.
+     */
+    public String getDeviceName(int device) {
+        return names[device];
+    }
+
+    /**
+     * @return Index of the device with the kernel name, or DEVICEINFO_UNKNOWN = -1.
+     */
+    public int indexOf(String name) {
+        for (int i = 0; i < devices; i++) {
+            if (names[i].equals(name)) return i;
+        }
+        return DeviceInfo.DEVICEINFO_UNKNOWN;
+    }
+
+    /**
+     * Finds the device a volume is stored on, following symlinks such as
+     * {@code /dev/block/by-name/userdata}.
+     *
+     * @return Index of the device, or DEVICEINFO_UNKNOWN = -1.
+     */
+    public int indexOf(StorageSnapshot.Volume volume) {
+        String device = volume.getBlockDevice();
+        if (device == null) return DeviceInfo.DEVICEINFO_UNKNOWN;
+        File file = new File(device);
+        try {
+            file = file.getCanonicalFile();
+        } catch (IOException | SecurityException ignored) {
+            //Without access to /dev the name in the mount table has to do.
+        }
+        return indexOf(file.getName());
+    }
+
+    /**
+     * @return A counter that grows with every published sample. A reader can compare it between calls
+     * to see whether new values arrived.
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    public long getReadBytesPerSec(int device) {
+        return read(readBytesPerSec, device);
+    }
+
+    public long getWriteBytesPerSec(int device) {
+        return read(writeBytesPerSec, device);
+    }
+
+    public long getReadIops(int device) {
+        return read(readIops, device);
+    }
+
+    public long getWriteIops(int device) {
+        return read(writeIops, device);
+    }
+
+    /**
+     * @return Requests queued or being served at the time of the sample.
+     */
+    public long getInFlight(int device) {
+        return read(inFlight, device);
+    }
+
+    /**
+     * @return Busy time per completed request in the last interval, in microseconds, or
+     * DEVICEINFO_UNKNOWN when none completed.
+     */
+    public long getServiceMicros(int device) {
+        return read(serviceMicros, device);
+    }
+
+    /**
+     * @return Share of the last interval the device was busy, 0 to 1000. Near 1000 it is saturated.
+     */
+    public int getUtilizationPermille(int device) {
+        while (true) {
+            long seq = sequence;
+            if ((seq & 1) != 0) continue;
+            int value = seq == 0 ? DeviceInfo.DEVICEINFO_UNKNOWN : utilizationPermille.get(device);
+            if (sequence == seq) return value;
+        }
+    }
+
+    private long read(AtomicLongArray values, int device) {
+        while (true) {
+            long seq = sequence;
+            // Odd while the sampling thread writes.
+            if ((seq & 1) != 0) continue;
+            long value = seq == 0 ? DeviceInfo.DEVICEINFO_UNKNOWN : values.get(device);
+            if (sequence == seq) return value;
+        }
+    }
+
+    private void publish(long elapsedNanos) {
+        sequence = sequence + 1;
+        for (int d = 0; d < devices; d++) {
+            int base = d * FIELDS;
+            if (!seen[d]) {
+                readBytesPerSec.set(d, DeviceInfo.DEVICEINFO_UNKNOWN);
+                writeBytesPerSec.set(d, DeviceInfo.DEVICEINFO_UNKNOWN);
+                readIops.set(d, DeviceInfo.DEVICEINFO_UNKNOWN);
+                writeIops.set(d, DeviceInfo.DEVICEINFO_UNKNOWN);
+                inFlight.set(d, DeviceInfo.DEVICEINFO_UNKNOWN);
+                serviceMicros.set(d, DeviceInfo.DEVICEINFO_UNKNOWN);
+                utilizationPermille.set(d, DeviceInfo.DEVICEINFO_UNKNOWN);
+                continue;
+            }
+            long reads = delta(base + READS);
+            long writes = delta(base + WRITES);
+            long ticksMillis = delta(base + IO_TICKS);
+            readBytesPerSec.set(d, perSecond(delta(base + SECTORS_READ) * SECTOR_BYTES, elapsedNanos));
+            writeBytesPerSec.set(d, perSecond(delta(base + SECTORS_WRITTEN) * SECTOR_BYTES, elapsedNanos));
+            readIops.set(d, perSecond(reads, elapsedNanos));
+            writeIops.set(d, perSecond(writes, elapsedNanos));
+            inFlight.set(d, current[base + IN_FLIGHT]);
+            serviceMicros.set(d, reads + writes == 0 ? DeviceInfo.DEVICEINFO_UNKNOWN
+                    : ticksMillis * 1000 / (reads + writes));
+            utilizationPermille.set(d, (int) Math.min(1000, ticksMillis * 1000000000L / elapsedNanos));
+        }
+        sequence = sequence + 1;
+    }
+
+    /**
+     * @return The counter's growth since the last sample; 0 when it went back, as after a device
+     * was removed and added again.
+     */
+    private long delta(int index) {
+        return Math.max(0, current[index] - last[index]);
+    }
+
+    private static long perSecond(long count, long elapsedNanos) {
+        return count * 1000000000L / elapsedNanos;
+    }
+
+    /**
+     * Parses {@code /proc/diskstats}: "major minor name" and the counters on every line.
+     *
+     * @return false if the file is not readable.
+     */
+    private boolean readDiskstats() {
+        if (diskstatsDenied) return false;
+        if (diskstats == null) {
+            try {
+                diskstats = new RandomAccessFile(diskstatsPath, "r");
+            } catch (IOException | SecurityException e) {
+                diskstatsDenied = true;
+                return false;
+            }
+        }
+        int length = ProcFileParser.readAll(diskstats, buffer);
+        if (length <= 0) return false;
+        int line = 0;
+        while (line < length) {
+            int next = ProcFileParser.nextLine(buffer, line, length);
+            int nameStart = skipToken(skipToken(skipSpaces(line, next), next), next);
+            int nameEnd = nameStart;
+            while (nameEnd < next && buffer[nameEnd] > ' ') nameEnd++;
+            int device = find(nameStart, nameEnd);
+            if (device >= 0) {
+                int count = ProcFileParser.parseFields(buffer, nameEnd, next, fields);
+                if (count == FIELDS) store(device);
+            }
+            line = next;
+        }
+        return true;
+    }
+
+    private void readStatFiles() {
+        for (int d = 0; d < devices; d++) {
+            if (statFiles[d] == null) {
+                try {
+                    statFiles[d] = new RandomAccessFile(classBlockPath + names[d] + "/stat", "r");
+                } catch (IOException | SecurityException e) {
+                    continue;
+                }
+            }
+            int length = ProcFileParser.readAll(statFiles[d], statBuffer);
+            if (length > 0 && ProcFileParser.parseFields(statBuffer, 0, length, fields) == FIELDS) store(d);
+        }
+    }
+
+    private void store(int device) {
+        System.arraycopy(fields, 0, current, device * FIELDS, FIELDS);
+        seen[device] = true;
+    }
+
+    private int find(int from, int to) {
+        int length = to - from;
+        for (int d = 0; d < devices; d++) {
+            byte[] name = nameBytes[d];
+            if (name.length != length) continue;
+            int i = 0;
+            while (i < length && buffer[from + i] == name[i]) i++;
+            if (i == length) return d;
+        }
+        return -1;
+    }
+
+    private int skipSpaces(int i, int end) {
+        while (i < end && (buffer[i] == ' ' || buffer[i] == '\t')) i++;
+        return i;
+    }
+
+    private int skipToken(int i, int end) {
+        while (i < end && buffer[i] > ' ') i++;
+        return skipSpaces(i, end);
+    }
+
+    /**
+     * Lists the devices, from {@code /proc/diskstats} or else from {@code /sys/class/block}.
+     */
+    private void enumerate() {
+        List<String> found = new ArrayList<>();
+        int length = -1;
+        if (!diskstatsDenied) {
+            try {
+                diskstats = new RandomAccessFile(diskstatsPath, "r");
+                length = ProcFileParser.readAll(diskstats, buffer);
+            } catch (IOException | SecurityException e) {
+                diskstatsDenied = true;
+            }
+        }
+        if (length > 0) {
+            int line = 0;
+            while (line < length) {
+                int next = ProcFileParser.nextLine(buffer, line, length);
+                int nameStart = skipToken(skipToken(skipSpaces(line, next), next), next);
+                int nameEnd = nameStart;
+                while (nameEnd < next && buffer[nameEnd] > ' ') nameEnd++;
+                if (nameEnd > nameStart) found.add(new String(buffer, nameStart, nameEnd - nameStart, ASCII));
+                line = next;
+            }
+        } else {
+            String[] list = new File(classBlockPath).list();
+            if (list != null) {
+                Arrays.sort(list);
+                found.addAll(Arrays.asList(list));
+            }
+        }
+
+        List<String> kept = new ArrayList<>();
+        for (String name : found) {
+            if (name.startsWith("loop") || name.startsWith("ram")) continue;
+            if (kept.size() == MAX_DEVICES) break;
+            kept.add(name);
+        }
+        devices = kept.size();
+        statFiles = new RandomAccessFile[devices];
+        nameBytes = new byte[devices][];
+        for (int d = 0; d < devices; d++) {
+            nameBytes[d] = kept.get(d).getBytes(ASCII);
+        }
+        names = kept.toArray(new String[devices]);
+    }
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+}
@@ -0,0 +1,393 @@
+package deviceinfo;
+
+import android.os.Process;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the CPU and memory instead of reading the spec sheet, which misjudges throttled and
+ * low-bin SoCs. Runs a few short kernels within a fixed time budget:
+ * <ul>
+ *   <li>an integer and a floating point loop on one core,</li>
+ *   <li>a sequential sum over a large int array (memory bandwidth),</li>
+ *   <li>a dependent walk through the same array (memory latency),</li>
+ *   <li>the integer loop on every core at once, relative to one core (scaling).</li>
+ * </ul>
+ * The kernels only touch preallocated primitive arrays and locals. Each one runs in short chunks
+ * until its share of the budget is used up and reports its fastest chunk, so a preemption or the
+ * JIT warming up does not count against the device. A chunk only starts if it should end before the
+ * kernel's share does, so the budget is a cap: a kernel that gets no time left reports
+ * DEVICEINFO_UNKNOWN instead of running over.
+ * <p/>
+ * {@link #run()} measures on threads of its own at normal priority, whatever the priority of the
+ * caller, and blocks for about the budget; call it on a background thread. The results are turned
+ * into years by the measured dimensions of {@link YearClassRules}.
+ */
+public final class MeasuredClassifier {
+    private static final int INT_CHUNK = 1 << 17;
+    private static final int FLOAT_CHUNK = 1 << 16;
+    private static final int LATENCY_CHUNK = 1 << 14;
+    private static final int DEFAULT_ARRAY_BYTES = 8 * 1024 * 1024;
+
+    // Shares of the budget left after building the array, in percent. A kernel gets its share of
+    // the time left when it starts, relative to the shares of the kernels that have not run yet.
+    private static final int INT_SHARE = 15;
+    private static final int FLOAT_SHARE = 15;
+    private static final int BANDWIDTH_SHARE = 20;
+    private static final int LATENCY_SHARE = 20;
+    private static final int SCALING_SHARE = 30;
+
+    /**
+     * Results of one run. Values that could not be measured are DEVICEINFO_UNKNOWN = -1.
+     */
+    public static final class Result {
+        final long intMops;
+        final long floatMflops;
+        final long bandwidthMBps;
+        final long latencyPicos;
+        final long scalingPercent;
+        final long elapsedMillis;
+
+        Result(long intMops, long floatMflops, long bandwidthMBps, long latencyPicos, long scalingPercent,
+               long elapsedMillis) {
+            this.intMops = intMops;
+            this.floatMflops = floatMflops;
+            this.bandwidthMBps = bandwidthMBps;
+            this.latencyPicos = latencyPicos;
+            this.scalingPercent = scalingPercent;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        /**
+         * @return Millions of integer loop iterations per second on one core.
+         */
+        public long getIntMops() {
+            return intMops;
+        }
+
+        /**
+         * @return Millions of floating point loop iterations per second on one core.
+         */
+        public long getFloatMflops() {
+            return floatMflops;
+        }
+
+        /**
+         * @return Sequential read bandwidth of one core in MB/s.
+         */
+        public long getBandwidthMBps() {
+            return bandwidthMBps;
+        }
+
+        /**
+         * @return Time of one dependent load outside the caches, in picoseconds.
+         */
+        public long getLatencyPicos() {
+            return latencyPicos;
+        }
+
+        /**
+         * @return Dependent loads per microsecond, the latency as a value that grows with the year.
+         */
+        public long getLoadsPerMicro() {
+            return latencyPicos <= 0 ? DeviceInfo.DEVICEINFO_UNKNOWN : 1000000L / latencyPicos;
+        }
+
+        /**
+         * @return Integer throughput of all cores relative to one core, in percent.
+         */
+        public long getScalingPercent() {
+            return scalingPercent;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        void writeTo(DataOutput out) throws IOException {
+            out.writeLong(intMops);
+            out.writeLong(floatMflops);
+            out.writeLong(bandwidthMBps);
+            out.writeLong(latencyPicos);
+            out.writeLong(scalingPercent);
+            out.writeLong(elapsedMillis);
+        }
+
+        static Result readFrom(DataInput in) throws IOException {
+            return new Result(in.readLong(), in.readLong(), in.readLong(), in.readLong(), in.readLong(),
+                    in.readLong());
+        }
+
+        @Override
+        public String toString() {
+            return "int=" + intMops + "Mops float=" + floatMflops + "Mflops bandwidth=" + bandwidthMBps
+                    + "MB/s latency=" + latencyPicos / 1000f + "ns scaling=" + scalingPercent + "% in "
+                    + elapsedMillis + "ms";
+        }
+    }
+
+    private final long budgetNanos;
+    private final int arrayInts;
+    private volatile long sink;
+
+    /**
+     * @param budgetMillis - Total time the run may take, for example 150.
+     */
+    public MeasuredClassifier(long budgetMillis) {
+        this(budgetMillis, DEFAULT_ARRAY_BYTES);
+    }
+
+    /**
+     * @param arrayBytes - Size of the array for the memory kernels. It has to be well above the
+     *                   last level cache to measure the memory rather than the cache.
+     */
+    public MeasuredClassifier(long budgetMillis, int arrayBytes) {
+        if (budgetMillis <= 0) throw new IllegalArgumentException("budget must be positive");
+        this.budgetNanos = budgetMillis * 1000000L;
+        this.arrayInts = Math.max(1024, arrayBytes / 4);
+    }
+
+    /**
+     * Runs all kernels on a new thread at normal priority and waits for it, taking at most about the
+     * budget.
+     *
+     * @return The results, or null if the measuring thread failed, such as on running out of memory
+     * for the array.
+     */
+    public Result run() {
+        final Result[] result = new Result[1];
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_DEFAULT);
+                result[0] = measure();
+            }
+        }, "deviceinfo-measure");
+        thread.setDaemon(true);
+        thread.start();
+        boolean interrupted = false;
+        while (true) {
+            try {
+                thread.join();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+        return result[0];
+    }
+
+    private Result measure() {
+        long start = System.nanoTime();
+        long deadline = start + budgetNanos;
+        int[] chain = new int[arrayInts];
+        boolean built = buildChain(chain, deadline);
+        int shares = INT_SHARE + FLOAT_SHARE + SCALING_SHARE + (built ? BANDWIDTH_SHARE + LATENCY_SHARE : 0);
+
+        long intMops = rate(intKernel(slice(deadline, INT_SHARE, shares)), INT_CHUNK);
+        shares -= INT_SHARE;
+        long floatMflops = rate(floatKernel(slice(deadline, FLOAT_SHARE, shares)), FLOAT_CHUNK);
+        shares -= FLOAT_SHARE;
+        long bandwidthMBps = DeviceInfo.DEVICEINFO_UNKNOWN;
+        long latencyPicos = DeviceInfo.DEVICEINFO_UNKNOWN;
+        if (built) {
+            long bestSumNanos = bandwidthKernel(chain, slice(deadline, BANDWIDTH_SHARE, shares));
+            shares -= BANDWIDTH_SHARE;
+            if (bestSumNanos > 0) bandwidthMBps = (long) chain.length * 4 * 1000 / bestSumNanos;
+            long bestChaseNanos = latencyKernel(chain, slice(deadline, LATENCY_SHARE, shares));
+            if (bestChaseNanos > 0) latencyPicos = bestChaseNanos * 1000 / LATENCY_CHUNK;
+        }
+        long scalingPercent = scaling(deadline);
+
+        return new Result(intMops, floatMflops, bandwidthMBps, latencyPicos, scalingPercent,
+                (System.nanoTime() - start) / 1000000L);
+    }
+
+    /**
+     * @return The kernel's share of the time left until the deadline, 0 once it has passed.
+     */
+    private static long slice(long deadline, int share, int shares) {
+        return Math.max(0, deadline - System.nanoTime()) * share / shares;
+    }
+
+    /**
+     * @return Iterations per microsecond, i.e. millions per second, of the best chunk.
+     */
+    private static long rate(long bestChunkNanos, int chunk) {
+        return bestChunkNanos <= 0 ? DeviceInfo.DEVICEINFO_UNKNOWN : chunk * 1000L / bestChunkNanos;
+    }
+
+    /**
+     * @return The fastest chunk of INT_CHUNK iterations in nanoseconds, or 0 if there was no time
+     * for one. The next chunk only starts if one as long as the last would end within the slice.
+     */
+    private long intKernel(long sliceNanos) {
+        long best = 0;
+        int x = 0x9e3779b9;
+        long now = System.nanoTime();
+        long end = now + sliceNanos;
+        long last = 0;
+        while (now + last < end) {
+            long chunkStart = now;
+            for (int i = 0; i < INT_CHUNK; i++) {
+                x ^= x << 13;
+                x ^= x >>> 17;
+                x ^= x << 5;
+                x += i * 0x45d9f3b;
+            }
+            now = System.nanoTime();
+            last = now - chunkStart;
+            best = best == 0 ? last : Math.min(best, last);
+        }
+        sink += x;
+        return best;
+    }
+
+    private long floatKernel(long sliceNanos) {
+        long best = 0;
+        double a = 1.0000001;
+        double b = 0.5;
+        long now = System.nanoTime();
+        long end = now + sliceNanos;
+        long last = 0;
+        while (now + last < end) {
+            long chunkStart = now;
+            for (int i = 0; i < FLOAT_CHUNK; i++) {
+                b = b * a + 0.25;
+                a = a * 0.9999999 + 1e-7;
+                if (b > 1e6) b *= 1e-6;
+            }
+            now = System.nanoTime();
+            last = now - chunkStart;
+            best = best == 0 ? last : Math.min(best, last);
+        }
+        sink += (long) b;
+        return best;
+    }
+
+    /**
+     * @return The fastest full sequential pass over the array in nanoseconds, or 0.
+     */
+    private long bandwidthKernel(int[] array, long sliceNanos) {
+        long best = 0;
+        long sum = 0;
+        long now = System.nanoTime();
+        long end = now + sliceNanos;
+        long last = 0;
+        while (now + last < end) {
+            long passStart = now;
+            for (int i = 0; i < array.length; i++) {
+                sum += array[i];
+            }
+            now = System.nanoTime();
+            last = now - passStart;
+            best = best == 0 ? last : Math.min(best, last);
+        }
+        sink += sum;
+        return best;
+    }
+
+    /**
+     * @return The fastest chunk of LATENCY_CHUNK dependent loads in nanoseconds, or 0.
+     */
+    private long latencyKernel(int[] chain, long sliceNanos) {
+        long best = 0;
+        int index = 0;
+        long now = System.nanoTime();
+        long end = now + sliceNanos;
+        long last = 0;
+        while (now + last < end) {
+            long chunkStart = now;
+            for (int i = 0; i < LATENCY_CHUNK; i++) {
+                index = chain[index];
+            }
+            now = System.nanoTime();
+            last = now - chunkStart;
+            best = best == 0 ? last : Math.min(best, last);
+        }
+        sink += index;
+        return best;
+    }
+
+    /**
+     * Runs the integer kernel on one thread per available core at the same time, until the deadline.
+     *
+     * @return The summed chunk rate of all threads relative to one thread, in percent.
+     */
+    private long scaling(final long deadline) {
+        int threads = Runtime.getRuntime().availableProcessors();
+        if (threads <= 1) return 100;
+        long single = intKernel(Math.max(0, deadline - System.nanoTime()) / 3);
+        if (single <= 0) return DeviceInfo.DEVICEINFO_UNKNOWN;
+
+        final long[] best = new long[threads];
+        final CountDownLatch ready = new CountDownLatch(threads);
+        final CountDownLatch go = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            final int slot = t;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_DEFAULT);
+                    ready.countDown();
+                    try {
+                        go.await();
+                        best[slot] = intKernel(deadline - System.nanoTime());
+                    } catch (InterruptedException e) {
+                        best[slot] = 0;
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }, "deviceinfo-measure-" + t);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        try {
+            // Threads that did not start or finish in time leave the result unknown rather than
+            // holding the caller past the budget.
+            boolean started = ready.await(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            go.countDown();
+            if (!started || !done.await(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+                return DeviceInfo.DEVICEINFO_UNKNOWN;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return DeviceInfo.DEVICEINFO_UNKNOWN;
+        }
+        // Rates add up; a chunk that took twice as long as the single-thread one counts for half.
+        long percent = 0;
+        for (long nanos : best) {
+            if (nanos > 0) percent += single * 100 / nanos;
+        }
+        return percent;
+    }
+
+    /**
+     * Fills the array with one random cycle through all indices (Sattolo's algorithm, built in a
+     * single pass from the front), so the walk in latencyKernel visits the whole array in an order
+     * the prefetcher cannot guess.
+     *
+     * @return false if the deadline passed before the chain was complete.
+     */
+    private static boolean buildChain(int[] chain, long deadline) {
+        chain[0] = 0;
+        int seed = 0x2545f491;
+        for (int i = 1; i < chain.length; i++) {
+            if ((i & 0xffff) == 0 && System.nanoTime() - deadline > 0) return false;
+            seed ^= seed << 13;
+            seed ^= seed >>> 17;
+            seed ^= seed << 5;
+            int j = (seed & 0x7fffffff) % i;
+            chain[i] = chain[j];
+            chain[j] = i;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,288 @@
+package deviceinfo;
+
+import android.content.Context;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Watches MemAvailable in {@code /proc/meminfo} and, on kernels that have it, the memory pressure
+ * stall information in {@code /proc/pressure/memory}, and tells listeners when the device moves
+ * between {@link Level#NORMAL}, {@link Level#MODERATE} and {@link Level#CRITICAL}. Both files are
+ * kept open and parsed into preallocated arrays, so polling does not allocate.
+ * <p/>
+ * Rising levels are reported after {@link #setDebounce(int, int) raiseSamples} consecutive samples
+ * and falling levels after lowerSamples, so a single spike does not make caches flap. Listeners are
+ * called on the probe thread. Example usage:
+ * <p/>
+ * <pre>
+ *   MemoryPressureMonitor monitor = new MemoryPressureMonitor(context);
+ *   monitor.addListener(new MemoryPressureMonitor.Listener() {
+ *       public void onMemoryPressure(MemoryPressureMonitor.Level level, MemoryPressureMonitor m) {
+ *           if (level != MemoryPressureMonitor.Level.NORMAL) cache.trim();
+ *       }
+ *   });
+ *   monitor.start(1000);
+ * </pre>
+ */
+public final class MemoryPressureMonitor extends PollingProbe {
+    private static final String MEMINFO = "/proc/meminfo";
+    private static final String PRESSURE = "/proc/pressure/memory";
+
+    private static final int MEM_TOTAL = 0;
+    private static final int MEM_AVAILABLE = 1;
+    private static final int MEM_FREE = 2;
+    private static final int CACHED = 3;
+    private static final int SWAP_FREE = 4;
+
+    public enum Level {
+        NORMAL, MODERATE, CRITICAL
+    }
+
+    public interface Listener {
+        /**
+         * Called on the probe thread when the debounced level changes.
+         */
+        void onMemoryPressure(Level level, MemoryPressureMonitor monitor);
+    }
+
+    private final String meminfoPath = SysRoot.get().path(MEMINFO);
+    private final String pressurePath = SysRoot.get().path(PRESSURE);
+    private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final ProcFileParser meminfoParser =
+            new ProcFileParser("MemTotal", "MemAvailable", "MemFree", "Cached", "SwapFree");
+    private final long[] kB = new long[5];
+    private final byte[] psiBuffer = new byte[256];
+    private RandomAccessFile meminfo;
+    private RandomAccessFile pressure;
+    private boolean pressureMissing;
+
+    private volatile long moderateAvailableBytes;
+    private volatile long criticalAvailableBytes;
+    private volatile int moderatePsiSome = 1000; // 10.00% of the last 10s
+    private volatile int criticalPsiFull = 500; // 5.00% of the last 10s
+    private volatile int raiseSamples = 1;
+    private volatile int lowerSamples = 3;
+
+    private volatile long totalBytes = DeviceInfo.DEVICEINFO_UNKNOWN;
+    private volatile long availableBytes = DeviceInfo.DEVICEINFO_UNKNOWN;
+    private volatile long cachedBytes = DeviceInfo.DEVICEINFO_UNKNOWN;
+    private volatile long swapFreeBytes = DeviceInfo.DEVICEINFO_UNKNOWN;
+    private volatile int psiSomeAvg10 = DeviceInfo.DEVICEINFO_UNKNOWN;
+    private volatile int psiFullAvg10 = DeviceInfo.DEVICEINFO_UNKNOWN;
+    private volatile Level level = Level.NORMAL;
+    private Level candidate = Level.NORMAL;
+    private int candidateSamples;
+
+    /**
+     * Uses the system's low memory threshold: MODERATE below twice the threshold and CRITICAL below
+     * one and a half times it, which is before the low-memory killer starts on cached apps.
+     */
+    public MemoryPressureMonitor(Context c) {
+        long threshold = DeviceInfo.getMemThreshold(c);
+        if (threshold <= 0) threshold = 128 * 1024 * 1024;
+        this.moderateAvailableBytes = threshold * 2;
+        this.criticalAvailableBytes = threshold * 3 / 2;
+    }
+
+    public MemoryPressureMonitor(long moderateAvailableBytes, long criticalAvailableBytes) {
+        setThresholds(moderateAvailableBytes, criticalAvailableBytes);
+    }
+
+    public void setThresholds(long moderateAvailableBytes, long criticalAvailableBytes) {
+        if (criticalAvailableBytes > moderateAvailableBytes) {
+            throw new IllegalArgumentException("critical threshold must not be above the moderate one");
+        }
+        this.moderateAvailableBytes = moderateAvailableBytes;
+        this.criticalAvailableBytes = criticalAvailableBytes;
+    }
+
+    /**
+     * @param moderateSomeAvg10 - "some" stall share over 10s, in hundredths of a percent, at which
+     *                          the level is at least MODERATE.
+     * @param criticalFullAvg10 - "full" stall share over 10s, in hundredths of a percent, at which
+     *                          the level is CRITICAL.
+     */
+    public void setPsiThresholds(int moderateSomeAvg10, int criticalFullAvg10) {
+        this.moderatePsiSome = moderateSomeAvg10;
+        this.criticalPsiFull = criticalFullAvg10;
+    }
+
+    /**
+     * @param raiseSamples - Consecutive samples at a higher level before it is reported.
+     * @param lowerSamples - Consecutive samples at a lower level before it is reported.
+     */
+    public void setDebounce(int raiseSamples, int lowerSamples) {
+        this.raiseSamples = Math.max(1, raiseSamples);
+        this.lowerSamples = Math.max(1, lowerSamples);
+    }
+
+    public void addListener(Listener listener) {
+        listeners.addIfAbsent(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    @Override
+    protected void sample(long nowNanos) {
+        readMeminfo();
+        readPressure();
+
+        Level measured = Level.NORMAL;
+        long available = availableBytes;
+        if (available >= 0) {
+            if (available < criticalAvailableBytes) {
+                measured = Level.CRITICAL;
+            } else if (available < moderateAvailableBytes) {
+                measured = Level.MODERATE;
+            }
+        }
+        if (psiFullAvg10 >= criticalPsiFull) {
+            measured = Level.CRITICAL;
+        } else if (psiSomeAvg10 >= moderatePsiSome && measured == Level.NORMAL) {
+            measured = Level.MODERATE;
+        }
+
+        Level current = level;
+        if (measured == current) {
+            candidateSamples = 0;
+            return;
+        }
+        if (measured != candidate) {
+            candidate = measured;
+            candidateSamples = 0;
+        }
+        candidateSamples++;
+        int needed = measured.ordinal() > current.ordinal() ? raiseSamples : lowerSamples;
+        if (candidateSamples < needed) return;
+
+        candidateSamples = 0;
+        level = measured;
+        for (Listener listener : listeners) {
+            listener.onMemoryPressure(measured, this);
+        }
+    }
+
+    @Override
+    protected void onStop() {
+        meminfo = ProcFileParser.close(meminfo);
+        pressure = ProcFileParser.close(pressure);
+    }
+
+    public Level getLevel() {
+        return level;
+    }
+
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * @return MemAvailable, or MemFree + Cached on kernels older than 3.14, in bytes.
+     */
+    public long getAvailableBytes() {
+        return availableBytes;
+    }
+
+    public long getCachedBytes() {
+        return cachedBytes;
+    }
+
+    public long getSwapFreeBytes() {
+        return swapFreeBytes;
+    }
+
+    /**
+     * @return Share of the last 10s in which some task stalled on memory, in hundredths of a percent,
+     * or DEVICEINFO_UNKNOWN = -1 without PSI.
+     */
+    public int getPsiSomeAvg10() {
+        return psiSomeAvg10;
+    }
+
+    /**
+     * @return Share of the last 10s in which all tasks stalled on memory, in hundredths of a percent,
+     * or DEVICEINFO_UNKNOWN = -1 without PSI.
+     */
+    public int getPsiFullAvg10() {
+        return psiFullAvg10;
+    }
+
+    private void readMeminfo() {
+        if (meminfo == null) {
+            try {
+                meminfo = new RandomAccessFile(meminfoPath, "r");
+            } catch (IOException | SecurityException e) {
+                return;
+            }
+        }
+        if (meminfoParser.parse(meminfo, kB) == 0) return;
+        totalBytes = toBytes(kB[MEM_TOTAL]);
+        long available = kB[MEM_AVAILABLE];
+        if (available < 0 && kB[MEM_FREE] >= 0) {
+            available = kB[MEM_FREE] + Math.max(0, kB[CACHED]);
+        }
+        availableBytes = toBytes(available);
+        cachedBytes = toBytes(kB[CACHED]);
+        swapFreeBytes = toBytes(kB[SWAP_FREE]);
+    }
+
+    private void readPressure() {
+        if (pressureMissing) return;
+        if (pressure == null) {
+            try {
+                pressure = new RandomAccessFile(pressurePath, "r");
+            } catch (IOException | SecurityException e) {
+                pressureMissing = true;
+                return;
+            }
+        }
+        int length = ProcFileParser.readAll(pressure, psiBuffer);
+        if (length <= 0) return;
+        int line = 0;
+        while (line < length) {
+            if (ProcFileParser.startsWith(psiBuffer, line, length, "some ")) {
+                psiSomeAvg10 = parseAvg10(line, length);
+            } else if (ProcFileParser.startsWith(psiBuffer, line, length, "full ")) {
+                psiFullAvg10 = parseAvg10(line, length);
+            }
+            line = ProcFileParser.nextLine(psiBuffer, line, length);
+        }
+    }
+
+    /**
+     * Parses {@code avg10=12.34} on a PSI line into 1234.
+     */
+    private int parseAvg10(int from, int end) {
+        int i = from;
+        while (i < end && psiBuffer[i] != '\n') {
+            if (psiBuffer[i] == '=' && i >= 5 && ProcFileParser.startsWith(psiBuffer, i - 5, end, "avg10")) {
+                int value = 0;
+                int decimals = -1;
+                for (i++; i < end && decimals < 2; i++) {
+                    byte b = psiBuffer[i];
+                    if (b == '.') {
+                        decimals = 0;
+                    } else if (b >= '0' && b <= '9') {
+                        value = value * 10 + (b - '0');
+                        if (decimals >= 0) decimals++;
+                    } else {
+                        break;
+                    }
+                }
+                if (decimals < 0) decimals = 0;
+                while (decimals++ < 2) value *= 10;
+                return value;
+            }
+            i++;
+        }
+        return DeviceInfo.DEVICEINFO_UNKNOWN;
+    }
+
+    private static long toBytes(long kB) {
+        return kB < 0 ? DeviceInfo.DEVICEINFO_UNKNOWN : kB * 1024;
+    }
+}
@@ -0,0 +1,332 @@
+package deviceinfo;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+
+/**
+ * Keeps small sysfs and procfs nodes open for polling. A one-off read opens a stream, reads and
+ * closes it again; a {@link Handle} instead keeps its descriptor and re-reads it with a positional
+ * {@code FileChannel.read(buffer, 0)} into a direct buffer the pool shares, which for nodes like
+ * {@code scaling_cur_freq} or a thermal zone's {@code temp} read many times per second is one
+ * system call and no allocation.
+ * <p/>
+ * Open descriptors are capped: opening one more closes the least recently read handle, which opens
+ * again on its next read. A read that fails on an open descriptor, as happens to the cpufreq nodes of
+ * a core that was hotplugged, closes it and opens the path once more. A node that cannot be opened,
+ * or whose reads keep failing, is reported as missing and only tried again after
+ * {@link #setRetryMillis(long) retryMillis}, so a core coming back online is picked up without paying
+ * for an open on every sample.
+ * <p/>
+ * Handles are kept for the lifetime of the pool, one per path, and are shared by everything reading
+ * that path. A probe that only polls while it runs takes its handles with {@link #acquire(String)} and
+ * gives them back with {@link Handle#release()}, which closes the descriptor only once no other
+ * holder is left and nothing took the handle with {@link #get(String)}. All methods may be called
+ * from any thread; reads are serialized on the pool. Example usage:
+ * <p/>
+ * <pre>
+ *   NodePool.Handle cur = NodePool.shared().get("/sys/devices/system/cpu/cpufreq/policy0/scaling_cur_freq");
+ *   long kHz = cur.readLong();
+ * </pre>
+ */
+public final class NodePool {
+    private static final int BUFFER_SIZE = 4096;
+    private static NodePool sShared;
+
+    private final int maxOpen;
+    private final HashMap<String, Handle> handles = new HashMap<>();
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final byte[] scratch = new byte[32];
+    private long retryNanos = 1000000000L;
+    private int openCount;
+    private long reopenCount;
+    private long evictionCount;
+
+    // Open handles, most recently read first.
+    private Handle head;
+    private Handle tail;
+
+    /**
+     * One node in the pool.
+     */
+    public final class Handle {
+        private final String path;
+        private final int probe;
+        private FileChannel channel;
+        private boolean missing;
+        private long retryAtNanos;
+        // Holders from acquire, and whether get handed the handle out to a reader that never releases.
+        private int holders;
+        private boolean kept;
+        private Handle newer;
+        private Handle older;
+
+        private Handle(String path, int probe) {
+            this.path = path;
+            this.probe = probe;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        /**
+         * Reads the node from its first byte into the shared buffer and copies it out.
+         *
+         * @return Number of bytes copied, or -1 while the node is missing or unreadable.
+         */
+        public int read(byte[] out) {
+            synchronized (NodePool.this) {
+                int length = fill(this);
+                if (length <= 0) return -1;
+                length = Math.min(length, out.length);
+                buffer.get(out, 0, length);
+                return length;
+            }
+        }
+
+        /**
+         * @return The number at the start of the node, or DEVICEINFO_UNKNOWN = -1.
+         */
+        public long readLong() {
+            synchronized (NodePool.this) {
+                int length = fill(this);
+                if (length <= 0) return DeviceInfo.DEVICEINFO_UNKNOWN;
+                length = Math.min(length, scratch.length);
+                buffer.get(scratch, 0, length);
+                return ProcFileParser.parseLeadingLong(scratch, length);
+            }
+        }
+
+        /**
+         * @return true if the last attempt to open the node failed.
+         */
+        public boolean isMissing() {
+            synchronized (NodePool.this) {
+                return missing;
+            }
+        }
+
+        /**
+         * Releases the descriptor; the next read opens the node again. This affects every reader of
+         * the path, probes sharing the pool give their handles back with {@link #release()} instead.
+         */
+        public void close() {
+            synchronized (NodePool.this) {
+                NodePool.this.release(this);
+                missing = false;
+            }
+        }
+
+        /**
+         * Gives back a handle taken with {@link NodePool#acquire(String)}. The descriptor is closed
+         * when this was the last holder and no {@link NodePool#get(String)} caller reads the node.
+         */
+        public void release() {
+            synchronized (NodePool.this) {
+                if (holders == 0) throw new IllegalStateException("handle not acquired: " + path);
+                holders--;
+                if (holders == 0 && !kept) {
+                    NodePool.this.release(this);
+                    missing = false;
+                }
+            }
+        }
+    }
+
+    /**
+     * @param maxOpen - Most descriptors kept open at the same time.
+     */
+    public NodePool(int maxOpen) {
+        if (maxOpen < 1) throw new IllegalArgumentException("maxOpen must be positive");
+        this.maxOpen = maxOpen;
+    }
+
+    /**
+     * @return The pool the probes of this library share, capped at 64 descriptors.
+     */
+    public static synchronized NodePool shared() {
+        if (sShared == null) sShared = new NodePool(64);
+        return sShared;
+    }
+
+    /**
+     * @return The handle of the path, created on first use. Nothing is opened before the first read.
+     */
+    public Handle get(String path) {
+        return get(path, -1);
+    }
+
+    /**
+     * @param probe - Probe that failed opens are recorded under in {@link ProbeStats}.
+     */
+    synchronized Handle get(String path, int probe) {
+        Handle handle = handle(path, probe);
+        handle.kept = true;
+        return handle;
+    }
+
+    /**
+     * @return The handle of the path, to be given back with {@link Handle#release()} once the caller
+     * stops reading it.
+     */
+    public Handle acquire(String path) {
+        return acquire(path, -1);
+    }
+
+    /**
+     * @param probe - Probe that failed opens are recorded under in {@link ProbeStats}.
+     */
+    synchronized Handle acquire(String path, int probe) {
+        Handle handle = handle(path, probe);
+        handle.holders++;
+        return handle;
+    }
+
+    /**
+     * @param millis - Time after which a missing node is tried again, 1000 by default.
+     */
+    public synchronized void setRetryMillis(long millis) {
+        this.retryNanos = millis * 1000000L;
+    }
+
+    public int getMaxOpen() {
+        return maxOpen;
+    }
+
+    public synchronized int getOpenCount() {
+        return openCount;
+    }
+
+    /**
+     * @return Descriptors that failed a read and were opened again.
+     */
+    public synchronized long getReopenCount() {
+        return reopenCount;
+    }
+
+    /**
+     * @return Descriptors closed to stay within maxOpen.
+     */
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * Closes every descriptor. The handles stay valid and open again when read.
+     */
+    public synchronized void closeAll() {
+        while (head != null) {
+            release(head);
+        }
+    }
+
+    private Handle handle(String path, int probe) {
+        Handle handle = handles.get(path);
+        if (handle == null) {
+            handle = new Handle(path, probe);
+            handles.put(path, handle);
+        }
+        return handle;
+    }
+
+    /**
+     * Reads the node into the shared buffer, opening it if needed and once more if the open
+     * descriptor fails.
+     *
+     * @return Number of bytes in the buffer, flipped for reading, or -1.
+     */
+    private int fill(Handle handle) {
+        boolean reopened = false;
+        while (true) {
+            if (handle.channel == null && !open(handle)) return -1;
+            touch(handle);
+            buffer.clear();
+            try {
+                // Sysfs hands out the whole value in one read, procfs may need more.
+                int length;
+                do {
+                    length = handle.channel.read(buffer, buffer.position());
+                } while (length > 0 && buffer.hasRemaining());
+                buffer.flip();
+                return buffer.remaining();
+            } catch (IOException e) {
+                // ENODEV and the like after hotplug; the path may lead to a new node now.
+                release(handle);
+                if (reopened) {
+                    // Disabled nodes open fine and fail every read, treat them like missing ones.
+                    handle.missing = true;
+                    handle.retryAtNanos = System.nanoTime() + retryNanos;
+                    return -1;
+                }
+                reopened = true;
+                reopenCount++;
+            }
+        }
+    }
+
+    private boolean open(Handle handle) {
+        long now = System.nanoTime();
+        if (handle.missing && now - handle.retryAtNanos < 0) return false;
+        long start = ProbeStats.start();
+        try {
+            handle.channel = new FileInputStream(handle.path).getChannel();
+        } catch (IOException | SecurityException e) {
+            ProbeStats.failed(handle.probe, start, handle.path, e);
+            handle.missing = true;
+            handle.retryAtNanos = now + retryNanos;
+            return false;
+        }
+        ProbeStats.end(handle.probe, start, ProbeStats.OK);
+        handle.missing = false;
+        if (openCount == maxOpen) {
+            evictionCount++;
+            release(tail);
+        }
+        openCount++;
+        link(handle);
+        return true;
+    }
+
+    private void release(Handle handle) {
+        if (handle.channel == null) return;
+        try {
+            handle.channel.close();
+        } catch (IOException ignored) {
+        }
+        handle.channel = null;
+        unlink(handle);
+        openCount--;
+    }
+
+    private void touch(Handle handle) {
+        if (head == handle) return;
+        unlink(handle);
+        link(handle);
+    }
+
+    private void link(Handle handle) {
+        handle.older = head;
+        handle.newer = null;
+        if (head != null) head.newer = handle;
+        head = handle;
+        if (tail == null) tail = handle;
+    }
+
+    private void unlink(Handle handle) {
+        if (handle.newer != null) {
+            handle.newer.older = handle.older;
+        } else if (head == handle) {
+            head = handle.older;
+        }
+        if (handle.older != null) {
+            handle.older.newer = handle.newer;
+        } else if (tail == handle) {
+            tail = handle.newer;
+        }
+        handle.newer = null;
+        handle.older = null;
+    }
+}
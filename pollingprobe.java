@@ -0,0 +1,197 @@
+package deviceinfo;
+
+import android.os.Process;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Base of the live samplers. Every probe runs on one shared low-priority daemon thread, so any
+ * number of running probes costs a single thread, and each probe keeps count of what its own
+ * sampling costs.
+ * <p/>
+ * Subclasses implement {@link #sample(long)}, which is only ever called by one thread at a time,
+ * and open their files lazily so that a stopped probe can be started again.
+ * Example usage:
+ * <p/>
+ * <pre>
+ *   CpuUsageSampler sampler = new CpuUsageSampler(64);
+ *   sampler.start(500);
+ *   ...
+ *   sampler.pause(); // while the app is in the background
+ * </pre>
+ */
+public abstract class PollingProbe {
+    private static ScheduledExecutorService sScheduler;
+
+    private final Runnable tick = new Runnable() {
+        @Override
+        public void run() {
+            sampleNow();
+        }
+    };
+
+    private final Object sampleLock = new Object();
+    private ScheduledFuture<?> task;
+    private long intervalMillis;
+    private boolean started;
+    private boolean paused;
+
+    // Written by the sampling thread only, read from anywhere.
+    private volatile long sampleCount;
+    private volatile long totalCostNanos;
+    private volatile long maxCostNanos;
+    private volatile long lastCostNanos;
+    private volatile long lastSampleNanos;
+
+    static synchronized ScheduledExecutorService scheduler() {
+        if (sScheduler == null) {
+            ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable r) {
+                    Thread thread = new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                            r.run();
+                        }
+                    }, "deviceinfo-probe");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            executor.setRemoveOnCancelPolicy(true);
+            sScheduler = executor;
+        }
+        return sScheduler;
+    }
+
+    /**
+     * Takes a first sample right away and then one every intervalMillis. Calling it again changes
+     * the interval.
+     */
+    public synchronized void start(long intervalMillis) {
+        if (intervalMillis <= 0) throw new IllegalArgumentException("intervalMillis must be positive");
+        this.intervalMillis = intervalMillis;
+        started = true;
+        cancel();
+        if (!paused) schedule(0);
+    }
+
+    /**
+     * Stops sampling and releases the files the probe keeps open. The collected values stay readable.
+     */
+    public synchronized void stop() {
+        started = false;
+        cancel();
+        scheduler().execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (sampleLock) {
+                    if (!isStarted()) onStop();
+                }
+            }
+        });
+    }
+
+    /**
+     * Suspends sampling without losing the interval, for example while the app is in the background.
+     * A paused probe does not wake the sampling thread at all.
+     */
+    public synchronized void pause() {
+        paused = true;
+        cancel();
+    }
+
+    public synchronized void resume() {
+        if (!paused) return;
+        paused = false;
+        if (started) schedule(0);
+    }
+
+    private synchronized boolean isStarted() {
+        return started;
+    }
+
+    public synchronized boolean isRunning() {
+        return started && !paused;
+    }
+
+    public synchronized long getIntervalMillis() {
+        return intervalMillis;
+    }
+
+    /**
+     * Takes one sample on the calling thread, whether the probe is started or not.
+     */
+    public final void sampleNow() {
+        synchronized (sampleLock) {
+            long start = System.nanoTime();
+            try {
+                sample(start);
+            } catch (RuntimeException e) {
+                //A failing sample must not cancel the schedule, the next one may succeed.
+            }
+            long cost = System.nanoTime() - start;
+            lastCostNanos = cost;
+            totalCostNanos += cost;
+            if (cost > maxCostNanos) maxCostNanos = cost;
+            lastSampleNanos = start;
+            sampleCount++;
+        }
+    }
+
+    /**
+     * Reads the probe's sources once and records the result.
+     *
+     * @param nowNanos - {@link System#nanoTime()} at the start of the sample.
+     */
+    protected abstract void sample(long nowNanos);
+
+    /**
+     * Called on the sampling thread after {@link #stop()}, to close files kept open between samples.
+     */
+    protected void onStop() {
+    }
+
+    public long getSampleCount() {
+        return sampleCount;
+    }
+
+    /**
+     * @return Time spent in the last {@link #sample(long)} call, in nanoseconds.
+     */
+    public long getLastCostNanos() {
+        return lastCostNanos;
+    }
+
+    public long getMaxCostNanos() {
+        return maxCostNanos;
+    }
+
+    public long getAverageCostNanos() {
+        long count = sampleCount;
+        return count == 0 ? 0 : totalCostNanos / count;
+    }
+
+    /**
+     * @return {@link System#nanoTime()} of the last sample, or 0 before the first one.
+     */
+    public long getLastSampleNanos() {
+        return lastSampleNanos;
+    }
+
+    private void schedule(long delayMillis) {
+        task = scheduler().scheduleWithFixedDelay(tick, delayMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void cancel() {
+        if (task != null) {
+            task.cancel(false);
+            task = null;
+        }
+    }
+}
@@ -0,0 +1,280 @@
+package deviceinfo;
+
+import java.io.FileNotFoundException;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Timing and outcome counters of the sysfs, procfs and Android API reads behind the snapshot, to find
+ * out why a device classified badly or why startup was slow. The reads otherwise turn every failure
+ * into DEVICEINFO_UNKNOWN without a trace.
+ * <p/>
+ * Per probe it counts calls by outcome, keeps a latency histogram with power of two buckets, the
+ * slowest call, the last failure and the last fallback path taken. Off by default; while off a probe
+ * pays one volatile read. Example usage:
+ * <p/>
+ * <pre>
+ *   ProbeStats.setEnabled(true);
+ *   DeviceInfo.getYear(context);
+ *   Log.i(TAG, ProbeStats.getReport());
+ * </pre>
+ */
+public final class ProbeStats {
+    /**
+     * The {@code possible}, {@code present} and {@code online} CPU sets.
+     */
+    public static final int CPU_SET = 0;
+    /**
+     * Listing {@code /sys/devices/system/cpu} for cpuN directories.
+     */
+    public static final int CORE_SCAN = 1;
+    /**
+     * Each {@code cpufreq} node and directory listing.
+     */
+    public static final int CPUFREQ = 2;
+    public static final int CPU_CAPACITY = 3;
+    /**
+     * {@code /proc/cpuinfo}, for the "cpu MHz" fallback and the CPU features, and the
+     * {@code midr_el1} nodes of cores it does not list.
+     */
+    public static final int CPUINFO = 4;
+    public static final int MEMINFO = 5;
+    /**
+     * {@code ActivityManager.getMemoryInfo}.
+     */
+    public static final int MEMORY_INFO = 6;
+    public static final int STATFS = 7;
+    /**
+     * The hardware capabilities in {@code /proc/self/auxv}.
+     */
+    public static final int AUXV = 8;
+    /**
+     * The {@code cpuN/cache/indexM} directories and nodes.
+     */
+    public static final int CACHE = 9;
+    /**
+     * The {@code thermal_zone*} nodes of {@link ThermalMonitor}.
+     */
+    public static final int THERMAL = 10;
+    public static final int PROBES = 11;
+
+    public static final int OK = 0;
+    /**
+     * Counted when a probe's primary source was unusable and another one was tried.
+     */
+    public static final int FALLBACK = 1;
+    public static final int MISSING = 2;
+    /**
+     * SecurityException or EACCES, usually SELinux on newer releases and OEM ROMs.
+     */
+    public static final int DENIED = 3;
+    public static final int FAILED = 4;
+    public static final int OUTCOMES = 5;
+
+    private static final String[] PROBE_NAMES = {
+            "cpu_set", "core_scan", "cpufreq", "cpu_capacity", "cpuinfo", "meminfo", "memory_info", "statfs", "auxv", "cache",
+            "thermal"
+    };
+    private static final String[] OUTCOME_NAMES = {"ok", "fallback", "missing", "denied", "failed"};
+
+    /**
+     * Bucket 0 holds calls under 4us, bucket n calls from 2^(n+1) to 2^(n+2) microseconds and the last
+     * one everything above.
+     */
+    private static final int BUCKETS = 16;
+
+    private static volatile boolean sEnabled;
+    private static final AtomicLongArray sCounts = new AtomicLongArray(PROBES * OUTCOMES);
+    private static final AtomicLongArray sHistogram = new AtomicLongArray(PROBES * BUCKETS);
+    private static final AtomicLongArray sTotalNanos = new AtomicLongArray(PROBES);
+    private static final AtomicLongArray sMaxNanos = new AtomicLongArray(PROBES);
+    private static final AtomicReferenceArray<String> sLastFailure = new AtomicReferenceArray<>(PROBES);
+    private static final AtomicReferenceArray<String> sLastFallback = new AtomicReferenceArray<>(PROBES);
+
+    private ProbeStats() {
+    }
+
+    public static void setEnabled(boolean enabled) {
+        sEnabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    /**
+     * Clears all counters, for example after the cold start was looked at.
+     */
+    public static void reset() {
+        for (int i = 0; i < sCounts.length(); i++) sCounts.set(i, 0);
+        for (int i = 0; i < sHistogram.length(); i++) sHistogram.set(i, 0);
+        for (int i = 0; i < PROBES; i++) {
+            sTotalNanos.set(i, 0);
+            sMaxNanos.set(i, 0);
+            sLastFailure.set(i, null);
+            sLastFallback.set(i, null);
+        }
+    }
+
+    /**
+     * @return The start time to pass to {@link #end}, or 0 while disabled.
+     */
+    static long start() {
+        return sEnabled ? System.nanoTime() : 0;
+    }
+
+    static void end(int probe, long startNanos, int outcome) {
+        if (startNanos == 0 || probe < 0) return;
+        long nanos = System.nanoTime() - startNanos;
+        sCounts.incrementAndGet(probe * OUTCOMES + outcome);
+        sHistogram.incrementAndGet(probe * BUCKETS + bucketOf(nanos / 1000));
+        sTotalNanos.addAndGet(probe, nanos);
+        long max;
+        do {
+            max = sMaxNanos.get(probe);
+        } while (nanos > max && !sMaxNanos.compareAndSet(probe, max, nanos));
+    }
+
+    /**
+     * Ends a call that threw, with the outcome the exception stands for.
+     *
+     * @param what - The path or API that failed.
+     */
+    static void failed(int probe, long startNanos, String what, Exception e) {
+        if (startNanos == 0 || probe < 0) return;
+        int outcome = outcomeOf(e);
+        end(probe, startNanos, outcome);
+        // File exceptions already name the path.
+        String message = e.getMessage();
+        String detail = message != null && message.startsWith(what) ? message : what + ": " + e;
+        sLastFailure.set(probe, OUTCOME_NAMES[outcome] + " " + detail);
+    }
+
+    /**
+     * Ends a call that found nothing without throwing, such as a node that is empty or lacks the key.
+     */
+    static void missing(int probe, long startNanos, String what) {
+        if (startNanos == 0 || probe < 0) return;
+        end(probe, startNanos, MISSING);
+        sLastFailure.set(probe, OUTCOME_NAMES[MISSING] + " " + what);
+    }
+
+    /**
+     * @param path - The way taken instead, such as "cpuinfo_max_freq -> /proc/cpuinfo".
+     */
+    static void fallback(int probe, String path) {
+        if (!sEnabled) return;
+        sCounts.incrementAndGet(probe * OUTCOMES + FALLBACK);
+        sLastFallback.set(probe, path);
+    }
+
+    /**
+     * Android reports SELinux denials as FileNotFoundException with EACCES in the message.
+     */
+    static int outcomeOf(Exception e) {
+        if (e instanceof SecurityException) return DENIED;
+        if (e instanceof FileNotFoundException) {
+            String message = e.getMessage();
+            if (message != null && (message.contains("EACCES") || message.contains("Permission denied"))) {
+                return DENIED;
+            }
+            return MISSING;
+        }
+        return FAILED;
+    }
+
+    private static int bucketOf(long micros) {
+        if (micros < 4) return 0;
+        return Math.min(BUCKETS - 1, 62 - Long.numberOfLeadingZeros(micros));
+    }
+
+    public static String getProbeName(int probe) {
+        return PROBE_NAMES[probe];
+    }
+
+    public static String getOutcomeName(int outcome) {
+        return OUTCOME_NAMES[outcome];
+    }
+
+    public static long getCount(int probe, int outcome) {
+        return sCounts.get(probe * OUTCOMES + outcome);
+    }
+
+    /**
+     * @return Timed calls of the probe; fallbacks are not calls of their own.
+     */
+    public static long getCallCount(int probe) {
+        long calls = 0;
+        for (int outcome = 0; outcome < OUTCOMES; outcome++) {
+            if (outcome != FALLBACK) calls += getCount(probe, outcome);
+        }
+        return calls;
+    }
+
+    public static long getTotalMicros(int probe) {
+        return sTotalNanos.get(probe) / 1000;
+    }
+
+    public static long getMaxMicros(int probe) {
+        return sMaxNanos.get(probe) / 1000;
+    }
+
+    /**
+     * @param percent - e.g. 50 or 99.
+     * @return Upper bound of the histogram bucket holding the percentile, in microseconds, the
+     * slowest call for the last bucket, or DEVICEINFO_UNKNOWN = -1 without calls.
+     */
+    public static long getPercentileMicros(int probe, int percent) {
+        long calls = 0;
+        for (int b = 0; b < BUCKETS; b++) calls += sHistogram.get(probe * BUCKETS + b);
+        if (calls == 0) return DeviceInfo.DEVICEINFO_UNKNOWN;
+        long rank = Math.max(1, (calls * percent + 99) / 100);
+        long seen = 0;
+        for (int b = 0; b < BUCKETS - 1; b++) {
+            seen += sHistogram.get(probe * BUCKETS + b);
+            if (seen >= rank) return 1L << (b + 2);
+        }
+        return getMaxMicros(probe);
+    }
+
+    /**
+     * @return The outcome, the path and the exception of the last call that did not succeed, or null.
+     */
+    public static String getLastFailure(int probe) {
+        return sLastFailure.get(probe);
+    }
+
+    public static String getLastFallback(int probe) {
+        return sLastFallback.get(probe);
+    }
+
+    /**
+     * One line per probe that was called, for example
+     * {@code cpufreq n=24 ok=20 missing=4 p50<16us p99<128us max=311us total=602us}, followed by the
+     * last fallback and failure when there were any.
+     */
+    public static String getReport() {
+        StringBuilder sb = new StringBuilder();
+        for (int probe = 0; probe < PROBES; probe++) {
+            long calls = getCallCount(probe);
+            if (calls == 0 && getCount(probe, FALLBACK) == 0) continue;
+            sb.append(PROBE_NAMES[probe]).append(" n=").append(calls);
+            for (int outcome = 0; outcome < OUTCOMES; outcome++) {
+                long count = getCount(probe, outcome);
+                if (count > 0) sb.append(' ').append(OUTCOME_NAMES[outcome]).append('=').append(count);
+            }
+            if (calls > 0) {
+                sb.append(String.format(Locale.US, " p50<%dus p99<%dus max=%dus total=%dus",
+                        getPercentileMicros(probe, 50), getPercentileMicros(probe, 99), getMaxMicros(probe),
+                        getTotalMicros(probe)));
+            }
+            String fallback = sLastFallback.get(probe);
+            if (fallback != null) sb.append(" via ").append(fallback);
+            String failure = sLastFailure.get(probe);
+            if (failure != null) sb.append(" last ").append(failure);
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+}
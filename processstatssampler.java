@@ -0,0 +1,290 @@
+package deviceinfo;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Resource use of this process from {@code /proc/self/status} (VmRSS, VmHWM, Threads and the
+ * context switch counters) and {@code /proc/self/stat} (page faults and CPU time), to put next to the
+ * device class when looking at slow sessions. Both files are kept open and parsed into preallocated
+ * arrays; counters are turned into per-second rates between samples.
+ * <p/>
+ * The values of the last sample are indexed by the metric constants and published like a seqlock so
+ * that any thread can read them without a lock. Exporters receive them as a {@code long[]} on the
+ * probe thread after every sample, which is where values can be pushed to a metrics backend.
+ * Example usage:
+ * <p/>
+ * <pre>
+ *   ProcessStatsSampler sampler = new ProcessStatsSampler();
+ *   sampler.addExporter(new ProcessStatsSampler.Exporter() {
+ *       public void export(long nowNanos, long[] values, ProcessStatsSampler s) {
+ *           for (int i = 0; i &lt; ProcessStatsSampler.METRIC_COUNT; i++) {
+ *               backend.gauge(ProcessStatsSampler.getMetricName(i), values[i]);
+ *           }
+ *       }
+ *   });
+ *   sampler.start(5000);
+ * </pre>
+ * The {@code /proc/self/status} counters are used for context switches rather than
+ * {@code /proc/self/sched}, which needs CONFIG_SCHED_DEBUG and is not readable on user builds.
+ */
+public final class ProcessStatsSampler extends PollingProbe {
+    private static final String SELF_STATUS = "/proc/self/status";
+    private static final String SELF_STAT = "/proc/self/stat";
+
+    /**
+     * USER_HZ, the unit of utime and stime, which is 100 on every Android kernel.
+     */
+    private static final long CLOCK_TICKS_PER_SECOND = 100;
+
+    public static final int RSS_BYTES = 0;
+    public static final int PEAK_RSS_BYTES = 1;
+    public static final int THREADS = 2;
+    public static final int MINOR_FAULTS_PER_SEC = 3;
+    public static final int MAJOR_FAULTS_PER_SEC = 4;
+    public static final int VOLUNTARY_SWITCHES_PER_SEC = 5;
+    public static final int INVOLUNTARY_SWITCHES_PER_SEC = 6;
+    /**
+     * CPU time per wall time in permille of one core, so above 1000 when several threads run.
+     */
+    public static final int CPU_PERMILLE = 7;
+    public static final int MINOR_FAULTS = 8;
+    public static final int MAJOR_FAULTS = 9;
+    public static final int CPU_MILLIS = 10;
+    public static final int METRIC_COUNT = 11;
+
+    private static final String[] METRIC_NAMES = {
+            "rss_bytes", "peak_rss_bytes", "threads", "minor_faults_per_sec", "major_faults_per_sec",
+            "voluntary_switches_per_sec", "involuntary_switches_per_sec", "cpu_permille",
+            "minor_faults", "major_faults", "cpu_millis"
+    };
+
+    // Keys of /proc/self/status.
+    private static final int VM_RSS = 0;
+    private static final int VM_HWM = 1;
+    private static final int STATUS_THREADS = 2;
+    private static final int VOLUNTARY = 3;
+    private static final int INVOLUNTARY = 4;
+
+    // Field positions in /proc/self/stat after the ")" closing the command name, counted from 0.
+    private static final int SELF_MINFLT = 7;
+    private static final int SELF_MAJFLT = 9;
+    private static final int SELF_UTIME = 11;
+    private static final int SELF_STIME = 12;
+
+    // Counters kept between samples.
+    private static final int COUNTERS = 5;
+    private static final int C_MINFLT = 0;
+    private static final int C_MAJFLT = 1;
+    private static final int C_VOLUNTARY = 2;
+    private static final int C_INVOLUNTARY = 3;
+    private static final int C_CPU_TICKS = 4;
+
+    public interface Exporter {
+        /**
+         * Called on the probe thread after every sample.
+         *
+         * @param values - The published values by metric index, DEVICEINFO_UNKNOWN = -1 where unknown.
+         *               Read it during the call only and do not modify it.
+         */
+        void export(long nowNanos, long[] values, ProcessStatsSampler sampler);
+    }
+
+    private final String statusPath;
+    private final String statPath;
+    private final CopyOnWriteArrayList<Exporter> exporters = new CopyOnWriteArrayList<>();
+
+    // Sampling state, only touched by the sampling thread.
+    private final ProcFileParser statusParser = new ProcFileParser("VmRSS", "VmHWM", "Threads",
+            "voluntary_ctxt_switches", "nonvoluntary_ctxt_switches");
+    private final long[] status = new long[5];
+    private final byte[] buffer = new byte[1024];
+    private final long[] statFields = new long[SELF_STIME + 1];
+    private final long[] current = new long[COUNTERS];
+    private final long[] last = new long[COUNTERS];
+    private RandomAccessFile statusFile;
+    private RandomAccessFile statFile;
+    private final long[] values = new long[METRIC_COUNT];
+    private long lastNanos;
+    private boolean lastHaveStatus;
+    private boolean lastHaveStat;
+
+    // Published copy of values, guarded by sequence. An atomic array orders its reads and writes with
+    // those of sequence, which a plain one would not.
+    private final AtomicLongArray published = new AtomicLongArray(METRIC_COUNT);
+    private volatile long sequence;
+
+    public ProcessStatsSampler() {
+        this(SysRoot.get());
+    }
+
+    public ProcessStatsSampler(SysRoot root) {
+        this.statusPath = root.path(SELF_STATUS);
+        this.statPath = root.path(SELF_STAT);
+        Arrays.fill(values, DeviceInfo.DEVICEINFO_UNKNOWN);
+        for (int i = 0; i < METRIC_COUNT; i++) published.set(i, DeviceInfo.DEVICEINFO_UNKNOWN);
+    }
+
+    /**
+     * @return Name of a metric in snake case, for example {@code rss_bytes}.
+     */
+    public static String getMetricName(int metric) {
+        return METRIC_NAMES[metric];
+    }
+
+    public void addExporter(Exporter exporter) {
+        exporters.addIfAbsent(exporter);
+    }
+
+    public void removeExporter(Exporter exporter) {
+        exporters.remove(exporter);
+    }
+
+    @Override
+    protected void sample(long nowNanos) {
+        boolean haveStatus = readStatus();
+        boolean haveStat = readStat();
+        long elapsedNanos = nowNanos - lastNanos;
+        boolean first = lastNanos == 0;
+        lastNanos = nowNanos;
+        // Rates need the counters of the previous sample too.
+        boolean statusRates = haveStatus && lastHaveStatus && !first && elapsedNanos > 0;
+        boolean statRates = haveStat && lastHaveStat && !first && elapsedNanos > 0;
+        lastHaveStatus = haveStatus;
+        lastHaveStat = haveStat;
+
+        values[RSS_BYTES] = haveStatus ? toBytes(status[VM_RSS]) : DeviceInfo.DEVICEINFO_UNKNOWN;
+        values[PEAK_RSS_BYTES] = haveStatus ? toBytes(status[VM_HWM]) : DeviceInfo.DEVICEINFO_UNKNOWN;
+        values[THREADS] = haveStatus ? status[STATUS_THREADS] : DeviceInfo.DEVICEINFO_UNKNOWN;
+        values[VOLUNTARY_SWITCHES_PER_SEC] = rate(statusRates, C_VOLUNTARY, elapsedNanos);
+        values[INVOLUNTARY_SWITCHES_PER_SEC] = rate(statusRates, C_INVOLUNTARY, elapsedNanos);
+        values[MINOR_FAULTS_PER_SEC] = rate(statRates, C_MINFLT, elapsedNanos);
+        values[MAJOR_FAULTS_PER_SEC] = rate(statRates, C_MAJFLT, elapsedNanos);
+        values[CPU_PERMILLE] = statRates ? Math.max(0, current[C_CPU_TICKS] - last[C_CPU_TICKS])
+                * 1000 * 1000000000L / CLOCK_TICKS_PER_SECOND / elapsedNanos : DeviceInfo.DEVICEINFO_UNKNOWN;
+        values[MINOR_FAULTS] = haveStat ? current[C_MINFLT] : DeviceInfo.DEVICEINFO_UNKNOWN;
+        values[MAJOR_FAULTS] = haveStat ? current[C_MAJFLT] : DeviceInfo.DEVICEINFO_UNKNOWN;
+        values[CPU_MILLIS] = haveStat ? current[C_CPU_TICKS] * 1000 / CLOCK_TICKS_PER_SECOND
+                : DeviceInfo.DEVICEINFO_UNKNOWN;
+        System.arraycopy(current, 0, last, 0, COUNTERS);
+
+        sequence = sequence + 1;
+        for (int i = 0; i < METRIC_COUNT; i++) published.set(i, values[i]);
+        sequence = sequence + 1;
+
+        for (Exporter exporter : exporters) {
+            exporter.export(nowNanos, values, this);
+        }
+    }
+
+    @Override
+    protected void onStop() {
+        statusFile = ProcFileParser.close(statusFile);
+        statFile = ProcFileParser.close(statFile);
+        lastNanos = 0;
+        lastHaveStatus = false;
+        lastHaveStat = false;
+    }
+
+    /**
+     * @return A counter that grows with every published sample. A reader can compare it between calls
+     * to see whether new values arrived.
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * @param metric - One of the metric constants, such as {@link #RSS_BYTES}.
+     * @return The value of the last sample, or DEVICEINFO_UNKNOWN = -1.
+     */
+    public long get(int metric) {
+        while (true) {
+            long seq = sequence;
+            // Odd while the sampling thread writes.
+            if ((seq & 1) != 0) continue;
+            long value = published.get(metric);
+            if (sequence == seq) return value;
+        }
+    }
+
+    /**
+     * Copies all values of the last sample, consistent with each other, into a caller-owned array of
+     * at least METRIC_COUNT entries.
+     */
+    public void copyValues(long[] out) {
+        while (true) {
+            long seq = sequence;
+            if ((seq & 1) != 0) continue;
+            for (int i = 0; i < METRIC_COUNT; i++) out[i] = published.get(i);
+            if (sequence == seq) return;
+        }
+    }
+
+    public long getRssBytes() {
+        return get(RSS_BYTES);
+    }
+
+    public long getPeakRssBytes() {
+        return get(PEAK_RSS_BYTES);
+    }
+
+    public long getThreadCount() {
+        return get(THREADS);
+    }
+
+    public long getMajorFaultsPerSec() {
+        return get(MAJOR_FAULTS_PER_SEC);
+    }
+
+    public long getCpuPermille() {
+        return get(CPU_PERMILLE);
+    }
+
+    private long rate(boolean known, int counter, long elapsedNanos) {
+        if (!known) return DeviceInfo.DEVICEINFO_UNKNOWN;
+        return Math.max(0, current[counter] - last[counter]) * 1000000000L / elapsedNanos;
+    }
+
+    private boolean readStatus() {
+        if (statusFile == null) {
+            try {
+                statusFile = new RandomAccessFile(statusPath, "r");
+            } catch (IOException | SecurityException e) {
+                return false;
+            }
+        }
+        if (statusParser.parse(statusFile, status) == 0) return false;
+        current[C_VOLUNTARY] = status[VOLUNTARY];
+        current[C_INVOLUNTARY] = status[INVOLUNTARY];
+        return true;
+    }
+
+    private boolean readStat() {
+        if (statFile == null) {
+            try {
+                statFile = new RandomAccessFile(statPath, "r");
+            } catch (IOException | SecurityException e) {
+                return false;
+            }
+        }
+        int length = ProcFileParser.readAll(statFile, buffer);
+        if (length <= 0) return false;
+        // The command name may contain spaces and parentheses, so fields start after the last ")".
+        int start = length - 1;
+        while (start >= 0 && buffer[start] != ')') start--;
+        if (start < 0) return false;
+        if (ProcFileParser.parseFields(buffer, start + 1, length, statFields) <= SELF_STIME) return false;
+        current[C_MINFLT] = statFields[SELF_MINFLT];
+        current[C_MAJFLT] = statFields[SELF_MAJFLT];
+        current[C_CPU_TICKS] = statFields[SELF_UTIME] + statFields[SELF_STIME];
+        return true;
+    }
+
+    private static long toBytes(long kB) {
+        return kB < 0 ? DeviceInfo.DEVICEINFO_UNKNOWN : kB * 1024;
+    }
+}
@@ -0,0 +1,396 @@
+package deviceinfo;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+
+/**
+ * Streaming parser for the "Key: value" files under {@code /proc}, such as {@code /proc/meminfo}
+ * and {@code /proc/cpuinfo}. The whole file is read through one reused buffer until EOF, several
+ * keys are matched in the same pass and digits are accumulated straight into a {@code long}, so a
+ * parse does not allocate once the parser exists.
+ * <p/>
+ * Keys are matched at the start of a line and must be followed by ':', a space or a tab; the
+ * first occurrence of each key wins. Instances are not thread safe, keep one per polling thread.
+ * Example usage:
+ * <p/>
+ * <pre>
+ *   ProcFileParser parser = new ProcFileParser("MemTotal", "MemAvailable", "Cached", "SwapFree");
+ *   long[] kB = new long[4];
+ *   parser.parse("/proc/meminfo", kB);
+ * </pre>
+ */
+public final class ProcFileParser {
+    private static final int DEFAULT_BUFFER_SIZE = 1024;
+
+    private static final int STATE_KEY = 0;
+    private static final int STATE_SEEK_VALUE = 1;
+    private static final int STATE_IN_VALUE = 2;
+    private static final int STATE_SKIP_LINE = 3;
+
+    private final byte[][] keys;
+    private final byte[] buffer;
+    private final long allKeys;
+
+    // Parse state, kept in fields so that a line may span two buffer fills.
+    private long pending;
+    private long alive;
+    private int column;
+    private int state;
+    private int matched;
+    private long value;
+    private int found;
+
+    /**
+     * @param keys - Keys to look for, at most 64. Values are reported in the same order.
+     */
+    public ProcFileParser(String... keys) {
+        this(DEFAULT_BUFFER_SIZE, keys);
+    }
+
+    public ProcFileParser(int bufferSize, String... keys) {
+        if (keys.length > 64) throw new IllegalArgumentException("At most 64 keys, got " + keys.length);
+        this.keys = new byte[keys.length][];
+        for (int i = 0; i < keys.length; i++) {
+            String key = keys[i];
+            byte[] bytes = new byte[key.length()];
+            for (int j = 0; j < bytes.length; j++) {
+                bytes[j] = (byte) key.charAt(j);
+            }
+            this.keys[i] = bytes;
+        }
+        this.buffer = new byte[bufferSize];
+        this.allKeys = keys.length == 64 ? -1L : (1L << keys.length) - 1;
+    }
+
+    /**
+     * @return Number of keys this parser matches, the minimum length of the values array.
+     */
+    public int getKeyCount() {
+        return keys.length;
+    }
+
+    /**
+     * Opens, parses and closes a file.
+     *
+     * @param path   - File to read, such as {@code /proc/meminfo}.
+     * @param values - Receives the number following each key, DEVICEINFO_UNKNOWN = -1 if absent.
+     * @return Number of keys found, 0 when the file could not be read.
+     */
+    public int parse(String path, long[] values) {
+        return parse(path, values, -1);
+    }
+
+    /**
+     * Same as {@link #parse(String, long[])}, recorded in {@link ProbeStats} under the probe.
+     */
+    int parse(String path, long[] values, int probe) {
+        long start = ProbeStats.start();
+        FileInputStream stream;
+        try {
+            stream = new FileInputStream(path);
+        } catch (IOException | SecurityException e) {
+            ProbeStats.failed(probe, start, path, e);
+            reset(values);
+            return 0;
+        }
+        try {
+            int found = parse(stream, values);
+            if (found == 0) {
+                ProbeStats.missing(probe, start, path);
+            } else {
+                ProbeStats.end(probe, start, ProbeStats.OK);
+            }
+            return found;
+        } finally {
+            try {
+                stream.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Parses the remainder of a stream. The stream is not closed.
+     */
+    public int parse(InputStream stream, long[] values) {
+        reset(values);
+        try {
+            int length;
+            while (pending != 0 && (length = stream.read(buffer)) > 0) {
+                feed(length, values);
+            }
+        } catch (IOException e) {
+            //Keep whatever was matched before the failure.
+        }
+        return finish(values);
+    }
+
+    /**
+     * Re-reads a file that is kept open from its first byte. Procfs regenerates the content on every
+     * read from offset 0, so this is the allocation-free way to poll the same file repeatedly.
+     */
+    public int parse(RandomAccessFile file, long[] values) {
+        reset(values);
+        try {
+            file.seek(0);
+            int length;
+            while (pending != 0 && (length = file.read(buffer, 0, buffer.length)) > 0) {
+                feed(length, values);
+            }
+        } catch (IOException e) {
+            //Keep whatever was matched before the failure.
+        }
+        return finish(values);
+    }
+
+    private void reset(long[] values) {
+        for (int i = 0; i < keys.length; i++) {
+            values[i] = DeviceInfo.DEVICEINFO_UNKNOWN;
+        }
+        pending = allKeys;
+        alive = allKeys;
+        column = 0;
+        state = STATE_KEY;
+        found = 0;
+    }
+
+    private int finish(long[] values) {
+        if (state == STATE_IN_VALUE) {
+            store(values);
+        }
+        return found;
+    }
+
+    private void store(long[] values) {
+        values[matched] = value;
+        pending &= ~(1L << matched);
+        found++;
+    }
+
+    private void feed(int length, long[] values) {
+        for (int i = 0; i < length; i++) {
+            byte b = buffer[i];
+            switch (state) {
+                case STATE_KEY:
+                    if (b == '\n') {
+                        alive = pending;
+                        column = 0;
+                        break;
+                    }
+                    matchKeys(b);
+                    break;
+                case STATE_SEEK_VALUE:
+                    if (b >= '0' && b <= '9') {
+                        value = b - '0';
+                        state = STATE_IN_VALUE;
+                    } else if (b == '\n') {
+                        startLine();
+                    }
+                    break;
+                case STATE_IN_VALUE:
+                    if (b >= '0' && b <= '9') {
+                        if (value < Long.MAX_VALUE / 10) value = value * 10 + (b - '0');
+                    } else {
+                        store(values);
+                        if (pending == 0) {
+                            state = STATE_SKIP_LINE;
+                            return;
+                        }
+                        if (b == '\n') {
+                            startLine();
+                        } else {
+                            state = STATE_SKIP_LINE;
+                        }
+                    }
+                    break;
+                default:
+                    if (b == '\n') startLine();
+                    break;
+            }
+        }
+    }
+
+    private void startLine() {
+        alive = pending;
+        column = 0;
+        state = STATE_KEY;
+    }
+
+    private void matchKeys(byte b) {
+        long remaining = alive;
+        while (remaining != 0) {
+            int k = Long.numberOfTrailingZeros(remaining);
+            remaining &= remaining - 1;
+            byte[] key = keys[k];
+            if (column < key.length) {
+                if (key[column] != b) alive &= ~(1L << k);
+            } else {
+                alive &= ~(1L << k);
+                if (column == key.length && (b == ':' || b == ' ' || b == '\t')) {
+                    matched = k;
+                    state = STATE_SEEK_VALUE;
+                    return;
+                }
+            }
+        }
+        column++;
+        if (alive == 0) state = STATE_SKIP_LINE;
+    }
+
+    /**
+     * Parses the number at the start of a buffer, as found in single-value sysfs nodes like
+     * {@code cpuinfo_max_freq}.
+     *
+     * @return The leading decimal number, or DEVICEINFO_UNKNOWN = -1 if the buffer starts otherwise.
+     */
+    static long parseLeadingLong(byte[] buffer, int length) {
+        long value = 0;
+        int i = 0;
+        while (i < length && buffer[i] >= '0' && buffer[i] <= '9') {
+            if (value < Long.MAX_VALUE / 10) value = value * 10 + (buffer[i] - '0');
+            i++;
+        }
+        return i == 0 ? DeviceInfo.DEVICEINFO_UNKNOWN : value;
+    }
+
+    /**
+     * Reads a small node in one call, without the {@code exists()} round trip.
+     *
+     * @return Number of bytes read into the buffer, or -1 when the node is missing or unreadable.
+     */
+    static int readNode(String path, byte[] buffer) {
+        return readNode(path, buffer, -1);
+    }
+
+    /**
+     * Same as {@link #readNode(String, byte[])}, recorded in {@link ProbeStats} under the probe.
+     */
+    static int readNode(String path, byte[] buffer, int probe) {
+        long start = ProbeStats.start();
+        FileInputStream stream;
+        try {
+            stream = new FileInputStream(path);
+        } catch (IOException | SecurityException e) {
+            ProbeStats.failed(probe, start, path, e);
+            return -1;
+        }
+        try {
+            int length = stream.read(buffer);
+            if (length <= 0) {
+                ProbeStats.missing(probe, start, path);
+            } else {
+                ProbeStats.end(probe, start, ProbeStats.OK);
+            }
+            return length;
+        } catch (IOException e) {
+            ProbeStats.failed(probe, start, path, e);
+            return -1;
+        } finally {
+            try {
+                stream.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * @return The number at the start of a single-value node, or DEVICEINFO_UNKNOWN = -1.
+     */
+    static long readLong(String path, byte[] buffer) {
+        return readLong(path, buffer, -1);
+    }
+
+    static long readLong(String path, byte[] buffer, int probe) {
+        int length = readNode(path, buffer, probe);
+        return length <= 0 ? DeviceInfo.DEVICEINFO_UNKNOWN : parseLeadingLong(buffer, length);
+    }
+
+    /**
+     * Re-reads a file kept open from offset 0 until the buffer is full or EOF.
+     *
+     * @return Number of bytes read, or -1 on an I/O error.
+     */
+    static int readAll(RandomAccessFile file, byte[] buffer) {
+        try {
+            file.seek(0);
+            int total = 0;
+            int length;
+            while (total < buffer.length && (length = file.read(buffer, total, buffer.length - total)) > 0) {
+                total += length;
+            }
+            return total;
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Parses whitespace separated decimal fields, in the same byte-by-byte way as the key parser. A
+     * token that is not a number is stored as DEVICEINFO_UNKNOWN = -1 so that field positions hold.
+     *
+     * @param from   - Index of the first byte to look at.
+     * @param end    - Index after the last byte; parsing also stops at a newline.
+     * @param fields - Receives at most fields.length values.
+     * @return Number of fields stored.
+     */
+    static int parseFields(byte[] buffer, int from, int end, long[] fields) {
+        int count = 0;
+        int i = from;
+        while (i < end && count < fields.length) {
+            byte b = buffer[i];
+            if (b == '\n') break;
+            if (b == ' ' || b == '\t') {
+                i++;
+                continue;
+            }
+            long value = 0;
+            boolean numeric = true;
+            while (i < end && buffer[i] > ' ') {
+                byte c = buffer[i++];
+                if (c >= '0' && c <= '9') {
+                    if (value < Long.MAX_VALUE / 10) value = value * 10 + (c - '0');
+                } else {
+                    numeric = false;
+                }
+            }
+            fields[count++] = numeric ? value : DeviceInfo.DEVICEINFO_UNKNOWN;
+        }
+        return count;
+    }
+
+    /**
+     * @return Index of the byte after the next newline, or end if there is none.
+     */
+    static int nextLine(byte[] buffer, int from, int end) {
+        while (from < end && buffer[from] != '\n') from++;
+        return from < end ? from + 1 : end;
+    }
+
+    /**
+     * @return true if the bytes at the given offset spell the prefix.
+     */
+    static boolean startsWith(byte[] buffer, int from, int end, String prefix) {
+        if (end - from < prefix.length()) return false;
+        for (int i = 0; i < prefix.length(); i++) {
+            if (buffer[from + i] != prefix.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Closes a file kept open between samples, ignoring errors.
+     *
+     * @return null, to clear the field holding the file.
+     */
+    static RandomAccessFile close(RandomAccessFile file) {
+        if (file != null) {
+            try {
+                file.close();
+            } catch (IOException ignored) {
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,252 @@
+package deviceinfo;
+
+import android.content.Context;
+
+import org.askquickly.utils.DiskUtils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Measures the storage the app writes to, which decides disk cache and database settings far more
+ * than the clock speed does. Within a bounded time and file size it runs, on a scratch file:
+ * <ul>
+ *   <li>a sequential write through a {@link FileChannel} with a large direct buffer, flushed with
+ *   {@code fsync} after every chunk, each chunk sized to what the speed so far flushes in half the
+ *   time left,</li>
+ *   <li>4K writes each followed by {@code fsync}, the latency a database commit waits for.</li>
+ * </ul>
+ * The file is deleted afterwards, also when a step fails. There is no read step: apps cannot drop
+ * the page cache, so reading back the file just written would mostly measure RAM. Writes and fsyncs
+ * always hit the device.
+ * <p/>
+ * Every step stops at its share of the budget and none starts once the budget is spent, so a run
+ * overshoots by at most the flush of one chunk or one fsync. {@link #run()} blocks for up to the
+ * budget; call it on a background thread of its own, not on one that probes share.
+ */
+public final class StorageProbe {
+    private static final int BLOCK = 4096;
+    private static final int BUFFER_BYTES = 1024 * 1024;
+    private static final int FIRST_CHUNK_BYTES = 256 * 1024;
+    private static final int MAX_FSYNCS = 32;
+
+    // Shares of the budget, in percent.
+    private static final int WRITE_SHARE = 70;
+    private static final int FSYNC_SHARE = 30;
+
+    /**
+     * Coarse class of the storage.
+     */
+    public enum Tier {
+        /**
+         * SD cards and eMMC 4.x, below 30MB/s or above 20ms per fsync.
+         */
+        SLOW,
+        /**
+         * eMMC 5.x.
+         */
+        EMMC,
+        /**
+         * UFS 2.x and 3.0.
+         */
+        UFS,
+        /**
+         * UFS 3.1 and later, 700MB/s and more.
+         */
+        FAST_UFS
+    }
+
+    /**
+     * Results of one run. Values that could not be measured are DEVICEINFO_UNKNOWN = -1.
+     */
+    public static final class Result {
+        final long writeMBps;
+        final long fsyncMicros;
+        final long fileBytes;
+
+        Result(long writeMBps, long fsyncMicros, long fileBytes) {
+            this.writeMBps = writeMBps;
+            this.fsyncMicros = fsyncMicros;
+            this.fileBytes = fileBytes;
+        }
+
+        /**
+         * @return Sequential write speed including the fsync of every chunk, in MB/s.
+         */
+        public long getWriteMBps() {
+            return writeMBps;
+        }
+
+        /**
+         * @return Median time of a 4K write plus fsync, in microseconds, or DEVICEINFO_UNKNOWN = -1
+         * when the budget was spent before the first one.
+         */
+        public long getFsyncMicros() {
+            return fsyncMicros;
+        }
+
+        /**
+         * @return Bytes actually written by the sequential step.
+         */
+        public long getFileBytes() {
+            return fileBytes;
+        }
+
+        public Tier getTier() {
+            if (writeMBps < 0) return null;
+            if (writeMBps < 30 || fsyncMicros > 20000) return Tier.SLOW;
+            if (writeMBps < 150) return Tier.EMMC;
+            if (writeMBps < 700) return Tier.UFS;
+            return Tier.FAST_UFS;
+        }
+
+        void writeTo(DataOutput out) throws IOException {
+            out.writeLong(writeMBps);
+            out.writeLong(fsyncMicros);
+            out.writeLong(fileBytes);
+        }
+
+        static Result readFrom(DataInput in) throws IOException {
+            return new Result(in.readLong(), in.readLong(), in.readLong());
+        }
+
+        @Override
+        public String toString() {
+            return getTier() + " write=" + writeMBps + "MB/s fsync=" + fsyncMicros + "us over "
+                    + fileBytes / (1024 * 1024) + "MB";
+        }
+    }
+
+    private final File dir;
+    private long fileBytes = 32 * 1024 * 1024;
+    private long budgetMillis = 500;
+
+    /**
+     * @param dir - Directory of the scratch file, on the volume to measure.
+     */
+    public StorageProbe(File dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * Measures the app's internal storage, in the scratch directory {@link DiskUtils} picks.
+     */
+    public static StorageProbe forInternalStorage(Context c) {
+        return new StorageProbe(DiskUtils.getScratchDir(c, false));
+    }
+
+    /**
+     * @param bytes - Size of the scratch file, 32MB by default. The write step stops early when its
+     *              share of the budget is used up.
+     */
+    public StorageProbe setFileBytes(long bytes) {
+        if (bytes < BLOCK) throw new IllegalArgumentException("file must be at least " + BLOCK + " bytes");
+        this.fileBytes = bytes;
+        return this;
+    }
+
+    /**
+     * @param millis - Time the whole run may take, 500ms by default.
+     */
+    public StorageProbe setBudgetMillis(long millis) {
+        if (millis <= 0) throw new IllegalArgumentException("budget must be positive");
+        this.budgetMillis = millis;
+        return this;
+    }
+
+    /**
+     * Runs all steps and deletes the scratch file.
+     *
+     * @throws IOException if the scratch file cannot be created or written.
+     */
+    public Result run() throws IOException {
+        long budgetNanos = budgetMillis * 1000000L;
+        File file = File.createTempFile("deviceinfo-storage", ".tmp", dir);
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "rw");
+            FileChannel channel = raf.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+            // Not compressible and not all zeros, so no layer can shortcut the writes.
+            long seed = 0x9e3779b97f4a7c15L;
+            while (buffer.remaining() >= 8) {
+                seed ^= seed << 13;
+                seed ^= seed >>> 7;
+                seed ^= seed << 17;
+                buffer.putLong(seed);
+            }
+
+            long start = System.nanoTime();
+            long deadline = start + budgetNanos;
+            long writeEnd = start + budgetNanos * WRITE_SHARE / 100;
+            long written = 0;
+            long chunk = FIRST_CHUNK_BYTES;
+            long now = start;
+            // The page cache takes the writes at memory speed and fsync pays for them, so force after
+            // every chunk rather than once after the file, which could take far longer than the slice.
+            while (written < fileBytes && now < writeEnd) {
+                long chunkEnd = Math.min(fileBytes, written + chunk);
+                while (written < chunkEnd) {
+                    buffer.clear();
+                    buffer.limit((int) Math.min(BUFFER_BYTES, chunkEnd - written));
+                    while (buffer.hasRemaining()) {
+                        written += channel.write(buffer, written);
+                    }
+                }
+                channel.force(false);
+                now = System.nanoTime();
+                double bytesPerNano = (double) written / Math.max(1, now - start);
+                chunk = Math.max(BLOCK, (long) (bytesPerNano * (writeEnd - now) / 2) / BLOCK * BLOCK);
+            }
+            long writeMBps = throughput(written, now - start);
+
+            long fsync = fsyncLatency(channel, buffer, written, sliceEnd(FSYNC_SHARE, budgetNanos, deadline));
+            return new Result(writeMBps, fsync, written);
+        } finally {
+            ProcFileParser.close(raf);
+            if (!file.delete()) file.deleteOnExit();
+        }
+    }
+
+    /**
+     * @return When a step with the share of the budget that starts now has to stop, at the latest
+     * at the deadline of the run.
+     */
+    private static long sliceEnd(int share, long budgetNanos, long deadline) {
+        long end = System.nanoTime() + budgetNanos * share / 100;
+        return end - deadline > 0 ? deadline : end;
+    }
+
+    /**
+     * @return The median of up to MAX_FSYNCS 4K writes each followed by fsync, in microseconds, or
+     * DEVICEINFO_UNKNOWN = -1 if there was no time left for one.
+     */
+    private static long fsyncLatency(FileChannel channel, ByteBuffer buffer, long length, long end)
+            throws IOException {
+        long[] samples = new long[MAX_FSYNCS];
+        int count = 0;
+        long blocks = Math.max(1, length / BLOCK);
+        while (count < MAX_FSYNCS && System.nanoTime() < end) {
+            long start = System.nanoTime();
+            buffer.clear();
+            buffer.limit(BLOCK);
+            channel.write(buffer, (count % blocks) * BLOCK);
+            channel.force(false);
+            samples[count++] = System.nanoTime() - start;
+        }
+        if (count == 0) return DeviceInfo.DEVICEINFO_UNKNOWN;
+        Arrays.sort(samples, 0, count);
+        return samples[count / 2] / 1000;
+    }
+
+    private static long throughput(long bytes, long nanos) {
+        if (bytes <= 0 || nanos <= 0) return DeviceInfo.DEVICEINFO_UNKNOWN;
+        return bytes * 1000000000L / nanos / (1024 * 1024);
+    }
+}
@@ -0,0 +1,445 @@
+package org.askquickly.utils;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.os.Build;
+import android.os.Environment;
+import android.os.StatFs;
+import android.os.SystemClock;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Sizes of every storage volume the app can write to, with one statfs call per volume and 64-bit
+ * byte values. Volumes are the system, data and shared storage roots, the app's own directories and
+ * the real file systems listed in {@code /proc/mounts}, each with the block device and file system
+ * type of the mount it lives on.
+ * <p/>
+ * Example usage, before a large download:
+ * <pre>
+ *   StorageSnapshot.Volume target = StorageSnapshot.get(context, 5000).find(downloadDir);
+ *   if (target == null || target.getAvailableBytes() < size) ...
+ * </pre>
+ */
+public final class StorageSnapshot {
+  public static final String KIND_SYSTEM = "system";
+  public static final String KIND_INTERNAL = "internal";
+  public static final String KIND_EXTERNAL = "external";
+  public static final String KIND_APP = "app";
+  public static final String KIND_MOUNT = "mount";
+
+  static final String PROC_MOUNTS = "/proc/mounts";
+
+  // File systems that hold files, everything else in /proc/mounts is a pseudo file system.
+  private static final Set<String> DATA_FILE_SYSTEMS = new HashSet<>(Arrays.asList(
+      "ext2", "ext3", "ext4", "f2fs", "erofs", "squashfs", "vfat", "exfat", "ntfs", "fuseblk",
+      "sdcardfs", "fuse", "esdfs", "yaffs2", "btrfs", "xfs"));
+
+  private static volatile StorageSnapshot sCached;
+
+  /**
+   * One mounted directory and its sizes at capture time.
+   */
+  public static final class Volume {
+    private final String path;
+    private final String kind;
+    private final String mountPoint;
+    private final String device;
+    private final String fsType;
+    private final String blockDevice;
+    private final boolean readOnly;
+    private final long blockSize;
+    private final long totalBytes;
+    private final long freeBytes;
+    private final long availableBytes;
+
+    Volume(String path, String kind, Mount mount, String blockDevice, StatFs statFs)
+    {
+      this.path = path;
+      this.kind = kind;
+      this.mountPoint = mount == null ? null : mount.mountPoint;
+      this.device = mount == null ? null : mount.device;
+      this.fsType = mount == null ? null : mount.fsType;
+      this.blockDevice = blockDevice;
+      this.readOnly = mount != null && mount.readOnly;
+      if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+        blockSize = statFs.getBlockSizeLong();
+        totalBytes = statFs.getBlockCountLong() * blockSize;
+        freeBytes = statFs.getFreeBlocksLong() * blockSize;
+        availableBytes = statFs.getAvailableBlocksLong() * blockSize;
+      } else {
+        blockSize = statFs.getBlockSize();
+        totalBytes = (long) statFs.getBlockCount() * blockSize;
+        freeBytes = (long) statFs.getFreeBlocks() * blockSize;
+        availableBytes = (long) statFs.getAvailableBlocks() * blockSize;
+      }
+    }
+
+    public String getPath()
+    {
+      return path;
+    }
+
+    /**
+     * @return One of the KIND_ constants.
+     */
+    public String getKind()
+    {
+      return kind;
+    }
+
+    /**
+     * @return The mount point the volume lives on, or null if {@code /proc/mounts} was unreadable.
+     */
+    public String getMountPoint()
+    {
+      return mountPoint;
+    }
+
+    /**
+     * @return The mounted device, such as {@code /dev/block/dm-5}, or null.
+     */
+    public String getDevice()
+    {
+      return device;
+    }
+
+    /**
+     * @return The file system type, such as {@code f2fs}, or null.
+     */
+    public String getFsType()
+    {
+      return fsType;
+    }
+
+    /**
+     * @return The block device holding the data, such as {@code /dev/block/dm-5}. For the emulated
+     * shared storage, a FUSE or sdcardfs view of {@code /data/media}, it is the device of
+     * {@code /data}. Null if unknown.
+     */
+    public String getBlockDevice()
+    {
+      return blockDevice;
+    }
+
+    public boolean isReadOnly()
+    {
+      return readOnly;
+    }
+
+    public long getBlockSize()
+    {
+      return blockSize;
+    }
+
+    public long getTotalBytes()
+    {
+      return totalBytes;
+    }
+
+    /**
+     * @return Free bytes including the blocks reserved for root.
+     */
+    public long getFreeBytes()
+    {
+      return freeBytes;
+    }
+
+    /**
+     * @return Bytes the app can still write.
+     */
+    public long getAvailableBytes()
+    {
+      return availableBytes;
+    }
+
+    public long getUsedBytes()
+    {
+      return totalBytes - freeBytes;
+    }
+
+    @Override
+    public String toString()
+    {
+      return kind + " " + path + " (" + device + " " + fsType + (readOnly ? " ro" : "") + ") "
+          + availableBytes / DiskUtils.MEGA_BYTE + "/" + totalBytes / DiskUtils.MEGA_BYTE + " MB";
+    }
+  }
+
+  /**
+   * One line of {@code /proc/mounts}.
+   */
+  static final class Mount {
+    final String device;
+    final String mountPoint;
+    final String fsType;
+    final boolean readOnly;
+
+    Mount(String device, String mountPoint, String fsType, boolean readOnly)
+    {
+      this.device = device;
+      this.mountPoint = mountPoint;
+      this.fsType = fsType;
+      this.readOnly = readOnly;
+    }
+  }
+
+  private final List<Volume> volumes;
+  private final long capturedAtMillis;
+
+  private StorageSnapshot(List<Volume> volumes, long capturedAtMillis)
+  {
+    this.volumes = Collections.unmodifiableList(volumes);
+    this.capturedAtMillis = capturedAtMillis;
+  }
+
+  /**
+   * Returns the last snapshot while it is younger than maxAgeMillis, otherwise captures a new one.
+   * Free space changes all the time, so pick the bound by how much a stale value may be off.
+   */
+  public static StorageSnapshot get(Context c, long maxAgeMillis)
+  {
+    StorageSnapshot snapshot = sCached;
+    if (snapshot == null || snapshot.getAgeMillis() > maxAgeMillis) {
+      snapshot = capture(c);
+      sCached = snapshot;
+    }
+    return snapshot;
+  }
+
+  /**
+   * Drops the cached snapshot, e.g. after writing or deleting a large file.
+   */
+  public static void invalidate()
+  {
+    sCached = null;
+  }
+
+  public static StorageSnapshot capture(Context c)
+  {
+    return capture(c, PROC_MOUNTS);
+  }
+
+  /**
+   * @param mountsPath - The mount table to read, {@code /proc/mounts} on a device.
+   */
+  public static StorageSnapshot capture(Context c, String mountsPath)
+  {
+    List<Mount> mounts = readMounts(mountsPath);
+    List<Volume> volumes = new ArrayList<>();
+    Set<String> seen = new HashSet<>();
+
+    add(volumes, seen, mounts, Environment.getRootDirectory(), KIND_SYSTEM);
+    add(volumes, seen, mounts, Environment.getDataDirectory(), KIND_INTERNAL);
+    if (Environment.MEDIA_MOUNTED.equals(Environment.getExternalStorageState())) {
+      add(volumes, seen, mounts, Environment.getExternalStorageDirectory(), KIND_EXTERNAL);
+    }
+    if (c != null) {
+      add(volumes, seen, mounts, c.getFilesDir(), KIND_APP);
+      add(volumes, seen, mounts, c.getCacheDir(), KIND_APP);
+      for (File dir : getExternalFilesDirs(c)) {
+        // Secondary entries are removable cards.
+        add(volumes, seen, mounts, dir, KIND_APP);
+      }
+    }
+    for (Mount mount : mounts) {
+      if (DATA_FILE_SYSTEMS.contains(mount.fsType)) {
+        add(volumes, seen, mounts, new File(mount.mountPoint), KIND_MOUNT);
+      }
+    }
+    return new StorageSnapshot(volumes, SystemClock.elapsedRealtime());
+  }
+
+  public List<Volume> getVolumes()
+  {
+    return volumes;
+  }
+
+  public long getAgeMillis()
+  {
+    return SystemClock.elapsedRealtime() - capturedAtMillis;
+  }
+
+  /**
+   * @return The data partition, or null if statfs failed on it.
+   */
+  public Volume getInternal()
+  {
+    return first(KIND_INTERNAL);
+  }
+
+  /**
+   * @return The shared storage, or null while it is not mounted.
+   */
+  public Volume getExternal()
+  {
+    return first(KIND_EXTERNAL);
+  }
+
+  /**
+   * @return The volume a file or directory is stored on: the one with the longest path that
+   * contains it, or null.
+   */
+  public Volume find(File file)
+  {
+    String path = canonical(file);
+    Volume best = null;
+    for (Volume volume : volumes) {
+      if (contains(volume.path, path) && (best == null || volume.path.length() > best.path.length())) {
+        best = volume;
+      }
+    }
+    return best;
+  }
+
+  private Volume first(String kind)
+  {
+    for (Volume volume : volumes) {
+      if (volume.kind.equals(kind)) return volume;
+    }
+    return null;
+  }
+
+  private static void add(List<Volume> volumes, Set<String> seen, List<Mount> mounts, File dir, String kind)
+  {
+    if (dir == null) return;
+    String path = canonical(dir);
+    if (!seen.add(path)) return;
+    StatFs statFs;
+    try {
+      statFs = new StatFs(path);
+    } catch (IllegalArgumentException e) {
+      //StatFs throws on a path that is missing or not readable.
+      return;
+    }
+    volumes.add(volumeOf(path, kind, mounts, statFs));
+  }
+
+  /**
+   * Sizes of the volume a directory is on from a single statfs call, without reading the mount
+   * table, for callers that poll the free space of one volume.
+   *
+   * @param kind - One of the KIND_ constants.
+   * @throws IllegalArgumentException if statfs fails on the directory, like {@link StatFs} does.
+   */
+  public static Volume volumeOf(File dir, String kind)
+  {
+    String path = dir.getAbsolutePath();
+    return new Volume(path, kind, null, null, new StatFs(path));
+  }
+
+  /**
+   * Builds the volume of one directory, with its mount if the mount table is given.
+   */
+  static Volume volumeOf(String path, String kind, List<Mount> mounts, StatFs statFs)
+  {
+    Mount mount = mountOf(mounts, path);
+    return new Volume(path, kind, mount, blockDeviceOf(mounts, mount), statFs);
+  }
+
+  private static String blockDeviceOf(List<Mount> mounts, Mount mount)
+  {
+    if (mount == null) return null;
+    if (mount.device.startsWith("/dev/")) return mount.device;
+    if (mount.fsType.equals("fuse") || mount.fsType.equals("sdcardfs") || mount.fsType.equals("esdfs")) {
+      Mount data = mountOf(mounts, "/data");
+      if (data != null && data.device.startsWith("/dev/")) return data.device;
+    }
+    return null;
+  }
+
+  /**
+   * @return The mount with the longest mount point containing path, later lines winning because
+   * they are mounted over the earlier ones.
+   */
+  static Mount mountOf(List<Mount> mounts, String path)
+  {
+    Mount best = null;
+    for (Mount mount : mounts) {
+      if (contains(mount.mountPoint, path) && (best == null || mount.mountPoint.length() >= best.mountPoint.length())) {
+        best = mount;
+      }
+    }
+    return best;
+  }
+
+  static List<Mount> readMounts(String mountsPath)
+  {
+    List<Mount> mounts = new ArrayList<>();
+    BufferedReader reader = null;
+    try {
+      reader = new BufferedReader(new FileReader(mountsPath), 8192);
+      String line;
+      while ((line = reader.readLine()) != null) {
+        String[] fields = line.split(" ");
+        if (fields.length < 4) continue;
+        boolean readOnly = fields[3].equals("ro") || fields[3].startsWith("ro,");
+        mounts.add(new Mount(fields[0], unescape(fields[1]), fields[2], readOnly));
+      }
+    } catch (IOException | SecurityException e) {
+      //Without the mount table the volumes just have no device and file system type.
+    } finally {
+      if (reader != null) {
+        try {
+          reader.close();
+        } catch (IOException ignored) {
+        }
+      }
+    }
+    return mounts;
+  }
+
+  @TargetApi(Build.VERSION_CODES.KITKAT)
+  private static File[] getExternalFilesDirs(Context c)
+  {
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+      File[] dirs = c.getExternalFilesDirs(null);
+      return dirs == null ? new File[0] : dirs;
+    }
+    File dir = c.getExternalFilesDir(null);
+    return dir == null ? new File[0] : new File[]{dir};
+  }
+
+  private static boolean contains(String parent, String path)
+  {
+    if (parent.equals("/")) return path.startsWith("/");
+    return path.equals(parent) || (path.startsWith(parent) && path.charAt(parent.length()) == '/');
+  }
+
+  private static String canonical(File file)
+  {
+    try {
+      return file.getCanonicalPath();
+    } catch (IOException e) {
+      return file.getAbsolutePath();
+    }
+  }
+
+  /**
+   * The kernel writes spaces and tabs in mount points as octal escapes, e.g. {@code \040}.
+   */
+  private static String unescape(String field)
+  {
+    if (field.indexOf('\\') < 0) return field;
+    StringBuilder result = new StringBuilder(field.length());
+    for (int i = 0; i < field.length(); i++) {
+      char ch = field.charAt(i);
+      if (ch == '\\' && i + 3 < field.length()) {
+        result.append((char) Integer.parseInt(field.substring(i + 1, i + 4), 8));
+        i += 3;
+      } else {
+        result.append(ch);
+      }
+    }
+    return result.toString();
+  }
+}
@@ -0,0 +1,56 @@
+package deviceinfo;
+
+/**
+ * Root directory the probes resolve {@code /sys} and {@code /proc} paths against. On a device it is
+ * the real root; benchmarks and off-device runs point it at a captured copy of the nodes, for
+ * example {@code fixtures/sdm845}, so that {@code /proc/meminfo} is read from
+ * {@code fixtures/sdm845/proc/meminfo}.
+ */
+public final class SysRoot {
+    /**
+     * The device's own filesystem.
+     */
+    public static final SysRoot DEVICE = new SysRoot("");
+
+    private static volatile SysRoot sDefault = DEVICE;
+
+    private final String prefix;
+
+    /**
+     * @param dir - Directory holding the {@code sys} and {@code proc} trees, without trailing slash.
+     */
+    public SysRoot(String dir) {
+        this.prefix = dir.endsWith("/") ? dir.substring(0, dir.length() - 1) : dir;
+    }
+
+    /**
+     * @return The root used by probes that are not given one explicitly.
+     */
+    public static SysRoot get() {
+        return sDefault;
+    }
+
+    /**
+     * Changes the root for probes created or read from now on. Memoized values are not re-read.
+     */
+    public static void set(SysRoot root) {
+        sDefault = root == null ? DEVICE : root;
+    }
+
+    /**
+     * @param absolute - A device path such as {@code /proc/meminfo}.
+     * @return The same path below this root, or the path itself for {@link #DEVICE}.
+     */
+    public String path(String absolute) {
+        return prefix.length() == 0 ? absolute : prefix + absolute;
+    }
+
+    public boolean isDevice() {
+        return prefix.length() == 0;
+    }
+
+    @Override
+    public String toString() {
+        return isDevice() ? "/" : prefix;
+    }
+}
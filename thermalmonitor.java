@@ -0,0 +1,288 @@
+package deviceinfo;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Detects thermal throttling at runtime. The year class is computed once from the specs, but a hot
+ * "2017/HIGH" phone whose big cores are capped at half their clock performs like a much older one.
+ * Each sample reads:
+ * <ul>
+ *   <li>{@code /sys/class/thermal/thermal_zone*}{@code /temp} of the CPU zones (all zones if none is
+ *   recognizable as a CPU one), keeping the hottest,</li>
+ *   <li>{@code scaling_max_freq} and {@code scaling_cur_freq} of every cpufreq policy.</li>
+ * </ul>
+ * From the cap of the big cluster and the temperature it derives a {@link Level} and an effective
+ * year: the year class minus the years the capped clock is worth in {@link YearClassRules}. Listeners
+ * are told when either changes.
+ * <p/>
+ * The nodes are kept open in a pool of the monitor's own from the first sample until it stops, so
+ * sampling is a few positional reads without allocation and stopping does not close the nodes of
+ * other probes. Nodes that are missing or denied by SELinux are only retried now and then; without
+ * any readable cap the level only comes from the temperature, and without both it stays NONE.
+ */
+public final class ThermalMonitor extends PollingProbe {
+    private static final String THERMAL_DIR = "/sys/class/thermal/";
+
+    public enum Level {
+        NONE, LIGHT, MODERATE, SEVERE
+    }
+
+    public interface Listener {
+        /**
+         * Called on the probe thread when the level or the effective year changes.
+         */
+        void onThermalChange(Level level, int effectiveYear, ThermalMonitor monitor);
+    }
+
+    private final SysRoot root;
+    private final CpuTopology.Cluster[] clusters;
+    private final int bigCluster;
+    private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    // Sampling state, only touched by the sampling thread.
+    private final NodePool.Handle[] capNodes;
+    private final NodePool.Handle[] curNodes;
+    private NodePool pool;
+    private NodePool.Handle[] zoneNodes;
+
+    private volatile int lightTempMilliC = 60000;
+    private volatile int moderateTempMilliC = 75000;
+    private volatile int severeTempMilliC = 90000;
+    private volatile int baseYear = DeviceInfo.DEVICEINFO_UNKNOWN;
+
+    private final int[] capKHz;
+    private final int[] curKHz;
+    private volatile int maxTempMilliC = DeviceInfo.DEVICEINFO_UNKNOWN;
+    private volatile int capPermille = DeviceInfo.DEVICEINFO_UNKNOWN;
+    private volatile Level level = Level.NONE;
+    private volatile int effectiveYear = DeviceInfo.DEVICEINFO_UNKNOWN;
+
+    public ThermalMonitor() {
+        this(SysRoot.get());
+    }
+
+    public ThermalMonitor(SysRoot root) {
+        this.root = root;
+        CpuTopology topology = root.isDevice() ? DeviceInfo.getCpuTopology() : CpuTopology.read(root);
+        this.clusters = topology.getClusters();
+        int big = -1;
+        CpuTopology.Cluster bigOne = topology.getBigCluster();
+        for (int i = 0; i < clusters.length; i++) {
+            if (clusters[i] == bigOne) big = i;
+        }
+        this.bigCluster = big;
+        this.capNodes = new NodePool.Handle[clusters.length];
+        this.curNodes = new NodePool.Handle[clusters.length];
+        this.capKHz = new int[clusters.length];
+        this.curKHz = new int[clusters.length];
+        Arrays.fill(capKHz, DeviceInfo.DEVICEINFO_UNKNOWN);
+        Arrays.fill(curKHz, DeviceInfo.DEVICEINFO_UNKNOWN);
+    }
+
+    /**
+     * @param year - Year class to derive the effective year from. By default it is the one
+     *             DeviceInfo has computed, and the effective year is unknown until it has.
+     */
+    public void setBaseYear(int year) {
+        this.baseYear = year;
+    }
+
+    /**
+     * Temperatures of the hottest CPU zone, in millidegrees Celsius, from which the level is at
+     * least LIGHT, MODERATE and SEVERE.
+     */
+    public void setTemperatureThresholds(int lightMilliC, int moderateMilliC, int severeMilliC) {
+        if (lightMilliC > moderateMilliC || moderateMilliC > severeMilliC) {
+            throw new IllegalArgumentException("thresholds must ascend");
+        }
+        this.lightTempMilliC = lightMilliC;
+        this.moderateTempMilliC = moderateMilliC;
+        this.severeTempMilliC = severeMilliC;
+    }
+
+    public void addListener(Listener listener) {
+        listeners.addIfAbsent(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    @Override
+    protected void sample(long nowNanos) {
+        if (pool == null) openNodes();
+        int hottest = DeviceInfo.DEVICEINFO_UNKNOWN;
+        for (NodePool.Handle zone : zoneNodes) {
+            // Below zero does not parse, and does not matter here. Disabled zones fail every read
+            // and are only retried after the pool's retry interval.
+            long value = zone.readLong();
+            // Old kernels report whole degrees.
+            if (value > 0 && value <= 200) value *= 1000;
+            if (value > hottest) hottest = (int) value;
+        }
+        maxTempMilliC = hottest;
+
+        for (int i = 0; i < clusters.length; i++) {
+            capKHz[i] = (int) capNodes[i].readLong();
+            curKHz[i] = (int) curNodes[i].readLong();
+        }
+
+        int cap = DeviceInfo.DEVICEINFO_UNKNOWN;
+        if (bigCluster >= 0 && capKHz[bigCluster] > 0 && clusters[bigCluster].getMaxFreqKHz() > 0) {
+            cap = (int) Math.min(1000, capKHz[bigCluster] * 1000L / clusters[bigCluster].getMaxFreqKHz());
+        }
+        capPermille = cap;
+
+        Level byTemp = Level.NONE;
+        if (hottest >= severeTempMilliC) {
+            byTemp = Level.SEVERE;
+        } else if (hottest >= moderateTempMilliC) {
+            byTemp = Level.MODERATE;
+        } else if (hottest >= lightTempMilliC) {
+            byTemp = Level.LIGHT;
+        }
+        Level byCap = Level.NONE;
+        if (cap >= 0) {
+            if (cap < 600) {
+                byCap = Level.SEVERE;
+            } else if (cap < 800) {
+                byCap = Level.MODERATE;
+            } else if (cap < 950) {
+                byCap = Level.LIGHT;
+            }
+        }
+        Level measured = byTemp.ordinal() > byCap.ordinal() ? byTemp : byCap;
+
+        int year = computeEffectiveYear(byTemp);
+        if (measured == level && year == effectiveYear) return;
+        level = measured;
+        effectiveYear = year;
+        for (Listener listener : listeners) {
+            listener.onThermalChange(measured, year, this);
+        }
+    }
+
+    @Override
+    protected void onStop() {
+        // The handles stay valid and open their nodes again on the next sample.
+        if (pool != null) pool.closeAll();
+    }
+
+    public Level getLevel() {
+        return level;
+    }
+
+    /**
+     * @return The year class while throttled: the base year minus what the capped clock of the big
+     * cluster costs, and at least one year at MODERATE and two at SEVERE temperatures. Equals the
+     * year class when not throttled, DEVICEINFO_UNKNOWN = -1 before that is known.
+     */
+    public int getEffectiveYear() {
+        return effectiveYear;
+    }
+
+    /**
+     * @return LOW, MEDIUM or HIGH for the effective year, or an empty string if unknown.
+     */
+    public String getEffectiveClassCategory() {
+        int year = effectiveYear;
+        return year == DeviceInfo.DEVICEINFO_UNKNOWN ? "" : DeviceInfo.categorizeByClass(year);
+    }
+
+    /**
+     * @return Temperature of the hottest CPU zone in millidegrees Celsius, or DEVICEINFO_UNKNOWN.
+     */
+    public int getMaxTemperatureMilliC() {
+        return maxTempMilliC;
+    }
+
+    /**
+     * @return {@code scaling_max_freq} of the big cluster in permille of its {@code cpuinfo_max_freq},
+     * or DEVICEINFO_UNKNOWN if unreadable.
+     */
+    public int getCapPermille() {
+        return capPermille;
+    }
+
+    public int getClusterCount() {
+        return clusters.length;
+    }
+
+    /**
+     * @param cluster - Index into {@link CpuTopology#getClusters()}.
+     * @return The current frequency cap of the cluster, or DEVICEINFO_UNKNOWN.
+     */
+    public int getCapKHz(int cluster) {
+        return capKHz[cluster];
+    }
+
+    public int getCurFreqKHz(int cluster) {
+        return curKHz[cluster];
+    }
+
+    private int computeEffectiveYear(Level byTemp) {
+        int base = baseYear;
+        if (base == DeviceInfo.DEVICEINFO_UNKNOWN) base = DeviceInfo.getYearIfReady();
+        if (base == DeviceInfo.DEVICEINFO_UNKNOWN) return DeviceInfo.DEVICEINFO_UNKNOWN;
+
+        int lost = 0;
+        if (bigCluster >= 0 && capKHz[bigCluster] > 0) {
+            YearClassRules rules = DeviceInfo.getRules();
+            int full = rules.yearOf(YearClassRules.CLOCK_KHZ, clusters[bigCluster].getMaxFreqKHz());
+            int capped = rules.yearOf(YearClassRules.CLOCK_KHZ, capKHz[bigCluster]);
+            if (full > 0 && capped > 0) lost = Math.max(0, full - capped);
+        }
+        if (byTemp == Level.SEVERE) {
+            lost = Math.max(lost, 2);
+        } else if (byTemp == Level.MODERATE) {
+            lost = Math.max(lost, 1);
+        }
+        return base - lost;
+    }
+
+    /**
+     * Creates the pool, sized to hold every node open, and the handles of the zones and clusters.
+     */
+    private void openNodes() {
+        List<String> zones = findZones();
+        pool = new NodePool(Math.max(1, clusters.length * 2 + zones.size()));
+        zoneNodes = new NodePool.Handle[zones.size()];
+        for (int i = 0; i < zoneNodes.length; i++) {
+            zoneNodes[i] = pool.get(zones.get(i), ProbeStats.THERMAL);
+        }
+        for (int i = 0; i < clusters.length; i++) {
+            capNodes[i] = pool.get(clusters[i].cpufreqNode("scaling_max_freq"), ProbeStats.CPUFREQ);
+            curNodes[i] = pool.get(clusters[i].cpufreqNode("scaling_cur_freq"), ProbeStats.CPUFREQ);
+        }
+    }
+
+    /**
+     * @return The temperature nodes of the CPU zones, recognized by their {@code type}, or of every
+     * zone if there is no such zone.
+     */
+    private List<String> findZones() {
+        String[] names = new File(root.path(THERMAL_DIR)).list();
+        if (names == null) return new ArrayList<>();
+        Arrays.sort(names);
+        List<String> cpuZones = new ArrayList<>();
+        List<String> otherZones = new ArrayList<>();
+        byte[] typeBuffer = new byte[64];
+        for (String name : names) {
+            if (!name.startsWith("thermal_zone")) continue;
+            String dir = root.path(THERMAL_DIR) + name + "/";
+            int length = ProcFileParser.readNode(dir + "type", typeBuffer, ProbeStats.THERMAL);
+            String type = length > 0 ? new String(typeBuffer, 0, length).trim().toLowerCase(Locale.US) : "";
+            if (type.contains("cpu") || type.contains("tsens") || type.contains("soc")) {
+                cpuZones.add(dir + "temp");
+            } else if (!type.contains("battery") && !type.contains("bms")) {
+                otherZones.add(dir + "temp");
+            }
+        }
+        return cpuZones.isEmpty() ? otherZones : cpuZones;
+    }
+}
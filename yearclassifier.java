@@ -0,0 +1,174 @@
+package deviceinfo;
+
+import java.util.Arrays;
+
+/**
+ * The year class as a pure function of a {@link DeviceSpec} and a rule table: the same dimensions and
+ * the same arithmetic {@link DeviceInfo} applies to the snapshot of the running device, so a spec
+ * reported by a device classifies on a server exactly as it did on the device.
+ * <p/>
+ * A classifier holds no state besides the rules and may be shared between threads. Example usage:
+ * <p/>
+ * <pre>
+ *   YearClassifier classifier = new YearClassifier(YearClassRules.parse(in));
+ *   DeviceSpec spec = new DeviceSpec().setCores(8).setMaxFreqKHz(2841600).setTotalRamBytes(7700000000L)
+ *           .addCluster(4, 1804800, 325).addCluster(3, 2419200, 828).addCluster(1, 2841600, 1024);
+ *   int year = classifier.classify(spec);
+ *   String category = YearClassifier.classOf(year);
+ * </pre>
+ * This class does not depend on Android.
+ */
+public final class YearClassifier {
+    private static final long MB = 1024 * 1024;
+    private static final int MHZ_IN_KHZ = 1000;
+
+    private final YearClassRules rules;
+
+    public YearClassifier(YearClassRules rules) {
+        if (rules == null) throw new NullPointerException("rules");
+        this.rules = rules;
+    }
+
+    public YearClassRules getRules() {
+        return rules;
+    }
+
+    /**
+     * @return The year when a device of this spec would have been considered top-of-the-line, or
+     * CLASS_UNKNOWN = -1 if nothing about it is known.
+     */
+    public int classify(DeviceSpec spec) {
+        return classify(spec, new int[YearClassRules.DIMENSIONS]);
+    }
+
+    /**
+     * Same as {@link #classify(DeviceSpec)} with the caller's array for the per-dimension years, so
+     * that classifying many specs does not allocate.
+     *
+     * @param years - At least {@link YearClassRules#DIMENSIONS} long, overwritten.
+     */
+    public int classify(DeviceSpec spec, int[] years) {
+        Arrays.fill(years, 0, YearClassRules.DIMENSIONS, YearClassRules.CLASS_UNKNOWN);
+        years[YearClassRules.CLOCK_KHZ] = getClockSpeedYear(spec);
+        years[YearClassRules.RAM_MB] = getRamYear(spec);
+        years[YearClassRules.CORES] = getNumCoresYear(spec);
+        years[YearClassRules.CAPACITY_MHZ] = getCapacityYear(spec);
+        if (spec.gles > 0) years[YearClassRules.GPU_GLES] = rules.yearOf(YearClassRules.GPU_GLES, spec.gles);
+        years[YearClassRules.STORAGE_MBPS] = rules.yearOf(YearClassRules.STORAGE_MBPS, spec.storageWriteMBps);
+        years[YearClassRules.MEASURED_INT_MOPS] = rules.yearOf(YearClassRules.MEASURED_INT_MOPS, spec.intMops);
+        years[YearClassRules.MEASURED_FLOAT_MFLOPS] =
+                rules.yearOf(YearClassRules.MEASURED_FLOAT_MFLOPS, spec.floatMflops);
+        years[YearClassRules.MEASURED_BANDWIDTH_MBPS] =
+                rules.yearOf(YearClassRules.MEASURED_BANDWIDTH_MBPS, spec.bandwidthMBps);
+        years[YearClassRules.MEASURED_LOADS_PER_US] =
+                rules.yearOf(YearClassRules.MEASURED_LOADS_PER_US, spec.loadsPerMicro);
+        years[YearClassRules.MEASURED_SCALING_PCT] =
+                rules.yearOf(YearClassRules.MEASURED_SCALING_PCT, spec.scalingPercent);
+        years[YearClassRules.CORE_PART] = rules.yearOf(YearClassRules.CORE_PART, spec.corePart);
+        // GKB: Overall device year is the weighted average of the individual years, rounded down.
+        return rules.combine(years);
+    }
+
+    /**
+     * @return LOW up to 2011, MEDIUM up to 2014, HIGH after, or an empty string before 2008 and for
+     * CLASS_UNKNOWN.
+     */
+    public static String classOf(int year) {
+        if (year < 2008) return "";
+        if (year <= 2011) return "LOW";
+        if (year <= 2014) return "MEDIUM";
+        return "HIGH";
+    }
+
+    /**
+     * Cores of big.LITTLE specs count for the share of a big core they deliver.
+     */
+    private int getNumCoresYear(DeviceSpec spec) {
+        int cores = spec.cores;
+        if (cores < 1) return YearClassRules.CLASS_UNKNOWN;
+        if (spec.clusterCount > 1) {
+            cores = Math.max(1, Math.round(getEffectiveCoreCount(spec)));
+        }
+        return rules.yearOf(YearClassRules.CORES, cores);
+    }
+
+    /**
+     * A big.LITTLE spec is rated on the clock of its big cluster. The other clusters run lower by
+     * design, so weighting them in held back the year of every SoC with little cores.
+     */
+    private int getClockSpeedYear(DeviceSpec spec) {
+        long clockSpeedKHz = spec.maxFreqKHz;
+        if (clockSpeedKHz == DeviceInfo.DEVICEINFO_UNKNOWN) return YearClassRules.CLASS_UNKNOWN;
+
+        if (spec.clusterCount > 1) {
+            int big = getBigCluster(spec, getClusterMaxFreqKHz(spec));
+            if (big >= 0 && spec.clusterMaxFreqKHz[big] > 0) {
+                return rules.yearOf(YearClassRules.CLOCK_KHZ, spec.clusterMaxFreqKHz[big]);
+            }
+        }
+
+        // GKB: Clock speed dropped when core count was upped to 8 so factor this into the calc.
+        return rules.yearOf(spec.cores < 8 ? YearClassRules.CLOCK_KHZ : YearClassRules.CLOCK_KHZ_OCTA,
+                clockSpeedKHz);
+    }
+
+    /**
+     * The capacity-weighted core count times the clock of the biggest cluster.
+     */
+    private int getCapacityYear(DeviceSpec spec) {
+        int big = getBigCluster(spec, getClusterMaxFreqKHz(spec));
+        if (big < 0 || spec.clusterMaxFreqKHz[big] <= 0) return YearClassRules.CLASS_UNKNOWN;
+        float cores = getEffectiveCoreCount(spec);
+        if (cores <= 0) return YearClassRules.CLASS_UNKNOWN;
+        return rules.yearOf(YearClassRules.CAPACITY_MHZ,
+                Math.round(cores * spec.clusterMaxFreqKHz[big] / MHZ_IN_KHZ));
+    }
+
+    private int getRamYear(DeviceSpec spec) {
+        long totalRam = spec.totalRamBytes;
+        if (totalRam <= 0) return YearClassRules.CLASS_UNKNOWN;
+        // Round up, the bounds are inclusive.
+        return rules.yearOf(YearClassRules.RAM_MB, (totalRam + MB - 1) / MB);
+    }
+
+    // The cluster math of CpuTopology, over the arrays of the spec.
+
+    private static int getClusterMaxFreqKHz(DeviceSpec spec) {
+        int max = DeviceInfo.DEVICEINFO_UNKNOWN;
+        for (int i = 0; i < spec.clusterCount; i++) {
+            if (spec.clusterMaxFreqKHz[i] > max) max = spec.clusterMaxFreqKHz[i];
+        }
+        return max;
+    }
+
+    private static int getEffectiveCapacity(DeviceSpec spec, int cluster, int maxFreqKHz) {
+        if (spec.clusterCapacity[cluster] > 0) return spec.clusterCapacity[cluster];
+        if (maxFreqKHz <= 0 || spec.clusterMaxFreqKHz[cluster] <= 0) return 0;
+        return (int) ((long) spec.clusterMaxFreqKHz[cluster] * CpuTopology.CAPACITY_SCALE / maxFreqKHz);
+    }
+
+    private static int getBigCluster(DeviceSpec spec, int maxFreqKHz) {
+        int big = -1;
+        int bigCapacity = -1;
+        for (int i = 0; i < spec.clusterCount; i++) {
+            int capacity = getEffectiveCapacity(spec, i, maxFreqKHz);
+            if (capacity > bigCapacity) {
+                big = i;
+                bigCapacity = capacity;
+            }
+        }
+        return big;
+    }
+
+    private static float getEffectiveCoreCount(DeviceSpec spec) {
+        int maxFreqKHz = getClusterMaxFreqKHz(spec);
+        int big = getBigCluster(spec, maxFreqKHz);
+        int bigCapacity = big < 0 ? 0 : getEffectiveCapacity(spec, big, maxFreqKHz);
+        if (bigCapacity <= 0) return spec.cores;
+        float cores = 0;
+        for (int i = 0; i < spec.clusterCount; i++) {
+            cores += spec.clusterCores[i] * (float) getEffectiveCapacity(spec, i, maxFreqKHz) / bigCapacity;
+        }
+        return cores;
+    }
+}
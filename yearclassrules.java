@@ -0,0 +1,351 @@
+package deviceinfo;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+
+/**
+ * The cut-offs that turn a measured value (clock speed, RAM, ...) into the year whose flagships had
+ * that value. They ship as the {@code yearclass_rules.txt} resource and can be replaced by a newer
+ * table without a code change. The text is parsed once into sorted primitive arrays per dimension
+ * and looked up by binary search.
+ * <p/>
+ * Format, one directive per line, {@code #} starts a comment:
+ * <pre>
+ *   version 2
+ *   dimension ram_mb 2            # name, weight, optional "fallback"
+ *   192 2008                      # upper bound (inclusive) and year, ascending
+ *   290 2009
+ *   above 2025                    # year for values above the last bound
+ * </pre>
+ * Bounds may be written in hex with a {@code 0x} prefix. A year of -1 leaves the values up to its
+ * bound unknown, for gaps in the {@code core_part} ranges.
+ * Dimensions this code does not know are skipped, so a newer table still loads in an older library.
+ * The overall year is the weighted average of the known dimension years with a weight above 0;
+ * fallback dimensions are only used when none of those is known.
+ * <p/>
+ * This class does not depend on Android so that the same rules can be evaluated on a server.
+ */
+public final class YearClassRules {
+    public static final int CLASS_UNKNOWN = -1;
+
+    /**
+     * Max clock of a core in kHz, rated per cluster on big.LITTLE CPUs.
+     */
+    public static final int CLOCK_KHZ = 0;
+    /**
+     * Max clock in kHz of a homogeneous CPU with 8 or more cores.
+     */
+    public static final int CLOCK_KHZ_OCTA = 1;
+    /**
+     * Total RAM in MB.
+     */
+    public static final int RAM_MB = 2;
+    /**
+     * Capacity-weighted core count.
+     */
+    public static final int CORES = 3;
+    /**
+     * Capacity-weighted core count times the big cluster's max clock in MHz, a proxy for
+     * multi-core throughput.
+     */
+    public static final int CAPACITY_MHZ = 4;
+    /**
+     * Sequential write speed of the data partition in MB/s.
+     */
+    public static final int STORAGE_MBPS = 5;
+    /**
+     * GPU hint supplied by the app, OpenGL ES version as major * 10 + minor.
+     */
+    public static final int GPU_GLES = 6;
+    /**
+     * Measured integer loop, millions of iterations per second on one core.
+     */
+    public static final int MEASURED_INT_MOPS = 7;
+    /**
+     * Measured floating point loop, millions of iterations per second on one core.
+     */
+    public static final int MEASURED_FLOAT_MFLOPS = 8;
+    /**
+     * Measured sequential memory read bandwidth of one core in MB/s.
+     */
+    public static final int MEASURED_BANDWIDTH_MBPS = 9;
+    /**
+     * Measured dependent memory loads per microsecond, the inverse of the latency.
+     */
+    public static final int MEASURED_LOADS_PER_US = 10;
+    /**
+     * Measured all-core integer throughput relative to one core, in percent.
+     */
+    public static final int MEASURED_SCALING_PCT = 11;
+    /**
+     * Core design of the big cluster, {@code implementer << 12 | part} from its MIDR, such as
+     * 0x41d44 for a Cortex-X1. Unlike the clock and {@code cpu_capacity}, which is relative to the
+     * biggest core of the same SoC, it tells the flagship generations since 2018 apart.
+     */
+    public static final int CORE_PART = 12;
+
+    public static final int DIMENSIONS = 13;
+
+    private static final String[] NAMES = {
+            "clock_khz", "clock_khz_octa", "ram_mb", "cores", "capacity_mhz", "storage_mbps", "gpu_gles",
+            "measured_int_mops", "measured_float_mflops", "measured_bandwidth_mbps", "measured_loads_per_us",
+            "measured_scaling_pct", "core_part"
+    };
+
+    /**
+     * Resource name, also the file name an updated table is installed under.
+     */
+    public static final String RESOURCE = "yearclass_rules.txt";
+
+    private static volatile YearClassRules sDefault;
+
+    private final int version;
+    private final long[][] bounds = new long[DIMENSIONS][];
+    private final int[][] years = new int[DIMENSIONS][];
+    private final int[] above = new int[DIMENSIONS];
+    private final int[] weights = new int[DIMENSIONS];
+    private final boolean[] fallback = new boolean[DIMENSIONS];
+
+    private YearClassRules(int version) {
+        this.version = version;
+        Arrays.fill(above, CLASS_UNKNOWN);
+    }
+
+    /**
+     * @return The bundled table, or the built-in version 1 table (the original hard-coded cut-offs)
+     * if the resource is missing or broken.
+     */
+    public static YearClassRules getDefault() {
+        YearClassRules rules = sDefault;
+        if (rules == null) {
+            synchronized (YearClassRules.class) {
+                rules = sDefault;
+                if (rules == null) {
+                    rules = loadResource();
+                    sDefault = rules;
+                }
+            }
+        }
+        return rules;
+    }
+
+    /**
+     * Replaces the default table, for example with one downloaded by the app.
+     */
+    public static void setDefault(YearClassRules rules) {
+        sDefault = rules;
+    }
+
+    /**
+     * Loads a table installed as a file, if it is newer than the default one.
+     *
+     * @return true if the file was loaded and is now the default.
+     */
+    public static boolean installIfNewer(File file) {
+        if (!file.isFile()) return false;
+        try {
+            InputStream in = new FileInputStream(file);
+            try {
+                YearClassRules rules = parse(in);
+                if (rules.version <= getDefault().version) return false;
+                setDefault(rules);
+                return true;
+            } finally {
+                in.close();
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Parses a table in the format described above.
+     *
+     * @throws IllegalArgumentException on a malformed or unordered table.
+     */
+    public static YearClassRules parse(InputStream in) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+        YearClassRules rules = null;
+        int dimension = -2; // -2 = before the first dimension, -1 = skipping an unknown one
+        long[] rowBounds = new long[32];
+        int[] rowYears = new int[32];
+        int rows = 0;
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            int comment = line.indexOf('#');
+            if (comment >= 0) line = line.substring(0, comment);
+            line = line.trim();
+            if (line.length() == 0) continue;
+            String[] tokens = line.split("\\s+");
+            try {
+                if (tokens[0].equals("version")) {
+                    if (rules != null) throw new IllegalArgumentException("Duplicate version");
+                    rules = new YearClassRules(Integer.parseInt(tokens[1]));
+                } else if (rules == null) {
+                    throw new IllegalArgumentException("The table must start with a version");
+                } else if (tokens[0].equals("dimension")) {
+                    if (dimension >= 0) rules.setRows(dimension, rowBounds, rowYears, rows);
+                    rows = 0;
+                    dimension = indexOf(tokens[1]);
+                    if (dimension >= 0) {
+                        rules.weights[dimension] = tokens.length > 2 ? Integer.parseInt(tokens[2]) : 1;
+                        rules.fallback[dimension] = tokens.length > 3 && tokens[3].equals("fallback");
+                    }
+                } else if (tokens[0].equals("above")) {
+                    if (dimension >= 0) rules.above[dimension] = Integer.parseInt(tokens[1]);
+                } else if (dimension >= 0) {
+                    if (rows == rowBounds.length) {
+                        rowBounds = Arrays.copyOf(rowBounds, rows * 2);
+                        rowYears = Arrays.copyOf(rowYears, rows * 2);
+                    }
+                    rowBounds[rows] = tokens[0].startsWith("0x") ? Long.parseLong(tokens[0].substring(2), 16)
+                            : Long.parseLong(tokens[0]);
+                    rowYears[rows] = Integer.parseInt(tokens[1]);
+                    if (rows > 0 && rowBounds[rows] <= rowBounds[rows - 1]) {
+                        throw new IllegalArgumentException("Bounds must ascend");
+                    }
+                    rows++;
+                } else if (dimension == -2) {
+                    throw new IllegalArgumentException("Row outside of a dimension");
+                }
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                throw new IllegalArgumentException("Malformed line " + lineNumber + ": " + line);
+            }
+        }
+        if (rules == null) throw new IllegalArgumentException("Empty table");
+        if (dimension >= 0) rules.setRows(dimension, rowBounds, rowYears, rows);
+        return rules;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * @return true if the table has rows for the dimension.
+     */
+    public boolean hasDimension(int dimension) {
+        return bounds[dimension] != null;
+    }
+
+    public int getWeight(int dimension) {
+        return weights[dimension];
+    }
+
+    public boolean isFallback(int dimension) {
+        return fallback[dimension];
+    }
+
+    /**
+     * @param value - The measured value, in the dimension's unit.
+     * @return The year of the first bound that is at least value, or CLASS_UNKNOWN = -1 for a
+     * negative value or a dimension the table does not have.
+     */
+    public int yearOf(int dimension, long value) {
+        long[] b = bounds[dimension];
+        if (b == null || value < 0) return CLASS_UNKNOWN;
+        int low = 0;
+        int high = b.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (b[mid] < value) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low < b.length ? years[dimension][low] : above[dimension];
+    }
+
+    /**
+     * Weighted average of per-dimension years, rounded down like the original integer average.
+     *
+     * @param dimensionYears - Year per dimension, CLASS_UNKNOWN for the ones not measured.
+     * @return The overall year, or CLASS_UNKNOWN if no dimension is known.
+     */
+    public int combine(int[] dimensionYears) {
+        long sum = 0;
+        long weight = 0;
+        for (int d = 0; d < DIMENSIONS; d++) {
+            if (dimensionYears[d] > CLASS_UNKNOWN && !fallback[d] && weights[d] > 0) {
+                sum += (long) dimensionYears[d] * weights[d];
+                weight += weights[d];
+            }
+        }
+        if (weight == 0) {
+            // Fall back to the dimensions that are only used if nothing else is available.
+            for (int d = 0; d < DIMENSIONS; d++) {
+                if (dimensionYears[d] > CLASS_UNKNOWN && fallback[d]) {
+                    int w = Math.max(1, weights[d]);
+                    sum += (long) dimensionYears[d] * w;
+                    weight += w;
+                }
+            }
+        }
+        return weight == 0 ? CLASS_UNKNOWN : (int) (sum / weight);
+    }
+
+    public static String getName(int dimension) {
+        return NAMES[dimension];
+    }
+
+    private static int indexOf(String name) {
+        for (int i = 0; i < NAMES.length; i++) {
+            if (NAMES[i].equals(name)) return i;
+        }
+        return -1;
+    }
+
+    private void setRows(int dimension, long[] rowBounds, int[] rowYears, int rows) {
+        bounds[dimension] = Arrays.copyOf(rowBounds, rows);
+        years[dimension] = Arrays.copyOf(rowYears, rows);
+    }
+
+    private static YearClassRules loadResource() {
+        InputStream in = YearClassRules.class.getResourceAsStream(RESOURCE);
+        if (in != null) {
+            try {
+                try {
+                    return parse(in);
+                } finally {
+                    in.close();
+                }
+            } catch (IOException | IllegalArgumentException e) {
+                //Fall through to the built-in table.
+            }
+        }
+        return legacy();
+    }
+
+    /**
+     * The cut-offs DeviceInfo had hard-coded before the table existed. The clock ones include 20MHz
+     * of "slop" because a "1.5GHz" Galaxy S3 reports 1512000.
+     */
+    private static YearClassRules legacy() {
+        YearClassRules rules = new YearClassRules(1);
+        long mhz = 1000;
+        rules.setRows(CLOCK_KHZ, new long[]{528 * mhz, 620 * mhz, 1020 * mhz, 1220 * mhz, 1520 * mhz, 2020 * mhz,
+                2200 * mhz}, new int[]{2008, 2009, 2010, 2011, 2012, 2014, 2016}, 7);
+        rules.above[CLOCK_KHZ] = 2017;
+        rules.weights[CLOCK_KHZ] = 1;
+        rules.setRows(CLOCK_KHZ_OCTA, new long[]{1520 * mhz}, new int[]{2015}, 1);
+        rules.above[CLOCK_KHZ_OCTA] = 2016;
+        rules.weights[CLOCK_KHZ_OCTA] = 1;
+        rules.setRows(RAM_MB, new long[]{192, 290, 512, 1024, 1536, 2048, 4096},
+                new int[]{2008, 2009, 2010, 2011, 2012, 2015, 2016}, 7);
+        rules.above[RAM_MB] = 2017;
+        rules.weights[RAM_MB] = 1;
+        rules.setRows(CORES, new long[]{1, 3, 4}, new int[]{2008, 2015, 2016}, 3);
+        rules.above[CORES] = 2017;
+        rules.weights[CORES] = 1;
+        rules.fallback[CORES] = true;
+        return rules;
+    }
+}